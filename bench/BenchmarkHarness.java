@@ -0,0 +1,217 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * BenchmarkHarness.java
+ *
+ * A small micro-benchmark runner for the cafe classes.
+ *
+ * Each benchmark runs an operation in a tight loop on one or more
+ * threads for a fixed time, after warm-up iterations that let the JIT
+ * compile the hot path. For every measured iteration it records the
+ * number of operations completed and the bytes allocated by the worker
+ * threads, and reports the mean throughput, its spread, the average
+ * time per operation and the allocation per operation.
+ */
+public class BenchmarkHarness {
+
+    /**
+     * The code being measured. The returned value is folded into a sink
+     * so the JIT cannot discard the work as unused.
+     */
+    public interface Operation {
+        long run(int thread);
+    }
+
+    private final int warmupIterations;
+    private final int measuredIterations;
+    private final long iterationMillis;
+
+    /** Receives every operation's result; read once so it stays live. */
+    private volatile long sink;
+
+    /** Set by the timer thread to end the current iteration. */
+    private volatile boolean stop;
+
+    /**
+     * Creates a harness.
+     *
+     * @param warmupIterations   iterations run before measuring
+     * @param measuredIterations iterations that are measured
+     * @param iterationMillis    length of each iteration
+     */
+    public BenchmarkHarness(int warmupIterations, int measuredIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measuredIterations = measuredIterations;
+        this.iterationMillis = iterationMillis;
+    }
+
+    /**
+     * Runs one benchmark and prints its result line.
+     *
+     * @param name    the benchmark name
+     * @param threads the number of threads running the operation at once
+     * @param op      the operation to measure
+     * @return the measured result
+     */
+    public Result run(String name, int threads, Operation op) {
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(threads, op);
+        }
+
+        double[] opsPerSec = new double[measuredIterations];
+        long totalOps = 0;
+        long totalBytes = 0;
+        for (int i = 0; i < measuredIterations; i++) {
+            long[] counts = iteration(threads, op);
+            opsPerSec[i] = counts[0] * 1000.0 / iterationMillis;
+            totalOps += counts[0];
+            totalBytes += counts[1];
+        }
+
+        Result result = new Result(name, threads, opsPerSec, totalOps, totalBytes, iterationMillis);
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * Prints the column headings for the result lines.
+     */
+    public static void printHeader() {
+        System.out.printf("%-48s %7s %17s %12s %12s%n",
+                "Benchmark", "Threads", "ops/s", "ns/op", "B/op");
+    }
+
+    /**
+     * Runs one timed iteration on all threads.
+     *
+     * @return {operations completed, bytes allocated} across all threads
+     */
+    private long[] iteration(int threads, Operation op) {
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] ops = new long[threads];
+        long[] bytes = new long[threads];
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        stop = false;
+
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread(() -> {
+                long id = Thread.currentThread().threadId();
+                long local = 0;
+                long count = 0;
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long allocatedBefore = mx.getThreadAllocatedBytes(id);
+                while (!stop) {
+                    local += op.run(thread);
+                    count++;
+                }
+                bytes[thread] = mx.getThreadAllocatedBytes(id) - allocatedBefore;
+                ops[thread] = count;
+                sink += local;
+            }, "bench-" + t);
+            workers[t].start();
+        }
+
+        try {
+            ready.await();
+            go.countDown();
+            Thread.sleep(iterationMillis);
+            stop = true;
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Benchmark interrupted", e);
+        }
+
+        long totalOps = 0;
+        long totalBytes = 0;
+        for (int t = 0; t < threads; t++) {
+            totalOps += ops[t];
+            totalBytes += bytes[t];
+        }
+        return new long[] { totalOps, totalBytes };
+    }
+
+    /**
+     * Returns the folded results, so callers can keep the sink observable.
+     *
+     * @return the sink value
+     */
+    public long getSink() {
+        return sink;
+    }
+
+    /**
+     * Measured figures for one benchmark.
+     */
+    public static final class Result {
+        private final String name;
+        private final int threads;
+        private final double meanOpsPerSec;
+        private final double stdDevOpsPerSec;
+        private final double nanosPerOp;
+        private final double bytesPerOp;
+
+        Result(String name, int threads, double[] opsPerSec,
+               long totalOps, long totalBytes, long iterationMillis) {
+            this.name = name;
+            this.threads = threads;
+
+            double sum = 0.0;
+            for (double v : opsPerSec) {
+                sum += v;
+            }
+            this.meanOpsPerSec = sum / opsPerSec.length;
+
+            double squares = 0.0;
+            for (double v : opsPerSec) {
+                squares += (v - meanOpsPerSec) * (v - meanOpsPerSec);
+            }
+            this.stdDevOpsPerSec = Math.sqrt(squares / opsPerSec.length);
+
+            // Each thread is busy for the whole iteration
+            double busyNanos = (double) opsPerSec.length * iterationMillis * 1_000_000L * threads;
+            this.nanosPerOp = totalOps == 0 ? 0.0 : busyNanos / totalOps;
+            this.bytesPerOp = totalOps == 0 ? 0.0 : (double) totalBytes / totalOps;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public double getMeanOpsPerSec() {
+            return meanOpsPerSec;
+        }
+
+        public double getNanosPerOp() {
+            return nanosPerOp;
+        }
+
+        public double getBytesPerOp() {
+            return bytesPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-48s %7d %9.0f +-%4.1f%% %12.1f %12.1f",
+                    name, threads, meanOpsPerSec,
+                    meanOpsPerSec == 0 ? 0.0 : 100.0 * stdDevOpsPerSec / meanOpsPerSec,
+                    nanosPerOp, bytesPerOp);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HttpLoadTest.java
+ *
+ * Local load test for CafeHttpServer. Starts a cafe and its HTTP server
+ * in this JVM (or targets a running one with --url), then has many
+ * clients, each on its own virtual thread, place pay-on-creation orders
+ * as fast as the server answers. Every 50th request fetches the sales
+ * report instead. Prints throughput, latency percentiles and the count
+ * of each response status. Run with:
+ *
+ *   java -cp bin:bench-bin HttpLoadTest [--clients N] [--requests N]
+ *                                       [--journal dir] [--url http://host:port]
+ */
+public class HttpLoadTest {
+
+    /** One request in this many reads the sales report. */
+    private static final int REPORT_EVERY = 50;
+
+    private static final String ORDER_FORM = "item=coffee:1&item=shake:1&combo=1:1&payment=20.00";
+
+    public static void main(String[] args) throws Exception {
+        int clients = 2000;
+        int requests = 100_000;
+        String journalDir = null;
+        String url = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--clients":
+                    clients = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--requests":
+                    requests = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--journal":
+                    journalDir = args[i + 1];
+                    break;
+                case "--url":
+                    url = args[i + 1];
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        GeekCafe cafe = null;
+        SalesJournal journal = null;
+        CafeHttpServer server = null;
+        if (url == null) {
+            cafe = new GeekCafe();
+            journal = journalDir == null ? null : cafe.openJournal(Paths.get(journalDir));
+            // Plenty of muffins, so combos are not refused for stock
+            cafe.bake(Integer.MAX_VALUE / 2);
+            server = CafeHttpServer.start(cafe, 0);
+            url = "http://localhost:" + server.getPort();
+        }
+
+        try {
+            run(url, clients, requests);
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+
+    private static void run(String url, int clients, int requests) throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        HttpRequest order = HttpRequest.newBuilder(URI.create(url + "/orders"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(ORDER_FORM))
+                .build();
+        HttpRequest report = HttpRequest.newBuilder(URI.create(url + "/report")).GET().build();
+
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        AtomicLongArray statuses = new AtomicLongArray(600);   // Count per HTTP status; 0 = I/O failure
+
+        long start = System.nanoTime();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                pool.submit(() -> {
+                    int n;
+                    while ((n = next.getAndIncrement()) < requests) {
+                        HttpRequest request = n % REPORT_EVERY == 0 ? report : order;
+                        long sent = System.nanoTime();
+                        int status;
+                        try {
+                            status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                        } catch (IOException e) {
+                            status = 0;
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        latencies[n] = System.nanoTime() - sent;
+                        statuses.incrementAndGet(status);
+                    }
+                });
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        System.out.printf("%d requests from %d clients in %.2f s: %.0f requests/s%n",
+                requests, clients, elapsed / 1e9, requests * 1e9 / elapsed);
+        System.out.printf("latency ms  p50 %.2f  p90 %.2f  p99 %.2f  max %.2f%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.90),
+                percentile(latencies, 0.99), latencies[requests - 1] / 1e6);
+        for (int status = 0; status < statuses.length(); status++) {
+            if (statuses.get(status) > 0) {
+                System.out.println((status == 0 ? "I/O error" : "HTTP " + status) + ": " + statuses.get(status));
+            }
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, (long) (sorted.length * p))] / 1e6;
+    }
+}
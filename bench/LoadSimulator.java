@@ -0,0 +1,368 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LoadSimulator.java
+ *
+ * Capacity-planning simulator: how many tills can one GeekCafe serve, and
+ * at what arrival rate does latency collapse?
+ *
+ * Customers arrive as a Poisson process at a given rate. Each one's
+ * basket is drawn from a weighted mix of menu items and combos, and a
+ * given share of customers pay too little. Arrivals queue for N cashier
+ * threads, which all build orders against the same cafe (shared FoodItem,
+ * Combo and StockReservations instances), total them and take payment,
+ * optionally spending a fixed service time per order at the till.
+ *
+ * The load is open: customers keep arriving whether or not the tills
+ * keep up, and each latency is measured from the customer's scheduled
+ * arrival to the end of payment, so queueing delay is included and a
+ * saturated cafe shows up as exploding percentiles. Customers who find
+ * the queue full walk away and are counted as balked. The same seed gives
+ * the same customers, so runs differ only in the tills and rate.
+ *
+ * Every combination of the given till counts and rates is run on a fresh
+ * cafe and printed as one row: offered and achieved orders/s, latency
+ * percentiles, and the share of orders refused for stock, unpaid or
+ * balked. Run with:
+ *
+ *   java -cp bin:bench-bin LoadSimulator [--tills 1,2,4,8] [--rates 500,1000]
+ *        [--seconds N] [--mix coffee:4,shake:2,muffin:2,combo1:1,combo2:1]
+ *        [--lines N] [--underpay 0.02] [--service-ms N] [--muffins N]
+ *        [--autobake watermark] [--queue N] [--seed N]
+ */
+public class LoadSimulator {
+
+    /** Muffins baked per auto-bake batch, and how long a batch takes. */
+    private static final int AUTO_BAKE_BATCH = 50;
+    private static final long AUTO_BAKE_MILLIS = 20;
+
+    /** Longest an order waits for muffins while auto-baking. */
+    private static final long AUTO_BAKE_MAX_WAIT_MILLIS = 200;
+
+    /** Payment tendered on top of the total by customers who pay enough. */
+    private static final long TIP_CENTS = 500;
+
+    // Settings
+    private int[] tills = {1, 2, 4, 8};
+    private double[] rates = {1000};
+    private double seconds = 5;
+    private String mix = "coffee:4,shake:2,muffin:2,combo1:1,combo2:1";
+    private int maxLines = 3;
+    private double underpay = 0.02;
+    private double serviceMillis = 0;
+    private int muffins = 1_000_000;
+    private int autoBakeWatermark = -1;
+    private int queueSize = 100_000;
+    private long seed = 42;
+
+    /**
+     * A customer: when they arrive, what they order and whether they
+     * pay enough. Lines are indexes into the mix, each with a quantity.
+     */
+    private static final class Customer {
+        final long arrivalNanos;
+        final int[] choices;
+        final int[] qty;
+        final boolean paysShort;
+
+        Customer(long arrivalNanos, int[] choices, int[] qty, boolean paysShort) {
+            this.arrivalNanos = arrivalNanos;
+            this.choices = choices;
+            this.qty = qty;
+            this.paysShort = paysShort;
+        }
+    }
+
+    /** Outcome counts and latencies of one run. */
+    private static final class RunStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder completed = new LongAdder();
+        final LongAdder stockOuts = new LongAdder();
+        final LongAdder unpaid = new LongAdder();
+        long arrived;
+        long balked;
+        long elapsedNanos;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadSimulator simulator = new LoadSimulator();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--tills":
+                    simulator.tills = parseInts(value);
+                    break;
+                case "--rates":
+                    simulator.rates = parseDoubles(value);
+                    break;
+                case "--seconds":
+                    simulator.seconds = Double.parseDouble(value);
+                    break;
+                case "--mix":
+                    simulator.mix = value;
+                    break;
+                case "--lines":
+                    simulator.maxLines = Integer.parseInt(value);
+                    break;
+                case "--underpay":
+                    simulator.underpay = Double.parseDouble(value);
+                    break;
+                case "--service-ms":
+                    simulator.serviceMillis = Double.parseDouble(value);
+                    break;
+                case "--muffins":
+                    simulator.muffins = Integer.parseInt(value);
+                    break;
+                case "--autobake":
+                    simulator.autoBakeWatermark = Integer.parseInt(value);
+                    break;
+                case "--queue":
+                    simulator.queueSize = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    simulator.seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        simulator.sweep();
+    }
+
+    /**
+     * Runs every combination of till count and arrival rate.
+     */
+    private void sweep() throws InterruptedException {
+        System.out.printf("%5s %9s %9s %9s %9s %9s %9s %9s %8s %8s %8s%n",
+                "tills", "offered/s", "orders/s", "p50 ms", "p90 ms", "p99 ms", "p999 ms", "max ms",
+                "stockout", "unpaid", "balked");
+        for (int tillCount : tills) {
+            for (double rate : rates) {
+                RunStats stats = run(tillCount, rate);
+                print(tillCount, rate, stats);
+            }
+        }
+    }
+
+    // ----- One run -----
+
+    /**
+     * Serves one run's arrivals with the given number of tills on a
+     * fresh cafe.
+     */
+    private RunStats run(int tillCount, double rate) throws InterruptedException {
+        GeekCafe cafe = new GeekCafe();
+        cafe.bake(muffins);
+        if (autoBakeWatermark >= 0) {
+            cafe.startAutoBaker(autoBakeWatermark, AUTO_BAKE_BATCH, AUTO_BAKE_MILLIS, AUTO_BAKE_MAX_WAIT_MILLIS);
+        }
+        Menu menu = new Menu(cafe, mix);
+        RunStats stats = new RunStats();
+        BlockingQueue<Customer> queue = new ArrayBlockingQueue<>(queueSize);
+        Customer closed = new Customer(0, new int[0], new int[0], false);
+
+        Thread[] cashiers = new Thread[tillCount];
+        for (int t = 0; t < tillCount; t++) {
+            cashiers[t] = new Thread(() -> serve(cafe, menu, queue, closed, stats), "till-" + t);
+            cashiers[t].start();
+        }
+
+        long start = System.nanoTime();
+        generateArrivals(menu, rate, start, queue, stats);
+        for (int t = 0; t < tillCount; t++) {
+            queue.put(closed);
+        }
+        for (Thread cashier : cashiers) {
+            cashier.join();
+        }
+        stats.elapsedNanos = System.nanoTime() - start;
+        cafe.stopAutoBaker();
+        return stats;
+    }
+
+    /**
+     * Enqueues customers at their Poisson arrival times until the run's
+     * time is up. When the generator falls behind it catches up at once,
+     * keeping each customer's scheduled arrival time.
+     */
+    private void generateArrivals(Menu menu, double rate, long start,
+                                  BlockingQueue<Customer> queue, RunStats stats) {
+        Random random = new Random(seed);
+        long end = start + (long) (seconds * 1e9);
+        double meanGapNanos = 1e9 / rate;
+        double next = start;
+        while (true) {
+            next += -Math.log(1 - random.nextDouble()) * meanGapNanos;
+            long arrival = (long) next;
+            if (arrival >= end) {
+                return;
+            }
+            Customer customer = menu.customer(arrival, random, maxLines, underpay);
+            long wait = arrival - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            stats.arrived++;
+            if (!queue.offer(customer)) {
+                stats.balked++;
+            }
+        }
+    }
+
+    /**
+     * A cashier: takes customers from the queue until the run closes.
+     */
+    private void serve(GeekCafe cafe, Menu menu, BlockingQueue<Customer> queue,
+                       Customer closed, RunStats stats) {
+        long serviceNanos = (long) (serviceMillis * 1e6);
+        while (true) {
+            Customer customer;
+            try {
+                customer = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (customer == closed) {
+                return;
+            }
+
+            Order order = cafe.acquireOrder();
+            try {
+                if (!menu.addLines(order, customer)) {
+                    stats.stockOuts.increment();
+                    continue;
+                }
+                if (serviceNanos > 0) {
+                    LockSupport.parkNanos(serviceNanos);
+                }
+                long total = order.calculateTotalCents();
+                long payment = customer.paysShort ? total - 1 : total + TIP_CENTS;
+                if (cafe.completeOrder(order, payment) < 0) {
+                    stats.unpaid.increment();
+                    continue;
+                }
+                stats.completed.increment();
+            } finally {
+                cafe.releaseOrder(order);
+            }
+            stats.latency.record(System.nanoTime() - customer.arrivalNanos);
+        }
+    }
+
+    private void print(int tillCount, double rate, RunStats stats) {
+        LatencyHistogram latency = stats.latency;
+        long arrived = Math.max(1, stats.arrived);
+        System.out.printf("%5d %9.0f %9.0f %9.3f %9.3f %9.3f %9.3f %9.3f %7.2f%% %7.2f%% %7.2f%%%n",
+                tillCount, rate, stats.completed.sum() * 1e9 / stats.elapsedNanos,
+                millis(latency.getPercentile(0.50)), millis(latency.getPercentile(0.90)),
+                millis(latency.getPercentile(0.99)), millis(latency.getPercentile(0.999)),
+                millis(latency.getMax()),
+                100.0 * stats.stockOuts.sum() / arrived, 100.0 * stats.unpaid.sum() / arrived,
+                100.0 * stats.balked / arrived);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    // ----- Menu mix -----
+
+    /**
+     * The weighted choices customers pick their lines from: menu items by
+     * name and combos as combo1, combo2 ...
+     */
+    private static final class Menu {
+        final List<FoodItem> items = new ArrayList<>();   // Item of each choice, or null
+        final List<Combo> combos = new ArrayList<>();     // Combo of each choice, or null
+        final double[] cumulative;                        // Running weight total per choice
+
+        Menu(GeekCafe cafe, String mix) {
+            String[] entries = mix.split(",");
+            cumulative = new double[entries.length];
+            double sum = 0;
+            for (int i = 0; i < entries.length; i++) {
+                String[] parts = entries[i].trim().split(":");
+                String name = parts[0];
+                double weight = parts.length > 1 ? Double.parseDouble(parts[1]) : 1;
+                if (name.startsWith("combo")) {
+                    int number = Integer.parseInt(name.substring("combo".length()));
+                    items.add(null);
+                    combos.add(cafe.getCombos().get(number - 1));
+                } else {
+                    FoodItem item = cafe.getItem(name);
+                    if (item == null) {
+                        throw new IllegalArgumentException("Unknown item in mix: " + name);
+                    }
+                    items.add(item);
+                    combos.add(null);
+                }
+                sum += weight;
+                cumulative[i] = sum;
+            }
+        }
+
+        /**
+         * Draws a customer with 1 to maxLines lines of 1 to 3 each.
+         */
+        Customer customer(long arrival, Random random, int maxLines, double underpay) {
+            int lines = 1 + random.nextInt(maxLines);
+            int[] choices = new int[lines];
+            int[] qty = new int[lines];
+            double total = cumulative[cumulative.length - 1];
+            for (int l = 0; l < lines; l++) {
+                double pick = random.nextDouble() * total;
+                int c = 0;
+                while (cumulative[c] <= pick) {
+                    c++;
+                }
+                choices[l] = c;
+                qty[l] = 1 + random.nextInt(3);
+            }
+            return new Customer(arrival, choices, qty, random.nextDouble() < underpay);
+        }
+
+        /**
+         * Adds a customer's lines to an order.
+         *
+         * @return false if a line was refused for stock
+         */
+        boolean addLines(Order order, Customer customer) {
+            for (int l = 0; l < customer.choices.length; l++) {
+                int c = customer.choices[l];
+                boolean added = items.get(c) != null
+                        ? order.addItem(items.get(c), customer.qty[l])
+                        : order.addCombo(combos.get(c), customer.qty[l]);
+                if (!added) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // ----- Arguments -----
+
+    private static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static double[] parseDoubles(String list) {
+        String[] parts = list.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Double.parseDouble(parts[i].trim());
+        }
+        return values;
+    }
+}
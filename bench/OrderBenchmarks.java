@@ -0,0 +1,671 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * OrderBenchmarks.java
+ *
+ * Performance baseline for the ordering hot path:
+ * - Order.addItem, Order.addCombo, Order.calculateTotal, Order.finalizeOrder
+ *   for a small till order and a very large catering order
+ * - FoodItem.sell and Order.finalizeOrder on items shared by 1..N threads
+ * - Sales report generation
+ * - Bundle matching on a large order with many bundle definitions
+ * - GeekCafe.completeOrder with the hot-path metrics on and off
+ * - A whole till order cycle with new Orders and with pooled Orders,
+ *   with the garbage collections each caused
+ * - Tills finalizing their own orders versus a FinalizationPipeline
+ *   finalizing them in batches
+ * - A till's console output for one order through a PrintStream and
+ *   through a ConsoleOutput
+ * - Tills at one store versus tills at separate stores of a CafeChain,
+ *   and the chain-wide report over hundreds of stores
+ * - Item lookup and type-ahead search in a large catalog
+ * - Saving and loading a CafeStateFile image of a large catalog
+ * - SalesLedger queries over tens of millions of sale rows (needs a
+ *   heap of about 1 GB, e.g. -Xmx1g)
+ *
+ * Every result line shows throughput, time per operation and bytes
+ * allocated per operation, so a change to these classes can be judged
+ * by measured numbers. Run with:
+ *
+ *   java -cp bin:bench-bin OrderBenchmarks [--threads N] [--quick]
+ */
+public class OrderBenchmarks {
+
+    /** Lines in a typical till order. */
+    private static final int SMALL_ORDER = 3;
+
+    /** Lines in a very large catering order. */
+    private static final int LARGE_ORDER = 1000;
+
+    /** Sale rows in the ledger benchmarks: 5 per order. */
+    private static final int LEDGER_ROWS = 20_000_000;
+
+    /** Items in the catalog and state file benchmarks' catalog. */
+    private static final int CATALOG_ITEMS = 20_000;
+
+    /** Enough muffins that the benchmarks never run out. */
+    private static final int UNLIMITED_STOCK = Integer.MAX_VALUE / 2;
+
+    private final BenchmarkHarness harness;
+    private final int maxThreads;
+
+    public OrderBenchmarks(BenchmarkHarness harness, int maxThreads) {
+        this.harness = harness;
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Runs the whole suite.
+     *
+     * @param args "--threads N" to change the largest thread count,
+     *             "--quick" for short iterations while developing
+     */
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean quick = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--quick")) {
+                quick = true;
+            }
+        }
+
+        BenchmarkHarness harness = quick
+                ? new BenchmarkHarness(1, 2, 200)
+                : new BenchmarkHarness(5, 5, 1000);
+        OrderBenchmarks suite = new OrderBenchmarks(harness, threads);
+
+        BenchmarkHarness.printHeader();
+        suite.orderBenchmarks(SMALL_ORDER);
+        suite.orderBenchmarks(LARGE_ORDER);
+        suite.sharedItemBenchmarks();
+        suite.reportBenchmark();
+        suite.bundleBenchmark(LARGE_ORDER / 4, 36);
+        suite.metricsBenchmarks();
+        suite.poolBenchmarks();
+        suite.leaseBenchmarks();
+        suite.finalizationBenchmarks();
+        suite.consoleBenchmarks();
+        suite.chainBenchmarks();
+        suite.catalogBenchmarks();
+        suite.stateFileBenchmarks();
+        suite.ledgerBenchmarks();
+        System.out.println("(sink " + harness.getSink() + ")");
+    }
+
+    // ----- Single order -----
+
+    /**
+     * Benchmarks building, totalling and finalizing an order of the given
+     * size, and building it with the total shown after every line.
+     */
+    private void orderBenchmarks(int lines) {
+        Menu menu = new Menu(lines);
+
+        harness.run("Order.addItem (" + lines + " lines)", 1, t -> {
+            Order order = new Order();
+            for (FoodItem item : menu.items) {
+                order.addItem(item, 2);
+            }
+            return order.getMuffinsOrderedSoFar();
+        });
+
+        harness.run("Order.addCombo (" + lines + " lines)", 1, t -> {
+            Order order = new Order();
+            for (Combo combo : menu.combos) {
+                order.addCombo(combo, 1);
+            }
+            return order.getMuffinsOrderedSoFar();
+        });
+
+        Order built = menu.fullOrder();
+        harness.run("Order.calculateTotal (" + lines + "+" + lines + " lines)", 1,
+                t -> built.calculateTotalCents());
+
+        harness.run("Order re-quoted per line (" + lines + " lines)", 1, t -> {
+            Order order = new Order();
+            long total = 0;
+            for (FoodItem item : menu.items) {
+                order.addItem(item, 2);
+                total = order.calculateTotalCents();   // Shown after every line
+            }
+            return total;
+        });
+
+        Order finalized = menu.fullOrder();
+        harness.run("Order.finalizeOrder (" + lines + "+" + lines + " lines)", 1, t -> {
+            finalized.finalizeOrder();
+            return 1;
+        });
+    }
+
+    // ----- Shared items -----
+
+    /**
+     * Benchmarks sales on items shared by 1, 2, 4 ... maxThreads tills.
+     * The plain FoodItem loses updates under contention and is listed
+     * only as the single-thread cost baseline.
+     */
+    private void sharedItemBenchmarks() {
+        for (int threads : threadCounts()) {
+            FoodItem plain = new FoodItem("Coffee", 2.50, 0);
+            harness.run("FoodItem.sell (shared, unsafe)", threads, t -> {
+                plain.sell(1);
+                return 1;
+            });
+
+            FoodItem concurrent = new ConcurrentFoodItem("Coffee", 2.50, 0);
+            harness.run("ConcurrentFoodItem.sell (shared)", threads, t -> {
+                concurrent.sell(1);
+                return 1;
+            });
+
+            Menu menu = new Menu(SMALL_ORDER);
+            Order[] orders = new Order[threads];
+            for (int i = 0; i < threads; i++) {
+                orders[i] = menu.fullOrder();
+            }
+            harness.run("Order.finalizeOrder (shared items)", threads, t -> {
+                orders[t].finalizeOrder();
+                return 1;
+            });
+        }
+    }
+
+    // ----- Reporting -----
+
+    /**
+     * Benchmarks building the sales report after some sales.
+     */
+    private void reportBenchmark() {
+        GeekCafe cafe = new GeekCafe();
+        Order order = cafe.newOrder();
+        order.addItem(cafe.getItem("coffee"), 3);
+        order.addCombo(cafe.getCombos().get(0), 2);
+        cafe.completeOrder(order, Money.parse("100"));
+
+        harness.run("GeekCafe.salesReport", 1, t -> cafe.salesReport().length());
+    }
+
+    // ----- Bundles -----
+
+    /**
+     * Benchmarks matching bundles on an order with the given number of
+     * item lines. Bundles of 2 to 4 items are spread over the menu so
+     * that neighbouring bundles share items and compete for them.
+     */
+    private void bundleBenchmark(int lines, int bundleCount) {
+        Menu menu = new Menu(lines);
+        List<Bundle> bundles = new ArrayList<>();
+        for (int b = 0; b < bundleCount; b++) {
+            List<FoodItem> items = new ArrayList<>();
+            List<Integer> qty = new ArrayList<>();
+            int size = 2 + b % 3;
+            for (int k = 0; k < size; k++) {
+                items.add(menu.items.get((b * 3 + k * 2) % lines));
+                qty.add(1 + (b + k) % 3);
+            }
+            bundles.add(new Bundle("Bundle " + b, items, qty, 0.75 + (b % 5) * 0.5));
+        }
+        BundleMatcher matcher = new BundleMatcher(bundles);
+
+        Order order = new Order();
+        for (int i = 0; i < lines; i++) {
+            order.addItem(menu.items.get(i), 1 + i % 6);
+        }
+        harness.run("BundleMatcher.match (" + lines + " lines, " + bundleCount + " bundles)", 1,
+                t -> matcher.match(order).length);
+    }
+
+    // ----- Metrics -----
+
+    /**
+     * Benchmarks completing a small paid order through the cafe with the
+     * latency metrics recording and switched off, to show their cost.
+     */
+    private void metricsBenchmarks() {
+        for (boolean enabled : new boolean[]{true, false}) {
+            GeekCafe cafe = new GeekCafe();
+            cafe.getMetrics().setEnabled(enabled);
+            FoodItem coffee = cafe.getItem("coffee");
+            FoodItem shake = cafe.getItem("shake");
+            long payment = Money.parse("100");
+            harness.run("GeekCafe.completeOrder (metrics " + (enabled ? "on" : "off") + ")", 1, t -> {
+                Order order = cafe.newOrder();
+                order.addItem(coffee, 2);
+                order.addItem(shake, 1);
+                return cafe.completeOrder(order, payment);
+            });
+        }
+    }
+
+    // ----- Order pooling -----
+
+    /**
+     * Benchmarks a till's whole order cycle - start an order, add items
+     * and a combo, total, finalize - on 1, 2, 4 ... maxThreads tills,
+     * once with a new Order per customer and once with each till reusing
+     * its Order through an OrderPool. Each result is followed by the
+     * garbage collections that happened while it ran.
+     */
+    private void poolBenchmarks() {
+        for (int threads : threadCounts()) {
+            Menu menu = new Menu(SMALL_ORDER);
+            StockReservations reservations = new StockReservations();
+            FoodItem muffin = menu.items.get(0);
+            FoodItem drink = menu.items.get(1);
+            Combo combo = menu.combos.get(0);
+
+            withGcCounts(() -> harness.run("Order cycle (new Order)", threads, t -> {
+                Order order = new Order(reservations);
+                return tillCycle(order, muffin, drink, combo);
+            }));
+
+            OrderPool pool = new OrderPool(reservations);
+            withGcCounts(() -> harness.run("Order cycle (OrderPool)", threads, t -> {
+                Order order = pool.acquire();
+                long total = tillCycle(order, muffin, drink, combo);
+                pool.release(order);
+                return total;
+            }));
+        }
+    }
+
+    private static long tillCycle(Order order, FoodItem muffin, FoodItem drink, Combo combo) {
+        order.addItem(drink, 2);
+        order.addItem(muffin, 1);
+        order.addCombo(combo, 1);
+        long total = order.calculateTotalCents();
+        order.finalizeOrder();
+        return total;
+    }
+
+    /**
+     * Runs a benchmark and prints the collections and collection time
+     * of every garbage collector during it.
+     */
+    private static void withGcCounts(Runnable benchmark) {
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        long[] counts = new long[collectors.size()];
+        long[] millis = new long[collectors.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = collectors.get(i).getCollectionCount();
+            millis[i] = collectors.get(i).getCollectionTime();
+        }
+        benchmark.run();
+        StringBuilder line = new StringBuilder("    GC:");
+        for (int i = 0; i < counts.length; i++) {
+            GarbageCollectorMXBean gc = collectors.get(i);
+            line.append(' ').append(gc.getName()).append(' ')
+                    .append(gc.getCollectionCount() - counts[i]).append(" collections ")
+                    .append(gc.getCollectionTime() - millis[i]).append(" ms;");
+        }
+        System.out.println(line);
+    }
+
+    // ----- Hold expiry -----
+
+    /**
+     * Benchmarks the pooled order cycle on 1, 2, 4 ... maxThreads tills
+     * with muffin holds that never expire and with holds on a running
+     * LeaseWheel, then times the wheel expiring 50,000 abandoned orders
+     * in one pass of its buckets.
+     */
+    private void leaseBenchmarks() {
+        for (int threads : threadCounts()) {
+            Menu menu = new Menu(SMALL_ORDER);
+            FoodItem muffin = menu.items.get(0);
+            FoodItem drink = menu.items.get(1);
+            Combo combo = menu.combos.get(0);
+
+            OrderPool plain = new OrderPool(new StockReservations());
+            harness.run("Order cycle (holds never expire)", threads, t -> {
+                Order order = plain.acquire();
+                long total = tillCycle(order, muffin, drink, combo);
+                plain.release(order);
+                return total;
+            });
+
+            StockReservations leased = new StockReservations();
+            LeaseWheel wheel = new LeaseWheel(LeaseWheel.DEFAULT_TTL_MILLIS).start();
+            leased.setLeaseWheel(wheel);
+            OrderPool pool = new OrderPool(leased);
+            harness.run("Order cycle (LeaseWheel)", threads, t -> {
+                Order order = pool.acquire();
+                long total = tillCycle(order, muffin, drink, combo);
+                pool.release(order);
+                return total;
+            });
+            wheel.close();
+        }
+
+        int abandoned = 50_000;
+        long[] now = { 0 };
+        FoodItem muffin = new ConcurrentFoodItem("Muffin", 2.00, abandoned);
+        MenuCatalog.number(Collections.singletonList(muffin), Collections.emptyList());
+        StockReservations reservations = new StockReservations();
+        LeaseWheel wheel = new LeaseWheel(LeaseWheel.DEFAULT_TTL_MILLIS, LeaseWheel.DEFAULT_TICK_MILLIS,
+                () -> now[0]);
+        reservations.setLeaseWheel(wheel);
+        for (int i = 0; i < abandoned; i++) {
+            new Order(reservations).addItem(muffin, 1);
+        }
+        now[0] = LeaseWheel.DEFAULT_TTL_MILLIS + LeaseWheel.DEFAULT_TICK_MILLIS;
+        long start = System.nanoTime();
+        wheel.advance(now[0]);
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("    %d abandoned orders expired in %.1f ms, %d muffins available again%n",
+                wheel.getExpired(), elapsed / 1e6, reservations.available(muffin));
+    }
+
+    // ----- Batched finalization -----
+
+    /**
+     * Benchmarks completing orders on 1, 2, 4 ... maxThreads tills at one
+     * store, each till finalizing its own orders and then a
+     * FinalizationPipeline finalizing them in batches: tills waiting for
+     * each order's future, with no wait for a batch to fill and with the
+     * default wait, then tills serving the next customer at once while
+     * the pipeline catches up. Each pipeline result is followed by the
+     * average batch size.
+     */
+    private void finalizationBenchmarks() {
+        for (int threads : threadCounts()) {
+            GeekCafe perOrder = new GeekCafe(new Scanner(""));
+            perOrder.bake(UNLIMITED_STOCK);
+            harness.run("GeekCafe.completeOrder (per order)", threads, t -> chainOrder(perOrder));
+
+            for (long latency : new long[] { 0, FinalizationPipeline.DEFAULT_MAX_LATENCY_MICROS }) {
+                GeekCafe batched = new GeekCafe(new Scanner(""));
+                batched.bake(UNLIMITED_STOCK);
+                FinalizationPipeline pipeline = batched.startFinalizationPipeline(
+                        FinalizationPipeline.DEFAULT_MAX_BATCH, latency);
+                harness.run("GeekCafe.completeOrder (pipeline, " + latency + " us)", threads,
+                        t -> chainOrder(batched));
+                printBatches(pipeline);
+                batched.stopFinalizationPipeline();
+            }
+
+            GeekCafe async = new GeekCafe(new Scanner(""));
+            async.bake(UNLIMITED_STOCK);
+            FinalizationPipeline pipeline = async.startFinalizationPipeline(
+                    FinalizationPipeline.DEFAULT_MAX_BATCH, FinalizationPipeline.DEFAULT_MAX_LATENCY_MICROS);
+            FoodItem coffee = async.getItem("coffee");
+            FoodItem muffin = async.getItem("muffin");
+            harness.run("GeekCafe.completeOrderAsync (pipeline)", threads, t -> {
+                Order order = async.newOrder();
+                order.addItem(coffee, 1);
+                order.addItem(muffin, 1);
+                return async.completeOrderAsync(order, 1000).isDone() ? 1 : 0;
+            });
+            async.stopFinalizationPipeline();
+            printBatches(pipeline);
+        }
+    }
+
+    private static void printBatches(FinalizationPipeline pipeline) {
+        System.out.printf("    batches: %d, %.1f orders each%n",
+                pipeline.getBatchCount(), pipeline.getAverageBatchSize());
+    }
+
+    // ----- Console output -----
+
+    /**
+     * Benchmarks what a till prints for one order - the main and order
+     * menus, prompts, the total and the change - written to /dev/null by
+     * an autoflushing PrintStream line by line, as System.out is, and
+     * queued to a ConsoleOutput. The time is the till's, not the terminal's.
+     */
+    private void consoleBenchmarks() {
+        String nl = System.lineSeparator();
+        String mainMenu = String.join(nl, "=====", "The Geek Cafe", "=====", "a. Order", "b. Bake muffins",
+                "c. Show sales report", "d. Update prices", "e. Exit", "Please select: ");
+        String[] orderMenu = { "Select the food item:", "1. Muffin", "2. Shake", "3. Coffee",
+                "4. Coffee + Muffin (Combo)", "5. Shake + Muffin (Combo)", "6. Go back" };
+        String orderMenuText = String.join(nl, orderMenu) + nl;
+        try (OutputStream devNull = Files.newOutputStream(Paths.get("/dev/null"));
+             PrintStream stream = new PrintStream(devNull, true)) {
+            harness.run("Till output (PrintStream println)", 1, t -> {
+                for (String line : mainMenu.split(nl)) {
+                    stream.println(line);
+                }
+                for (String line : orderMenu) {
+                    stream.println(line);
+                }
+                stream.print("Please select: ");
+                stream.printf("Total cost: $%s%n", Money.format(500));
+                stream.printf("Change: $%s%n", Money.format(500));
+                return 1;
+            });
+
+            ConsoleOutput console = new ConsoleOutput(devNull).start();
+            harness.run("Till output (ConsoleOutput)", 1, t -> {
+                console.print(mainMenu);
+                console.print(orderMenuText);
+                console.print("Please select: ");
+                console.printf("Total cost: $%s%n", Money.format(500));
+                console.printf("Change: $%s%n", Money.format(500));
+                return 1;
+            });
+            console.close();
+            System.out.println("    console writes: " + console.getWrites() + ", full waits: " + console.getFullWaits());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ----- Store chain -----
+
+    /**
+     * Benchmarks completing orders on 1, 2, 4 ... maxThreads tills, all at
+     * one store and each at its own store of a chain, then the chain-wide
+     * report over 500 stores with some sales each.
+     */
+    private void chainBenchmarks() {
+        for (int threads : threadCounts()) {
+            CafeChain chain = new CafeChain(threads, new Scanner(""));
+            for (int s = 0; s < threads; s++) {
+                chain.getStore(s).bake(UNLIMITED_STOCK);
+            }
+            harness.run("GeekCafe.completeOrder (one store)", threads,
+                    t -> chainOrder(chain.getStore(0)));
+            harness.run("GeekCafe.completeOrder (store per till)", threads,
+                    t -> chainOrder(chain.getStore(t)));
+        }
+
+        CafeChain chain = new CafeChain(500, new Scanner(""));
+        for (int s = 0; s < chain.getStoreCount(); s++) {
+            for (int i = 0; i < 10; i++) {
+                chainOrder(chain.getStore(s));
+            }
+        }
+        harness.run("CafeChain.totals (500 stores)", 1, t -> chain.totals().getOrders());
+    }
+
+    private static long chainOrder(GeekCafe store) {
+        Order order = store.acquireOrder();
+        order.addItem(store.getItem("coffee"), 1);
+        order.addItem(store.getItem("muffin"), 1);
+        long change = store.completeOrder(order, 1000);
+        store.releaseOrder(order);
+        return change;
+    }
+
+    // ----- Large catalog -----
+
+    /**
+     * A cafe serving CATALOG_ITEMS items, each with some sales: the
+     * standard menu plus "Catalog item N" at $1 to $50.
+     */
+    private static GeekCafe catalogCafe() {
+        List<String> lines = new ArrayList<>();
+        lines.add("item, Muffin, 2.00, 25");
+        lines.add("item, Shake, 3.00");
+        lines.add("item, Coffee, 2.50");
+        for (int i = lines.size(); i < CATALOG_ITEMS; i++) {
+            lines.add("item, Catalog item " + i + ", " + (1 + i % 50) + ".00, 100");
+        }
+        lines.add("combo, Coffee + Muffin, Coffee, Muffin, 1.00");
+        lines.add("combo, Shake + Muffin, Shake, Muffin, 1.00");
+        GeekCafe cafe = new GeekCafe(new Scanner(""), MenuCatalog.parse(lines));
+        for (int i = 0; i < CATALOG_ITEMS; i++) {
+            cafe.getMenuItems().get(i).sell(i % 7);
+        }
+        return cafe;
+    }
+
+    /**
+     * Benchmarks finding an item by name with the index and with a scan
+     * of the menu, and searching the catalog as a cashier types.
+     */
+    private void catalogBenchmarks() {
+        GeekCafe cafe = catalogCafe();
+        String name = "catalog item " + (CATALOG_ITEMS - 1);
+        String size = " (" + CATALOG_ITEMS / 1000 + "K items)";
+        harness.run("GeekCafe.getItem" + size, 1, t -> cafe.getItem(name).getId());
+        harness.run("Menu scan by name" + size, 1, t -> {
+            for (FoodItem item : cafe.getMenuItems()) {
+                if (item.getName().equalsIgnoreCase(name)) {
+                    return item.getId();
+                }
+            }
+            return -1;
+        });
+        harness.run("GeekCafe.searchItems 10" + size, 1, t -> cafe.searchItems("catalog item 12", 10).size());
+    }
+
+    // ----- State file -----
+
+    /**
+     * Benchmarks saving and loading the image of a cafe with CATALOG_ITEMS
+     * items, each with stock and sales.
+     */
+    private void stateFileBenchmarks() {
+        GeekCafe cafe = catalogCafe();
+        Path file = tempFile();
+        String size = " (" + CATALOG_ITEMS / 1000 + "K items)";
+        harness.run("CafeStateFile.save" + size, 1, t -> saveState(cafe, file));
+        harness.run("CafeStateFile.load" + size, 1, t -> loadState(file));
+        file.toFile().delete();
+    }
+
+    private static Path tempFile() {
+        try {
+            return Files.createTempFile("bench", ".state");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long saveState(GeekCafe cafe, Path file) {
+        try {
+            CafeStateFile.save(cafe, file);
+            return Files.size(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long loadState(Path file) {
+        try {
+            return CafeStateFile.load(file, new Scanner("")).getItem("muffin").getStock();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ----- Sales ledger -----
+
+    /**
+     * Benchmarks ledger queries over LEDGER_ROWS sale rows spread over a
+     * day: a full scan, a two-hour combos-only window and a group-by hour.
+     */
+    private void ledgerBenchmarks() {
+        GeekCafe cafe = new GeekCafe();
+        FoodItem coffee = cafe.getItem("coffee");
+        FoodItem muffin = cafe.getItem("muffin");
+        Combo combo = cafe.getCombos().get(0);
+        long[] clock = {0};
+        SalesLedger ledger = new SalesLedger(() -> clock[0], LEDGER_ROWS);
+        long day = 24 * 3_600_000L;
+        for (int row = 0; row < LEDGER_ROWS; row += 5) {
+            clock[0] = (long) row * day / LEDGER_ROWS;
+            ledger.onSale(coffee, null, 2, 250);
+            ledger.onSale(muffin, null, 1, 200);
+            ledger.onSale(coffee, combo, 1, 200);
+            ledger.onSale(muffin, combo, 1, 150);
+            ledger.onSale(muffin, null, 3, 200);
+            ledger.onOrderFinalized();
+        }
+
+        String rows = " (" + LEDGER_ROWS / 1_000_000 + "M rows)";
+        harness.run("SalesLedger totals" + rows, 1, t -> ledger.query().totals().getOrders());
+        harness.run("SalesLedger combos 2pm-4pm" + rows, 1, t -> ledger.query()
+                .between(14 * 3_600_000L, 16 * 3_600_000L).combosOnly().totals().getRevenueCents());
+        harness.run("SalesLedger group by hour" + rows, 1,
+                t -> ledger.query().groupBy(SalesLedger.GroupBy.HOUR).length);
+    }
+
+    /**
+     * Returns 1, 2, 4 ... up to and including maxThreads.
+     */
+    private List<Integer> threadCounts() {
+        List<Integer> counts = new ArrayList<>();
+        for (int t = 1; t < maxThreads; t *= 2) {
+            counts.add(t);
+        }
+        counts.add(maxThreads);
+        return counts;
+    }
+
+    /**
+     * A menu with a muffin, a given number of other items and one combo
+     * per item, pairing it with the muffin.
+     */
+    private static final class Menu {
+        final List<FoodItem> items = new ArrayList<>();
+        final List<Combo> combos = new ArrayList<>();
+
+        Menu(int lines) {
+            FoodItem muffin = new ConcurrentFoodItem("Muffin", 2.00, UNLIMITED_STOCK);
+            items.add(muffin);
+            for (int i = 1; i < lines; i++) {
+                items.add(new ConcurrentFoodItem("Item " + i, 2.00 + (i % 8) * 0.25, 0));
+            }
+            for (FoodItem item : items) {
+                if (item != muffin) {
+                    combos.add(new Combo(item.getName() + " + Muffin", item, muffin, 1.0));
+                }
+            }
+            if (combos.isEmpty()) {
+                combos.add(new Combo("Muffin + Muffin", muffin, muffin, 1.0));
+            }
+            MenuCatalog.number(items, combos);
+        }
+
+        /** An order with every item and every combo. */
+        Order fullOrder() {
+            Order order = new Order();
+            for (FoodItem item : items) {
+                order.addItem(item, 2);
+            }
+            for (Combo combo : combos) {
+                order.addCombo(combo, 1);
+            }
+            return order;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+/**
+ * AutoBaker.java
+ *
+ * Background replenishment for a stock-limited item (muffins). A single
+ * baker thread watches how much of the item is still available to
+ * orders and, whenever it falls below a watermark, bakes a batch and
+ * restocks it - without anyone choosing "Bake muffins" from the menu.
+ *
+ * The baker checks the stock every poll interval, and straight away
+ * when an order has to wait for the item (it registers itself as the
+ * StockReservations shortage listener). Baking a batch takes a
+ * configurable time, so orders arriving meanwhile wait for it under the
+ * reservations' bounded-wait backpressure rather than failing.
+ *
+ * The baker counts bakes and muffins baked and times each bake from the
+ * moment the shortage was seen to the moment the stock was added.
+ */
+public class AutoBaker implements StockReservations.ShortageListener, AutoCloseable {
+
+    private final FoodItem item;
+    private final StockReservations reservations;
+    private final IntConsumer oven;       // Adds a baked batch to stock
+    private final int watermark;
+    private final int batchSize;
+    private final long bakeMillis;
+    private final long pollMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition wake = lock.newCondition();
+    private volatile boolean running = true;
+    private int wanted;                   // Largest quantity orders wait for; guarded by lock
+
+    private final Thread thread;
+
+    // Metrics
+    private final LongAdder bakes = new LongAdder();
+    private final LongAdder baked = new LongAdder();
+    private final LongAdder bakeNanos = new LongAdder();
+    private volatile long lastBakeNanos;
+
+    /**
+     * Creates a baker; call start() to run it.
+     *
+     * @param item         the item to keep in stock
+     * @param reservations the reservations that orders hold the item through
+     * @param oven         called with a batch size to add the baked items to stock
+     *                     (e.g. GeekCafe.bake, so the bake is journaled)
+     * @param watermark    bake whenever fewer than this many are available
+     * @param batchSize    items baked at a time
+     * @param bakeMillis   how long baking a batch takes
+     * @param pollMillis   how often stock is checked without a shortage
+     */
+    public AutoBaker(FoodItem item, StockReservations reservations, IntConsumer oven,
+                     int watermark, int batchSize, long bakeMillis, long pollMillis) {
+        if (batchSize <= 0 || watermark < 0) {
+            throw new IllegalArgumentException("Batch size must be positive and watermark non-negative");
+        }
+        this.item = item;
+        this.reservations = reservations;
+        this.oven = oven;
+        this.watermark = watermark;
+        this.batchSize = batchSize;
+        this.bakeMillis = bakeMillis;
+        this.pollMillis = pollMillis;
+        this.thread = new Thread(this::run, "auto-baker-" + item.getName());
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the baker thread and begins listening for shortages.
+     *
+     * @return this baker
+     */
+    public AutoBaker start() {
+        reservations.setShortageListener(this);
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Stops the baker after any bake in progress.
+     */
+    @Override
+    public void close() {
+        running = false;
+        reservations.setShortageListener(null);
+        lock.lock();
+        try {
+            wake.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onShortage(FoodItem shortItem, int qty) {
+        if (shortItem != item) {
+            return;
+        }
+        lock.lock();
+        try {
+            wanted = Math.max(wanted, qty);
+            wake.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            int need;
+            long seen;
+            lock.lock();
+            try {
+                while (running && !lowOnStock()) {
+                    wake.await(pollMillis, TimeUnit.MILLISECONDS);
+                }
+                need = wanted;
+                wanted = 0;
+                seen = System.nanoTime();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            if (!running) {
+                return;
+            }
+            bake(seen, need);
+        }
+    }
+
+    /** Caller holds lock. */
+    private boolean lowOnStock() {
+        return reservations.available(item) < watermark || (wanted > 0 && reservations.waiting(item) > 0);
+    }
+
+    /**
+     * Bakes enough batches to get back above the watermark and cover the
+     * largest waiting order.
+     */
+    private void bake(long seen, int need) {
+        int target = Math.max(watermark, need);
+        int qty = batchSize;
+        while (reservations.available(item) + qty < target) {
+            qty += batchSize;
+        }
+        if (bakeMillis > 0) {
+            try {
+                Thread.sleep(bakeMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+        oven.accept(qty);
+
+        long took = System.nanoTime() - seen;
+        bakes.increment();
+        baked.add(qty);
+        bakeNanos.add(took);
+        lastBakeNanos = took;
+    }
+
+    // ----- Metrics -----
+
+    public int getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * Returns the stock orders can still take.
+     *
+     * @return available (unheld) stock
+     */
+    public int getAvailable() {
+        return reservations.available(item);
+    }
+
+    public long getBakes() {
+        return bakes.sum();
+    }
+
+    public long getItemsBaked() {
+        return baked.sum();
+    }
+
+    /**
+     * Returns the time of the latest bake, from shortage to restock.
+     *
+     * @return latency in nanoseconds, 0 before the first bake
+     */
+    public long getLastBakeNanos() {
+        return lastBakeNanos;
+    }
+
+    /**
+     * Returns the average time from shortage to restock.
+     *
+     * @return latency in nanoseconds, 0 before the first bake
+     */
+    public long getAverageBakeNanos() {
+        long n = bakes.sum();
+        return n == 0 ? 0 : bakeNanos.sum() / n;
+    }
+}
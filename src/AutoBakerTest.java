@@ -0,0 +1,91 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for the AutoBaker class and reservation backpressure.
+ *
+ * These tests validate:
+ * - Stock below the watermark is replenished without being asked
+ * - An order short of muffins waits for the next batch instead of failing
+ * - Without a baker, a waiting order gives up after the maximum wait
+ */
+public class AutoBakerTest {
+    private FoodItem muffin;                  // Stock-limited item
+    private StockReservations reservations;   // Shared by the orders
+    private AutoBaker baker;                  // Baker under test, if started
+
+    @Before
+    public void setUp() {
+        muffin = new ConcurrentFoodItem("Muffin", 2.00, 5);
+        reservations = new StockReservations();
+    }
+
+    @After
+    public void tearDown() {
+        if (baker != null) {
+            baker.close();
+        }
+    }
+
+    /**
+     * 5 muffins is below the watermark of 10, so one batch of 25 is baked.
+     */
+    @Test
+    public void lowStockIsReplenished() throws InterruptedException {
+        baker = new AutoBaker(muffin, reservations, qty -> reservations.restock(muffin, qty),
+                10, 25, 0, 5).start();
+
+        awaitFirstBake();
+        assertEquals(1, baker.getBakes());
+        assertEquals(30, muffin.getStock());
+        assertEquals(30, reservations.available(muffin));
+    }
+
+    /**
+     * With a watermark of 0 the baker only reacts to shortages: an order
+     * for 8 muffins (only 5 left) waits for a 50 ms bake and succeeds.
+     */
+    @Test
+    public void shortOrderWaitsForNextBatch() throws InterruptedException {
+        reservations.setMaxWait(5, TimeUnit.SECONDS);
+        baker = new AutoBaker(muffin, reservations, qty -> reservations.restock(muffin, qty),
+                0, 25, 50, 1000).start();
+
+        Order order = new Order(reservations);
+        assertTrue(order.addItem(muffin, 8));
+
+        assertEquals(1, reservations.getWaits());
+        assertEquals(0, reservations.getWaitTimeouts());
+        assertTrue(reservations.getTotalWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+        awaitFirstBake();   // The order can wake before the baker counts the bake
+        assertEquals(1, baker.getBakes());
+        assertEquals(5 + 25 - 8, reservations.available(muffin));
+        assertTrue(baker.getLastBakeNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    /**
+     * Nobody bakes: the order waits 20 ms, then is refused as before.
+     */
+    @Test
+    public void waitTimesOutWithoutBaker() {
+        reservations.setMaxWait(20, TimeUnit.MILLISECONDS);
+
+        Order order = new Order(reservations);
+        assertFalse(order.addItem(muffin, 8));
+
+        assertEquals(1, reservations.getWaitTimeouts());
+        assertEquals(5, reservations.available(muffin));
+        assertEquals(0, reservations.waiting(muffin));
+    }
+
+    private void awaitFirstBake() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (baker.getBakes() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
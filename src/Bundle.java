@@ -0,0 +1,228 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Bundle.java
+ *
+ * A deal defined as data: any number of menu items in fixed quantities
+ * (e.g. 2 coffees + 3 muffins) sold together for a discount off their
+ * combined price. Unlike a Combo, customers never pick a bundle; the
+ * BundleMatcher finds the cheapest set of bundles in an order's plain
+ * item lines and Order.applyBundles() moves those items onto bundle lines.
+ *
+ * A bundle's price follows its items' current prices, or their prices
+ * in a given MenuSnapshot. The discount is shared among the items in
+ * proportion to their price, so each item's revenue reflects what it
+ * actually sold for.
+ *
+ * Bundles can be written one per line as
+ *
+ * <pre>{@code
+ *   <name>: <item>:<qty> <item>:<qty>... -<discount>
+ *   Family pack: coffee:2 shake:2 muffin:4 -3.00
+ * }</pre>
+ */
+public class Bundle {
+    private final String name;
+    private final FoodItem[] items;   // Distinct items in the bundle
+    private final int[] qty;          // Quantity of each item per bundle
+    private final long discountCents; // Taken off the combined price
+
+    /**
+     * Creates a bundle.
+     *
+     * @param name     the bundle name
+     * @param items    the distinct items in the bundle
+     * @param qty      how many of each item one bundle contains
+     * @param discount the discount off the combined price, in dollars
+     */
+    public Bundle(String name, List<FoodItem> items, List<Integer> qty, double discount) {
+        if (items.isEmpty() || items.size() != qty.size()) {
+            throw new IllegalArgumentException("A bundle needs one quantity per item");
+        }
+        this.name = name;
+        this.items = items.toArray(new FoodItem[0]);
+        this.qty = new int[this.items.length];
+        for (int i = 0; i < this.items.length; i++) {
+            this.qty[i] = qty.get(i);
+            if (this.qty[i] <= 0) {
+                throw new IllegalArgumentException("Bundle quantities must be positive");
+            }
+            for (int j = 0; j < i; j++) {
+                if (this.items[j] == this.items[i]) {
+                    throw new IllegalArgumentException("Item listed twice in bundle: " + this.items[i].getName());
+                }
+            }
+        }
+        this.discountCents = Money.ofDollars(discount);
+    }
+
+    /**
+     * Parses one bundle definition.
+     *
+     * @param spec   e.g. "Family pack: coffee:2 shake:2 muffin:4 -3.00"
+     * @param lookup finds a menu item by name, returning null if unknown
+     * @return the bundle
+     * @throws IllegalArgumentException if the definition is malformed
+     *         (NumberFormatException for a bad quantity or amount)
+     */
+    public static Bundle parse(String spec, Function<String, FoodItem> lookup) {
+        int colon = spec.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Missing bundle name: " + spec);
+        }
+        String name = spec.substring(0, colon).trim();
+        List<FoodItem> items = new ArrayList<>();
+        List<Integer> qty = new ArrayList<>();
+        double discount = 0;
+        for (String field : spec.substring(colon + 1).trim().split("\\s+")) {
+            if (field.startsWith("-")) {
+                discount = Money.toDollars(Money.parse(field.substring(1)));
+                continue;
+            }
+            int sep = field.indexOf(':');
+            FoodItem item = lookup.apply(sep < 0 ? field : field.substring(0, sep));
+            if (item == null) {
+                throw new IllegalArgumentException("No such item in bundle " + name + ": " + field);
+            }
+            items.add(item);
+            qty.add(sep < 0 ? 1 : Integer.parseInt(field.substring(sep + 1)));
+        }
+        return new Bundle(name, items, qty, discount);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of distinct items in the bundle.
+     *
+     * @return item count
+     */
+    public int getItemCount() {
+        return items.length;
+    }
+
+    public FoodItem getItemAt(int index) {
+        return items[index];
+    }
+
+    public int getQuantityAt(int index) {
+        return qty[index];
+    }
+
+    public long getDiscountCents() {
+        return discountCents;
+    }
+
+    /**
+     * Gets the combined price of the bundle's items at their current
+     * prices, before the discount.
+     *
+     * @return full price in cents
+     */
+    public long getFullPriceCents() {
+        return getFullPriceCents(null);
+    }
+
+    /**
+     * Gets the combined price of the bundle's items in a menu snapshot,
+     * before the discount.
+     *
+     * @param menu the prices to use, or null for current prices
+     * @return full price in cents
+     */
+    public long getFullPriceCents(MenuSnapshot menu) {
+        long full = 0;
+        for (int i = 0; i < items.length; i++) {
+            full += Money.times(priceOf(items[i], menu), qty[i]);
+        }
+        return full;
+    }
+
+    /**
+     * Gets the amount one bundle saves; never more than its full price.
+     *
+     * @return savings in cents
+     */
+    public long getSavingsCents() {
+        return getSavingsCents(null);
+    }
+
+    public long getSavingsCents(MenuSnapshot menu) {
+        return Math.min(discountCents, getFullPriceCents(menu));
+    }
+
+    /**
+     * Gets the price of one bundle, in cents.
+     *
+     * @return bundle price in cents
+     */
+    public long getPriceCents() {
+        return getPriceCents(null);
+    }
+
+    public long getPriceCents(MenuSnapshot menu) {
+        long full = getFullPriceCents(menu);
+        return full - Math.min(discountCents, full);
+    }
+
+    private static long priceOf(FoodItem item, MenuSnapshot menu) {
+        return menu == null ? item.getPriceCents() : menu.priceOf(item);
+    }
+
+    /**
+     * Splits the price of a number of bundles among its items, sharing the
+     * discount in proportion to each item's full price. Rounding leftovers
+     * go to the largest fractions, so the shares add up to the bundle
+     * price exactly.
+     *
+     * @param count the number of bundles sold
+     * @param menu  the prices to use, or null for current prices
+     * @return revenue in cents for each item, in bundle order
+     */
+    long[] allocateRevenue(int count, MenuSnapshot menu) {
+        long[] revenue = new long[items.length];
+        long full = 0;
+        for (int i = 0; i < items.length; i++) {
+            revenue[i] = Money.times(Money.times(priceOf(items[i], menu), qty[i]), count);
+            full += revenue[i];
+        }
+        long discount = Math.min(Money.times(discountCents, count), full);
+        if (full == 0 || discount == 0) {
+            return revenue;
+        }
+        long allocated = 0;
+        long[] remainder = new long[items.length];
+        for (int i = 0; i < items.length; i++) {
+            long exact = Math.multiplyExact(discount, revenue[i]);
+            revenue[i] -= exact / full;
+            remainder[i] = exact % full;
+            allocated += exact / full;
+        }
+        // Fewer leftover cents than items: one each to the largest remainders
+        for (; allocated < discount; allocated++) {
+            int largest = 0;
+            for (int i = 1; i < items.length; i++) {
+                if (remainder[i] > remainder[largest]) {
+                    largest = i;
+                }
+            }
+            revenue[largest]--;
+            remainder[largest] = -1;
+        }
+        return revenue;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(name).append(':');
+        for (int i = 0; i < items.length; i++) {
+            out.append(' ').append(items[i].getName().toLowerCase()).append(':').append(qty[i]);
+        }
+        out.append(" -");
+        return Money.appendTo(out, discountCents).toString();
+    }
+}
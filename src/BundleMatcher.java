@@ -0,0 +1,447 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * BundleMatcher.java
+ *
+ * Finds the set of bundles that saves the most on an order's plain item
+ * lines. Which bundles to use is a small integer program (every bundle
+ * competes with the others for the same coffees and muffins), so a
+ * greedy "biggest saving first" choice can miss the best answer: with
+ * 3 coffees and 3 muffins, three $1.75 coffee+muffin deals beat one
+ * $3.00 "2 coffees + 3 muffins" deal.
+ *
+ * The search is kept small in three ways:
+ * - Bundles that share no items are solved independently, so a large
+ *   menu splits into many tiny problems that are fixed when the matcher
+ *   is built.
+ * - Only items some bundle uses matter, and each item's quantity is
+ *   capped at the most any mix of bundles could use.
+ * - Within a group, the best saving from "bundle i onwards with these
+ *   items left" is memoized, so repeated remainders are solved once.
+ *
+ * If a group's search would visit more than a fixed budget of states,
+ * that group falls back to the greedy choice, so matching time stays
+ * bounded however large the order.
+ *
+ * A matcher is immutable and may be shared by any number of threads.
+ */
+public class BundleMatcher {
+
+    /** Default limit on memoized states per group before falling back to greedy. */
+    public static final int DEFAULT_STATE_BUDGET = 1 << 14;
+
+    private final List<Bundle> bundles;
+    private final Group[] groups;
+    private final int stateBudget;
+
+    /**
+     * Creates a matcher with the default search budget.
+     *
+     * @param bundles the bundles on offer
+     */
+    public BundleMatcher(List<Bundle> bundles) {
+        this(bundles, DEFAULT_STATE_BUDGET);
+    }
+
+    /**
+     * Creates a matcher.
+     *
+     * @param bundles     the bundles on offer
+     * @param stateBudget states one group may memoize before using greedy instead
+     */
+    public BundleMatcher(List<Bundle> bundles, int stateBudget) {
+        this.bundles = Collections.unmodifiableList(new ArrayList<>(bundles));
+        this.stateBudget = stateBudget;
+        this.groups = buildGroups(this.bundles);
+    }
+
+    public List<Bundle> getBundles() {
+        return bundles;
+    }
+
+    /**
+     * Chooses how many of each bundle to apply to an order's item lines
+     * (combo lines and items already on bundle lines are not considered).
+     *
+     * @param order the order to match
+     * @return the count of each bundle, indexed as in getBundles()
+     */
+    public int[] match(Order order) {
+        int[] counts = new int[bundles.size()];
+        for (Group group : groups) {
+            int[] available = new int[group.items.length];
+            boolean any = false;
+            for (int j = 0; j < available.length; j++) {
+                available[j] = order.getItemQuantity(group.items[j]);
+                any |= available[j] > 0;
+            }
+            if (any) {
+                new Search(group, available, order.getMenu(), stateBudget).solve(counts);
+            }
+        }
+        return counts;
+    }
+
+    // ----- Grouping -----
+
+    /**
+     * Splits the bundles into groups that share no items.
+     */
+    private static Group[] buildGroups(List<Bundle> bundles) {
+        // Union-find over bundles, joined through the items they share
+        int n = bundles.size();
+        int[] parent = new int[n];
+        for (int b = 0; b < n; b++) {
+            parent[b] = b;
+        }
+        List<FoodItem> seen = new ArrayList<>();
+        List<Integer> firstBundle = new ArrayList<>();
+        for (int b = 0; b < n; b++) {
+            Bundle bundle = bundles.get(b);
+            for (int k = 0; k < bundle.getItemCount(); k++) {
+                int at = indexOf(seen, bundle.getItemAt(k));
+                if (at < 0) {
+                    seen.add(bundle.getItemAt(k));
+                    firstBundle.add(b);
+                } else {
+                    parent[find(parent, b)] = find(parent, firstBundle.get(at));
+                }
+            }
+        }
+
+        List<Group> groups = new ArrayList<>();
+        boolean[] done = new boolean[n];
+        for (int b = 0; b < n; b++) {
+            int root = find(parent, b);
+            if (done[root]) {
+                continue;
+            }
+            done[root] = true;
+            List<Integer> members = new ArrayList<>();
+            List<FoodItem> items = new ArrayList<>();
+            for (int m = 0; m < n; m++) {
+                if (find(parent, m) != root) {
+                    continue;
+                }
+                members.add(m);
+                Bundle bundle = bundles.get(m);
+                for (int k = 0; k < bundle.getItemCount(); k++) {
+                    if (indexOf(items, bundle.getItemAt(k)) < 0) {
+                        items.add(bundle.getItemAt(k));
+                    }
+                }
+            }
+            groups.add(new Group(bundles, members, items));
+        }
+        return groups.toArray(new Group[0]);
+    }
+
+    private static int find(int[] parent, int b) {
+        while (parent[b] != b) {
+            parent[b] = parent[parent[b]];
+            b = parent[b];
+        }
+        return b;
+    }
+
+    private static int indexOf(List<FoodItem> items, FoodItem item) {
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i) == item) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Bundles that share items, directly or through other bundles.
+     */
+    private static final class Group {
+        final FoodItem[] items;   // Every item used by the group's bundles
+        final Bundle[] bundles;
+        final int[] bundleIndex;  // Position of each bundle in the matcher
+        final int[][] need;       // need[b][j]: items[j] used by one bundles[b]
+
+        Group(List<Bundle> all, List<Integer> members, List<FoodItem> items) {
+            this.items = items.toArray(new FoodItem[0]);
+            this.bundles = new Bundle[members.size()];
+            this.bundleIndex = new int[members.size()];
+            this.need = new int[members.size()][this.items.length];
+            for (int b = 0; b < bundles.length; b++) {
+                bundleIndex[b] = members.get(b);
+                bundles[b] = all.get(bundleIndex[b]);
+                for (int k = 0; k < bundles[b].getItemCount(); k++) {
+                    need[b][indexOf(items, bundles[b].getItemAt(k))] = bundles[b].getQuantityAt(k);
+                }
+            }
+        }
+    }
+
+    // ----- Search -----
+
+    /**
+     * One group's search for one order.
+     */
+    private static final class Search {
+        private final Group group;
+        private final int[] left;       // Items still unbundled, per group item
+        private final MenuSnapshot menu; // The order's prices, or null for current ones
+        private final int budget;
+
+        // Candidate bundles: those that fit at least once and save something
+        private int[] candidates;
+        private long[] savings;
+        private long[] codeStep;        // Change in the remainder code per bundle taken
+
+        private long states;            // Distinct remainder codes per bundle position
+        private LongLongMap memo;
+
+        Search(Group group, int[] available, MenuSnapshot menu, int budget) {
+            this.group = group;
+            this.left = available;
+            this.menu = menu;
+            this.budget = budget;
+        }
+
+        /**
+         * Adds this group's best bundle counts to counts.
+         */
+        void solve(int[] counts) {
+            selectCandidates();
+            if (candidates.length == 0) {
+                return;
+            }
+            int[] chosen = encode() ? optimal() : null;
+            if (chosen == null) {
+                chosen = greedy();
+            }
+            for (int c = 0; c < candidates.length; c++) {
+                counts[group.bundleIndex[candidates[c]]] += chosen[c];
+            }
+        }
+
+        private void selectCandidates() {
+            int n = group.bundles.length;
+            Integer[] order = new Integer[n];
+            long[] save = new long[n];
+            int count = 0;
+            for (int b = 0; b < n; b++) {
+                save[b] = group.bundles[b].getSavingsCents(menu);
+                if (save[b] > 0 && maxCount(b) > 0) {
+                    order[count++] = b;
+                }
+            }
+            // Biggest saving first: greedy order, and finds good answers early
+            Arrays.sort(order, 0, count, (x, y) -> Long.compare(save[y], save[x]));
+            candidates = new int[count];
+            savings = new long[count];
+            for (int c = 0; c < count; c++) {
+                candidates[c] = order[c];
+                savings[c] = save[order[c]];
+            }
+        }
+
+        private int maxCount(int b) {
+            int max = Integer.MAX_VALUE;
+            int[] need = group.need[b];
+            for (int j = 0; j < need.length; j++) {
+                if (need[j] > 0) {
+                    max = Math.min(max, left[j] / need[j]);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Caps each item at what the candidates could use and gives every
+         * remainder a unique mixed-radix code.
+         *
+         * @return false if the state space is too large to encode
+         */
+        private boolean encode() {
+            int[] usable = new int[left.length];
+            for (int c = 0; c < candidates.length; c++) {
+                int b = candidates[c];
+                int max = maxCount(b);
+                for (int j = 0; j < left.length; j++) {
+                    usable[j] = (int) Math.min(left[j], usable[j] + (long) max * group.need[b][j]);
+                }
+            }
+            System.arraycopy(usable, 0, left, 0, left.length);
+
+            long[] weight = new long[left.length];
+            long product = 1;
+            for (int j = 0; j < left.length; j++) {
+                weight[j] = product;
+                if (product > Long.MAX_VALUE / (left[j] + 1) / (candidates.length + 1)) {
+                    return false;
+                }
+                product *= left[j] + 1;
+            }
+            states = product;
+            codeStep = new long[candidates.length];
+            for (int c = 0; c < candidates.length; c++) {
+                for (int j = 0; j < left.length; j++) {
+                    codeStep[c] += group.need[candidates[c]][j] * weight[j];
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Memoized search over (bundle position, items left).
+         *
+         * @return the best count of each candidate, or null if over budget
+         */
+        private int[] optimal() {
+            memo = new LongLongMap(64);
+            long code = 0;
+            long weight = 1;
+            for (int j = 0; j < left.length; j++) {
+                code += left[j] * weight;
+                weight *= left[j] + 1;
+            }
+            if (best(0, code) < 0) {
+                return null;
+            }
+
+            // Walk the memo to recover the counts behind the best saving
+            int[] chosen = new int[candidates.length];
+            for (int c = 0; c < candidates.length; c++) {
+                long target = best(c, code);
+                int max = maxCount(candidates[c]);
+                for (int k = 0; k <= max; k++) {
+                    take(c, k);
+                    if (k * savings[c] + best(c + 1, code - k * codeStep[c]) == target) {
+                        chosen[c] = k;
+                        code -= k * codeStep[c];
+                        break;
+                    }
+                    take(c, -k);
+                }
+            }
+            return chosen;
+        }
+
+        /**
+         * Best saving from candidate c onwards with the items in left.
+         *
+         * @return savings in cents, or -1 if the state budget ran out
+         */
+        private long best(int c, long code) {
+            if (c == candidates.length) {
+                return 0;
+            }
+            long key = c * states + code;
+            long known = memo.get(key);
+            if (known >= 0) {
+                return known;
+            }
+            if (memo.size() >= budget) {
+                return -1;
+            }
+
+            long result = best(c + 1, code);
+            int max = maxCount(candidates[c]);
+            int taken = 0;
+            while (taken < max && result >= 0) {
+                take(c, 1);
+                taken++;
+                long rest = best(c + 1, code - taken * codeStep[c]);
+                result = rest < 0 ? -1 : Math.max(result, taken * savings[c] + rest);
+            }
+            take(c, -taken);
+            if (result >= 0) {
+                memo.put(key, result);
+            }
+            return result;
+        }
+
+        /** Adjusts left for taking (or, if negative, returning) bundles. */
+        private void take(int c, int k) {
+            int[] need = group.need[candidates[c]];
+            for (int j = 0; j < left.length; j++) {
+                left[j] -= k * need[j];
+            }
+        }
+
+        /**
+         * Biggest saving first, as many of each as fit.
+         */
+        private int[] greedy() {
+            int[] chosen = new int[candidates.length];
+            for (int c = 0; c < candidates.length; c++) {
+                chosen[c] = maxCount(candidates[c]);
+                take(c, chosen[c]);
+            }
+            return chosen;
+        }
+    }
+
+    /**
+     * Open-addressing map from non-negative long keys to non-negative
+     * long values, without boxing.
+     */
+    private static final class LongLongMap {
+        private long[] keys;     // key + 1, or 0 for an empty slot
+        private long[] values;
+        private int size;
+
+        LongLongMap(int capacity) {
+            keys = new long[capacity];
+            values = new long[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        /** @return the value, or -1 if absent */
+        long get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); keys[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key + 1) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        void put(long key, long value) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (keys[i] != 0 && keys[i] != key + 1) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == 0) {
+                size++;
+            }
+            keys[i] = key + 1;
+            values[i] = value;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldValues.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i] - 1, oldValues[i]);
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import java.util.Arrays;
+
+/**
+ * Unit tests for the Bundle and BundleMatcher classes.
+ *
+ * These tests validate:
+ * - The matcher finds the cheapest set of bundles, not just the greedy one
+ * - Bundles are priced and their revenue shared among their items exactly
+ * - Re-applying bundles after more items are added starts afresh
+ */
+public class BundleMatcherTest {
+    private FoodItem muffin;
+    private FoodItem coffee;
+    private FoodItem shake;
+    private Bundle bigBreakfast;    // 2 coffees + 3 muffins, $3.00 off
+    private Bundle coffeeAndMuffin; // 1 coffee + 1 muffin, $1.75 off
+    private Bundle shakePair;       // 2 shakes, $1.00 off
+    private BundleMatcher matcher;
+
+    @Before
+    public void setUp() {
+        muffin = new FoodItem("Muffin", 2.00, 100);
+        coffee = new FoodItem("Coffee", 2.50, 0);
+        shake = new FoodItem("Shake", 3.00, 0);
+        bigBreakfast = Bundle.parse("Big breakfast: coffee:2 muffin:3 -3.00", this::lookup);
+        coffeeAndMuffin = Bundle.parse("Coffee and muffin: coffee muffin:1 -1.75", this::lookup);
+        shakePair = Bundle.parse("Shake pair: shake:2 -1.00", this::lookup);
+        matcher = new BundleMatcher(Arrays.asList(bigBreakfast, coffeeAndMuffin, shakePair));
+    }
+
+    /**
+     * 3 coffees + 3 muffins: three $1.75 deals ($5.25) beat the $3.00
+     * deal that greedy would pick first.
+     * Total: $7.50 + $6.00 - $5.25 = $8.25.
+     */
+    @Test
+    public void cheapestSetBeatsGreedy() {
+        Order order = new Order();
+        order.addItem(coffee, 3);
+        order.addItem(muffin, 3);
+
+        assertEquals(525, order.applyBundles(matcher));
+        assertEquals(825, order.calculateTotalCents());
+        assertEquals(1, order.getBundleLineCount());
+        assertSame(coffeeAndMuffin, order.getBundleAt(0));
+        assertEquals(3, order.getBundleQuantityAt(0));
+        assertEquals(0, order.getItemQuantity(coffee));
+    }
+
+    /**
+     * With no search budget the matcher falls back to greedy: one big
+     * breakfast ($3.00 off), leaving 1 coffee at full price.
+     */
+    @Test
+    public void greedyFallbackWhenOverBudget() {
+        Order order = new Order();
+        order.addItem(coffee, 3);
+        order.addItem(muffin, 3);
+
+        assertEquals(300, order.applyBundles(new BundleMatcher(matcher.getBundles(), 0)));
+        assertEquals(1, order.getItemQuantity(coffee));
+    }
+
+    /**
+     * 5 shakes: two shake pairs and one shake at full price, matched
+     * independently of the coffee bundles.
+     * Total: $15.00 - $2.00 = $13.00.
+     */
+    @Test
+    public void unbundledItemsStayOnTheirLines() {
+        Order order = new Order();
+        order.addItem(shake, 5);
+
+        assertEquals(200, order.applyBundles(matcher));
+        assertEquals(1, order.getItemQuantity(shake));
+        assertEquals(1300, order.calculateTotalCents());
+    }
+
+    /**
+     * Adding a muffin after bundling makes the matcher redo the whole
+     * order: with 2 coffees + 3 muffins, two coffee+muffin deals ($3.50)
+     * still beat one big breakfast ($3.00), and the new muffin stays loose.
+     */
+    @Test
+    public void reapplyingStartsAfresh() {
+        Order order = new Order();
+        order.addItem(coffee, 2);
+        order.addItem(muffin, 2);
+        assertEquals(350, order.applyBundles(matcher));
+
+        order.addItem(muffin, 1);
+        assertEquals(350, order.applyBundles(matcher));
+        assertEquals(1, order.getItemQuantity(muffin));
+        assertEquals(2 * 250 + 3 * 200 - 350, order.calculateTotalCents());
+    }
+
+    /**
+     * One big breakfast: $11.00 full price, $8.00 paid. The $3.00 off is
+     * shared by price: coffees $5.00 - $1.36, muffins $6.00 - $1.64.
+     */
+    @Test
+    public void revenueSharedExactly() {
+        Order order = new Order();
+        order.addItem(coffee, 2);
+        order.addItem(muffin, 3);
+        order.applyBundles(new BundleMatcher(Arrays.asList(bigBreakfast)));
+        assertEquals(800, order.calculateTotalCents());
+
+        order.finalizeOrder();
+
+        assertEquals(2, coffee.getSoldCount());
+        assertEquals(3, muffin.getSoldCount());
+        assertEquals(800, coffee.getRevenueCents() + muffin.getRevenueCents());
+        assertEquals(500 - 136, coffee.getRevenueCents());
+        assertEquals(600 - 164, muffin.getRevenueCents());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownItemRejected() {
+        Bundle.parse("Tea time: tea:2 -1.00", this::lookup);
+    }
+
+    private FoodItem lookup(String name) {
+        for (FoodItem item : new FoodItem[] { muffin, coffee, shake }) {
+            if (item.getName().equalsIgnoreCase(name)) {
+                return item;
+            }
+        }
+        return null;
+    }
+}
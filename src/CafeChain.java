@@ -0,0 +1,370 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import javax.management.JMException;
+
+/**
+ * CafeChain.java
+ *
+ * Several cafés run as independent shards in one JVM.
+ *
+ * Every store is its own GeekCafe, with its own menu items, stock,
+ * reservations, sales ledger, metrics and (optionally) journal. Stores
+ * share no mutable state, so tills at one store never contend with tills
+ * at another; the only thing they share is the console, when it is used.
+ *
+ * The chain-wide sales report is a fork/join reduction over the stores:
+ * the store range is split in halves down to STORES_PER_TASK stores,
+ * each leaf takes a consistent snapshot of its stores' items and adds
+ * them up by item name, and the halves are merged on the way back up.
+ * A report over hundreds of stores therefore uses every core, and each
+ * store is only read, never locked.
+ */
+public class CafeChain implements AutoCloseable {
+
+    /** Stores added up by one fork/join leaf. */
+    static final int STORES_PER_TASK = 16;
+
+    /** Stores listed in the report's top stores section. */
+    private static final int TOP_STORES = 5;
+
+    private final GeekCafe[] stores;
+    private final List<SalesJournal> journals = new ArrayList<>();
+
+    /**
+     * Creates a chain of stores sharing the standard console.
+     *
+     * @param storeCount the number of stores
+     */
+    public CafeChain(int storeCount) {
+        this(storeCount, new Scanner(System.in));
+    }
+
+    /**
+     * Creates a chain of stores whose console menus read from one scanner.
+     *
+     * @param storeCount the number of stores
+     * @param input      the console input shared by every store
+     */
+    public CafeChain(int storeCount, Scanner input) {
+        this(storeCount, input, MenuCatalog.STANDARD);
+    }
+
+    /**
+     * Creates a chain of stores serving the same catalog, each with its
+     * own items and stock.
+     *
+     * @param storeCount the number of stores
+     * @param input      the console input shared by every store
+     * @param catalog    the menu every store serves
+     */
+    public CafeChain(int storeCount, Scanner input, MenuCatalog catalog) {
+        if (storeCount <= 0) {
+            throw new IllegalArgumentException("A chain needs at least one store");
+        }
+        stores = new GeekCafe[storeCount];
+        for (int i = 0; i < storeCount; i++) {
+            stores[i] = new GeekCafe(input, catalog);
+        }
+    }
+
+    public int getStoreCount() {
+        return stores.length;
+    }
+
+    /**
+     * Gets a store by number.
+     *
+     * @param index the store number, from 0
+     * @return the store
+     */
+    public GeekCafe getStore(int index) {
+        return stores[index];
+    }
+
+    /**
+     * Gets a store's name, as used in reports and JMX.
+     *
+     * @param index the store number, from 0
+     * @return e.g. "store-1" for index 0
+     */
+    public String getStoreName(int index) {
+        return "store-" + (index + 1);
+    }
+
+    /**
+     * Opens a journal for every store, in a sub-directory named after it,
+     * and restores each store from its journal.
+     *
+     * @param dir the chain's journal directory
+     * @throws IOException if a journal cannot be opened
+     */
+    public void openJournals(Path dir) throws IOException {
+        for (int i = 0; i < stores.length; i++) {
+            Path storeDir = dir.resolve(getStoreName(i));
+            Files.createDirectories(storeDir);
+            journals.add(stores[i].openJournal(storeDir));
+        }
+    }
+
+    /**
+     * Publishes every store's metrics over JMX, named after the store.
+     *
+     * @throws JMException if a store's metrics cannot be registered
+     */
+    public void registerMetrics() throws JMException {
+        for (int i = 0; i < stores.length; i++) {
+            stores[i].getMetrics().register(getStoreName(i));
+        }
+    }
+
+    /**
+     * Stops every store's finalization pipeline, automatic baker and hold
+     * expiry and closes their journals.
+     *
+     * @throws IOException if a journal cannot be closed cleanly
+     */
+    @Override
+    public void close() throws IOException {
+        for (GeekCafe store : stores) {
+            store.stopFinalizationPipeline();
+            store.stopAutoBaker();
+            store.stopHoldExpiry();
+        }
+        IOException failure = null;
+        for (SalesJournal journal : journals) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        journals.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // ----- Chain-wide report -----
+
+    /**
+     * Adds up every store's sales with a fork/join reduction on the
+     * common pool.
+     *
+     * @return the chain's totals
+     */
+    public Totals totals() {
+        return totals(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Adds up every store's sales with a fork/join reduction.
+     *
+     * @param pool the pool to run the reduction in
+     * @return the chain's totals
+     */
+    public Totals totals(ForkJoinPool pool) {
+        // Every item name gets a column, in the order first seen
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (GeekCafe store : stores) {
+            for (FoodItem item : store.getMenuItems()) {
+                if (columns.putIfAbsent(item.getName(), names.size()) == null) {
+                    names.add(item.getName());
+                }
+            }
+        }
+        long[] storeRevenue = new long[stores.length];
+        Totals totals = pool.invoke(new SumTask(columns, storeRevenue, 0, stores.length));
+        totals.finish(names, storeRevenue);
+        return totals;
+    }
+
+    /**
+     * Builds the chain-wide sales report: unsold stock, units and revenue
+     * of every item across all stores, orders, and the top stores.
+     *
+     * @return the report text, one line per row
+     */
+    public String salesReport() {
+        Totals totals = totals();
+        String nl = System.lineSeparator();
+        String rule = "--------------------------------------";
+        StringBuilder out = new StringBuilder(512);
+        out.append(rule).append(nl);
+        out.append("CHAIN SALES REPORT (").append(stores.length).append(" stores)").append(nl);
+        out.append(rule).append(nl);
+        out.append("Total Sales:").append(nl);
+        long units = 0;
+        long revenue = 0;
+        for (int c = 0; c < totals.getItemCount(); c++) {
+            out.append(totals.getItemName(c)).append(": ").append(totals.getSold(c))
+                    .append(" $");
+            Money.appendTo(out, totals.getRevenueCents(c));
+            out.append(" (unsold ").append(totals.getStock(c)).append(')').append(nl);
+            units += totals.getSold(c);
+            revenue += totals.getRevenueCents(c);
+        }
+        out.append(rule).append(nl);
+        out.append(units).append(" $");
+        Money.appendTo(out, revenue).append(nl);
+        out.append("Orders: ").append(totals.getOrders()).append(nl);
+        out.append(rule).append(nl);
+        out.append("Top stores:").append(nl);
+        for (int store : totals.topStores(TOP_STORES)) {
+            out.append(getStoreName(store)).append(": $");
+            Money.appendTo(out, totals.getStoreRevenueCents(store)).append(nl);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Adds up a range of stores, splitting it in halves while it is
+     * larger than STORES_PER_TASK.
+     */
+    private final class SumTask extends RecursiveTask<Totals> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Map<String, Integer> columns;
+        private final long[] storeRevenue;     // Each leaf fills its own range
+        private final int from;
+        private final int to;
+
+        SumTask(Map<String, Integer> columns, long[] storeRevenue, int from, int to) {
+            this.columns = columns;
+            this.storeRevenue = storeRevenue;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (to - from <= STORES_PER_TASK) {
+                Totals sum = new Totals(columns.size());
+                for (int s = from; s < to; s++) {
+                    storeRevenue[s] = sum.addStore(stores[s], columns);
+                }
+                return sum;
+            }
+            int mid = (from + to) >>> 1;
+            SumTask left = new SumTask(columns, storeRevenue, from, mid);
+            left.fork();
+            Totals right = new SumTask(columns, storeRevenue, mid, to).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    /**
+     * Chain-wide totals per item, and revenue per store.
+     */
+    public static final class Totals {
+        private final long[] stock;
+        private final long[] sold;
+        private final long[] revenue;
+        private long orders;
+        private List<String> names = Collections.emptyList();
+        private long[] storeRevenue = new long[0];
+
+        Totals(int items) {
+            stock = new long[items];
+            sold = new long[items];
+            revenue = new long[items];
+        }
+
+        /**
+         * Adds one store's items.
+         *
+         * @return the store's revenue
+         */
+        long addStore(GeekCafe store, Map<String, Integer> columns) {
+            long storeTotal = 0;
+            for (FoodItem item : store.getMenuItems()) {
+                SalesSnapshot sales = item.snapshot();
+                int c = columns.get(sales.getName());
+                stock[c] += sales.getStock();
+                sold[c] += sales.getSoldCount();
+                revenue[c] += sales.getRevenueCents();
+                storeTotal += sales.getRevenueCents();
+            }
+            orders += store.getLedger().getOrderCount();
+            return storeTotal;
+        }
+
+        Totals merge(Totals other) {
+            for (int c = 0; c < stock.length; c++) {
+                stock[c] += other.stock[c];
+                sold[c] += other.sold[c];
+                revenue[c] += other.revenue[c];
+            }
+            orders += other.orders;
+            return this;
+        }
+
+        void finish(List<String> itemNames, long[] revenueByStore) {
+            names = itemNames;
+            storeRevenue = revenueByStore;
+        }
+
+        public int getItemCount() {
+            return names.size();
+        }
+
+        public String getItemName(int column) {
+            return names.get(column);
+        }
+
+        /**
+         * Gets the unsold stock of an item across all stores.
+         *
+         * @param column the item's column
+         * @return unsold units (0 for items without stock)
+         */
+        public long getStock(int column) {
+            return stock[column];
+        }
+
+        public long getSold(int column) {
+            return sold[column];
+        }
+
+        public long getRevenueCents(int column) {
+            return revenue[column];
+        }
+
+        public long getOrders() {
+            return orders;
+        }
+
+        public long getStoreRevenueCents(int store) {
+            return storeRevenue[store];
+        }
+
+        /**
+         * Returns the stores with the most revenue, best first.
+         *
+         * @param count how many stores to return at most
+         * @return store numbers, from 0
+         */
+        public int[] topStores(int count) {
+            Integer[] order = new Integer[storeRevenue.length];
+            for (int s = 0; s < order.length; s++) {
+                order[s] = s;
+            }
+            Arrays.sort(order, (x, y) -> Long.compare(storeRevenue[y], storeRevenue[x]));
+            int[] top = new int[Math.min(count, order.length)];
+            for (int i = 0; i < top.length; i++) {
+                top[i] = order[i];
+            }
+            return top;
+        }
+    }
+}
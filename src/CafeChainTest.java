@@ -0,0 +1,98 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Unit tests for the CafeChain class.
+ *
+ * These tests validate:
+ * - Stores keep their own stock and sales
+ * - The chain report adds up every store, by item
+ * - The fork/join reduction over hundreds of stores matches a plain sum
+ */
+public class CafeChainTest {
+
+    private static CafeChain chain(int stores) {
+        return new CafeChain(stores, new Scanner(""));
+    }
+
+    private static void sell(GeekCafe store, String item, int qty) {
+        Order order = store.newOrder();
+        assertTrue(order.addItem(store.getItem(item), qty));
+        assertTrue(store.completeOrder(order, 100_000) >= 0);
+    }
+
+    @Test
+    public void storesAreIndependent() {
+        CafeChain chain = chain(2);
+        sell(chain.getStore(0), "muffin", 20);
+
+        assertEquals(5, chain.getStore(0).getItem("muffin").getStock());
+        assertEquals(25, chain.getStore(1).getItem("muffin").getStock());
+        assertNotSame(chain.getStore(0).getItem("muffin"), chain.getStore(1).getItem("muffin"));
+        // Store 2 can still sell all of its own 25
+        sell(chain.getStore(1), "muffin", 25);
+    }
+
+    /**
+     * Store 1: 2 coffees ($5.00). Store 2: 3 muffins ($6.00), 1 coffee.
+     * Store 3: nothing.
+     */
+    @Test
+    public void totalsAddUpStores() {
+        CafeChain chain = chain(3);
+        sell(chain.getStore(0), "coffee", 2);
+        sell(chain.getStore(1), "muffin", 3);
+        sell(chain.getStore(1), "coffee", 1);
+
+        CafeChain.Totals totals = chain.totals();
+        int coffee = column(totals, "Coffee");
+        int muffin = column(totals, "Muffin");
+        assertEquals(3, totals.getSold(coffee));
+        assertEquals(750, totals.getRevenueCents(coffee));
+        assertEquals(600, totals.getRevenueCents(muffin));
+        assertEquals(3 * 25 - 3, totals.getStock(muffin));
+        assertEquals(3, totals.getOrders());
+        assertArrayEquals(new int[] {1, 0}, totals.topStores(2));
+        assertEquals(850, totals.getStoreRevenueCents(1));
+
+        String report = chain.salesReport();
+        assertTrue(report, report.contains("CHAIN SALES REPORT (3 stores)"));
+        assertTrue(report, report.contains("Coffee: 3 $7.50"));
+        assertTrue(report, report.contains("store-2: $8.50"));
+    }
+
+    /**
+     * 300 stores, store i selling i coffees: 300 * 299 / 2 in all,
+     * whichever pool runs the reduction.
+     */
+    @Test
+    public void forkJoinMatchesPlainSum() {
+        CafeChain chain = chain(300);
+        for (int i = 1; i < 300; i++) {
+            sell(chain.getStore(i), "coffee", i);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            CafeChain.Totals totals = chain.totals(pool);
+            int coffee = column(totals, "Coffee");
+            assertEquals(300 * 299 / 2, totals.getSold(coffee));
+            assertEquals(299, totals.getOrders());
+            assertEquals(299, totals.topStores(1)[0]);
+            assertEquals(totals.getSold(coffee), chain.totals().getSold(coffee));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static int column(CafeChain.Totals totals, String name) {
+        for (int c = 0; c < totals.getItemCount(); c++) {
+            if (totals.getItemName(c).equals(name)) {
+                return c;
+            }
+        }
+        throw new AssertionError("No column " + name);
+    }
+}
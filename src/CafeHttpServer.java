@@ -0,0 +1,646 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * CafeHttpServer.java
+ *
+ * HTTP front end for kiosk and mobile orders, built on the JDK's
+ * HttpServer. Every request runs on its own virtual thread, so thousands
+ * of requests can be in flight at once (for instance waiting on the
+ * sales journal) without a large thread pool.
+ *
+ * Requests go through the same GeekCafe operations as the till, so stock
+ * reservations, journaling and the sales report behave identically.
+ * Parameters are form fields, sent as the query string or as an
+ * application/x-www-form-urlencoded body; amounts are dollars ("10.00").
+ * Responses are JSON, except the plain-text sales report.
+ *
+ * <pre>{@code
+ *   GET    /menu                   items, prices and combos
+ *   POST   /orders                 item=<name>:<qty>... combo=<number>:<qty>...
+ *                                  [payment=<amount>] pays at once if given
+ *   POST   /orders/<id>/pay        payment=<amount>
+ *   DELETE /orders/<id>            cancels an open order
+ *   POST   /bake                   [qty=<muffins>] (default 25)
+ *   PUT    /prices/<name>          price=<amount>
+ *   GET    /report                 the sales report
+ * }</pre>
+ *
+ * An order that cannot get its muffins is refused with 409; a payment
+ * that does not cover the total is refused with 402 and the order stays
+ * open so the customer can pay again or cancel. If the cafe expires
+ * holds, an open order left unpaid too long gives its muffins back; paying
+ * it later takes them again, or is refused with 409 if they were sold.
+ *
+ * Open orders are not kept forever. One left untouched for the idle time
+ * (30 minutes by default) is cancelled the next time an order is
+ * created, and paying it afterwards finds no order (404). At most a set
+ * number of orders (10,000 by default) are open at once; once that many
+ * are open, and none has been idle long enough to cancel, new orders
+ * that are not paid at once are refused with 503.
+ *
+ * A client that may retry a payment (POST /orders with a payment, or
+ * POST /orders/<id>/pay) sends an Idempotency-Key header with an id of
+ * its own for the submission. A retry with the same key gets the
+ * original response again, marked with "Idempotent-Replayed: true",
+ * and sells nothing a second time.
+ */
+public class CafeHttpServer implements Closeable {
+
+    /** Muffins baked by a POST /bake without a qty. */
+    private static final int DEFAULT_BAKE = 25;
+
+    /** Request header carrying the client's id for a payment submission. */
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    /** Pending connections the listening socket queues before refusing. */
+    private static final int BACKLOG = 4096;
+
+    /** Default cap on orders open at once. */
+    public static final int DEFAULT_MAX_OPEN_ORDERS = 10_000;
+
+    /** Default time an open order may go untouched before it is cancelled. */
+    public static final long DEFAULT_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /** An open order and when a request last touched it. */
+    private static final class OpenOrder {
+        final Order order;
+        final long touchedMillis;
+
+        OpenOrder(Order order, long touchedMillis) {
+            this.order = order;
+            this.touchedMillis = touchedMillis;
+        }
+    }
+
+    private final GeekCafe cafe;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /** Orders created but not yet paid or cancelled, by id. */
+    private final Map<Long, OpenOrder> openOrders = new ConcurrentHashMap<>();
+    private final AtomicLong nextOrderId = new AtomicLong();
+    private final int maxOpenOrders;
+    private final long idleMillis;
+    private final LongSupplier clock;
+    private final AtomicLong nextSweepMillis = new AtomicLong();
+    private final LongAdder evictedOrders = new LongAdder();
+
+    private CafeHttpServer(GeekCafe cafe, InetSocketAddress address, int maxOpenOrders, long idleMillis,
+                           LongSupplier clock) throws IOException {
+        if (maxOpenOrders <= 0 || idleMillis <= 0) {
+            throw new IllegalArgumentException("Open order cap and idle time must be positive");
+        }
+        this.cafe = cafe;
+        this.maxOpenOrders = maxOpenOrders;
+        this.idleMillis = idleMillis;
+        this.clock = clock;
+        this.nextSweepMillis.set(now() + idleMillis);
+        this.server = HttpServer.create(address, BACKLOG);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts serving a cafe on a port of this machine.
+     *
+     * @param cafe the cafe taking the orders
+     * @param port the port to listen on, or 0 for any free port
+     * @return the running server
+     * @throws IOException if the port cannot be bound
+     */
+    public static CafeHttpServer start(GeekCafe cafe, int port) throws IOException {
+        return start(cafe, port, DEFAULT_MAX_OPEN_ORDERS, DEFAULT_IDLE_MILLIS);
+    }
+
+    /**
+     * Starts serving a cafe on a port of this machine, with limits on the
+     * orders left open.
+     *
+     * @param cafe          the cafe taking the orders
+     * @param port          the port to listen on, or 0 for any free port
+     * @param maxOpenOrders how many orders may be open at once
+     * @param idleMillis    how long an open order may go untouched before
+     *                      it is cancelled
+     * @return the running server
+     * @throws IOException if the port cannot be bound
+     */
+    public static CafeHttpServer start(GeekCafe cafe, int port, int maxOpenOrders, long idleMillis)
+            throws IOException {
+        return start(cafe, port, maxOpenOrders, idleMillis,
+                () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+    }
+
+    /**
+     * Starts serving a cafe with open orders timed by a given clock, for
+     * tests that move time on by hand.
+     *
+     * @param clock the current time in milliseconds
+     */
+    static CafeHttpServer start(GeekCafe cafe, int port, int maxOpenOrders, long idleMillis, LongSupplier clock)
+            throws IOException {
+        CafeHttpServer http = new CafeHttpServer(cafe, new InetSocketAddress(port), maxOpenOrders, idleMillis, clock);
+        http.server.start();
+        return http;
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     *
+     * @return the bound port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the number of orders created but not yet paid or cancelled.
+     *
+     * @return open order count
+     */
+    public int getOpenOrderCount() {
+        return openOrders.size();
+    }
+
+    /**
+     * Returns the number of open orders cancelled for being left idle.
+     *
+     * @return evicted order count
+     */
+    public long getEvictedOrderCount() {
+        return evictedOrders.sum();
+    }
+
+    /**
+     * Blocks until the server has been closed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitClose() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Stops accepting requests, lets in-flight requests finish and
+     * cancels every order still open, releasing its muffins.
+     */
+    @Override
+    public void close() {
+        if (stopped.getCount() == 0) {
+            return;
+        }
+        server.stop(1);
+        executor.close();
+        for (Long id : new ArrayList<>(openOrders.keySet())) {
+            OpenOrder open = openOrders.remove(id);
+            if (open != null) {
+                open.order.cancel();
+            }
+        }
+        stopped.countDown();
+    }
+
+    // ----- Routing -----
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+            Map<String, List<String>> params = params(exchange);
+
+            switch (path[0]) {
+                case "menu":
+                    if (method.equals("GET") && path.length == 1) {
+                        menu(exchange);
+                        return;
+                    }
+                    break;
+                case "orders":
+                    if (method.equals("POST") && path.length == 1) {
+                        createOrder(exchange, params);
+                        return;
+                    }
+                    if (method.equals("POST") && path.length == 3 && path[2].equals("pay")) {
+                        payOrder(exchange, orderId(path[1]), params);
+                        return;
+                    }
+                    if (method.equals("DELETE") && path.length == 2) {
+                        cancelOrder(exchange, orderId(path[1]));
+                        return;
+                    }
+                    break;
+                case "bake":
+                    if (method.equals("POST") && path.length == 1) {
+                        bake(exchange, params);
+                        return;
+                    }
+                    break;
+                case "prices":
+                    if (method.equals("PUT") && path.length == 2) {
+                        updatePrice(exchange, path[1], params);
+                        return;
+                    }
+                    break;
+                case "report":
+                    if (method.equals("GET") && path.length == 1) {
+                        send(exchange, 200, "text/plain", cafe.salesReport());
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            sendError(exchange, 404, "No such resource: " + method + " " + exchange.getRequestURI().getPath());
+        } catch (IllegalArgumentException e) {
+            // Includes NumberFormatException from bad amounts and quantities
+            sendError(exchange, 400, e.getMessage());
+        } catch (RuntimeException e) {
+            sendError(exchange, 500, e.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // ----- Endpoints -----
+
+    private void menu(HttpExchange exchange) throws IOException {
+        MenuSnapshot prices = cafe.getMenuSnapshot();
+        StringBuilder json = new StringBuilder(256).append("{\"items\":[");
+        String sep = "";
+        for (FoodItem item : cafe.getMenuItems()) {
+            json.append(sep).append("{\"name\":");
+            quote(json, item.getName()).append(",\"price\":");
+            amount(json, prices.priceOf(item)).append('}');
+            sep = ",";
+        }
+        json.append("],\"combos\":[");
+        sep = "";
+        List<Combo> combos = cafe.getCombos();
+        for (int i = 0; i < combos.size(); i++) {
+            json.append(sep).append("{\"number\":").append(i + 1).append(",\"name\":");
+            quote(json, combos.get(i).getName()).append(",\"price\":");
+            amount(json, prices.pricingOf(combos.get(i)).getTotalCents()).append('}');
+            sep = ",";
+        }
+        send(exchange, 200, "application/json", json.append("]}").toString());
+    }
+
+    private void createOrder(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+        String payment = first(params, "payment");
+        long paymentCents = payment == null ? -1 : Money.parse(payment);
+        String key = payment == null ? null : exchange.getRequestHeaders().getFirst(IDEMPOTENCY_KEY);
+        GeekCafe.Receipt earlier = key == null ? null : cafe.getReceipt(key);
+        if (earlier != null) {
+            sendReceipt(exchange, 201, -1, earlier);
+            return;
+        }
+        if (payment == null && !makeRoom()) {
+            sendError(exchange, 503, "Too many open orders");
+            return;
+        }
+
+        Order order = cafe.newOrder();
+        boolean added;
+        try {
+            added = addLines(order, params);
+        } catch (RuntimeException e) {
+            order.cancel();
+            throw e;
+        }
+        if (!added) {
+            order.cancel();
+            sendError(exchange, 409, "Not enough muffins");
+            return;
+        }
+
+        if (payment != null && key != null) {
+            GeekCafe.Receipt receipt = cafe.completeOrder(key, order, paymentCents);
+            if (receipt == null) {
+                order.cancel();
+                sendError(exchange, 402, "Payment does not cover the total");
+                return;
+            }
+            sendReceipt(exchange, 201, -1, receipt);
+            return;
+        }
+        if (payment != null) {
+            long change = cafe.completeOrder(order, paymentCents);
+            if (change < 0) {
+                order.cancel();
+                sendError(exchange, 402, "Payment does not cover the total");
+                return;
+            }
+            sendOrder(exchange, 201, -1, order, change);
+            return;
+        }
+
+        cafe.applyBundles(order);
+        long id = nextOrderId.incrementAndGet();
+        openOrders.put(id, new OpenOrder(order, now()));
+        sendOrder(exchange, 201, id, order, -1);
+    }
+
+    /**
+     * Adds the item and combo lines of a request to an order.
+     *
+     * @return false if a line could not get its muffins
+     */
+    private boolean addLines(Order order, Map<String, List<String>> params) {
+        List<String> items = values(params, "item");
+        List<String> comboLines = values(params, "combo");
+        if (items.isEmpty() && comboLines.isEmpty()) {
+            throw new IllegalArgumentException("An order needs at least one item or combo");
+        }
+        for (String line : items) {
+            FoodItem item = cafe.getItem(lineName(line));
+            if (item == null) {
+                throw new IllegalArgumentException("No such item: " + lineName(line));
+            }
+            if (!order.addItem(item, lineQty(line))) {
+                return false;
+            }
+        }
+        List<Combo> combos = cafe.getCombos();
+        for (String line : comboLines) {
+            int number = Integer.parseInt(lineName(line));
+            if (number < 1 || number > combos.size()) {
+                throw new IllegalArgumentException("No such combo: " + number);
+            }
+            if (!order.addCombo(combos.get(number - 1), lineQty(line))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void payOrder(HttpExchange exchange, long id, Map<String, List<String>> params) throws IOException {
+        long paymentCents = Money.parse(required(params, "payment"));
+        String key = exchange.getRequestHeaders().getFirst(IDEMPOTENCY_KEY);
+        GeekCafe.Receipt earlier = key == null ? null : cafe.getReceipt(key);
+        if (earlier != null) {
+            sendReceipt(exchange, 200, id, earlier);
+            return;
+        }
+        // Removing the order claims it, so two payments cannot both finalize it
+        OpenOrder open = openOrders.remove(id);
+        if (open == null) {
+            sendError(exchange, 404, "No open order " + id);
+            return;
+        }
+        Order order = open.order;
+        try {
+            if (key != null) {
+                GeekCafe.Receipt receipt = cafe.completeOrder(key, order, paymentCents);
+                if (receipt == null) {
+                    openOrders.put(id, new OpenOrder(order, now()));
+                    sendError(exchange, 402, "Payment does not cover the total");
+                    return;
+                }
+                sendReceipt(exchange, 200, id, receipt);
+                return;
+            }
+            long change = cafe.completeOrder(order, paymentCents);
+            if (change < 0) {
+                openOrders.put(id, new OpenOrder(order, now()));
+                sendError(exchange, 402, "Payment does not cover the total");
+                return;
+            }
+            sendOrder(exchange, 200, id, order, change);
+        } catch (HoldExpiredException e) {
+            // Left unpaid too long and its muffins were sold; the order is gone
+            order.cancel();
+            sendError(exchange, 409, e.getMessage());
+        } catch (RuntimeException e) {
+            // No longer an open order, so nothing else would give its muffins back
+            order.cancel();
+            throw e;
+        }
+    }
+
+    private void cancelOrder(HttpExchange exchange, long id) throws IOException {
+        OpenOrder open = openOrders.remove(id);
+        if (open == null) {
+            sendError(exchange, 404, "No open order " + id);
+            return;
+        }
+        open.order.cancel();
+        exchange.sendResponseHeaders(204, -1);
+    }
+
+    private void bake(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+        String qty = first(params, "qty");
+        int muffins = qty == null ? DEFAULT_BAKE : Integer.parseInt(qty);
+        if (muffins <= 0) {
+            throw new IllegalArgumentException("qty must be positive");
+        }
+        cafe.bake(muffins);
+        StringBuilder json = new StringBuilder(32).append("{\"muffins\":")
+                .append(cafe.getItem("muffin").getStock()).append('}');
+        send(exchange, 200, "application/json", json.toString());
+    }
+
+    private void updatePrice(HttpExchange exchange, String name, Map<String, List<String>> params) throws IOException {
+        long priceCents = Money.parse(required(params, "price"));
+        if (priceCents <= 0) {
+            throw new IllegalArgumentException("price must be positive");
+        }
+        FoodItem item = cafe.getItem(name);
+        if (item == null) {
+            sendError(exchange, 404, "No such item: " + name);
+            return;
+        }
+        cafe.updatePrice(item, priceCents);
+        StringBuilder json = new StringBuilder(64).append("{\"name\":");
+        quote(json, item.getName()).append(",\"price\":");
+        amount(json, priceCents).append('}');
+        send(exchange, 200, "application/json", json.toString());
+    }
+
+    // ----- Open orders -----
+
+    /**
+     * Cancels the open orders left idle too long, at most once per
+     * quarter of the idle time unless the cap has been reached.
+     *
+     * @return false if the cap is still reached; a new order is refused
+     */
+    private boolean makeRoom() {
+        long now = now();
+        long due = nextSweepMillis.get();
+        boolean full = openOrders.size() >= maxOpenOrders;
+        if ((full || now - due >= 0) && nextSweepMillis.compareAndSet(due, now + idleMillis / 4)) {
+            evictIdle(now);
+        }
+        return openOrders.size() < maxOpenOrders;
+    }
+
+    private void evictIdle(long now) {
+        for (Map.Entry<Long, OpenOrder> entry : openOrders.entrySet()) {
+            OpenOrder open = entry.getValue();
+            // Removing only this entry loses to a payment that claimed it first
+            if (now - open.touchedMillis >= idleMillis && openOrders.remove(entry.getKey(), open)) {
+                open.order.cancel();
+                evictedOrders.increment();
+            }
+        }
+    }
+
+    private long now() {
+        return clock.getAsLong();
+    }
+
+    // ----- Parameters -----
+
+    /**
+     * Collects form fields from the query string and a form-encoded body.
+     */
+    private static Map<String, List<String>> params(HttpExchange exchange) throws IOException {
+        Map<String, List<String>> params = new HashMap<>();
+        addParams(params, exchange.getRequestURI().getRawQuery());
+        try (InputStream body = exchange.getRequestBody()) {
+            byte[] bytes = body.readAllBytes();
+            if (bytes.length > 0) {
+                addParams(params, new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static void addParams(Map<String, List<String>> params, String form) {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        }
+    }
+
+    private static List<String> values(Map<String, List<String>> params, String key) {
+        return params.getOrDefault(key, List.of());
+    }
+
+    private static String first(Map<String, List<String>> params, String key) {
+        List<String> values = params.get(key);
+        return values == null ? null : values.get(0);
+    }
+
+    private static String required(Map<String, List<String>> params, String key) {
+        String value = first(params, key);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter: " + key);
+        }
+        return value;
+    }
+
+    private static long orderId(String text) {
+        return Long.parseLong(text);
+    }
+
+    /** The name or number before the ':' of an order line. */
+    private static String lineName(String line) {
+        int colon = line.indexOf(':');
+        return colon < 0 ? line : line.substring(0, colon);
+    }
+
+    /** The quantity after the ':' of an order line; 1 if omitted. */
+    private static int lineQty(String line) {
+        int colon = line.indexOf(':');
+        int qty = colon < 0 ? 1 : Integer.parseInt(line.substring(colon + 1));
+        if (qty <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive: " + line);
+        }
+        return qty;
+    }
+
+    // ----- Responses -----
+
+    private static void sendOrder(HttpExchange exchange, int status, long id, Order order, long change)
+            throws IOException {
+        sendTotal(exchange, status, id, order.calculateTotalCents(), change);
+    }
+
+    private static void sendReceipt(HttpExchange exchange, int status, long id, GeekCafe.Receipt receipt)
+            throws IOException {
+        if (receipt.isDuplicate()) {
+            exchange.getResponseHeaders().set("Idempotent-Replayed", "true");
+        }
+        sendTotal(exchange, status, id, receipt.getTotalCents(), receipt.getChangeCents());
+    }
+
+    private static void sendTotal(HttpExchange exchange, int status, long id, long total, long change)
+            throws IOException {
+        StringBuilder json = new StringBuilder(64).append('{');
+        if (id >= 0) {
+            json.append("\"id\":").append(id).append(',');
+        }
+        json.append("\"total\":");
+        amount(json, total);
+        if (change >= 0) {
+            json.append(",\"change\":");
+            amount(json, change);
+        }
+        send(exchange, status, "application/json", json.append('}').toString());
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder json = new StringBuilder(64).append("{\"error\":");
+        quote(json, message == null ? "" : message).append('}');
+        send(exchange, status, "application/json", json.toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /** Appends an amount as a JSON string, e.g. "6.00". */
+    private static StringBuilder amount(StringBuilder json, long cents) {
+        json.append('"');
+        return Money.appendTo(json, cents).append('"');
+    }
+
+    private static StringBuilder quote(StringBuilder json, String text) {
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+}
@@ -0,0 +1,216 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * Unit tests for the CafeHttpServer class.
+ *
+ * These tests validate:
+ * - Orders can be created, paid and cancelled over HTTP
+ * - Stock and payment problems are refused with the right status
+ * - Bakes and price changes reach the cafe
+ * - Retried payments with an Idempotency-Key sell nothing twice
+ * - An open order left too long loses its muffins and is refused payment
+ * - Idle open orders are cancelled, and too many open orders are refused
+ * - A payment that fails gives the order's muffins back
+ */
+public class CafeHttpServerTest {
+    private GeekCafe cafe;              // Cafe behind the server
+    private CafeHttpServer server;      // Server on a free local port
+    private HttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        cafe = new GeekCafe();
+        server = CafeHttpServer.start(cafe, 0);
+        client = HttpClient.newHttpClient();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    /**
+     * 2 muffins @ $2.00 + 1 Coffee+Muffin combo ($3.50) = $7.50,
+     * paid with $10.00 in the same request.
+     */
+    @Test
+    public void orderPaidOnCreation() throws Exception {
+        HttpResponse<String> response = send("POST", "/orders", "item=muffin:2&combo=1:1&payment=10.00");
+
+        assertEquals(201, response.statusCode());
+        assertEquals("{\"total\":\"7.50\",\"change\":\"2.50\"}", response.body());
+        assertEquals(25 - 3, cafe.getItem("muffin").getStock());
+        assertEquals(0, server.getOpenOrderCount());
+    }
+
+    /**
+     * An open order refuses a short payment, stays open, then is paid.
+     */
+    @Test
+    public void openOrderPaidLater() throws Exception {
+        HttpResponse<String> created = send("POST", "/orders", "item=coffee:2");
+        assertEquals(201, created.statusCode());
+        assertEquals("{\"id\":1,\"total\":\"5.00\"}", created.body());
+
+        assertEquals(402, send("POST", "/orders/1/pay", "payment=4.00").statusCode());
+        assertEquals(1, server.getOpenOrderCount());
+
+        HttpResponse<String> paid = send("POST", "/orders/1/pay", "payment=5.00");
+        assertEquals(200, paid.statusCode());
+        assertEquals(2, cafe.getItem("coffee").getSoldCount());
+        assertEquals(404, send("POST", "/orders/1/pay", "payment=5.00").statusCode());
+    }
+
+    /**
+     * Muffins held by an open order are unavailable until it is cancelled.
+     */
+    @Test
+    public void cancelReleasesMuffins() throws Exception {
+        assertEquals(201, send("POST", "/orders", "item=muffin:20").statusCode());
+        assertEquals(409, send("POST", "/orders", "item=muffin:10").statusCode());
+
+        assertEquals(204, send("DELETE", "/orders/1", null).statusCode());
+        assertEquals(201, send("POST", "/orders", "item=muffin:10&payment=20").statusCode());
+        assertEquals(15, cafe.getItem("muffin").getStock());
+    }
+
+    /**
+     * A kiosk pays 3 muffins ($6.00) with $10.00, times out and retries
+     * twice; the muffins are sold once and every reply is the same.
+     */
+    @Test
+    public void retriedPaymentIsReplayed() throws Exception {
+        HttpResponse<String> first = send("POST", "/orders", "item=muffin:3&payment=10.00", "kiosk-7-1");
+        HttpResponse<String> retry = send("POST", "/orders", "item=muffin:3&payment=10.00", "kiosk-7-1");
+        assertEquals(201, retry.statusCode());
+        assertEquals(first.body(), retry.body());
+        assertEquals("true", retry.headers().firstValue("Idempotent-Replayed").orElse(""));
+        assertFalse(first.headers().firstValue("Idempotent-Replayed").isPresent());
+        assertEquals(22, cafe.getItem("muffin").getStock());
+        assertEquals(3, cafe.getItem("muffin").getSoldCount());
+
+        // Paying an open order later, retried after the order is gone
+        assertEquals(201, send("POST", "/orders", "item=coffee:2").statusCode());
+        assertEquals(402, send("POST", "/orders/1/pay", "payment=4.00", "till-2-9").statusCode());
+        HttpResponse<String> paid = send("POST", "/orders/1/pay", "payment=5.00", "till-2-9");
+        assertEquals(200, paid.statusCode());
+        assertEquals(paid.body(), send("POST", "/orders/1/pay", "payment=5.00", "till-2-9").body());
+        assertEquals(2, cafe.getItem("coffee").getSoldCount());
+    }
+
+    /**
+     * An open order of 20 muffins is left until its hold expires; another
+     * customer buys 10, so paying the first order is refused.
+     */
+    @Test
+    public void abandonedOrderLosesItsMuffins() throws Exception {
+        cafe.startHoldExpiry(200);
+        try {
+            assertEquals(201, send("POST", "/orders", "item=muffin:20").statusCode());
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (cafe.getMetrics().getMuffinsAvailable() < 25 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(201, send("POST", "/orders", "item=muffin:10&payment=20").statusCode());
+
+            assertEquals(409, send("POST", "/orders/1/pay", "payment=40.00").statusCode());
+            assertEquals(0, server.getOpenOrderCount());
+            assertEquals(15, cafe.getItem("muffin").getStock());
+            assertEquals(15, cafe.getMetrics().getMuffinsAvailable());
+        } finally {
+            cafe.stopHoldExpiry();
+        }
+    }
+
+    /**
+     * With room for 2 open orders idle for at most 300 ms, a third is
+     * refused with 503 and holds nothing. Once the first two have been
+     * idle long enough they are cancelled to make room, their muffins go
+     * back and paying them finds no order.
+     */
+    @Test
+    public void idleOrdersAreEvictedAndTheCapIsKept() throws Exception {
+        long[] now = { 10_000 };
+        server.close();
+        server = CafeHttpServer.start(cafe, 0, 2, 300, () -> now[0]);
+        assertEquals(201, send("POST", "/orders", "item=muffin:5").statusCode());
+        assertEquals(201, send("POST", "/orders", "item=muffin:5").statusCode());
+        assertEquals(503, send("POST", "/orders", "item=muffin:5").statusCode());
+        assertEquals(201, send("POST", "/orders", "item=muffin:1&payment=2.00").statusCode());
+        assertEquals(2, server.getOpenOrderCount());
+        assertEquals(25 - 1 - 10, cafe.getMetrics().getMuffinsAvailable());
+
+        now[0] += 299;
+        assertEquals(503, send("POST", "/orders", "item=muffin:3").statusCode());
+        now[0] += 1;
+        assertEquals(201, send("POST", "/orders", "item=muffin:3").statusCode());
+        assertEquals(2, server.getEvictedOrderCount());
+        assertEquals(1, server.getOpenOrderCount());
+        assertEquals(25 - 1 - 3, cafe.getMetrics().getMuffinsAvailable());
+        assertEquals(404, send("POST", "/orders/1/pay", "payment=10.00").statusCode());
+    }
+
+    /**
+     * Paying an open order fails inside the cafe; the order is gone, so
+     * its 5 held muffins go back rather than staying held by nobody.
+     */
+    @Test
+    public void failedPaymentReleasesMuffins() throws Exception {
+        assertEquals(201, send("POST", "/orders", "item=coffee:1&item=muffin:5").statusCode());
+        assertEquals(20, cafe.getMetrics().getMuffinsAvailable());
+        cafe.addSaleListener((item, combo, qty, unitPriceCents) -> {
+            throw new IllegalStateException("Sales records unavailable");
+        });
+
+        assertEquals(500, send("POST", "/orders/1/pay", "payment=20.00").statusCode());
+        assertEquals(0, server.getOpenOrderCount());
+        assertEquals(25, cafe.getMetrics().getMuffinsAvailable());
+        assertEquals(0, cafe.getItem("muffin").getSoldCount());
+    }
+
+    @Test
+    public void bakeAndPriceUpdate() throws Exception {
+        HttpResponse<String> baked = send("POST", "/bake", "qty=10");
+        assertEquals("{\"muffins\":35}", baked.body());
+
+        assertEquals(200, send("PUT", "/prices/coffee", "price=2.75").statusCode());
+        assertEquals(275, cafe.getItem("coffee").getPriceCents());
+        assertTrue(send("GET", "/report", null).body().contains("SALES REPORT"));
+    }
+
+    @Test
+    public void badRequestsAreRejected() throws Exception {
+        assertEquals(400, send("POST", "/orders", "item=tea:1").statusCode());
+        assertEquals(400, send("POST", "/orders", "item=muffin:x").statusCode());
+        assertEquals(400, send("POST", "/orders", "").statusCode());
+        assertEquals(404, send("GET", "/nothing", null).statusCode());
+        assertEquals(25, cafe.getItem("muffin").getStock());
+        assertEquals(0, server.getOpenOrderCount());
+    }
+
+    private HttpResponse<String> send(String method, String path, String form) throws Exception {
+        return send(method, path, form, null);
+    }
+
+    private HttpResponse<String> send(String method, String path, String form, String key) throws Exception {
+        HttpRequest.BodyPublisher body = form == null
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofString(form);
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + path))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .method(method, body);
+        if (key != null) {
+            request.header(CafeHttpServer.IDEMPOTENCY_KEY, key);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
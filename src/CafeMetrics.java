@@ -0,0 +1,294 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * CafeMetrics.java
+ *
+ * Live latency and throughput figures for the order hot path, published
+ * as a platform MXBean so they can be watched with JConsole or VisualVM.
+ *
+ * Every completed and unpaid order is counted; rejections for stock are
+ * counted by StockReservations. Latencies are sampled: GeekCafe.newOrder()
+ * picks one order in getLatencySampleEvery() at random and stamps its
+ * creation time, and completeOrder() then times how long that order took
+ * to build (creation to payment), to total, to finalize and to process
+ * the payment as a whole, each into a LatencyHistogram.
+ *
+ * A clock read costs tens of nanoseconds, about as much as a small order
+ * itself, so timing every order would slow the hot path noticeably;
+ * sampling keeps the cost to an uncontended counter add per order while
+ * still giving fair percentiles. Recording allocates nothing and takes no
+ * lock, and can be switched off entirely with setEnabled(false).
+ */
+public class CafeMetrics implements CafeMetricsMXBean {
+
+    /** JMX name the metrics are registered under. */
+    public static final String OBJECT_NAME = "GeekCafe:type=CafeMetrics";
+
+    /** Default latency sampling: one order in this many is timed. */
+    public static final int DEFAULT_SAMPLE_EVERY = 16;
+
+    private final StockReservations reservations;
+    private final FoodItem muffin;
+    private volatile boolean enabled = true;
+    private volatile int sampleEvery = DEFAULT_SAMPLE_EVERY;
+
+    private final LatencyHistogram build = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final LatencyHistogram finalize = new LatencyHistogram();
+    private final LatencyHistogram payment = new LatencyHistogram();
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder unpaid = new LongAdder();
+    private volatile long rejectedBaseline;
+
+    // Throughput between reads of getOrdersPerSecond(); guarded by this
+    private long rateNanos;
+    private long rateCount;
+    private double rate;
+
+    /**
+     * Creates the metrics for a cafe.
+     *
+     * @param reservations the cafe's reservations, for stock rejections
+     * @param muffin       the stock-limited item to report availability of
+     */
+    public CafeMetrics(StockReservations reservations, FoodItem muffin) {
+        this.reservations = reservations;
+        this.muffin = muffin;
+    }
+
+    // ----- Recording -----
+
+    /**
+     * Decides whether a new order's latency is sampled.
+     *
+     * @return System.nanoTime() to stamp on a sampled order, or 0
+     */
+    public long sampleOrderStart() {
+        if (!enabled) {
+            return 0;
+        }
+        int every = sampleEvery;
+        if (every > 1 && ThreadLocalRandom.current().nextInt(every) != 0) {
+            return 0;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the latencies of a sampled order.
+     *
+     * @param createdNanos   when the order was created
+     * @param startNanos     when payment processing started
+     * @param totalledNanos  when the total had been computed
+     * @param finalizedNanos when the order had been finalized
+     */
+    public void recordLatencies(long createdNanos, long startNanos, long totalledNanos, long finalizedNanos) {
+        build.record(startNanos - createdNanos);
+        total.record(totalledNanos - startNanos);
+        finalize.record(finalizedNanos - totalledNanos);
+        payment.record(finalizedNanos - startNanos);
+    }
+
+    /**
+     * Counts a paid and finalized order.
+     */
+    public void orderCompleted() {
+        if (enabled) {
+            completed.increment();
+        }
+    }
+
+    /**
+     * Counts an order whose payment did not cover its total.
+     */
+    public void orderUnpaid() {
+        if (enabled) {
+            unpaid.increment();
+        }
+    }
+
+    // ----- MXBean -----
+
+    @Override
+    public long getOrdersCompleted() {
+        return completed.sum();
+    }
+
+    @Override
+    public long getOrdersUnpaid() {
+        return unpaid.sum();
+    }
+
+    @Override
+    public long getRejectedForStock() {
+        return reservations.getRejections() - rejectedBaseline;
+    }
+
+    @Override
+    public synchronized double getOrdersPerSecond() {
+        long now = System.nanoTime();
+        long count = completed.sum();
+        if (rateNanos == 0) {
+            rateNanos = now;
+            rateCount = count;
+        } else if (now - rateNanos >= TimeUnit.SECONDS.toNanos(1)) {
+            rate = (count - rateCount) * (double) TimeUnit.SECONDS.toNanos(1) / (now - rateNanos);
+            rateNanos = now;
+            rateCount = count;
+        }
+        return rate;
+    }
+
+    @Override
+    public LatencySummary getOrderBuildLatency() {
+        return new LatencySummary(build);
+    }
+
+    @Override
+    public LatencySummary getTotalLatency() {
+        return new LatencySummary(total);
+    }
+
+    @Override
+    public LatencySummary getFinalizeLatency() {
+        return new LatencySummary(finalize);
+    }
+
+    @Override
+    public LatencySummary getPaymentLatency() {
+        return new LatencySummary(payment);
+    }
+
+    @Override
+    public int getMuffinsAvailable() {
+        return reservations.available(muffin);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public int getLatencySampleEvery() {
+        return sampleEvery;
+    }
+
+    @Override
+    public void setLatencySampleEvery(int every) {
+        if (every < 1) {
+            throw new IllegalArgumentException("Sample every must be at least 1");
+        }
+        sampleEvery = every;
+    }
+
+    @Override
+    public synchronized void reset() {
+        build.reset();
+        total.reset();
+        finalize.reset();
+        payment.reset();
+        completed.reset();
+        unpaid.reset();
+        rejectedBaseline = reservations.getRejections();
+        rateNanos = 0;
+        rate = 0;
+    }
+
+    // ----- Registration -----
+
+    /**
+     * Publishes the metrics on the platform MBean server.
+     *
+     * @param name distinguishes several cafes in one JVM, or null for none
+     * @return the name registered
+     * @throws JMException if the name is taken or invalid
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = objectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server.
+     *
+     * @param name the name given to register()
+     * @throws JMException if they are not registered
+     */
+    public void unregister(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.unregisterMBean(objectName(name));
+    }
+
+    private static ObjectName objectName(String name) throws JMException {
+        return new ObjectName(name == null ? OBJECT_NAME : OBJECT_NAME + ",name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * Count, mean and percentiles of one latency histogram, in microseconds.
+     */
+    public static final class LatencySummary {
+        private final long count;
+        private final double meanMicros;
+        private final double p50Micros;
+        private final double p90Micros;
+        private final double p99Micros;
+        private final double p999Micros;
+        private final double maxMicros;
+
+        LatencySummary(LatencyHistogram histogram) {
+            count = histogram.getCount();
+            meanMicros = histogram.getMean() / 1000;
+            p50Micros = micros(histogram.getPercentile(0.50));
+            p90Micros = micros(histogram.getPercentile(0.90));
+            p99Micros = micros(histogram.getPercentile(0.99));
+            p999Micros = micros(histogram.getPercentile(0.999));
+            maxMicros = micros(histogram.getMax());
+        }
+
+        private static double micros(long nanos) {
+            return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMicros() {
+            return meanMicros;
+        }
+
+        public double getP50Micros() {
+            return p50Micros;
+        }
+
+        public double getP90Micros() {
+            return p90Micros;
+        }
+
+        public double getP99Micros() {
+            return p99Micros;
+        }
+
+        public double getP999Micros() {
+            return p999Micros;
+        }
+
+        public double getMaxMicros() {
+            return maxMicros;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * CafeMetricsMXBean.java
+ *
+ * Management interface of CafeMetrics, as seen by JConsole, VisualVM or
+ * any other JMX client. Latencies are summarized in microseconds, over
+ * the orders sampled.
+ */
+public interface CafeMetricsMXBean {
+
+    long getOrdersCompleted();
+
+    long getOrdersUnpaid();
+
+    /**
+     * Returns how often an order line was refused because too few
+     * muffins were available.
+     *
+     * @return refused reservations
+     */
+    long getRejectedForStock();
+
+    /**
+     * Returns completed orders per second between the two latest reads
+     * at least a second apart (JConsole polls every few seconds).
+     *
+     * @return recent throughput, 0 on the first read
+     */
+    double getOrdersPerSecond();
+
+    /**
+     * Returns the time from creating an order to paying for it.
+     *
+     * @return order build latency summary
+     */
+    CafeMetrics.LatencySummary getOrderBuildLatency();
+
+    /**
+     * Returns the time to apply bundles and compute the order total.
+     *
+     * @return total computation latency summary
+     */
+    CafeMetrics.LatencySummary getTotalLatency();
+
+    /**
+     * Returns the time to finalize an order, including its sale listeners
+     * (e.g. waiting for the sales journal).
+     *
+     * @return finalize latency summary
+     */
+    CafeMetrics.LatencySummary getFinalizeLatency();
+
+    /**
+     * Returns the whole time taken to process a payment: total,
+     * finalize and everything in between.
+     *
+     * @return payment latency summary
+     */
+    CafeMetrics.LatencySummary getPaymentLatency();
+
+    int getMuffinsAvailable();
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * Returns how sparsely order latencies are sampled.
+     *
+     * @return one order in this many is timed
+     */
+    int getLatencySampleEvery();
+
+    /**
+     * Changes how sparsely order latencies are sampled; 1 times every
+     * order, at the cost of a few clock reads each.
+     *
+     * @param every one order in this many is timed
+     */
+    void setLatencySampleEvery(int every);
+
+    /**
+     * Clears every latency histogram and counter.
+     */
+    void reset();
+}
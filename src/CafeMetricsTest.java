@@ -0,0 +1,101 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Unit tests for the CafeMetrics class.
+ *
+ * These tests validate:
+ * - Completed, unpaid and stock-rejected orders are counted
+ * - Sampled orders are timed
+ * - The metrics can be read through the platform MBean server
+ */
+public class CafeMetricsTest {
+    private GeekCafe cafe;
+    private ObjectName name;
+
+    @Before
+    public void setUp() throws Exception {
+        cafe = new GeekCafe();
+        name = cafe.getMetrics().register("test");
+        cafe.getMetrics().setLatencySampleEvery(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cafe.getMetrics().unregister("test");
+    }
+
+    /**
+     * Two paid orders, one short payment, one order for 30 of 25 muffins.
+     */
+    @Test
+    public void ordersAreCounted() {
+        CafeMetrics metrics = cafe.getMetrics();
+        for (int i = 0; i < 2; i++) {
+            Order order = cafe.newOrder();
+            order.addItem(cafe.getItem("coffee"), 1);
+            assertEquals(50, cafe.completeOrder(order, 300));
+        }
+        Order unpaid = cafe.newOrder();
+        unpaid.addItem(cafe.getItem("coffee"), 1);
+        assertEquals(-1, cafe.completeOrder(unpaid, 100));
+        assertFalse(cafe.newOrder().addItem(cafe.getItem("muffin"), 30));
+
+        assertEquals(2, metrics.getOrdersCompleted());
+        assertEquals(1, metrics.getOrdersUnpaid());
+        assertEquals(1, metrics.getRejectedForStock());
+        assertEquals(2, metrics.getPaymentLatency().getCount());
+        assertTrue(metrics.getFinalizeLatency().getMaxMicros() > 0);
+        assertTrue(metrics.getOrdersPerSecond() >= 0);
+
+        metrics.reset();
+        assertEquals(0, metrics.getOrdersCompleted());
+        assertEquals(0, metrics.getRejectedForStock());
+    }
+
+    /**
+     * Sampling one order in 16: every order counted, about 1/16 timed.
+     */
+    @Test
+    public void latenciesAreSampled() {
+        CafeMetrics metrics = cafe.getMetrics();
+        metrics.setLatencySampleEvery(16);
+        for (int i = 0; i < 1600; i++) {
+            Order order = cafe.newOrder();
+            order.addItem(cafe.getItem("coffee"), 1);
+            cafe.completeOrder(order, 300);
+        }
+        assertEquals(1600, metrics.getOrdersCompleted());
+        long timed = metrics.getPaymentLatency().getCount();
+        assertTrue("timed " + timed, timed > 50 && timed < 200);
+        assertEquals(timed, metrics.getFinalizeLatency().getCount());
+
+        metrics.setEnabled(false);
+        Order order = cafe.newOrder();
+        order.addItem(cafe.getItem("coffee"), 1);
+        cafe.completeOrder(order, 300);
+        assertEquals(1600, metrics.getOrdersCompleted());
+        assertEquals(timed, metrics.getPaymentLatency().getCount());
+    }
+
+    @Test
+    public void readableOverJmx() throws Exception {
+        Order order = cafe.newOrder();
+        order.addItem(cafe.getItem("muffin"), 2);
+        cafe.completeOrder(order, 400);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(1L, server.getAttribute(name, "OrdersCompleted"));
+        assertEquals(23, server.getAttribute(name, "MuffinsAvailable"));
+        CompositeData latency = (CompositeData) server.getAttribute(name, "PaymentLatency");
+        assertEquals(1L, latency.get("count"));
+        assertTrue((Double) latency.get("maxMicros") > 0);
+    }
+}
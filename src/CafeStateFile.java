@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.zip.CRC32C;
+
+/**
+ * CafeStateFile.java
+ *
+ * Compact, versioned binary image of a whole cafe: its menu items and
+ * combos, every item's price, stock, sold count and revenue, and the
+ * price snapshot version. Saving a cafe on shutdown and loading it on
+ * the next start brings the cafe back as it was, in milliseconds even
+ * for a large catalog with a long history, with no journal to replay.
+ *
+ * The file is written through a FileChannel from one direct buffer to a
+ * temporary file, forced to disk and moved over the old image, so a
+ * crash while saving leaves the previous image intact. It is read back
+ * through a read-only memory mapping: records are fixed-size and read in
+ * place, and only item and combo names are decoded into Strings.
+ *
+ * Layout (little-endian):
+ *   header  [magic int][format version int][menu version long]
+ *           [saved at millis long][items int][combos int]
+ *   items   [name offset int][name length int][price cents long]
+ *           [sold long][revenue cents long][stock int][0 int] per item
+ *   combos  [name offset int][name length int][beverage slot int]
+ *           [muffin slot int][discount cents long]          per combo
+ *   names   UTF-8 bytes, offsets relative to the start of this table
+ *   [crc32c int] over everything before it
+ *
+ * Slots are positions in the item list. Stock and sales are read from
+ * each item's snapshot(), so every item's figures are consistent; save a
+ * cafe that is not taking orders for a cafe-wide consistent image.
+ */
+public final class CafeStateFile {
+
+    private static final int MAGIC = 0x47435354;   // "GCST"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int ITEM_SIZE = 40;
+    private static final int COMBO_SIZE = 24;
+
+    private CafeStateFile() {
+    }
+
+    // ----- Saving -----
+
+    /**
+     * Saves a cafe's menu and state, replacing any earlier image.
+     *
+     * @param cafe the cafe to save
+     * @param file the image file
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(GeekCafe cafe, Path file) throws IOException {
+        List<FoodItem> items = cafe.getMenuItems();
+        List<Combo> combos = cafe.getCombos();
+        MenuSnapshot prices = cafe.getMenuSnapshot();
+
+        Map<FoodItem, Integer> slots = new IdentityHashMap<>();
+        List<byte[]> names = new ArrayList<>();
+        int namesSize = 0;
+        for (FoodItem item : items) {
+            slots.put(item, slots.size());
+            names.add(item.getName().getBytes(StandardCharsets.UTF_8));
+            namesSize += names.get(names.size() - 1).length;
+        }
+        for (Combo combo : combos) {
+            names.add(combo.getName().getBytes(StandardCharsets.UTF_8));
+            namesSize += names.get(names.size() - 1).length;
+        }
+
+        int size = HEADER_SIZE + items.size() * ITEM_SIZE + combos.size() * COMBO_SIZE + namesSize + 4;
+        ByteBuffer out = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(prices.getVersion())
+                .putLong(System.currentTimeMillis()).putInt(items.size()).putInt(combos.size());
+
+        int nameOffset = 0;
+        int n = 0;
+        for (FoodItem item : items) {
+            SalesSnapshot sales = item.snapshot();
+            int length = names.get(n++).length;
+            out.putInt(nameOffset).putInt(length).putLong(prices.priceOf(item))
+                    .putLong(sales.getSoldCount()).putLong(sales.getRevenueCents())
+                    .putInt(sales.getStock()).putInt(0);
+            nameOffset += length;
+        }
+        for (Combo combo : combos) {
+            int length = names.get(n++).length;
+            out.putInt(nameOffset).putInt(length)
+                    .putInt(slotOf(slots, combo.getBeverage(), combo))
+                    .putInt(slotOf(slots, combo.getMuffin(), combo))
+                    .putLong(combo.getDiscountCents());
+            nameOffset += length;
+        }
+        for (byte[] name : names) {
+            out.put(name);
+        }
+        CRC32C crc = new CRC32C();
+        out.flip();
+        crc.update(out.duplicate());
+        out.limit(size).position(size - 4);
+        out.putInt((int) crc.getValue());
+        out.flip();
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int slotOf(Map<FoodItem, Integer> slots, FoodItem item, Combo combo) throws IOException {
+        Integer slot = slots.get(item);
+        if (slot == null) {
+            throw new IOException("Combo " + combo.getName() + " uses " + item.getName() + ", which is not on the menu");
+        }
+        return slot;
+    }
+
+    // ----- Loading -----
+
+    /**
+     * Creates a cafe from a saved image.
+     *
+     * @param file  the image file
+     * @param input the new cafe's console input
+     * @return the restored cafe
+     * @throws IOException if the file cannot be read, is not an image,
+     *                     is corrupt or was written by a newer version
+     */
+    public static GeekCafe load(Path file, Scanner input) throws IOException {
+        MappedByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + 4 || size > Integer.MAX_VALUE) {
+                throw new IOException("Unrecognised cafe state file " + file);
+            }
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);   // Stays valid after close
+        }
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        if (in.getInt(0) != MAGIC) {
+            throw new IOException("Unrecognised cafe state file " + file);
+        }
+        if (in.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Cafe state file " + file + " has format version " + in.getInt(4)
+                    + ", expected " + FORMAT_VERSION);
+        }
+        int end = in.limit() - 4;
+        CRC32C crc = new CRC32C();
+        crc.update(in.duplicate().limit(end));
+        if ((int) crc.getValue() != in.getInt(end)) {
+            throw new IOException("Corrupt cafe state file " + file);
+        }
+
+        long menuVersion = in.getLong(8);
+        int itemCount = in.getInt(24);
+        int comboCount = in.getInt(28);
+        long tables = HEADER_SIZE + (long) itemCount * ITEM_SIZE + (long) comboCount * COMBO_SIZE;
+        if (itemCount < 0 || comboCount < 0 || tables > end) {
+            throw new IOException("Corrupt cafe state file " + file);
+        }
+        int names = (int) tables;
+
+        List<FoodItem> items = new ArrayList<>(itemCount);
+        for (int slot = 0, at = HEADER_SIZE; slot < itemCount; slot++, at += ITEM_SIZE) {
+            FoodItem item = new ConcurrentFoodItem(name(in, at, names, end), 0, 0);
+            item.setPriceCents(in.getLong(at + 8));
+            item.restore(in.getInt(at + 32), (int) in.getLong(at + 16), in.getLong(at + 24));
+            items.add(item);
+        }
+        List<Combo> combos = new ArrayList<>(comboCount);
+        for (int c = 0, at = HEADER_SIZE + itemCount * ITEM_SIZE; c < comboCount; c++, at += COMBO_SIZE) {
+            int beverage = in.getInt(at + 8);
+            int muffin = in.getInt(at + 12);
+            if (beverage < 0 || beverage >= itemCount || muffin < 0 || muffin >= itemCount) {
+                throw new IOException("Corrupt cafe state file " + file);
+            }
+            combos.add(new Combo(name(in, at, names, end), items.get(beverage), items.get(muffin),
+                    Money.toDollars(in.getLong(at + 16))));
+        }
+        return new GeekCafe(input, items, combos, menuVersion);
+    }
+
+    /** Decodes the name of the item or combo record at a position. */
+    private static String name(ByteBuffer in, int record, int names, int end) throws IOException {
+        int from = names + in.getInt(record);
+        int length = in.getInt(record + 4);
+        if (from < names || length < 0 || from + length > end) {
+            throw new IOException("Corrupt cafe state file: bad name at " + record);
+        }
+        return StandardCharsets.UTF_8.decode(in.duplicate().limit(from + length).position(from)).toString();
+    }
+}
@@ -0,0 +1,100 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Scanner;
+
+/**
+ * Unit tests for the CafeStateFile class.
+ *
+ * These tests validate:
+ * - Items, combos, prices, stock and sales survive a save and load
+ * - The restored cafe keeps taking orders and numbering price snapshots
+ * - Corrupt and foreign files are rejected
+ */
+public class CafeStateFileTest {
+    private Path dir;                   // Directory holding the image
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("state-test");
+        file = dir.resolve("cafe.state");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dir);
+    }
+
+    /**
+     * Sells 3 muffins and a coffee combo ($2.00 + $1.50 + $1.50 = $3.00
+     * combo, $6.00 muffins), bakes 10, raises coffee to $3.00.
+     */
+    @Test
+    public void stateSurvivesSaveAndLoad() throws IOException {
+        GeekCafe cafe = new GeekCafe(new Scanner(""));
+        Order order = cafe.newOrder();
+        assertTrue(order.addItem(cafe.getItem("muffin"), 3));
+        assertTrue(order.addCombo(cafe.getCombos().get(0), 1));
+        assertTrue(cafe.completeOrder(order, 100_00) >= 0);
+        cafe.bake(10);
+        cafe.updatePrice(cafe.getItem("coffee"), 300);
+        CafeStateFile.save(cafe, file);
+
+        GeekCafe restored = CafeStateFile.load(file, new Scanner(""));
+        assertEquals(cafe.getMenuItems().size(), restored.getMenuItems().size());
+        for (int i = 0; i < cafe.getMenuItems().size(); i++) {
+            FoodItem before = cafe.getMenuItems().get(i);
+            FoodItem after = restored.getMenuItems().get(i);
+            assertEquals(before.getName(), after.getName());
+            assertEquals(before.getPriceCents(), after.getPriceCents());
+            assertEquals(before.getStock(), after.getStock());
+            assertEquals(before.getSoldCount(), after.getSoldCount());
+            assertEquals(before.getRevenueCents(), after.getRevenueCents());
+        }
+        assertEquals(25 - 4 + 10, restored.getItem("muffin").getStock());
+        assertEquals(300, restored.getItem("coffee").getPriceCents());
+        Combo combo = restored.getCombos().get(0);
+        assertEquals("Coffee + Muffin", combo.getName());
+        assertSame(restored.getItem("coffee"), combo.getBeverage());
+        assertSame(restored.getItem("muffin"), combo.getMuffin());
+        assertEquals(cafe.getCombos().get(0).getPriceCents(), combo.getPriceCents());
+        assertEquals(cafe.getMenuSnapshot().getVersion(), restored.getMenuSnapshot().getVersion());
+
+        // The restored cafe sells from its restored stock and keeps counting versions
+        Order next = restored.newOrder();
+        assertTrue(next.addItem(restored.getItem("muffin"), 31));
+        assertFalse(next.addItem(restored.getItem("muffin"), 1));
+        restored.updatePrice(restored.getItem("shake"), 350);
+        assertEquals(cafe.getMenuSnapshot().getVersion() + 1, restored.getMenuSnapshot().getVersion());
+    }
+
+    @Test
+    public void corruptFileIsRejected() throws IOException {
+        CafeStateFile.save(new GeekCafe(new Scanner("")), file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 99 }), 40);   // Inside the first item's price
+        }
+        try {
+            CafeStateFile.load(file, new Scanner(""));
+            fail("Loaded a corrupt file");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Corrupt"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void foreignFileIsRejected() throws IOException {
+        Files.write(file, "Muffin,2.00,25\nCoffee,2.50,0\nShake,3.00,0\n".getBytes());
+        CafeStateFile.load(file, new Scanner(""));
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Combo.java
  * 
@@ -8,16 +10,31 @@
  * - The combo name
  * - The included beverage (FoodItem)
  * - The included muffin (FoodItem)
- * - The discount percentage (or value)
+ * - The discount, in dollars off the combined price
  * 
  * This class is primarily used for grouping items together 
  * to simplify sales and applying discounts.
+ *
+ * Like FoodItem, every combo on a menu has a dense integer id, its
+ * position among the menu's combos, or -1 until it is numbered.
+ *
+ * The discounted component prices are computed once and cached. A
+ * component's price change invalidates the cache of just the combos
+ * containing it, so totals are plain lookups and never see stale prices.
  */
 public class Combo {
+    private int id = -1;       // Dense id within the menu, used to index order lines
     private String name;
     private FoodItem beverage; // The beverage in the combo (coffee or shake)
     private FoodItem muffin;   // The muffin included in the combo
     private double discount;   // Discount applied to total combo price
+    private final long discountCents;
+
+    // ----- Price cache -----
+
+    private volatile Pricing pricing;         // Last computed prices, or null
+    private final AtomicInteger priceGeneration = new AtomicInteger(); // Bumped by every component price change
+    private volatile boolean watchingPrices;  // Registered with both components
 
     /**
      * Creates a new Combo.
@@ -25,13 +42,37 @@ public class Combo {
      * @param name     The name of the combo
      * @param beverage The beverage included in the combo
      * @param muffin   The muffin included in the combo
-     * @param discount The discount applied (e.g., 0.10 for 10% discount)
+     * @param discount The discount taken off the combined price, in dollars
+     *                 (e.g., 1.0 for $1.00, split evenly between the items)
      */
     public Combo(String name, FoodItem beverage, FoodItem muffin, double discount) {
         this.name = name;
         this.beverage = beverage;
         this.muffin = muffin;
         this.discount = discount;
+        this.discountCents = Money.ofDollars(discount);
+    }
+
+    /**
+     * Gets the dense id of the combo within its menu.
+     * 
+     * @return Combo id, or -1 if the combo is not on a menu
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Numbers the combo within its menu; see FoodItem.assignId().
+     *
+     * @param id the combo's position among the menu's combos
+     * @throws IllegalStateException if the combo is already on another menu
+     */
+    void assignId(int id) {
+        if (this.id >= 0 && this.id != id) {
+            throw new IllegalStateException(name + " is already combo " + this.id + " of a menu");
+        }
+        this.id = id;
     }
 
     /**
@@ -64,9 +105,120 @@ public class Combo {
     /**
      * Gets the discount applied to the combo.
      * 
-     * @return Discount value
+     * @return Discount in dollars off the combined price
      */
     public double getDiscount() {
         return discount;
     }
+
+    public long getDiscountCents() {
+        return discountCents;
+    }
+
+    /**
+     * Gets the discounted price charged for the beverage in this combo.
+     *
+     * @return Beverage price in cents
+     */
+    public long getBeveragePriceCents() {
+        return getPricing().getBeverageCents();
+    }
+
+    /**
+     * Gets the discounted price charged for the muffin in this combo.
+     *
+     * @return Muffin price in cents
+     */
+    public long getMuffinPriceCents() {
+        return getPricing().getMuffinCents();
+    }
+
+    /**
+     * Gets the price of one combo, in cents.
+     *
+     * @return Combo price in cents
+     */
+    public long getPriceCents() {
+        return getPricing().getTotalCents();
+    }
+
+    /**
+     * Gets the current discounted prices of both components together, so
+     * a sale cannot mix prices from before and after a price change.
+     *
+     * @return the combo's current pricing
+     */
+    public Pricing getPricing() {
+        Pricing p = pricing;
+        if (p != null && p.generation == priceGeneration.get()) {
+            return p;
+        }
+        return reprice();
+    }
+
+    /**
+     * Marks the cached prices stale. Called by a component whose price
+     * has just changed.
+     */
+    void invalidatePricing() {
+        priceGeneration.incrementAndGet();
+    }
+
+    private synchronized Pricing reprice() {
+        if (!watchingPrices) {
+            // Register before reading prices, so no later change is missed
+            beverage.addPricedCombo(this);
+            muffin.addPricedCombo(this);
+            watchingPrices = true;
+        }
+        Pricing p = priceAt(priceGeneration.get(), beverage.getPriceCents(), muffin.getPriceCents());
+        pricing = p;
+        return p;
+    }
+
+    /**
+     * Computes the combo's discounted prices for given component prices,
+     * e.g. those of a MenuSnapshot. The result is never cached.
+     *
+     * @param beverageCents the beverage's full price
+     * @param muffinCents   the muffin's full price
+     * @return the combo's pricing at those prices
+     */
+    Pricing priceWith(long beverageCents, long muffinCents) {
+        return priceAt(-1, beverageCents, muffinCents);
+    }
+
+    private Pricing priceAt(int generation, long beverageCents, long muffinCents) {
+        // The beverage takes the odd cent of an odd discount
+        long muffinOff = discountCents / 2;
+        long beverageOff = discountCents - muffinOff;
+        return new Pricing(generation, beverageCents - beverageOff, muffinCents - muffinOff);
+    }
+
+    /**
+     * Discounted component prices of a combo at one moment.
+     */
+    public static final class Pricing {
+        private final int generation;
+        private final long beverageCents;
+        private final long muffinCents;
+
+        Pricing(int generation, long beverageCents, long muffinCents) {
+            this.generation = generation;
+            this.beverageCents = beverageCents;
+            this.muffinCents = muffinCents;
+        }
+
+        public long getBeverageCents() {
+            return beverageCents;
+        }
+
+        public long getMuffinCents() {
+            return muffinCents;
+        }
+
+        public long getTotalCents() {
+            return beverageCents + muffinCents;
+        }
+    }
 }
@@ -0,0 +1,76 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+/**
+ * Unit tests for the Combo class.
+ *
+ * These tests validate:
+ * - The discount field sets the component prices
+ * - A component price change reprices only the combos containing it
+ */
+public class ComboTest {
+    private FoodItem muffin;
+    private FoodItem coffee;
+    private FoodItem shake;
+    private Combo coffeeMuffinCombo;
+    private Combo shakeMuffinCombo;
+
+    @Before
+    public void setUp() {
+        muffin = new FoodItem("Muffin", 2.00, 25);
+        coffee = new FoodItem("Coffee", 2.50, 0);
+        shake = new FoodItem("Shake", 3.00, 0);
+        coffeeMuffinCombo = new Combo("Coffee + Muffin", coffee, muffin, 1.0);
+        shakeMuffinCombo = new Combo("Shake + Muffin", shake, muffin, 1.5);
+    }
+
+    /**
+     * $1.00 off Coffee+Muffin: $2.00 + $1.50 = $3.50.
+     * $1.50 off Shake+Muffin: $2.25 + $1.25 = $3.50.
+     */
+    @Test
+    public void discountSplitBetweenComponents() {
+        assertEquals(200, coffeeMuffinCombo.getBeveragePriceCents());
+        assertEquals(150, coffeeMuffinCombo.getMuffinPriceCents());
+        assertEquals(350, coffeeMuffinCombo.getPriceCents());
+
+        assertEquals(225, shakeMuffinCombo.getBeveragePriceCents());
+        assertEquals(125, shakeMuffinCombo.getMuffinPriceCents());
+        assertEquals(350, shakeMuffinCombo.getPriceCents());
+    }
+
+    /**
+     * Coffee goes to $3.00: only Coffee+Muffin is repriced ($4.00).
+     */
+    @Test
+    public void priceChangeInvalidatesOnlyAffectedCombos() {
+        Combo.Pricing coffeeBefore = coffeeMuffinCombo.getPricing();
+        Combo.Pricing shakeBefore = shakeMuffinCombo.getPricing();
+
+        coffee.setPrice(3.00);
+
+        assertEquals(400, coffeeMuffinCombo.getPriceCents());
+        assertNotSame(coffeeBefore, coffeeMuffinCombo.getPricing());
+        assertSame(shakeBefore, shakeMuffinCombo.getPricing());
+    }
+
+    /**
+     * Muffin goes to $2.50: both combos and an order total follow; the
+     * muffin then sells at $2.00 in one combo and $1.75 in the other.
+     * Order: 1 Coffee+Muffin ($4.00) + 1 Shake+Muffin ($4.00) = $8.00.
+     */
+    @Test
+    public void sharedComponentRepricesEveryCombo() {
+        Order order = new Order();
+        order.addCombo(coffeeMuffinCombo, 1);
+        order.addCombo(shakeMuffinCombo, 1);
+        assertEquals(700, order.calculateTotalCents());
+
+        muffin.setPriceCents(250);
+
+        assertEquals(800, order.calculateTotalCents());
+        order.finalizeOrder();
+        assertEquals(200 + 175, muffin.getRevenueCents());
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ConcurrentFoodItem.java
+ *
+ * A FoodItem that can be shared by several tills at once.
+ *
+ * Sold count and revenue (in cents) are kept in striped LongAdder
+ * counters, so concurrent sales update different cells instead of
+ * fighting over a single field, and throughput grows with the number of
+ * cashier threads. Stock is an atomic integer.
+ *
+ * Because the striped counters cannot be read atomically, every write is
+ * bracketed by a "started" and a "completed" counter. A snapshot reads
+ * the completed count, then the statistics, then the started count; if
+ * the two counts match, no sale overlapped the read and the figures are
+ * consistent. Otherwise the read is retried, a bounded number of times.
+ *
+ * Under sales that never let up, every attempt could overlap a sale, so
+ * after that many a snapshot closes a writer gate: new sales wait at the
+ * gate while the sales already under way finish and the read is retried
+ * until it succeeds. Writers only pay a volatile read for the gate and
+ * never wait unless a snapshot has fallen back to it.
+ */
+public class ConcurrentFoodItem extends FoodItem {
+    /** Optimistic snapshot attempts before closing the writer gate. */
+    private static final int OPTIMISTIC_READS = 64;
+
+    private final AtomicInteger stock;      // Available stock
+    private final LongAdder soldCount = new LongAdder();
+    private final LongAdder revenueCents = new LongAdder();
+
+    private final LongAdder writesStarted = new LongAdder();   // Updates begun
+    private final LongAdder writesCompleted = new LongAdder(); // Updates finished
+
+    private final ReentrantLock gate = new ReentrantLock();   // Held by a snapshot holding writers off
+    private volatile boolean gated;                           // True while gate is held
+
+    /**
+     * Constructs a ConcurrentFoodItem with a name, price, and initial stock.
+     *
+     * @param name  The name of the food item.
+     * @param price The price of the food item.
+     * @param stock The initial stock available.
+     */
+    public ConcurrentFoodItem(String name, double price, int stock) {
+        super(name, price, 0);
+        this.stock = new AtomicInteger(stock);
+    }
+
+    /**
+     * Counts an update as started, first waiting at the writer gate if
+     * a snapshot has closed it.
+     */
+    private void beginWrite() {
+        if (gated) {
+            gate.lock();
+            gate.unlock();
+        }
+        writesStarted.increment();
+    }
+
+    // ----- Stock -----
+
+    @Override
+    public int getStock() {
+        return stock.get();
+    }
+
+    @Override
+    public void addStock(int qty) {
+        beginWrite();
+        stock.addAndGet(qty);
+        writesCompleted.increment();
+    }
+
+    @Override
+    public boolean hasStock(int qty) {
+        return stock.get() >= qty;
+    }
+
+    // ----- Sale Operations -----
+
+    @Override
+    public void sellAtCents(int qty, long salePriceCents) {
+        long amount = Money.times(salePriceCents, qty);
+        beginWrite();
+        stock.addAndGet(-qty);
+        soldCount.add(qty);
+        revenueCents.add(amount);
+        writesCompleted.increment();
+    }
+
+    @Override
+    public void recordSales(int qty, long revenue) {
+        beginWrite();
+        stock.addAndGet(-qty);
+        soldCount.add(qty);
+        revenueCents.add(revenue);
+        writesCompleted.increment();
+    }
+
+    // ----- Statistics -----
+
+    @Override
+    public int getSoldCount() {
+        return soldCount.intValue();
+    }
+
+    @Override
+    public long getRevenueCents() {
+        return revenueCents.sum();
+    }
+
+    @Override
+    public void restore(int stock, int soldCount, long revenueCents) {
+        beginWrite();
+        this.stock.set(stock);
+        this.soldCount.reset();
+        this.soldCount.add(soldCount);
+        this.revenueCents.reset();
+        this.revenueCents.add(revenueCents);
+        writesCompleted.increment();
+    }
+
+    /**
+     * Returns stock, sold count and revenue as they stood between two sales.
+     * Retries while sales are in progress; if they never pause, holds new
+     * sales at the writer gate until a read succeeds.
+     *
+     * @return a consistent snapshot of this item's sales statistics
+     */
+    @Override
+    public SalesSnapshot snapshot() {
+        for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++) {
+            SalesSnapshot snapshot = tryRead();
+            if (snapshot != null) {
+                return snapshot;
+            }
+            Thread.onSpinWait();
+        }
+        gate.lock();
+        try {
+            gated = true;
+            while (true) {
+                // Only sales that passed the gate before it closed can still overlap
+                SalesSnapshot snapshot = tryRead();
+                if (snapshot != null) {
+                    return snapshot;
+                }
+                Thread.yield();
+            }
+        } finally {
+            gated = false;
+            gate.unlock();
+        }
+    }
+
+    /**
+     * Reads the statistics once.
+     *
+     * @return the snapshot, or null if a write overlapped the read
+     */
+    private SalesSnapshot tryRead() {
+        long completed = writesCompleted.sum();
+        int currentStock = stock.get();
+        long sold = soldCount.sum();
+        long revenue = revenueCents.sum();
+        if (writesStarted.sum() != completed) {
+            return null;
+        }
+        return new SalesSnapshot(getName(), currentStock, sold, revenue);
+    }
+}
@@ -0,0 +1,128 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for the ConcurrentFoodItem class.
+ *
+ * These tests validate:
+ * - No sales are lost when several tills sell the same item at once
+ * - Snapshots always pair sold count and revenue from the same sales
+ * - Snapshots complete even while tills sell without a pause
+ */
+public class ConcurrentFoodItemTest {
+    private static final int TILLS = 8;           // Concurrent cashier threads
+    private static final int SALES_PER_TILL = 20000;
+
+    private ConcurrentFoodItem muffin;            // Shared item under test
+
+    @Before
+    public void setUp() {
+        muffin = new ConcurrentFoodItem("Muffin", 2.00, TILLS * SALES_PER_TILL);
+    }
+
+    /**
+     * Every till sells one muffin at a time at $2.00.
+     * Expected: all stock sold, sold count and revenue match exactly.
+     */
+    @Test
+    public void concurrentSalesAreNotLost() throws InterruptedException {
+        runTills(() -> {
+            for (int i = 0; i < SALES_PER_TILL; i++) {
+                muffin.sell(1);
+            }
+        });
+
+        assertEquals(0, muffin.getStock());
+        assertEquals(TILLS * SALES_PER_TILL, muffin.getSoldCount());
+        assertEquals(TILLS * SALES_PER_TILL * 2.00, muffin.getRevenue(), 0.001);
+    }
+
+    /**
+     * While tills are selling, every snapshot must satisfy
+     * stock + sold = initial stock and revenue = sold * $2.00.
+     */
+    @Test
+    public void snapshotIsConsistentDuringSales() throws InterruptedException {
+        int initialStock = muffin.getStock();
+        List<String> failures = new ArrayList<>();
+
+        Thread reader = new Thread(() -> {
+            while (muffin.getSoldCount() < TILLS * SALES_PER_TILL) {
+                SalesSnapshot s = muffin.snapshot();
+                if (s.getStock() + s.getSoldCount() != initialStock
+                        || Math.abs(s.getSoldCount() * 2.00 - s.getRevenue()) > 0.001) {
+                    synchronized (failures) {
+                        failures.add(s.getStock() + "/" + s.getSoldCount() + "/" + s.getRevenue());
+                    }
+                    return;
+                }
+            }
+        });
+        reader.start();
+
+        runTills(() -> {
+            for (int i = 0; i < SALES_PER_TILL; i++) {
+                muffin.sell(1);
+            }
+        });
+        reader.join();
+
+        assertTrue("Inconsistent snapshots: " + failures, failures.isEmpty());
+    }
+
+    /**
+     * Tills sell non-stop until the reader has taken 2,000 snapshots;
+     * the reader must finish, and every snapshot must be consistent.
+     */
+    @Test(timeout = 60_000)
+    public void snapshotsFinishUnderNonStopSales() throws InterruptedException {
+        int initialStock = muffin.getStock();
+        int[] inconsistent = { 0 };
+        Thread reader = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                SalesSnapshot s = muffin.snapshot();
+                if (s.getStock() + s.getSoldCount() != initialStock
+                        || s.getRevenueCents() != s.getSoldCount() * 200) {
+                    inconsistent[0]++;
+                }
+            }
+        });
+        Thread[] tills = new Thread[TILLS];
+        for (int i = 0; i < TILLS; i++) {
+            tills[i] = new Thread(() -> {
+                while (reader.isAlive()) {
+                    muffin.sellAtCents(1, 200);
+                }
+            });
+        }
+        reader.start();
+        for (Thread till : tills) {
+            till.start();
+        }
+        reader.join();
+        for (Thread till : tills) {
+            till.join();
+        }
+
+        assertEquals(0, inconsistent[0]);
+        assertEquals(initialStock, muffin.getStock() + muffin.getSoldCount());
+    }
+
+    /**
+     * Runs the given work on TILLS threads and waits for all of them.
+     */
+    private void runTills(Runnable work) throws InterruptedException {
+        Thread[] tills = new Thread[TILLS];
+        for (int i = 0; i < TILLS; i++) {
+            tills[i] = new Thread(work);
+            tills[i].start();
+        }
+        for (Thread till : tills) {
+            till.join();
+        }
+    }
+}
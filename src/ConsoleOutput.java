@@ -0,0 +1,310 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Formatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ConsoleOutput.java
+ *
+ * Buffered console output for the tills, written by a background thread
+ * so a till never waits for the terminal.
+ *
+ * print(), println() and printf() copy text into a fixed ring buffer of
+ * characters and return at once; printf() formats into a reusable
+ * buffer, so printing allocates nothing once the buffer has grown. A
+ * single writer thread takes everything waiting in the ring and hands it
+ * to the stream in one write, flushing only when the ring is empty, so a
+ * menu of thirty lines is one write to the terminal instead of thirty
+ * flushed println() calls.
+ *
+ * A till only waits if the terminal falls a whole ring (64K characters
+ * by default) behind, so that no text is ever dropped. flush() waits
+ * until everything printed so far has reached the stream, e.g. before
+ * other code writes to the same stream.
+ *
+ * system() is the shared console on System.out; it is flushed when the
+ * JVM shuts down.
+ */
+public class ConsoleOutput implements AutoCloseable {
+
+    /** Default ring size, in characters. */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /** Most characters handed to the stream in one write. */
+    private static final int CHUNK = 8 * 1024;
+
+    private static final String NEWLINE = System.lineSeparator();
+
+    private static ConsoleOutput system;
+
+    private final Writer sink;
+    private final char[] ring;
+    private long head;                  // Characters printed; guarded by lock
+    private long tail;                  // Characters taken by the writer; guarded by lock
+    private long flushedChars;          // Characters flushed to the stream; guarded by lock
+    private boolean closed;             // Guarded by lock
+
+    // j.u.c. lock rather than a monitor, so virtual threads never pin
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+
+    /** Reused for printf(); guarded by lock. */
+    private final StringBuilder formatted = new StringBuilder(256);
+    private final Formatter formatter = new Formatter(formatted);
+
+    private final Thread writer;
+
+    // Metrics
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder fullWaits = new LongAdder();
+
+    /**
+     * Creates a console with the default ring size; call start() to run
+     * its writer.
+     *
+     * @param out the stream to write to
+     */
+    public ConsoleOutput(OutputStream out) {
+        this(out, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a console; call start() to run its writer.
+     *
+     * @param out      the stream to write to, in the platform charset
+     * @param capacity the ring size, in characters
+     */
+    public ConsoleOutput(OutputStream out, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.sink = new OutputStreamWriter(out, Charset.defaultCharset());
+        this.ring = new char[capacity];
+        this.writer = new Thread(this::run, "console-output");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Returns the shared console on System.out, starting it on first use.
+     *
+     * @return the system console
+     */
+    public static synchronized ConsoleOutput system() {
+        if (system == null) {
+            ConsoleOutput console = new ConsoleOutput(System.out).start();
+            Runtime.getRuntime().addShutdownHook(new Thread(console::close, "console-output-flush"));
+            system = console;
+        }
+        return system;
+    }
+
+    /**
+     * Starts the writer thread.
+     *
+     * @return this console
+     */
+    public ConsoleOutput start() {
+        writer.start();
+        return this;
+    }
+
+    // ----- Printing -----
+
+    /**
+     * Prints text.
+     *
+     * @param text the text
+     */
+    public void print(CharSequence text) {
+        lock.lock();
+        try {
+            put(text);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Prints text and a line separator.
+     *
+     * @param text the text
+     */
+    public void println(CharSequence text) {
+        lock.lock();
+        try {
+            put(text);
+            put(NEWLINE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Prints formatted text, as PrintStream.printf() would.
+     *
+     * @param format the format string
+     * @param args   the arguments
+     */
+    public void printf(String format, Object... args) {
+        lock.lock();
+        try {
+            formatted.setLength(0);
+            formatter.format(format, args);
+            put(formatted);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies text into the ring, waiting for room if the writer is a
+     * whole ring behind. Caller holds lock.
+     */
+    private void put(CharSequence text) {
+        int length = text.length();
+        int from = 0;
+        while (from < length) {
+            while (head - tail == ring.length && !closed) {
+                fullWaits.increment();
+                notFull.awaitUninterruptibly();
+            }
+            if (closed) {
+                throw new IllegalStateException("Console output is closed");
+            }
+            int at = (int) (head % ring.length);
+            int n = Math.min(length - from, Math.min(ring.length - at, ring.length - (int) (head - tail)));
+            if (text instanceof String) {
+                ((String) text).getChars(from, from + n, ring, at);
+            } else if (text instanceof StringBuilder) {
+                ((StringBuilder) text).getChars(from, from + n, ring, at);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    ring[at + i] = text.charAt(from + i);
+                }
+            }
+            from += n;
+            boolean wasEmpty = head == tail;
+            head += n;
+            if (wasEmpty) {
+                notEmpty.signal();
+            }
+        }
+    }
+
+    /**
+     * Waits until everything printed so far has been written and flushed.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            long target = head;
+            while (flushedChars < target && writer.isAlive()) {
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes everything printed so far and stops the writer. Later
+     * printing fails with IllegalStateException.
+     */
+    @Override
+    public void close() {
+        flush();
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ----- Writer -----
+
+    private void run() {
+        char[] chunk = new char[Math.min(CHUNK, ring.length)];
+        while (true) {
+            int n;
+            long upTo;
+            boolean last;
+            lock.lock();
+            try {
+                while (head == tail && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (head == tail) {
+                    return;   // Closed and drained
+                }
+                int at = (int) (tail % ring.length);
+                n = (int) Math.min(head - tail, Math.min(chunk.length, ring.length - at));
+                System.arraycopy(ring, at, chunk, 0, n);
+                tail += n;
+                upTo = tail;
+                last = head == tail;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                sink.write(chunk, 0, n);
+                if (last) {
+                    sink.flush();
+                }
+            } catch (IOException e) {
+                // The terminal went away; keep draining so tills never wait
+            }
+            writes.increment();
+            if (last) {
+                lock.lock();
+                try {
+                    flushedChars = upTo;
+                    flushed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    // ----- Metrics -----
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * Returns how many writes the writer has made to the stream; fewer
+     * than the print calls when text is batched.
+     *
+     * @return writes to the stream
+     */
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    /**
+     * Returns how often a till waited because the ring was full.
+     *
+     * @return waits for room
+     */
+    public long getFullWaits() {
+        return fullWaits.sum();
+    }
+}
@@ -0,0 +1,125 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Unit tests for the ConsoleOutput class.
+ *
+ * These tests validate:
+ * - Text is written in order, batched into few writes
+ * - Text longer than the ring is written intact
+ * - Printing does not wait for a stalled terminal
+ * - The cafe's console menus print through it
+ */
+public class ConsoleOutputTest {
+
+    private static final String NL = System.lineSeparator();
+
+    @Test
+    public void textIsWrittenInOrder() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ConsoleOutput console = new ConsoleOutput(bytes).start();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            console.printf("Change: $%d.%02d%n", i, i % 100);
+            console.println("Thanks");
+            console.print("> ");
+            expected.append(String.format("Change: $%d.%02d%n", i, i % 100)).append("Thanks").append(NL).append("> ");
+        }
+        console.flush();
+        assertEquals(expected.toString(), bytes.toString());
+        assertTrue(console.getWrites() < 3000);
+        console.close();
+    }
+
+    @Test
+    public void longTextPassesThroughSmallRing() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ConsoleOutput console = new ConsoleOutput(bytes, 16).start();
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            report.append("Catalog item ").append(i).append(": 3 $7.50").append(NL);
+        }
+        console.print(report);
+        console.close();
+        assertEquals(report.toString(), bytes.toString());
+        assertEquals(16, console.getCapacity());
+        try {
+            console.println("late");
+            fail("Printed after close");
+        } catch (IllegalStateException expected) {
+            // Closed consoles refuse text
+        }
+    }
+
+    /**
+     * The terminal stalls on its first write; a till printing a few
+     * hundred lines carries on, and the text follows once it recovers.
+     */
+    @Test
+    public void printingDoesNotWaitForTheTerminal() throws InterruptedException {
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch recover = new CountDownLatch(1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream terminal = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                stalled.countDown();
+                try {
+                    recover.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                bytes.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                bytes.flush();
+            }
+        };
+        ConsoleOutput console = new ConsoleOutput(terminal).start();
+        console.println("first");
+        stalled.await();   // The writer is stuck in the terminal...
+        for (int i = 0; i < 300; i++) {
+            console.println("Total cost: $5.00");
+        }
+        assertEquals(0, console.getFullWaits());   // ...yet the till never waited
+        recover.countDown();
+        console.flush();
+        assertTrue(bytes.toString().startsWith("first" + NL + "Total cost: $5.00" + NL));
+        assertEquals(5 + NL.length() + 300 * (17 + NL.length()), bytes.size());
+        console.close();
+    }
+
+    /**
+     * Orders 2 coffees ($5.00) paid with $10.00, then exits.
+     */
+    @Test
+    public void cafeMenusPrintThroughTheConsole() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ConsoleOutput console = new ConsoleOutput(bytes).start();
+        GeekCafe cafe = new GeekCafe(new Scanner(String.join("\n", "z", "a", "3", "2", "7", "10", "e", "")));
+        cafe.setConsoleOutput(console);
+        cafe.printMainMenu();
+
+        String printed = bytes.toString();   // printMainMenu() flushed on the way out
+        assertTrue(printed.contains("Error: Please select valid options."));
+        assertTrue(printed.contains("7. No more"));
+        assertTrue(printed.contains("Total cost: $5.00"));
+        assertTrue(printed.contains("Change: $5.00"));
+        assertTrue(printed.endsWith("Bye Bye." + NL));
+        assertEquals(2, cafe.getItem("coffee").getSoldCount());
+        console.close();
+    }
+}
@@ -0,0 +1,271 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * DedupeCache.java
+ *
+ * Remembers the results of recent submissions by a client-supplied key,
+ * so a retried submission gets the original result instead of being
+ * carried out twice.
+ *
+ * A submission first claims its key. The first claim wins and carries
+ * the submission out; claims of the same key made meanwhile get a future
+ * that completes with the winner's result. The winner then either
+ * completes the key, recording its result for later retries, or abandons
+ * it (e.g. the payment was refused), letting the next claim try again.
+ *
+ * Completed results are kept in lock-striped segments, each an
+ * access-ordered LinkedHashMap with a fixed share of the capacity: a
+ * lookup is a hash probe, and a full segment evicts its least recently
+ * used result, so memory never grows past the capacity however busy the
+ * cafe is. Results also expire a fixed time after they were recorded;
+ * expired results are dropped when looked up or when they reach the
+ * least recently used end. Claims still in flight are held separately
+ * and never evicted, so a duplicate can never slip past a submission
+ * that is still running; there are at most as many as there are tills.
+ *
+ * Segments are guarded by j.u.c. locks, not monitors, because HTTP
+ * requests run on virtual threads.
+ *
+ * @param <V> the result type
+ */
+public final class DedupeCache<V> {
+
+    /** Default number of results kept. */
+    public static final int DEFAULT_CAPACITY = 65_536;
+
+    /** Default time a result is kept for retries. */
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final int SEGMENTS = 16;   // A power of two
+
+    /** A completed result and when it expires. */
+    private static final class Entry<V> {
+        final CompletableFuture<V> result;
+        final long expiresAtNanos;
+
+        Entry(CompletableFuture<V> result, long expiresAtNanos) {
+            this.result = result;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    /** One stripe of completed results, least recently used first. */
+    private static final class Segment<V> extends LinkedHashMap<String, Entry<V>> {
+        private static final long serialVersionUID = 1L;
+
+        final transient ReentrantLock lock = new ReentrantLock();
+        private final int capacity;
+        private final transient LongAdder evictions;
+
+        Segment(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+
+        /** Drops expired results at the least recently used end. */
+        void dropExpired(long now) {
+            Iterator<Entry<V>> values = values().iterator();
+            while (values.hasNext() && values.next().expiresAtNanos - now <= 0) {
+                values.remove();
+            }
+        }
+    }
+
+    private final int segmentCapacity;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final Segment<V>[] segments;
+    private final Map<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache with the default capacity and time to live.
+     */
+    public DedupeCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL_MILLIS, System::nanoTime);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param capacity  the most results kept; rounded up to a multiple of 16
+     * @param ttlMillis how long a result is kept after it is recorded
+     * @param nanoClock the current time in nanoseconds, e.g. System::nanoTime
+     */
+    public DedupeCache(int capacity, long ttlMillis, LongSupplier nanoClock) {
+        if (capacity <= 0 || ttlMillis <= 0) {
+            throw new IllegalArgumentException("Capacity and time to live must be positive");
+        }
+        this.segmentCapacity = (capacity + SEGMENTS - 1) / SEGMENTS;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.nanoClock = nanoClock;
+        @SuppressWarnings("unchecked")
+        Segment<V>[] stripes = (Segment<V>[]) new Segment<?>[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            stripes[i] = new Segment<>(segmentCapacity, evictions);
+        }
+        segments = stripes;
+    }
+
+    private Segment<V> segmentFor(String key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    // ----- Submissions -----
+
+    /**
+     * Claims a key for a submission.
+     *
+     * @param key the client's id for the submission
+     * @return null if the caller won the claim and must complete() or
+     *         abandon() the key; otherwise a future of the earlier
+     *         submission's result, completing with null if it was abandoned
+     */
+    public CompletableFuture<V> claim(String key) {
+        CompletableFuture<V> done = lookup(key);
+        if (done != null) {
+            duplicates.increment();
+            return done;
+        }
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            duplicates.increment();
+            return running;
+        }
+        // The earlier submission may have completed between the lookup and the claim
+        done = lookup(key);
+        if (done != null) {
+            inFlight.remove(key, mine);
+            mine.complete(done.join());
+            duplicates.increment();
+            return done;
+        }
+        return null;
+    }
+
+    /**
+     * Records the result of a claimed submission and hands it to every
+     * duplicate waiting for it.
+     *
+     * @param key    the claimed key
+     * @param result the result to give retries
+     */
+    public void complete(String key, V result) {
+        CompletableFuture<V> claimed = inFlight.get(key);
+        if (claimed == null) {
+            throw new IllegalStateException("Key not claimed: " + key);
+        }
+        claimed.complete(result);
+        long now = nanoClock.getAsLong();
+        Segment<V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            segment.dropExpired(now);
+            segment.put(key, new Entry<>(claimed, now + ttlNanos));
+        } finally {
+            segment.lock.unlock();
+        }
+        inFlight.remove(key, claimed);   // Only once the result can be looked up
+    }
+
+    /**
+     * Gives up a claimed key without a result, so the next claim of it
+     * carries the submission out; duplicates waiting for it get null.
+     *
+     * @param key the claimed key
+     */
+    public void abandon(String key) {
+        CompletableFuture<V> claimed = inFlight.remove(key);
+        if (claimed != null) {
+            claimed.complete(null);
+        }
+    }
+
+    /**
+     * Looks up the recorded result of a completed submission.
+     *
+     * @param key the client's id for the submission
+     * @return the result, or null if none is kept
+     */
+    public V get(String key) {
+        CompletableFuture<V> done = lookup(key);
+        return done == null ? null : done.join();
+    }
+
+    private CompletableFuture<V> lookup(String key) {
+        Segment<V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            Entry<V> entry = segment.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAtNanos - nanoClock.getAsLong() <= 0) {
+                segment.remove(key);
+                return null;
+            }
+            return entry.result;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    // ----- Statistics -----
+
+    /**
+     * Returns the number of results kept, including expired ones not yet
+     * dropped.
+     *
+     * @return results
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the most results kept.
+     *
+     * @return capacity
+     */
+    public int getCapacity() {
+        return segmentCapacity * SEGMENTS;
+    }
+
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,109 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for the DedupeCache class and GeekCafe's idempotent
+ * completeOrder().
+ *
+ * These tests validate:
+ * - A retried key gets the first result; an abandoned key can be retried
+ * - Capacity and time to live bound what is kept
+ * - Concurrent retries of one order sell it exactly once
+ */
+public class DedupeCacheTest {
+
+    private long now;                   // Fake clock, in nanoseconds
+
+    @Test
+    public void retriesGetTheFirstResult() {
+        DedupeCache<String> cache = new DedupeCache<>(64, 1000, () -> now);
+        assertNull(cache.claim("a"));
+        CompletableFuture<String> waiting = cache.claim("a");   // Retry while "a" is running
+        assertFalse(waiting.isDone());
+        cache.complete("a", "paid");
+        assertEquals("paid", waiting.join());
+        assertEquals("paid", cache.claim("a").join());
+        assertEquals("paid", cache.get("a"));
+        assertEquals(2, cache.getDuplicates());
+
+        assertNull(cache.claim("b"));
+        CompletableFuture<String> retry = cache.claim("b");
+        cache.abandon("b");
+        assertNull(retry.join());                               // Told to try again
+        assertNull(cache.claim("b"));                           // and wins the next claim
+    }
+
+    @Test
+    public void capacityAndTimeToLiveBoundTheCache() {
+        DedupeCache<Integer> cache = new DedupeCache<>(160, 1000, () -> now);
+        for (int i = 0; i < 10_000; i++) {
+            assertNull(cache.claim("order-" + i));
+            cache.complete("order-" + i, i);
+        }
+        assertEquals(160, cache.getCapacity());
+        assertTrue(cache.size() <= 160);
+        assertEquals(10_000 - cache.size(), cache.getEvictions());
+        assertEquals(Integer.valueOf(9_999), cache.get("order-9999"));   // The most recent are kept
+        assertNull(cache.get("order-0"));
+
+        now += TimeUnit.MILLISECONDS.toNanos(1000);
+        assertNull(cache.get("order-9999"));                              // Expired
+        assertNull(cache.claim("order-9999"));
+    }
+
+    /**
+     * Eight threads submit the same 2-muffin order at once; one sells it,
+     * the others get its receipt and their muffins back.
+     */
+    @Test
+    public void concurrentRetriesSellOnce() throws InterruptedException {
+        GeekCafe cafe = new GeekCafe(new Scanner(""));
+        AtomicInteger sold = new AtomicInteger();
+        AtomicInteger duplicates = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] tills = new Thread[8];
+        for (int t = 0; t < tills.length; t++) {
+            tills[t] = new Thread(() -> {
+                Order order = cafe.newOrder();
+                assertTrue(order.addItem(cafe.getItem("muffin"), 2));
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                GeekCafe.Receipt receipt = cafe.completeOrder("kiosk-1-42", order, 500);
+                assertEquals(400, receipt.getTotalCents());
+                assertEquals(100, receipt.getChangeCents());
+                (receipt.isDuplicate() ? duplicates : sold).incrementAndGet();
+            });
+            tills[t].start();
+        }
+        start.countDown();
+        for (Thread till : tills) {
+            till.join();
+        }
+        assertEquals(1, sold.get());
+        assertEquals(7, duplicates.get());
+        assertEquals(2, cafe.getItem("muffin").getSoldCount());
+        assertEquals(23, cafe.getItem("muffin").getStock());
+        assertEquals(23, cafe.getMetrics().getMuffinsAvailable());   // No muffins left held
+    }
+
+    @Test
+    public void unpaidSubmissionCanBeRetried() {
+        GeekCafe cafe = new GeekCafe(new Scanner(""));
+        Order order = cafe.newOrder();
+        order.addItem(cafe.getItem("coffee"), 2);
+        assertNull(cafe.completeOrder("till-1", order, 400));
+        GeekCafe.Receipt receipt = cafe.completeOrder("till-1", order, 500);
+        assertFalse(receipt.isDuplicate());
+        assertEquals(0, receipt.getChangeCents());
+        assertEquals(2, cafe.getItem("coffee").getSoldCount());
+    }
+}
@@ -0,0 +1,321 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FinalizationPipeline.java
+ *
+ * Finalizes paid orders in batches on a single writer thread, so tills
+ * no longer update the shared item counters line by line themselves.
+ *
+ * A till hands a paid order to submit() and gets a future back. The
+ * writer takes the orders waiting in the queue, up to the batch size,
+ * and if the batch is not full waits up to the maximum latency for more.
+ * It then adds up the batch's sales per item and records each item's
+ * combined sales with one FoodItem.recordSales() call: a batch of two
+ * hundred orders of coffee and muffins touches the coffee and muffin
+ * counters once each, instead of four hundred times from as many
+ * threads. Held muffins are committed, every order's sales are reported
+ * to the sale listener (the ledger, journal and rolling totals), and the
+ * futures complete in the order the orders were submitted.
+ *
+ * The listener hears each order's sales followed by
+ * onBatchedOrderFinalized(), and onBatchFinalized() once per batch, so
+ * the sales journal appends every order but waits for the disk once per
+ * batch.
+ *
+ * The queue is bounded: when the writer falls behind, submit() blocks
+ * until there is room, which pushes back on the tills rather than
+ * letting the queue grow without limit.
+ */
+public class FinalizationPipeline implements AutoCloseable {
+
+    /** Default most orders finalized in one batch. */
+    public static final int DEFAULT_MAX_BATCH = 256;
+
+    /** Default longest wait for more orders when a batch is not full. */
+    public static final long DEFAULT_MAX_LATENCY_MICROS = 100;
+
+    /** An order waiting to be finalized. */
+    private static final class Pending {
+        final Order order;
+        final long changeCents;
+        final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        Pending(Order order, long changeCents) {
+            this.order = order;
+            this.changeCents = changeCents;
+        }
+    }
+
+    /** Tells the writer to stop once everything before it is finalized. */
+    private static final Pending STOP = new Pending(null, 0);
+
+    private final SaleListener listener;
+    private final int maxBatch;
+    private final long maxLatencyNanos;
+    private final BlockingQueue<Pending> queue;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // ----- Writer state; only the writer thread uses these -----
+
+    private final List<Pending> batch = new ArrayList<>();
+    private final Totals totals = new Totals();
+
+    // Metrics
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder orders = new LongAdder();
+
+    /**
+     * Creates a pipeline; call start() to run its writer.
+     *
+     * @param listener         receives every sale, or null
+     * @param maxBatch         most orders finalized in one batch
+     * @param maxLatencyMicros longest wait for more orders when a batch is
+     *                         not full; 0 finalizes whatever is waiting
+     */
+    public FinalizationPipeline(SaleListener listener, int maxBatch, long maxLatencyMicros) {
+        if (maxBatch <= 0 || maxLatencyMicros < 0) {
+            throw new IllegalArgumentException("Batch size must be positive and latency non-negative");
+        }
+        this.listener = listener;
+        this.maxBatch = maxBatch;
+        this.maxLatencyNanos = TimeUnit.MICROSECONDS.toNanos(maxLatencyMicros);
+        this.queue = new ArrayBlockingQueue<>(maxBatch * 4);
+        this.writer = new Thread(this::run, "order-finalizer");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Starts the writer thread.
+     *
+     * @return this pipeline
+     */
+    public FinalizationPipeline start() {
+        writer.start();
+        return this;
+    }
+
+    /**
+     * Queues a paid order to be finalized. The order must not be changed,
+     * reset or released until the future completes.
+     *
+     * @param order       the paid order
+     * @param changeCents the change due, passed back through the future
+     * @return completes with the change once the order is finalized
+     * @throws IllegalStateException if the pipeline has been closed
+     */
+    public CompletableFuture<Long> submit(Order order, long changeCents) {
+        if (closed) {
+            throw new IllegalStateException("Finalization pipeline is closed");
+        }
+        Pending pending = new Pending(order, changeCents);
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.done.completeExceptionally(e);
+            return pending.done;
+        }
+        // Raced with close(): the writer may already have stopped
+        if (closed && queue.remove(pending)) {
+            throw new IllegalStateException("Finalization pipeline is closed");
+        }
+        return pending.done;
+    }
+
+    /**
+     * Finalizes every order already submitted, then stops the writer.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(STOP);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Pending late;
+        while ((late = queue.poll()) != null) {
+            late.done.completeExceptionally(new IllegalStateException("Finalization pipeline is closed"));
+        }
+    }
+
+    // ----- Writer -----
+
+    private void run() {
+        try {
+            while (true) {
+                Pending first = queue.take();
+                if (first == STOP) {
+                    return;
+                }
+                batch.add(first);
+                boolean stop = fill();
+                finalizeBatch();
+                if (stop) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped without close(); leave the rest unfinalized
+        }
+    }
+
+    /**
+     * Adds waiting orders to the batch until it is full or the maximum
+     * latency has passed since its first order was taken.
+     *
+     * @return true if the writer must stop after this batch
+     */
+    private boolean fill() throws InterruptedException {
+        long deadline = System.nanoTime() + maxLatencyNanos;
+        while (batch.size() < maxBatch) {
+            int from = batch.size();
+            if (queue.drainTo(batch, maxBatch - from) == 0) {
+                long wait = deadline - System.nanoTime();
+                Pending next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                if (next == null) {
+                    return false;
+                }
+                batch.add(next);
+            }
+            for (int i = from; i < batch.size(); i++) {
+                if (batch.get(i) == STOP) {
+                    // Anything after STOP was submitted while closing
+                    List<Pending> late = batch.subList(i, batch.size());
+                    for (Pending p : late.subList(1, late.size())) {
+                        p.done.completeExceptionally(new IllegalStateException("Finalization pipeline is closed"));
+                    }
+                    late.clear();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void finalizeBatch() {
+        try {
+            for (Pending p : batch) {
+                p.order.reportSales(totals);
+                if (listener != null) {
+                    listener.onBatchedOrderFinalized();
+                }
+            }
+            totals.record();
+            for (Pending p : batch) {
+                p.order.commitHeld();
+            }
+            if (listener != null) {
+                listener.onBatchFinalized();
+            }
+            batches.increment();
+            orders.add(batch.size());
+            for (Pending p : batch) {
+                p.done.complete(p.changeCents);
+            }
+        } catch (RuntimeException e) {
+            if (listener != null) {
+                listener.onOrderAborted();   // Drop a failed order's sales half reported
+            }
+            for (Pending p : batch) {
+                p.done.completeExceptionally(e);
+            }
+        } finally {
+            totals.clear();
+            batch.clear();
+        }
+    }
+
+    /**
+     * Adds up a batch's sales per item and forwards each sale to the
+     * listener. Indexed by FoodItem id.
+     */
+    private final class Totals implements SaleListener {
+        private FoodItem[] items = new FoodItem[16];
+        private int[] qty = new int[16];
+        private long[] revenue = new long[16];
+        private int[] touched = new int[16];   // Ids with sales in this batch
+        private int touchedCount;
+
+        @Override
+        public void onSale(FoodItem item, Combo combo, int sold, long unitPriceCents) {
+            int id = item.getId();
+            if (id >= items.length) {
+                int grown = Math.max(id + 1, items.length * 2);
+                items = Arrays.copyOf(items, grown);
+                qty = Arrays.copyOf(qty, grown);
+                revenue = Arrays.copyOf(revenue, grown);
+            }
+            if (items[id] == null) {
+                if (touchedCount == touched.length) {
+                    touched = Arrays.copyOf(touched, touchedCount * 2);
+                }
+                items[id] = item;
+                touched[touchedCount++] = id;
+            }
+            qty[id] += sold;
+            revenue[id] += Money.times(unitPriceCents, sold);
+            if (listener != null) {
+                listener.onSale(item, combo, sold, unitPriceCents);
+            }
+        }
+
+        /** Records each item's combined sales on the item. */
+        void record() {
+            for (int i = 0; i < touchedCount; i++) {
+                int id = touched[i];
+                items[id].recordSales(qty[id], revenue[id]);
+            }
+        }
+
+        void clear() {
+            for (int i = 0; i < touchedCount; i++) {
+                int id = touched[i];
+                items[id] = null;
+                qty[id] = 0;
+                revenue[id] = 0;
+            }
+            touchedCount = 0;
+        }
+    }
+
+    // ----- Metrics -----
+
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    public long getMaxLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos);
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public long getOrderCount() {
+        return orders.sum();
+    }
+
+    /**
+     * Returns the average number of orders finalized per batch.
+     *
+     * @return orders per batch, or 0 before the first batch
+     */
+    public double getAverageBatchSize() {
+        long n = batches.sum();
+        return n == 0 ? 0 : (double) orders.sum() / n;
+    }
+}
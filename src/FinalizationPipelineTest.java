@@ -0,0 +1,207 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * Unit tests for the FinalizationPipeline class.
+ *
+ * These tests validate:
+ * - Batched orders record the same stock, sales and ledger as per-order ones
+ * - Batches never exceed the batch size
+ * - Stopping finalizes what was submitted; later orders are finalized by the till
+ * - The journal records batched orders
+ */
+public class FinalizationPipelineTest {
+
+    /**
+     * Four tills each complete 500 orders of a coffee ($2.50) and a
+     * Coffee + Muffin combo ($3.50), through the pipeline and per order.
+     */
+    @Test
+    public void batchedOrdersMatchPerOrderFinalization() throws InterruptedException {
+        GeekCafe perOrder = new GeekCafe(new Scanner(""));
+        GeekCafe batched = new GeekCafe(new Scanner(""));
+        perOrder.bake(2000);
+        batched.bake(2000);
+        FinalizationPipeline pipeline = batched.startFinalizationPipeline(64, 50);
+        runTills(perOrder);
+        runTills(batched);
+        batched.stopFinalizationPipeline();
+
+        for (int i = 0; i < perOrder.getMenuItems().size(); i++) {
+            FoodItem expected = perOrder.getMenuItems().get(i);
+            FoodItem actual = batched.getMenuItems().get(i);
+            assertEquals(expected.getStock(), actual.getStock());
+            assertEquals(expected.getSoldCount(), actual.getSoldCount());
+            assertEquals(expected.getRevenueCents(), actual.getRevenueCents());
+        }
+        assertEquals(4000, batched.getItem("coffee").getSoldCount());
+        assertEquals(2000 * 600, batched.getLedger().query().totals().getRevenueCents());
+        assertEquals(2000, batched.getLedger().getOrderCount());
+        assertEquals(2000, batched.getMetrics().getOrdersCompleted());
+        assertEquals(25, batched.getMetrics().getMuffinsAvailable());   // Nothing left held
+        assertEquals(2000, pipeline.getOrderCount());
+        assertTrue(pipeline.getBatchCount() <= 2000);
+    }
+
+    private static void runTills(GeekCafe cafe) throws InterruptedException {
+        Thread[] tills = new Thread[4];
+        for (int t = 0; t < tills.length; t++) {
+            tills[t] = new Thread(() -> {
+                List<CompletableFuture<Long>> pending = new ArrayList<>();
+                for (int i = 0; i < 500; i++) {
+                    Order order = cafe.newOrder();
+                    order.addItem(cafe.getItem("coffee"), 1);
+                    order.addCombo(cafe.getCombos().get(0), 1);
+                    pending.add(cafe.completeOrderAsync(order, 1000));
+                }
+                for (CompletableFuture<Long> change : pending) {
+                    assertEquals(Long.valueOf(400), change.join());
+                }
+            });
+            tills[t].start();
+        }
+        for (Thread till : tills) {
+            till.join();
+        }
+    }
+
+    /**
+     * Holds the writer in its first batch while ten more orders queue up,
+     * then checks they were finalized four at a time at most.
+     */
+    @Test
+    public void batchesRespectTheBatchSize() throws InterruptedException {
+        CountDownLatch firstBatch = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> sizes = new ArrayList<>();
+        SaleListener listener = new SaleListener() {
+            private int orders;
+
+            @Override
+            public void onSale(FoodItem item, Combo combo, int qty, long unitPriceCents) {
+            }
+
+            @Override
+            public void onBatchedOrderFinalized() {
+                orders++;
+            }
+
+            @Override
+            public void onBatchFinalized() {
+                sizes.add(orders);
+                orders = 0;
+                firstBatch.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        FoodItem coffee = new ConcurrentFoodItem("Coffee", 2.50, 0);
+        MenuCatalog.number(Collections.singletonList(coffee), Collections.emptyList());
+        FinalizationPipeline pipeline = new FinalizationPipeline(listener, 4, 0).start();
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        futures.add(pipeline.submit(order(coffee), 0));
+        firstBatch.await();
+        for (int i = 0; i < 10; i++) {
+            futures.add(pipeline.submit(order(coffee), i));
+        }
+        release.countDown();
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(Long.valueOf(i == 0 ? 0 : i - 1), futures.get(i).join());
+        }
+        pipeline.close();
+
+        assertEquals(Integer.valueOf(1), sizes.get(0));
+        assertEquals(Integer.valueOf(4), sizes.get(1));   // Ten were waiting
+        int total = 0;
+        for (int size : sizes) {
+            assertTrue(size <= 4);
+            total += size;
+        }
+        assertEquals(11, total);
+        assertEquals(sizes.size(), pipeline.getBatchCount());
+        assertEquals(11, coffee.getSoldCount());
+        assertEquals(11 * 250, coffee.getRevenueCents());
+    }
+
+    private static Order order(FoodItem item) {
+        Order order = new Order();
+        order.addItem(item, 1);
+        return order;
+    }
+
+    @Test
+    public void stoppingFinalizesSubmittedOrders() {
+        GeekCafe cafe = new GeekCafe(new Scanner(""));
+        FinalizationPipeline pipeline = cafe.startFinalizationPipeline(16, 1000);
+        Order first = cafe.newOrder();
+        assertTrue(first.addItem(cafe.getItem("muffin"), 5));
+        CompletableFuture<Long> change = cafe.completeOrderAsync(first, 1000);
+        cafe.stopFinalizationPipeline();
+        assertTrue(change.isDone());
+        assertEquals(Long.valueOf(0), change.join());
+        assertEquals(20, cafe.getItem("muffin").getStock());
+
+        try {
+            pipeline.submit(cafe.newOrder(), 0);
+            fail("Submitted to a closed pipeline");
+        } catch (IllegalStateException expected) {
+            // Closed pipelines refuse orders
+        }
+        Order second = cafe.newOrder();
+        second.addItem(cafe.getItem("muffin"), 5);
+        assertEquals(-1, cafe.completeOrderAsync(second, 999).join().longValue());   // $10.00 due
+        assertEquals(0, cafe.completeOrderAsync(second, 1000).join().longValue());   // Finalized by the till
+        assertEquals(15, cafe.getItem("muffin").getStock());
+    }
+
+    @Test
+    public void journalRecordsBatchedOrders() throws IOException {
+        Path dir = Files.createTempDirectory("pipeline-test");
+        try {
+            GeekCafe cafe = new GeekCafe(new Scanner(""));
+            SalesJournal journal = cafe.openJournal(dir);
+            try {
+                cafe.startFinalizationPipeline(8, 100);
+                List<CompletableFuture<Long>> pending = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    Order order = cafe.newOrder();
+                    order.addItem(cafe.getItem("muffin"), 1);
+                    order.addItem(cafe.getItem("shake"), 2);
+                    pending.add(cafe.completeOrderAsync(order, 800));
+                }
+                for (CompletableFuture<Long> change : pending) {
+                    assertEquals(Long.valueOf(0), change.join());
+                }
+                cafe.stopFinalizationPipeline();
+            } finally {
+                journal.close();
+            }
+
+            GeekCafe restarted = new GeekCafe(new Scanner(""));
+            restarted.openJournal(dir).close();
+            assertEquals(5, restarted.getItem("muffin").getStock());
+            assertEquals(40, restarted.getItem("shake").getSoldCount());
+            assertEquals(20 * 800, restarted.getItem("muffin").getRevenueCents()
+                    + restarted.getItem("shake").getRevenueCents());
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+}
@@ -1,3 +1,6 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * FoodItem.java
  * 
@@ -7,13 +10,31 @@
  *
  * This class also provides methods to adjust stock, handle sales at 
  * both standard and discounted prices, and retrieve sales statistics.
+ *
+ * Prices and revenue are held in cents (see Money); the double getters
+ * and setters convert for older callers.
+ *
+ * Every item on a menu has a dense integer id (0, 1, 2, ...), its
+ * position on that menu, so orders can index their lines by id instead
+ * of hashing the object. Ids are handed out by the menu (see
+ * MenuCatalog.number()); an item belongs to one menu, and is -1 until
+ * it is numbered.
+ *
+ * The price changes of the items on one menu are counted together (see
+ * menuPriceChanges()), so an order can keep its total from one change to
+ * the next instead of adding up its lines again each time it is asked,
+ * and a price change on one cafe's menu leaves other cafes' orders alone.
  */
 public class FoodItem {
+    private int id = -1;       // Dense id within the menu, used to index order lines
     private String name;       // Name of the food item
-    private double price;      // Standard price of the item
+    private final boolean stockLimited; // Whether orders must reserve stock (muffins)
+    private volatile long priceCents; // Standard price of the item, in cents
     private int stock;         // Available stock (mainly for muffins)
     private int soldCount;     // Total number of items sold
-    private double revenue;    // Total revenue generated from sales
+    private long revenueCents; // Total revenue generated from sales, in cents
+    private volatile Combo[] pricedCombos = new Combo[0]; // Combos caching a price from this item
+    private AtomicLong menuPriceChanges = new AtomicLong(); // Shared by the items of the menu
 
     /**
      * Constructs a FoodItem with a name, price, and initial stock.
@@ -24,24 +45,94 @@ public class FoodItem {
      */
     public FoodItem(String name, double price, int stock) {
         this.name = name;
-        this.price = price;
+        this.stockLimited = name.equalsIgnoreCase("muffin");
+        this.priceCents = Money.ofDollars(price);
         this.stock = stock;
         this.soldCount = 0;
-        this.revenue = 0.0;
+        this.revenueCents = 0;
     }
 
     // ----- Getters & Setters -----
 
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Numbers the item within its menu. Called before the menu is
+     * published, so neither field needs synchronization.
+     *
+     * @param id               the item's position on the menu
+     * @param menuPriceChanges the price-change count shared by the menu's items
+     * @throws IllegalStateException if the item is already on another menu
+     */
+    void assignId(int id, AtomicLong menuPriceChanges) {
+        if (this.id >= 0 && this.id != id) {
+            throw new IllegalStateException(name + " is already item " + this.id + " of a menu");
+        }
+        this.id = id;
+        this.menuPriceChanges = menuPriceChanges;
+    }
+
     public String getName() {
         return name;
     }
 
+    /**
+     * Muffins are the only stock-limited items on the menu; orders
+     * must check and hold their stock before accepting them.
+     *
+     * @return true if orders must reserve this item's stock
+     */
+    public boolean isStockLimited() {
+        return stockLimited;
+    }
+
     public double getPrice() {
-        return price;
+        return Money.toDollars(priceCents);
     }
 
     public void setPrice(double price) {
-        this.price = price;
+        setPriceCents(Money.ofDollars(price));
+    }
+
+    public long getPriceCents() {
+        return priceCents;
+    }
+
+    public void setPriceCents(long priceCents) {
+        this.priceCents = priceCents;
+        for (Combo combo : pricedCombos) {
+            combo.invalidatePricing();
+        }
+        menuPriceChanges.incrementAndGet();   // Only once the new price can be read
+    }
+
+    /**
+     * Returns the count of price changes on the item's menu. A total of
+     * items on one menu worked out while the count stays the same is
+     * still correct. An item not on a menu has a count of its own.
+     *
+     * @return the menu's price changes so far
+     */
+    AtomicLong menuPriceChanges() {
+        return menuPriceChanges;
+    }
+
+    /**
+     * Registers a combo whose cached prices depend on this item's price.
+     *
+     * @param combo the combo to invalidate on every price change
+     */
+    synchronized void addPricedCombo(Combo combo) {
+        for (Combo c : pricedCombos) {
+            if (c == combo) {
+                return;
+            }
+        }
+        Combo[] grown = Arrays.copyOf(pricedCombos, pricedCombos.length + 1);
+        grown[pricedCombos.length] = combo;
+        pricedCombos = grown;
     }
 
     public int getStock() {
@@ -75,19 +166,42 @@ public class FoodItem {
      * @param qty The quantity being sold.
      */
     public void sell(int qty) {
-        sell(qty, this.price);
+        sellAtCents(qty, getPriceCents());
     }
 
     /**
      * Records a sale with a custom sale price (e.g., discounts/combos).
      *
      * @param qty       The quantity being sold.
-     * @param salePrice The price per item for this sale.
+     * @param salePrice The price per item for this sale, in dollars.
      */
     public void sell(int qty, double salePrice) {
+        sellAtCents(qty, Money.ofDollars(salePrice));
+    }
+
+    /**
+     * Records a sale with a custom sale price given in cents.
+     *
+     * @param qty            The quantity being sold.
+     * @param salePriceCents The price per item for this sale, in cents.
+     */
+    public void sellAtCents(int qty, long salePriceCents) {
+        this.stock -= qty;
+        this.soldCount += qty;
+        this.revenueCents += Money.times(salePriceCents, qty);
+    }
+
+    /**
+     * Records several sales at once, e.g. a whole batch of orders' sales
+     * of this item added up by a FinalizationPipeline.
+     *
+     * @param qty          The total quantity sold.
+     * @param revenueCents The total charged for them, in cents.
+     */
+    public void recordSales(int qty, long revenueCents) {
         this.stock -= qty;
         this.soldCount += qty;
-        this.revenue += qty * salePrice;
+        this.revenueCents += revenueCents;
     }
 
     // ----- Statistics -----
@@ -97,6 +211,34 @@ public class FoodItem {
     }
 
     public double getRevenue() {
-        return revenue;
+        return Money.toDollars(getRevenueCents());
+    }
+
+    public long getRevenueCents() {
+        return revenueCents;
+    }
+
+    /**
+     * Overwrites stock and sales statistics with previously saved values,
+     * e.g. when the sales journal rebuilds state after a restart.
+     *
+     * @param stock        The stock to restore.
+     * @param soldCount    The number of units sold.
+     * @param revenueCents The revenue generated, in cents.
+     */
+    public void restore(int stock, int soldCount, long revenueCents) {
+        this.stock = stock;
+        this.soldCount = soldCount;
+        this.revenueCents = revenueCents;
+    }
+
+    /**
+     * Captures the stock, sold count and revenue of this item at one point
+     * in time, so a report never mixes figures from different sales.
+     *
+     * @return a snapshot of this item's sales statistics
+     */
+    public SalesSnapshot snapshot() {
+        return new SalesSnapshot(name, stock, soldCount, revenueCents);
     }
 }
@@ -1,4 +1,12 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * GeekCafe.java
@@ -10,49 +18,883 @@ import java.util.*;
  */
 public class GeekCafe {
 
-    /** Stores available food items keyed by lowercase name. */
-    private Map<String, FoodItem> menu;
+    /** Menus with more entries than this are searched rather than listed. */
+    private static final int MAX_LISTED_ENTRIES = 30;
 
-    /** Stores the list of available combos. */
-    private List<Combo> combos;
+    /** Search results shown for what the cashier typed. */
+    private static final int MAX_SEARCH_RESULTS = 10;
+
+    /** Stores available food items, indexed by menu position. */
+    private FoodItem[] menu;
+
+    /** Stores the available combos, indexed by menu position. */
+    private Combo[] combos;
+
+    /** Read-only views of the menu and combos handed to other classes. */
+    private List<FoodItem> menuList;
+    private List<Combo> comboList;
+
+    /** The item the cafe bakes; the only one reserved by open orders. */
+    private final FoodItem muffin;
+
+    /** Items, then combos, by name; entry n is menu option n + 1. */
+    private final NameIndex names;
+
+    /** The main menu, which never changes. */
+    private static final String MAIN_MENU_TEXT = String.join(System.lineSeparator(),
+            "===============================================================",
+            "The Geek Cafe",
+            "===============================================================",
+            "a. Order",
+            "b. Bake muffins",
+            "c. Show sales report",
+            "d. Update prices",
+            "e. Exit",
+            "Please select: ");
+
+    /** The order and price menus, generated once from the catalog. */
+    private final String orderMenuText;
+    private final String orderMoreMenuText;    // With "No more", once something is ordered
+    private final String priceMenuText;
+
+    /** Holds muffins for open orders so concurrent orders cannot oversell. */
+    private StockReservations reservations = new StockReservations();
+
+    /** Receivers of every sale made by a completed order. */
+    private volatile SaleListener[] saleListeners = new SaleListener[0];
+
+    /** Forwards each sale to all registered listeners. */
+    private final SaleListener saleFeed = new SaleListener() {
+        @Override
+        public void onSale(FoodItem item, Combo combo, int qty, long unitPriceCents) {
+            for (SaleListener listener : saleListeners) {
+                listener.onSale(item, combo, qty, unitPriceCents);
+            }
+        }
+
+        @Override
+        public void onOrderFinalized() {
+            for (SaleListener listener : saleListeners) {
+                listener.onOrderFinalized();
+            }
+        }
+
+        @Override
+        public void onOrderAborted() {
+            for (SaleListener listener : saleListeners) {
+                listener.onOrderAborted();
+            }
+        }
+
+        @Override
+        public void onBatchedOrderFinalized() {
+            for (SaleListener listener : saleListeners) {
+                listener.onBatchedOrderFinalized();
+            }
+        }
+
+        @Override
+        public void onBatchFinalized() {
+            for (SaleListener listener : saleListeners) {
+                listener.onBatchFinalized();
+            }
+        }
+    };
+
+    /** Per-minute and per-hour sales totals for the sales report. */
+    private final RollingSalesAggregates recentSales = new RollingSalesAggregates();
+
+    /** Current prices; replaced, never changed, when a price changes. */
+    private volatile MenuSnapshot menuSnapshot;
+
+    /** Serializes price changes; orders never take it. */
+    private final ReentrantLock priceLock = new ReentrantLock();
+
+    /** Every sale line, column by column, for analytics queries. */
+    private final SalesLedger ledger = new SalesLedger();
+
+    /** Bundles applied automatically to every order, or null for none. */
+    private volatile BundleMatcher bundleMatcher;
+
+    /** Latency and throughput of the order hot path, published over JMX. */
+    private final CafeMetrics metrics;
+
+    /** Reused orders for tills that take one order after another. */
+    private final OrderPool orderPool = new OrderPool(reservations);
+
+    /** Receipts of recent paid submissions by client order id, for retries. */
+    private final DedupeCache<Receipt> submissions = new DedupeCache<>();
+
+    /** Finalizes paid orders in batches on one writer thread, or null. */
+    private volatile FinalizationPipeline pipeline;
+
+    /** Bakes muffins in the background when stock runs low, or null. */
+    private volatile AutoBaker autoBaker;
+
+    /** Gives back the muffins of abandoned orders, or null if holds never expire. */
+    private volatile LeaseWheel holdExpiry;
+
+    /** Durable record of sales, bakes and price changes, or null. */
+    private volatile SalesJournal journal;
 
     /** Scanner for user input. */
     private Scanner input;
 
+    /** Where the console menus print; the system console unless set. */
+    private ConsoleOutput out;
+
     /**
      * Constructor initializes the menu items and available combos.
      */
     public GeekCafe() {
-        input = new Scanner(System.in);
+        this(new Scanner(System.in));
+    }
+
+    /**
+     * Creates a cafe whose console menus read from the given scanner, so
+     * several cafes (see CafeChain) can share one console.
+     *
+     * @param input the console input
+     */
+    public GeekCafe(Scanner input) {
+        this(input, MenuCatalog.STANDARD);
+    }
+
+    /**
+     * Creates a cafe serving a catalog's menu.
+     *
+     * @param input   the console input
+     * @param catalog the menu to serve; the cafe gets its own items
+     */
+    public GeekCafe(Scanner input, MenuCatalog catalog) {
+        this(input, catalog.createItems(), catalog);
+    }
+
+    private GeekCafe(Scanner input, List<FoodItem> items, MenuCatalog catalog) {
+        this(input, items, catalog.createCombos(items), 1);
+    }
+
+    /**
+     * Creates a cafe with a given menu, e.g. one restored by CafeStateFile.
+     * The items and combos are numbered in menu order.
+     *
+     * @param input       the console input
+     * @param items       the food items, in menu order; one is the Muffin
+     * @param comboItems  the combos, in menu order
+     * @param menuVersion version number of the first price snapshot
+     */
+    GeekCafe(Scanner input, List<FoodItem> items, List<Combo> comboItems, long menuVersion) {
+        this.input = input;
+        MenuCatalog.number(items, comboItems);
+        menu = items.toArray(new FoodItem[0]);
+        combos = comboItems.toArray(new Combo[0]);
+        menuList = Collections.unmodifiableList(Arrays.asList(menu));
+        comboList = Collections.unmodifiableList(Arrays.asList(combos));
+
+        List<String> entryNames = new ArrayList<>(menu.length + combos.length);
+        for (FoodItem item : menu) {
+            entryNames.add(item.getName());
+        }
+        for (Combo combo : combos) {
+            entryNames.add(combo.getName());
+        }
+        names = new NameIndex(entryNames);
+        int muffinAt = names.find("muffin");
+        if (muffinAt < 0 || muffinAt >= menu.length) {
+            throw new IllegalArgumentException("The menu has no Muffin item");
+        }
+        muffin = menu[muffinAt];
+        orderMenuText = menuText("Select the food item", true, "Go back");
+        orderMoreMenuText = orderMenuText + (menu.length + combos.length + 2) + ". No more" + System.lineSeparator();
+        priceMenuText = menuText("Select the food item to update", false, "Go Back");
+
+        saleListeners = new SaleListener[] { recentSales, ledger };
+        menuSnapshot = new MenuSnapshot(menuVersion, menuList, comboList);
+        metrics = new CafeMetrics(reservations, muffin);
+    }
+
+    // ----- Non-interactive operations -----
+    // Used by the console menus below and by headless drivers such as
+    // OrderReplayEngine; none of these read input or print anything.
+
+    /**
+     * Looks up a menu item by name (case-insensitive).
+     *
+     * @param name the item name, e.g. "muffin"
+     * @return the item, or null if it is not on the menu
+     */
+    public FoodItem getItem(String name) {
+        int entry = names.find(name);
+        return entry >= 0 && entry < menu.length ? menu[entry] : null;
+    }
+
+    /**
+     * Finds the items with a word starting with what has been typed, for
+     * tills that search the menu as the cashier types.
+     *
+     * @param prefix the start of a word of the name, e.g. "muf"
+     * @param limit  the most items to return
+     * @return matching items, alphabetically by the matching word
+     */
+    public List<FoodItem> searchItems(String prefix, int limit) {
+        List<FoodItem> found = new ArrayList<>();
+        for (int entry : names.search(prefix, limit, menu.length)) {
+            found.add(menu[entry]);
+        }
+        return found;
+    }
+
+    /**
+     * Returns the food items in menu order.
+     *
+     * @return unmodifiable list of items
+     */
+    public List<FoodItem> getMenuItems() {
+        return menuList;
+    }
+
+    /**
+     * Returns the available combos in menu order.
+     *
+     * @return unmodifiable list of combos
+     */
+    public List<Combo> getCombos() {
+        return comboList;
+    }
+
+    /**
+     * Opens the sales journal in a directory, restores stock, sales and
+     * prices from it, and journals every later order, bake and price
+     * change. Call before taking any orders.
+     *
+     * @param dir the directory holding the journal files
+     * @return the open journal; close it when the cafe shuts down
+     * @throws IOException if the journal cannot be read or written
+     */
+    public SalesJournal openJournal(Path dir) throws IOException {
+        SalesJournal opened = SalesJournal.open(dir, Arrays.asList(menu));
+        journal = opened;
+        addSaleListener(opened);
+        publishPrices();   // Recovery may have restored other prices
+        return opened;
+    }
+
+    /**
+     * Registers a listener that receives every sale of every completed order.
+     *
+     * @param listener the listener to add
+     */
+    public synchronized void addSaleListener(SaleListener listener) {
+        SaleListener[] grown = Arrays.copyOf(saleListeners, saleListeners.length + 1);
+        grown[saleListeners.length] = listener;
+        saleListeners = grown;
+    }
+
+    /**
+     * Sets the bundles applied automatically to every order.
+     *
+     * @param bundles the bundles on offer; empty for none
+     */
+    public void setBundles(List<Bundle> bundles) {
+        bundleMatcher = bundles.isEmpty() ? null : new BundleMatcher(bundles);
+    }
+
+    /**
+     * Loads bundle definitions, one per line (see Bundle for the format);
+     * blank lines and lines starting with '#' are ignored.
+     *
+     * @param file the bundle definitions
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a definition is malformed
+     */
+    public void loadBundles(Path file) throws IOException {
+        List<Bundle> bundles = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                bundles.add(Bundle.parse(line, this::getItem));
+            }
+        }
+        setBundles(bundles);
+    }
+
+    /**
+     * Returns the bundles applied automatically to every order.
+     *
+     * @return the bundles on offer, possibly empty
+     */
+    public List<Bundle> getBundles() {
+        BundleMatcher matcher = bundleMatcher;
+        return matcher == null ? Collections.emptyList() : matcher.getBundles();
+    }
+
+    /**
+     * Moves an order's items onto the cheapest set of bundles on offer.
+     *
+     * @param order the order
+     * @return the amount saved, in cents
+     */
+    public long applyBundles(Order order) {
+        BundleMatcher matcher = bundleMatcher;
+        return matcher == null ? 0 : order.applyBundles(matcher);
+    }
+
+    /**
+     * Starts a new order that reserves muffins against all open orders.
+     *
+     * @return an empty order
+     */
+    public Order newOrder() {
+        Order order = new Order(reservations);
+        order.pinMenu(menuSnapshot);
+        order.setCreatedNanos(metrics.sampleOrderStart());
+        return order;
+    }
+
+    /**
+     * Starts a new order like newOrder(), reusing an order this thread
+     * released earlier. Give it back with releaseOrder() once it has been
+     * paid for or abandoned.
+     *
+     * @return an empty order from this thread's pool
+     */
+    public Order acquireOrder() {
+        Order order = orderPool.acquire();
+        order.pinMenu(menuSnapshot);
+        order.setCreatedNanos(metrics.sampleOrderStart());
+        return order;
+    }
+
+    /**
+     * Returns an order from acquireOrder() for reuse, giving back any
+     * muffins it still holds. The order must not be used afterwards.
+     *
+     * @param order the finished or abandoned order
+     */
+    public void releaseOrder(Order order) {
+        orderPool.release(order);
+    }
+
+    public OrderPool getOrderPool() {
+        return orderPool;
+    }
+
+    /**
+     * Finalizes an order if the payment covers its total, after applying
+     * any bundles on offer. While a finalization pipeline is running the
+     * order is finalized in its next batch, and this waits for it.
+     *
+     * @param order        the order to pay for
+     * @param paymentCents the amount paid, in cents
+     * @return the change due in cents, or -1 if the payment is insufficient
+     * @throws HoldExpiredException if the order's hold on its muffins
+     *                              expired and they were sold meanwhile
+     * @throws IllegalStateException if the sales journal cannot take a
+     *                               snapshot; nothing is sold
+     */
+    public long completeOrder(Order order, long paymentCents) {
+        if (pipeline != null) {
+            return completeOrderAsync(order, paymentCents).join();
+        }
+        checkJournal();
+        long created = order.getCreatedNanos();   // 0 unless this order is sampled
+        long start = created != 0 ? System.nanoTime() : 0;
+        applyBundles(order);
+        long total = order.calculateTotalCents();
+        if (paymentCents < total) {
+            metrics.orderUnpaid();
+            return -1;
+        }
+        if (!order.renewHolds()) {
+            throw new HoldExpiredException();
+        }
+        long totalled = created != 0 ? System.nanoTime() : 0;
+        order.finalizeOrder(saleListeners.length == 0 ? null : saleFeed);
+        return finalized(created, start, totalled, paymentCents - total);
+    }
+
+    /**
+     * Refuses an order while the journal is failing, before anything is
+     * sold: a sale cannot be taken back once the journal turns it down,
+     * and a retry of the submission would sell it again.
+     */
+    private void checkJournal() {
+        SalesJournal j = journal;
+        if (j != null) {
+            j.checkSnapshots();
+        }
+    }
+
+    /** Records a finalized order's latencies and returns its change. */
+    private long finalized(long created, long start, long totalled, long change) {
+        if (created != 0) {
+            metrics.recordLatencies(created, start, totalled, System.nanoTime());
+        }
+        metrics.orderCompleted();
+        return change;
+    }
+
+    /**
+     * Takes payment for an order and hands it to the finalization
+     * pipeline, if one is running, without waiting for it to be
+     * finalized. The order must not be changed or released until the
+     * future completes.
+     *
+     * @param order        the order to pay for
+     * @param paymentCents the amount paid, in cents
+     * @return completes with the change due in cents once the order is
+     *         finalized, or at once with -1 if the payment is insufficient
+     * @throws HoldExpiredException if the order's hold on its muffins
+     *                              expired and they were sold meanwhile
+     * @throws IllegalStateException if the sales journal cannot take a
+     *                               snapshot; nothing is sold
+     */
+    public CompletableFuture<Long> completeOrderAsync(Order order, long paymentCents) {
+        FinalizationPipeline p = pipeline;
+        if (p == null) {
+            return CompletableFuture.completedFuture(completeOrder(order, paymentCents));
+        }
+        checkJournal();
+        long created = order.getCreatedNanos();
+        long start = created != 0 ? System.nanoTime() : 0;
+        applyBundles(order);
+        long total = order.calculateTotalCents();
+        if (paymentCents < total) {
+            metrics.orderUnpaid();
+            return CompletableFuture.completedFuture(-1L);
+        }
+        if (!order.renewHolds()) {
+            throw new HoldExpiredException();
+        }
+        long totalled = created != 0 ? System.nanoTime() : 0;
+        try {
+            return p.submit(order, paymentCents - total)
+                    .thenApply(change -> finalized(created, start, totalled, change));
+        } catch (IllegalStateException e) {
+            // The pipeline was stopped meanwhile; finalize here instead
+            order.finalizeOrder(saleListeners.length == 0 ? null : saleFeed);
+            return CompletableFuture.completedFuture(finalized(created, start, totalled, paymentCents - total));
+        }
+    }
+
+    /**
+     * Starts finalizing paid orders in batches on one writer thread,
+     * which records each batch's combined sales per item instead of
+     * every till updating the shared counters line by line.
+     *
+     * @param maxBatch         most orders finalized in one batch
+     * @param maxLatencyMicros longest an order waits for its batch to fill
+     * @return the running pipeline; stop it with stopFinalizationPipeline()
+     */
+    public synchronized FinalizationPipeline startFinalizationPipeline(int maxBatch, long maxLatencyMicros) {
+        stopFinalizationPipeline();
+        FinalizationPipeline started = new FinalizationPipeline(saleFeed, maxBatch, maxLatencyMicros).start();
+        pipeline = started;
+        return started;
+    }
+
+    /**
+     * Finalizes the orders already handed to the pipeline and stops it;
+     * tills finalize their own orders again.
+     */
+    public synchronized void stopFinalizationPipeline() {
+        FinalizationPipeline running = pipeline;
+        if (running != null) {
+            pipeline = null;
+            running.close();
+        }
+    }
+
+    /**
+     * Returns the finalization pipeline.
+     *
+     * @return the running pipeline, or null if tills finalize their own orders
+     */
+    public FinalizationPipeline getFinalizationPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Completes a submission identified by the client, at most once. A
+     * kiosk or network till that retries a submission after a timeout,
+     * with the same id, gets the first submission's receipt back: the
+     * retry's order is cancelled, giving back its muffins, and nothing
+     * is sold twice. A retry arriving while the first submission is
+     * still being completed waits for it.
+     *
+     * @param orderId      the client's id for the submission
+     * @param order        the order to pay for
+     * @param paymentCents the amount paid, in cents
+     * @return the receipt (marked as a duplicate for a retry), or null if
+     *         the payment is insufficient; a later retry may then pay again
+     */
+    public Receipt completeOrder(String orderId, Order order, long paymentCents) {
+        CompletableFuture<Receipt> earlier;
+        while ((earlier = submissions.claim(orderId)) != null) {
+            Receipt receipt = earlier.join();
+            if (receipt != null) {
+                order.cancel();
+                return receipt.asDuplicate();
+            }
+            // The earlier attempt was not paid; claim again
+        }
+        long change;
+        try {
+            change = completeOrder(order, paymentCents);
+        } catch (RuntimeException e) {
+            submissions.abandon(orderId);
+            throw e;
+        }
+        if (change < 0) {
+            submissions.abandon(orderId);
+            return null;
+        }
+        Receipt receipt = new Receipt(paymentCents - change, change, false);
+        submissions.complete(orderId, receipt);
+        return receipt;
+    }
+
+    /**
+     * Looks up the receipt of a recent paid submission.
+     *
+     * @param orderId the client's id for the submission
+     * @return the receipt, marked as a duplicate, or null if none is kept
+     */
+    public Receipt getReceipt(String orderId) {
+        Receipt receipt = submissions.get(orderId);
+        return receipt == null ? null : receipt.asDuplicate();
+    }
+
+    /**
+     * Returns the receipts kept for retried submissions, e.g. to watch
+     * how many duplicates were caught.
+     *
+     * @return the submission cache
+     */
+    public DedupeCache<Receipt> getSubmissions() {
+        return submissions;
+    }
 
-        // Initialize food items
-        menu = new LinkedHashMap<>();
-        menu.put("muffin", new FoodItem("Muffin", 2.0, 25));
-        menu.put("shake", new FoodItem("Shake", 3.0, 0));
-        menu.put("coffee", new FoodItem("Coffee", 2.5, 0));
+    /**
+     * What a paid submission came to, returned again for its retries.
+     */
+    public static final class Receipt {
+        private final long totalCents;
+        private final long changeCents;
+        private final boolean duplicate;
+
+        Receipt(long totalCents, long changeCents, boolean duplicate) {
+            this.totalCents = totalCents;
+            this.changeCents = changeCents;
+            this.duplicate = duplicate;
+        }
+
+        Receipt asDuplicate() {
+            return duplicate ? this : new Receipt(totalCents, changeCents, true);
+        }
+
+        public long getTotalCents() {
+            return totalCents;
+        }
+
+        public long getChangeCents() {
+            return changeCents;
+        }
+
+        /**
+         * Tells whether this receipt answers a retry rather than the
+         * submission that sold the order.
+         *
+         * @return true for a retry
+         */
+        public boolean isDuplicate() {
+            return duplicate;
+        }
+    }
+
+    /**
+     * Returns the order hot-path metrics; register them with JMX to
+     * watch them live.
+     *
+     * @return the cafe's metrics
+     */
+    public CafeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Adds freshly baked muffins to stock.
+     *
+     * @param qty the number of muffins baked
+     */
+    public void bake(int qty) {
+        SalesJournal j = journal;
+        if (j != null) {
+            j.recordBake(muffin, qty);
+        }
+        reservations.restock(muffin, qty);
+    }
+
+    /**
+     * Starts baking muffins automatically whenever fewer than a watermark
+     * are left for new orders. Orders that find too few muffins then wait
+     * up to maxWaitMillis for the next batch instead of being refused.
+     *
+     * @param watermark     bake when fewer muffins than this are available
+     * @param batchSize     muffins per batch
+     * @param bakeMillis    how long a batch takes to bake
+     * @param maxWaitMillis longest an order waits for muffins
+     * @return the running baker; stop it with stopAutoBaker()
+     */
+    public synchronized AutoBaker startAutoBaker(int watermark, int batchSize, long bakeMillis, long maxWaitMillis) {
+        stopAutoBaker();
+        AutoBaker baker = new AutoBaker(muffin, reservations, this::bake,
+                watermark, batchSize, bakeMillis, 100);
+        reservations.setMaxWait(maxWaitMillis, TimeUnit.MILLISECONDS);
+        autoBaker = baker.start();
+        return baker;
+    }
+
+    /**
+     * Stops automatic baking; orders are refused at once again when
+     * muffins run out.
+     */
+    public synchronized void stopAutoBaker() {
+        AutoBaker baker = autoBaker;
+        if (baker != null) {
+            autoBaker = null;
+            reservations.setMaxWait(0, TimeUnit.MILLISECONDS);
+            baker.close();
+        }
+    }
+
+    /**
+     * Returns the automatic baker.
+     *
+     * @return the running baker, or null if muffins are baked by hand
+     */
+    public AutoBaker getAutoBaker() {
+        return autoBaker;
+    }
+
+    /**
+     * Starts giving back the muffins of abandoned orders: an open order
+     * that adds nothing and is not paid for within the time to live loses
+     * its hold, and its muffins can be sold to other customers. If it
+     * comes back later it takes them again, if they are still there.
+     *
+     * @param ttlMillis how long an untouched order keeps its muffins
+     * @return the running expiry wheel; stop it with stopHoldExpiry()
+     */
+    public synchronized LeaseWheel startHoldExpiry(long ttlMillis) {
+        stopHoldExpiry();
+        LeaseWheel wheel = new LeaseWheel(ttlMillis).start();
+        reservations.setLeaseWheel(wheel);
+        holdExpiry = wheel;
+        return wheel;
+    }
+
+    /**
+     * Stops expiring holds; muffins stay held until their order is
+     * finalized or cancelled.
+     */
+    public synchronized void stopHoldExpiry() {
+        LeaseWheel wheel = holdExpiry;
+        if (wheel != null) {
+            holdExpiry = null;
+            reservations.setLeaseWheel(null);
+            wheel.close();
+        }
+    }
+
+    /**
+     * Returns the wheel expiring abandoned holds.
+     *
+     * @return the running wheel, or null if holds never expire
+     */
+    public LeaseWheel getHoldExpiry() {
+        return holdExpiry;
+    }
+
+    /**
+     * Changes the price of a menu item.
+     *
+     * @param item       the item to update
+     * @param priceCents the new price, in cents
+     */
+    public void updatePrice(FoodItem item, long priceCents) {
+        priceLock.lock();
+        try {
+            SalesJournal j = journal;
+            if (j != null) {
+                j.recordPrice(item, priceCents);
+            }
+            item.setPriceCents(priceCents);
+            publishPrices();
+        } finally {
+            priceLock.unlock();
+        }
+    }
+
+    /**
+     * Publishes a new menu snapshot with the items' current prices.
+     */
+    private void publishPrices() {
+        priceLock.lock();
+        try {
+            menuSnapshot = new MenuSnapshot(menuSnapshot.getVersion() + 1, menuList, comboList);
+        } finally {
+            priceLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current prices. New orders pin this snapshot, so the
+     * prices they are quoted are the prices they are sold at.
+     *
+     * @return the current menu snapshot
+     */
+    public MenuSnapshot getMenuSnapshot() {
+        return menuSnapshot;
+    }
 
-        // Initialize combos
-        combos = new ArrayList<>();
-        combos.add(new Combo("Coffee + Muffin", menu.get("coffee"), menu.get("muffin"), 1.0));
-        combos.add(new Combo("Shake + Muffin", menu.get("shake"), menu.get("muffin"), 1.0));
+    /**
+     * Builds the sales report showing unsold muffins, sales of each item,
+     * and total revenue, from a consistent snapshot of every item, and
+     * the average order from the sales ledger, followed by item and combo
+     * sales over the last 15 and 60 minutes.
+     *
+     * @return the report text, one line per row
+     */
+    public String salesReport() {
+        String nl = System.lineSeparator();
+        String rule = "--------------------------------------";
+        StringBuilder out = new StringBuilder(256);
+        out.append(rule).append(nl);
+        out.append("SALES REPORT").append(nl);
+        out.append(rule).append(nl);
+        out.append("Unsold Muffins: ").append(muffin.snapshot().getStock()).append(nl);
+        out.append("Total Sales:").append(nl);
+
+        long totalUnits = 0;
+        long totalRevenue = 0;
+
+        for (FoodItem item : menu) {
+            SalesSnapshot sales = item.snapshot();
+            out.append(sales.getName()).append(": ").append(sales.getSoldCount()).append(" $");
+            Money.appendTo(out, sales.getRevenueCents()).append(nl);
+            totalUnits += sales.getSoldCount();
+            totalRevenue += sales.getRevenueCents();
+        }
+
+        out.append(rule).append(nl);
+        out.append(totalUnits).append(" $");
+        Money.appendTo(out, totalRevenue).append(nl);
+
+        SalesLedger.Totals orders = ledger.query().totals();
+        out.append("Orders: ").append(orders.getOrders()).append(", average $");
+        Money.appendTo(out, orders.getAverageOrderCents())
+                .append(String.format(" (%.1f items)", orders.getAverageOrderUnits())).append(nl);
+
+        appendRecentSales(out, "Last 15 minutes:", Duration.ofMinutes(15));
+        appendRecentSales(out, "Last hour:", Duration.ofHours(1));
+        appendAutoBake(out);
+        return out.toString();
     }
 
     /**
-     * Displays the main menu and handles user navigation.
+     * Returns the rolling per-minute and per-hour sales totals.
+     *
+     * @return windowed sales aggregates
+     */
+    public RollingSalesAggregates getRecentSales() {
+        return recentSales;
+    }
+
+    /**
+     * Returns the ledger of every sale line, for analytics queries.
+     *
+     * @return the sales ledger
+     */
+    public SalesLedger getLedger() {
+        return ledger;
+    }
+
+    /**
+     * Appends the automatic baker's figures, if it is running.
+     */
+    private void appendAutoBake(StringBuilder out) {
+        AutoBaker baker = autoBaker;
+        if (baker == null) {
+            return;
+        }
+        String nl = System.lineSeparator();
+        long waits = reservations.getWaits();
+        out.append("--------------------------------------").append(nl);
+        out.append("Auto-bake (below ").append(baker.getWatermark()).append("):").append(nl);
+        out.append("Muffins available: ").append(baker.getAvailable()).append(nl);
+        out.append("Batches: ").append(baker.getBakes()).append(", muffins baked: ")
+                .append(baker.getItemsBaked()).append(nl);
+        out.append("Average bake: ").append(TimeUnit.NANOSECONDS.toMillis(baker.getAverageBakeNanos()))
+                .append(" ms").append(nl);
+        out.append("Orders waited: ").append(waits).append(", timed out: ")
+                .append(reservations.getWaitTimeouts()).append(", average wait: ")
+                .append(waits == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(reservations.getTotalWaitNanos() / waits))
+                .append(" ms").append(nl);
+    }
+
+    /**
+     * Appends one windowed section of the sales report.
+     */
+    private void appendRecentSales(StringBuilder out, String title, Duration window) {
+        String nl = System.lineSeparator();
+        out.append("--------------------------------------").append(nl);
+        out.append(title).append(nl);
+        for (FoodItem item : menu) {
+            RollingSalesAggregates.WindowTotals sales = recentSales.itemTotals(item, window);
+            out.append(item.getName()).append(": ").append(sales.getUnits()).append(" $");
+            Money.appendTo(out, sales.getRevenueCents()).append(nl);
+        }
+        for (Combo combo : combos) {
+            RollingSalesAggregates.WindowTotals sales = recentSales.comboTotals(combo, window);
+            out.append(combo.getName()).append(": ").append(sales.getUnits()).append(" $");
+            Money.appendTo(out, sales.getRevenueCents()).append(nl);
+        }
+    }
+
+    // ----- Console menus -----
+    // Printed through a ConsoleOutput, so the till never waits for the
+    // terminal; menus are generated once and printed as a single string.
+
+    /**
+     * Sets where the console menus print, e.g. to drive them in a test.
+     *
+     * @param console the console output; started by the caller
+     */
+    public void setConsoleOutput(ConsoleOutput console) {
+        out = console;
+    }
+
+    /**
+     * Displays the main menu and handles user navigation. Everything the
+     * menus printed has been written out when this returns.
      */
     public void printMainMenu() {
+        if (out == null) {
+            out = ConsoleOutput.system();
+        }
+        try {
+            mainMenu();
+        } finally {
+            out.flush();
+        }
+    }
+
+    private void mainMenu() {
         boolean exit = false;
 
         while (!exit) {
-            System.out.println("===============================================================");
-            System.out.println("The Geek Cafe");
-            System.out.println("===============================================================");
-            System.out.println("a. Order");
-            System.out.println("b. Bake muffins");
-            System.out.println("c. Show sales report");
-            System.out.println("d. Update prices");
-            System.out.println("e. Exit");
-            System.out.print("Please select: ");
+            out.print(MAIN_MENU_TEXT);
 
             String choice;
             try {
@@ -61,6 +903,7 @@ public class GeekCafe {
                     throw new OutOfRangeException();
                 }
             } catch (OutOfRangeException e) {
+                out.println(e.getMessage());
                 continue;
             }
 
@@ -78,7 +921,7 @@ public class GeekCafe {
                     updatePrices();
                     break;
                 case "e":
-                    System.out.println("Bye Bye.");
+                    out.println("Bye Bye.");
                     exit = true;
                     break;
             }
@@ -90,133 +933,166 @@ public class GeekCafe {
      * Allows selection of individual food items or combos.
      */
     private void takeOrder() {
-        Order order = new Order();
+        Order order = acquireOrder();
+        try {
+            takeOrder(order);
+        } finally {
+            releaseOrder(order);
+        }
+    }
+
+    /**
+     * Takes one customer's order into an empty order and processes payment.
+     */
+    private void takeOrder(Order order) {
         boolean orderedBefore = false;
+        int goBack = menu.length + combos.length + 1;
 
         while (true) {
-            System.out.println("Select the food item:");
-            System.out.println("1. Muffin");
-            System.out.println("2. Shake");
-            System.out.println("3. Coffee");
-            System.out.println("4. Coffee + Muffin (Combo)");
-            System.out.println("5. Shake + Muffin (Combo)");
-            System.out.println("6. Go back");
-            if (orderedBefore) {
-                System.out.println("7. No more");
-            }
-            System.out.print("Please select: ");
+            out.print(orderedBefore ? orderMoreMenuText : orderMenuText);
+            out.print("Please select: ");
 
-            int opt;
-            try {
-                opt = Integer.parseInt(input.nextLine().trim());
-                if (!orderedBefore && (opt < 1 || opt > 6)) {
-                    throw new OutOfRangeException();
-                } else if (orderedBefore && (opt < 1 || opt > 7)) {
-                    throw new OutOfRangeException();
-                }
-            } catch (NumberFormatException e) {
-                System.out.println("Error: Invalid number.\n");
-                continue;
-            } catch (OutOfRangeException e) {
+            int opt = readChoice(orderedBefore ? goBack + 1 : goBack, goBack - 1);
+            if (opt == 0) {
                 continue;
             }
 
             // handle back/no more
-            if (!orderedBefore && opt == 6) return; // Go back
-            if (orderedBefore && opt == 6) return;  // Go back
-            if (orderedBefore && opt == 7) break;   // No more
-
-            switch (opt) {
-                case 1: { // Muffin
-                    FoodItem muffin = menu.get("muffin");
-                    int qty = promptForQuantity(muffin);
-                    if (qty == 0) return; // 0 = back to menu
-                    if (qty > 0 && !order.addItem(muffin, qty)) {
-                        int available = muffin.getStock() - order.getMuffinsOrderedSoFar();
-                        System.out.printf("Sorry, only %d muffins available, please bake more.\n", available);
-                        return;
-                    }
-                    break;
-                }
-                case 2: { // Shake
-                    FoodItem shake = menu.get("shake");
-                    int qty = promptForQuantity(shake);
-                    if (qty == 0) return;
-                    if (qty > 0 && !order.addItem(shake, qty)) {
-                        System.out.println("Error adding shake to order.");
-                        return;
-                    }
-                    break;
-                }
-                case 3: { // Coffee
-                    FoodItem coffee = menu.get("coffee");
-                    int qty = promptForQuantity(coffee);
-                    if (qty == 0) return;
-                    if (qty > 0 && !order.addItem(coffee, qty)) {
-                        System.out.println("Error adding coffee to order.");
-                        return;
-                    }
-                    break;
-                }
-                case 4: { // Coffee + Muffin combo
-                    Combo coffeeCombo = combos.get(0); // Coffee + Muffin
-                    int qty = promptForComboQuantity(coffeeCombo);
-                    if (qty == 0) return;
-                    if (!order.addCombo(coffeeCombo, qty)) {
-                        int available = coffeeCombo.getMuffin().getStock() - order.getMuffinsOrderedSoFar();
-                        System.out.printf("Sorry, only %d muffins available for combos, please bake more.\n", available);
-                        return;
+            if (opt == goBack) {                          // Go back
+                order.cancel();
+                return;
+            }
+            if (opt == goBack + 1) break;                 // No more
+
+            if (opt <= menu.length) {
+                FoodItem item = menu[opt - 1];
+                int qty = promptForQuantity(item);
+                if (qty == 0) { order.cancel(); return; } // 0 = back to menu
+                if (qty > 0 && !order.addItem(item, qty)) {
+                    if (item.isStockLimited()) {
+                        int available = reservations.available(item);
+                        out.printf("Sorry, only %d %ss available, please bake more.\n",
+                                available, item.getName().toLowerCase());
+                    } else {
+                        out.printf("Error adding %s to order.\n", item.getName().toLowerCase());
                     }
-                    break;
+                    order.cancel();
+                    return;
                 }
-                case 5: { // Shake + Muffin combo
-                    Combo shakeCombo = combos.get(1); // Shake + Muffin
-                    int qty = promptForComboQuantity(shakeCombo);
-                    if (qty == 0) return;
-                    if (!order.addCombo(shakeCombo, qty)) {
-                        int available = shakeCombo.getMuffin().getStock() - order.getMuffinsOrderedSoFar();
-                        System.out.printf("Sorry, only %d muffins available for combos, please bake more.\n", available);
-                        return;
-                    }
-                    break;
+            } else {
+                Combo combo = combos[opt - menu.length - 1];
+                int qty = promptForComboQuantity(combo);
+                if (qty == 0) { order.cancel(); return; }
+                if (!order.addCombo(combo, qty)) {
+                    int available = reservations.available(combo.getMuffin());
+                    out.printf("Sorry, only %d muffins available for combos, please bake more.\n", available);
+                    order.cancel();
+                    return;
                 }
             }
 
+            out.printf("Subtotal: $%s%n", Money.format(order.calculateTotalCents()));
             orderedBefore = true;
         }
 
         // Process payment
-        double total = order.calculateTotal();
-        if (total <= 0.0) {
-            System.out.println("Invalid order, returning to main menu.\n");
+        long savings = applyBundles(order);
+        long total = order.calculateTotalCents();
+        if (total <= 0) {
+            out.println("Invalid order, returning to main menu.\n");
+            order.cancel();
             return;
         }
 
-        System.out.printf("Total cost: $%.2f%n", total);
+        if (savings > 0) {
+            out.printf("Bundle savings: $%s%n", Money.format(savings));
+        }
+        out.printf("Total cost: $%s%n", Money.format(total));
         processPayment(order, total);
     }
     
+    /**
+     * Builds a selection menu: every item (and combo) numbered from 1 and
+     * a last "go back" option, or for a large catalog just the counts and
+     * a hint to search.
+     */
+    private String menuText(String title, boolean withCombos, String goBack) {
+        int entries = menu.length + (withCombos ? combos.length : 0);
+        StringBuilder text = new StringBuilder(64 + 24 * Math.min(entries, MAX_LISTED_ENTRIES));
+        String nl = System.lineSeparator();
+        if (entries > MAX_LISTED_ENTRIES) {
+            text.append(title).append(" (").append(menu.length).append(" items");
+            if (withCombos) {
+                text.append(", ").append(combos.length).append(" combos");
+            }
+            text.append("; type a name to search):").append(nl);
+        } else {
+            text.append(title).append(':').append(nl);
+            for (int i = 0; i < entries; i++) {
+                text.append(i + 1).append(". ").append(entryName(i)).append(nl);
+            }
+        }
+        text.append(entries + 1).append(". ").append(goBack).append(nl);
+        return text.toString();
+    }
+
+    /** The menu text of an entry: an item's name, or a combo's marked "(Combo)". */
+    private String entryName(int entry) {
+        return entry < menu.length ? menu[entry].getName() : combos[entry - menu.length].getName() + " (Combo)";
+    }
+
+    /**
+     * Reads a menu option. Letters instead of a number search the first
+     * searchable entries by name and list the matches with their numbers.
+     *
+     * @param options    the highest option
+     * @param searchable how many entries, from the first, can be searched
+     * @return the option chosen, or 0 to show the menu again
+     */
+    private int readChoice(int options, int searchable) {
+        String typed = input.nextLine().trim();
+        try {
+            int opt = Integer.parseInt(typed);
+            if (opt < 1 || opt > options) {
+                throw new OutOfRangeException();
+            }
+            return opt;
+        } catch (NumberFormatException e) {
+            int[] found = names.search(typed, MAX_SEARCH_RESULTS, searchable);
+            if (found.length == 0) {
+                out.println("Error: Invalid number.\n");
+            }
+            for (int entry : found) {
+                out.println("  " + (entry + 1) + ". " + entryName(entry));
+            }
+        } catch (OutOfRangeException e) {
+            out.println(e.getMessage());   // Then show the menu again
+        }
+        return 0;
+    }
+
     /**
      * Prompts the user for a valid quantity of a food item.
      */
     private int promptForQuantity(FoodItem item) {
         int qty;
         while (true) {
-            System.out.printf("How many %ss would you like (or 0 to go back to main menu): ", item.getName());
+            out.printf("How many %ss would you like (or 0 to go back to main menu): ", item.getName());
             try {
                 qty = Integer.parseInt(input.nextLine().trim());
                 if (qty == 0) {
                 	return 0;
-                } else if (item.getName().equalsIgnoreCase("muffin") && !item.hasStock(qty)) {
-                    System.out.printf("Only %d muffins available, please bake more\n", item.getStock());
+                } else if (item.isStockLimited() && !item.hasStock(qty)) {
+                    out.printf("Only %d %ss available, please bake more\n",
+                            item.getStock(), item.getName().toLowerCase());
                     return 0;
                 } else if (qty < 0) {
-                    System.out.println("Please enter a positive number.\n");
+                    out.println("Please enter a positive number.\n");
                 } else {
                     return qty;
                 }
             } catch (NumberFormatException e) {
-                System.out.println("Error: Invalid number.\n");
+                out.println("Error: Invalid number.\n");
             }
         }
     }
@@ -228,42 +1104,48 @@ public class GeekCafe {
         int qty;
         while (true) {
             try {
-                System.out.printf("How many %s combos would you like  (or 0 to go back to main menu): ", combo.getName());
+                out.printf("How many %s combos would you like  (or 0 to go back to main menu): ", combo.getName());
                 qty = Integer.parseInt(input.nextLine().trim());
                 if (qty == 0) {
                 	return 0;
                 } else if (qty < 0) {
-                    System.out.println("Please enter a positive number.\n");
+                    out.println("Please enter a positive number.\n");
                 } else {
                     return qty;
                 }
             } catch (NumberFormatException e) {
-                System.out.println("Error: Invalid number.\n");
+                out.println("Error: Invalid number.\n");
             }
         }
     }
 
     /**
      * Handles payment processing for an order.
+     *
+     * @param total the order total, in cents
      */
-    private void processPayment(Order order, double total) {
+    private void processPayment(Order order, long total) {
         while (true) {
             try {
-                System.out.print("Please enter payment (or 0 to go back to main menu): ");
-                double payment = Double.parseDouble(input.nextLine().trim());
+                out.print("Please enter payment (or 0 to go back to main menu): ");
+                long payment = Money.parse(input.nextLine().trim());
                 if (payment == 0) {
-                    System.out.println("Order cancelled. Returning to main menu.\n");
+                    out.println("Order cancelled. Returning to main menu.\n");
+                    order.cancel();
                 	return;
                 } else if (payment < total) {
-                    System.out.println("Insufficient payment, try again\n");
+                    out.println("Insufficient payment, try again\n");
                     continue;
                 }
-                double change = payment - total;
-                System.out.printf("Change: $%.2f%n", change);
-                order.finalizeOrder();
+                long change = completeOrder(order, payment);
+                out.printf("Change: $%s%n", Money.format(change));
                 break;
             } catch (NumberFormatException e) {
-                System.out.println("Error: Invalid payment.\n");
+                out.println("Error: Invalid payment.\n");
+            } catch (HoldExpiredException e) {
+                out.println(e.getMessage());
+                order.cancel();
+                return;
             }
         }
     }
@@ -272,9 +1154,9 @@ public class GeekCafe {
      * Adds 25 new muffins to stock.
      */
     private void bakeMuffins() {
-        menu.get("muffin").addStock(25);
-        System.out.printf("Ok, 25 Muffins added. Total muffins in cafe is now %d.%n",
-                menu.get("muffin").getStock());
+        bake(25);
+        out.printf("Ok, 25 Muffins added. Total muffins in cafe is now %d.%n",
+                muffin.getStock());
     }
 
     /**
@@ -282,84 +1164,47 @@ public class GeekCafe {
      * sales of each item, and total revenue.
      */
     private void showSalesReport() {
-        System.out.println("--------------------------------------");
-        System.out.println("SALES REPORT");
-        System.out.println("--------------------------------------");
-        System.out.println("Unsold Muffins: " + menu.get("muffin").getStock());
-        System.out.println("Total Sales:");
-
-        int totalUnits = 0;
-        double totalRevenue = 0.0;
-
-        for (FoodItem item : menu.values()) {
-            System.out.printf("%s: %d $%.2f%n", item.getName(),
-                    item.getSoldCount(), item.getRevenue());
-            totalUnits += item.getSoldCount();
-            totalRevenue += item.getRevenue();
-        }
-
-        System.out.println("--------------------------------------");
-        System.out.printf("%d $%.2f%n", totalUnits, totalRevenue);
+        out.print(salesReport());
     }
 
     /**
      * Allows updating the price of a food item.
      */
     private void updatePrices() {
+        int goBack = menu.length + 1;
         while (true) {
-            System.out.println("Select the food item to update:");
-            System.out.println("1. Muffin");
-            System.out.println("2. Shake");
-            System.out.println("3. Coffee");
-            System.out.println("4. Go Back");
-            System.out.print("Please select: ");
-
-            int opt;
-            try {
-                opt = Integer.parseInt(input.nextLine().trim());
-                if (opt < 1 || opt > 4) {
-                    throw new OutOfRangeException();
-                }
-            } catch (NumberFormatException e) {
-                System.out.println("Error: Invalid input.\n");
-                continue;
-            } catch (OutOfRangeException e) {
-                continue;
-            }
+            out.print(priceMenuText);
+            out.print("Please select: ");
 
-            FoodItem item = null;
-            switch (opt) {
-                case 1: item = menu.get("muffin"); break;
-                case 2: item = menu.get("shake"); break;
-                case 3: item = menu.get("coffee"); break;
-                case 4: return;
-            }
-
-            if (item == null) {
-                System.out.println("Error: Invalid option.\n");
+            int opt = readChoice(goBack, menu.length);
+            if (opt == 0) {
                 continue;
             }
+            if (opt == goBack) {
+                return;
+            }
+            FoodItem item = menu[opt - 1];
 
-            System.out.printf("%s currently costs $%.2f%n", item.getName(), item.getPrice());
+            out.printf("%s currently costs $%s%n", item.getName(), Money.format(item.getPriceCents()));
 
             while (true) {
                 try {
-                    System.out.print("Enter new price (or 0 to cancel & go back): ");
-                    double newPrice = Double.parseDouble(input.nextLine().trim());
+                    out.print("Enter new price (or 0 to cancel & go back): ");
+                    long newPrice = Money.parse(input.nextLine().trim());
 
                     if (newPrice == 0) {
-                        System.out.println("Price update cancelled. Returning to main menu.\n");
+                        out.println("Price update cancelled. Returning to main menu.\n");
                         return;
                     } else if (newPrice < 0) {
-                        System.out.println("Please enter a positive number.\n");
+                        out.println("Please enter a positive number.\n");
                         continue;
                     }
 
-                    item.setPrice(newPrice);
-                    System.out.printf("Price updated. %s now costs $%.2f%n", item.getName(), newPrice);
+                    updatePrice(item, newPrice);
+                    out.printf("Price updated. %s now costs $%s%n", item.getName(), Money.format(newPrice));
                     return;
                 } catch (NumberFormatException e) {
-                    System.out.println("Error: Invalid input.\n");
+                    out.println("Error: Invalid input.\n");
                 }
             }
         }
@@ -0,0 +1,18 @@
+/**
+ * HoldExpiredException.java
+ *
+ * Thrown when an order is paid for after its hold on its muffins expired
+ * and the muffins have since gone to other orders, so it can no longer
+ * be completed as ordered.
+ */
+public class HoldExpiredException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor with a message the tills show to the customer.
+     */
+    public HoldExpiredException() {
+        super("Sorry, your order was left too long and its muffins have been sold.");
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram.java
+ *
+ * A fixed-size, HDR-style histogram of latencies in nanoseconds, cheap
+ * enough to record on every order.
+ *
+ * Values below 64 ns get a bucket each; above that, every power of two
+ * is split into 32 equal buckets, so any recorded value is known to
+ * within about 3%. Values above about 73 minutes are counted in the top
+ * bucket. Recording is one array index computation and two atomic
+ * adds: it allocates nothing and takes no lock, so many threads can
+ * record at once. Reads (count, mean, percentiles) scan the buckets and
+ * are meant for monitoring, not for the hot path.
+ */
+public class LatencyHistogram {
+
+    /** Sub-buckets per power of two, as a power of two (32 → ~3% precision). */
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /** Largest value tracked exactly, about 73 minutes. */
+    private static final long MAX_VALUE = (1L << 42) - 1;
+
+    private static final int BUCKETS = bucketOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos the latency in nanoseconds; negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(Math.min(value, MAX_VALUE)));
+        sum.addAndGet(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * Returns the number of latencies recorded.
+     *
+     * @return recordings since creation or the last reset
+     */
+    public long getCount() {
+        long n = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            n += counts.get(b);
+        }
+        return n;
+    }
+
+    /**
+     * Returns the largest latency recorded.
+     *
+     * @return maximum in nanoseconds, 0 if nothing was recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean latency.
+     *
+     * @return mean in nanoseconds, 0 if nothing was recorded
+     */
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the latency that the given fraction of recordings did not
+     * exceed, to within the histogram's precision.
+     *
+     * @param fraction e.g. 0.99 for the 99th percentile
+     * @return latency in nanoseconds, 0 if nothing was recorded
+     */
+    public long getPercentile(double fraction) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int b = 0; b < BUCKETS; b++) {
+            snapshot[b] = counts.get(b);
+            n += snapshot[b];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += snapshot[b];
+            if (seen >= rank) {
+                return Math.min(highestValueIn(b), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears every recording. Recordings made while resetting may be
+     * partly kept.
+     */
+    public void reset() {
+        for (int b = 0; b < BUCKETS; b++) {
+            counts.set(b, 0);
+        }
+        sum.set(0);
+        max.set(0);
+    }
+
+    // ----- Buckets -----
+
+    private static int bucketOf(long value) {
+        if (value < 2 * SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    private static long highestValueIn(int bucket) {
+        if (bucket < 2 * SUB_COUNT) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BITS) - 1;
+        long sub = (bucket & (SUB_COUNT - 1)) + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,49 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for the LatencyHistogram class.
+ *
+ * These tests validate:
+ * - Count, mean and max are exact
+ * - Percentiles are within the histogram's ~3% precision
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * 1..1000 microseconds, one each: p50 ~ 500 us, p99 ~ 990 us.
+     */
+    @Test
+    public void percentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int us = 1; us <= 1000; us++) {
+            histogram.record(us * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500.0, histogram.getMean(), 0.001);
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_000, histogram.getPercentile(0.50), 500_000 * 0.035);
+        assertEquals(990_000, histogram.getPercentile(0.99), 990_000 * 0.035);
+        assertEquals(1_000_000, histogram.getPercentile(1.0));
+    }
+
+    /**
+     * Small values are exact; huge and negative values are clamped.
+     */
+    @Test
+    public void edgesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(17);
+        histogram.record(Long.MAX_VALUE / 2);
+
+        assertEquals(0, histogram.getPercentile(0.1));
+        assertEquals(17, histogram.getPercentile(0.5));
+        assertEquals(Long.MAX_VALUE / 2, histogram.getMax());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+}
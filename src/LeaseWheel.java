@@ -0,0 +1,301 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * LeaseWheel.java
+ *
+ * Expires ReservationLeases that were not renewed within a time to live,
+ * giving their stock back, with one thread however many leases are open.
+ *
+ * The wheel is a hashed timing wheel: time is cut into ticks (100 ms by
+ * default), and a lease is linked into the bucket of the tick its
+ * deadline falls in, modulo the 512 buckets. Each bucket is an intrusive
+ * doubly-linked list under its own lock, so scheduling and cancelling a
+ * lease are a few pointer writes, allocate nothing, and only contend
+ * with leases that hash to the same bucket.
+ *
+ * A single ticker thread wakes once per tick and visits the bucket of
+ * every tick that has fully passed. Leases whose deadline has passed are
+ * unlinked and expired; leases due in a later turn of the wheel stay
+ * where they are, and leases renewed since they were linked are moved to
+ * the bucket of their new deadline. A visit only touches its own bucket,
+ * so tens of thousands of open leases cost the ticker one bucket's share
+ * per tick, and an abandoned lease is expired at most about one tick
+ * after its deadline.
+ *
+ * Expiring a lease takes the lease's lock, so the ticker takes leases
+ * off a bucket first and expires them after unlocking it; a lease
+ * renewed or closed meanwhile is left alone.
+ *
+ * advance() runs the ticker's work by hand, for tests that drive the
+ * wheel with their own clock instead of calling start().
+ */
+public final class LeaseWheel implements AutoCloseable {
+
+    /** Default time an order's muffins are held without activity. */
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /** Default length of one tick. */
+    public static final long DEFAULT_TICK_MILLIS = 100;
+
+    private static final int SLOTS = 512;   // A power of two
+
+    /** One bucket of leases, newest first. */
+    private static final class Bucket {
+        final ReentrantLock lock = new ReentrantLock();
+        ReservationLease head;
+    }
+
+    private final long ttlMillis;
+    private final long tickMillis;
+    private final LongSupplier clock;
+    private final Bucket[] buckets = new Bucket[SLOTS];
+    private final ReentrantLock advancing = new ReentrantLock();
+    private volatile long nextTick;   // First tick not yet visited; written under advancing
+    private final Thread ticker;
+    private volatile boolean closed;
+
+    // Metrics
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder expiredUnits = new LongAdder();
+
+    /**
+     * Creates a wheel with the default tick on the system's monotonic
+     * clock; call start() to run its ticker.
+     *
+     * @param ttlMillis how long a lease lasts without being renewed
+     */
+    public LeaseWheel(long ttlMillis) {
+        this(ttlMillis, DEFAULT_TICK_MILLIS, () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+    }
+
+    /**
+     * Creates a wheel; call start() to run its ticker, or advance() to
+     * drive it by hand.
+     *
+     * @param ttlMillis  how long a lease lasts without being renewed; at
+     *                   least two ticks
+     * @param tickMillis the length of one tick
+     * @param clock      the current time in milliseconds
+     */
+    public LeaseWheel(long ttlMillis, long tickMillis, LongSupplier clock) {
+        if (tickMillis <= 0 || ttlMillis < 2 * tickMillis) {
+            throw new IllegalArgumentException("Tick must be positive and time to live at least two ticks");
+        }
+        this.ttlMillis = ttlMillis;
+        this.tickMillis = tickMillis;
+        this.clock = clock;
+        for (int i = 0; i < SLOTS; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.nextTick = Math.floorDiv(clock.getAsLong(), tickMillis);
+        this.ticker = new Thread(this::run, "lease-wheel");
+        ticker.setDaemon(true);
+    }
+
+    /**
+     * Starts the ticker thread.
+     *
+     * @return this wheel
+     */
+    public LeaseWheel start() {
+        ticker.start();
+        return this;
+    }
+
+    /**
+     * Stops the ticker. Leases still on the wheel no longer expire.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        ticker.interrupt();
+        try {
+            if (ticker.isAlive()) {
+                ticker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ----- Scheduling; the caller holds the lease's lock -----
+
+    /**
+     * Returns the deadline of a lease renewed now.
+     *
+     * @return now plus the time to live
+     */
+    long deadline() {
+        return clock.getAsLong() + ttlMillis;
+    }
+
+    /**
+     * Links a lease into the bucket of its deadline, unless it is linked
+     * already; a linked lease is moved when its bucket is next visited.
+     */
+    void schedule(ReservationLease lease) {
+        if (lease.slot >= 0) {
+            return;
+        }
+        int s = slotOf(lease.deadlineMillis);
+        Bucket b = buckets[s];
+        b.lock.lock();
+        try {
+            lease.prev = null;
+            lease.next = b.head;
+            if (b.head != null) {
+                b.head.prev = lease;
+            }
+            b.head = lease;
+            lease.slot = s;
+        } finally {
+            b.lock.unlock();
+        }
+        scheduled.increment();
+    }
+
+    /**
+     * Unlinks a lease, if it is linked.
+     */
+    void cancel(ReservationLease lease) {
+        int s = lease.slot;
+        if (s < 0) {
+            return;
+        }
+        Bucket b = buckets[s];
+        b.lock.lock();
+        try {
+            if (lease.slot == s) {
+                unlink(b, lease);
+            }
+        } finally {
+            b.lock.unlock();
+        }
+    }
+
+    /** The bucket for a deadline, never one already visited. */
+    private int slotOf(long deadlineMillis) {
+        long tick = Math.max(Math.floorDiv(deadlineMillis, tickMillis), nextTick);
+        return (int) (tick & (SLOTS - 1));
+    }
+
+    /** Caller holds the bucket's lock. */
+    private void unlink(Bucket b, ReservationLease lease) {
+        if (lease.prev == null) {
+            b.head = lease.next;
+        } else {
+            lease.prev.next = lease.next;
+        }
+        if (lease.next != null) {
+            lease.next.prev = lease.prev;
+        }
+        lease.prev = null;
+        lease.next = null;
+        lease.slot = -1;
+        scheduled.decrement();
+    }
+
+    // ----- Ticking -----
+
+    private void run() {
+        while (!closed) {
+            long now = clock.getAsLong();
+            advance(now);
+            try {
+                Thread.sleep(tickMillis - Math.floorMod(now, tickMillis));
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Visits the bucket of every tick that has fully passed by a time,
+     * expiring the leases due by then. After a long pause each bucket is
+     * visited once.
+     *
+     * @param nowMillis the current time on the wheel's clock
+     */
+    void advance(long nowMillis) {
+        advancing.lock();
+        try {
+            long target = Math.floorDiv(nowMillis, tickMillis);
+            if (target - nextTick > SLOTS) {
+                nextTick = target - SLOTS;
+            }
+            while (nextTick < target) {
+                visit((int) (nextTick & (SLOTS - 1)), nowMillis);
+                nextTick = nextTick + 1;
+            }
+        } finally {
+            advancing.unlock();
+        }
+    }
+
+    private void visit(int s, long now) {
+        ReservationLease due = null;
+        Bucket b = buckets[s];
+        b.lock.lock();
+        try {
+            ReservationLease lease = b.head;
+            while (lease != null) {
+                ReservationLease following = lease.next;
+                long deadline = lease.deadlineMillis;
+                if (deadline - now <= 0 || slotOf(deadline) != s) {
+                    unlink(b, lease);
+                    lease.nextDue = due;
+                    due = lease;
+                }
+                lease = following;
+            }
+        } finally {
+            b.lock.unlock();
+        }
+        while (due != null) {
+            ReservationLease lease = due;
+            due = lease.nextDue;
+            lease.nextDue = null;
+            int released = lease.expireIfDue(this, now);
+            if (released >= 0) {
+                expired.increment();
+                expiredUnits.add(released);
+            }
+        }
+    }
+
+    // ----- Metrics -----
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Returns how many leases are on the wheel, waiting to expire.
+     *
+     * @return open leases
+     */
+    public long size() {
+        return scheduled.sum();
+    }
+
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    /**
+     * Returns the stock given back by expired leases.
+     *
+     * @return units released
+     */
+    public long getExpiredUnits() {
+        return expiredUnits.sum();
+    }
+}
@@ -0,0 +1,179 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for the LeaseWheel and ReservationLease classes.
+ *
+ * These tests validate:
+ * - An abandoned order gives its muffins back about one tick after its deadline
+ * - Adding to an order renews its lease
+ * - An order that comes back takes its muffins again, or is refused if they were sold
+ * - Tens of thousands of open leases expire without a thread each
+ */
+public class LeaseWheelTest {
+    private static final long TTL = 1000;
+    private static final long TICK = 100;
+
+    private FoodItem muffin;                  // Stock-limited item
+    private StockReservations reservations;
+    private LeaseWheel wheel;                 // Driven by hand with advance()
+    private long now = 5_000;                 // The wheel's clock
+
+    @Before
+    public void setUp() {
+        muffin = new ConcurrentFoodItem("Muffin", 2.00, 10);
+        reservations = new StockReservations();
+        wheel = new LeaseWheel(TTL, TICK, () -> now);
+        reservations.setLeaseWheel(wheel);
+    }
+
+    private void advanceTo(long millis) {
+        now = millis;
+        wheel.advance(now);
+    }
+
+    @Test
+    public void abandonedOrderGivesItsMuffinsBack() {
+        Order order = new Order(reservations);
+        assertTrue(order.addItem(muffin, 4));
+        assertEquals(6, reservations.available(muffin));
+        assertEquals(1, wheel.size());
+
+        advanceTo(5_000 + TTL - 1);
+        assertEquals(6, reservations.available(muffin));   // Not yet due
+        advanceTo(5_000 + TTL + TICK);
+        assertTrue(order.isHoldExpired());
+        assertEquals(10, reservations.available(muffin));
+        assertEquals(0, reservations.held(muffin));
+        assertEquals(0, wheel.size());
+        assertEquals(1, wheel.getExpired());
+        assertEquals(4, wheel.getExpiredUnits());
+
+        // The customer comes back: the muffins are still there
+        assertTrue(order.renewHolds());
+        assertFalse(order.isHoldExpired());
+        assertEquals(6, reservations.available(muffin));
+        order.finalizeOrder();
+        assertEquals(6, muffin.getStock());
+        assertEquals(6, reservations.available(muffin));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void addingToAnOrderRenewsItsLease() {
+        Order order = new Order(reservations);
+        assertTrue(order.addItem(muffin, 1));
+        advanceTo(5_000 + TTL / 2);
+        assertTrue(order.addItem(muffin, 2));
+
+        advanceTo(5_000 + TTL + TICK);   // The first deadline has passed
+        assertFalse(order.isHoldExpired());
+        assertEquals(7, reservations.available(muffin));
+        assertEquals(1, wheel.size());
+
+        advanceTo(5_000 + TTL / 2 + TTL + TICK);
+        assertTrue(order.isHoldExpired());
+        assertEquals(3, wheel.getExpiredUnits());
+        assertEquals(10, reservations.available(muffin));
+
+        // Adding more to an expired order takes its old muffins too
+        assertTrue(order.addItem(muffin, 5));
+        assertEquals(2, reservations.available(muffin));
+        assertEquals(8, reservations.held(muffin));
+        order.cancel();
+        assertEquals(10, reservations.available(muffin));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void lateOrderIsRefusedOnceItsMuffinsAreSold() {
+        Order late = new Order(reservations);
+        assertTrue(late.addItem(muffin, 8));
+        advanceTo(5_000 + TTL + TICK);
+
+        Order other = new Order(reservations);
+        assertTrue(other.addItem(muffin, 5));
+        assertFalse(late.renewHolds());   // Only 5 left; takes none of them
+        assertFalse(late.addItem(muffin, 1));
+        assertEquals(5, reservations.available(muffin));
+        assertTrue(late.isHoldExpired());
+
+        // Finalized regardless, the sale still keeps stock and availability in step
+        late.finalizeOrder();
+        assertEquals(2, muffin.getStock());
+        assertEquals(-3, reservations.available(muffin));   // 2 in stock, 5 held
+        assertEquals(5, reservations.held(muffin));
+    }
+
+    /**
+     * Leaves a cafe order with every muffin unpaid until its hold expires
+     * on the cafe's own ticker, then sells the muffins to someone else.
+     */
+    @Test
+    public void cafeRefusesPaymentForAnExpiredOrder() throws InterruptedException {
+        GeekCafe cafe = new GeekCafe(new Scanner(""));
+        LeaseWheel expiry = cafe.startHoldExpiry(200);
+        try {
+            FoodItem cafeMuffin = cafe.getItem("muffin");
+            Order abandoned = cafe.newOrder();
+            assertTrue(abandoned.addItem(cafeMuffin, 25));
+            assertEquals(0, cafe.getMetrics().getMuffinsAvailable());
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (cafe.getMetrics().getMuffinsAvailable() < 25 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(25, cafe.getMetrics().getMuffinsAvailable());
+            assertEquals(1, expiry.getExpired());
+
+            Order next = cafe.newOrder();
+            assertTrue(next.addItem(cafeMuffin, 25));
+            assertEquals(0, cafe.completeOrder(next, 5000));
+            try {
+                cafe.completeOrder(abandoned, 5000);
+                fail("Sold muffins that went to another order");
+            } catch (HoldExpiredException expected) {
+                abandoned.cancel();
+            }
+            assertEquals(0, cafeMuffin.getStock());
+            assertEquals(25, cafeMuffin.getSoldCount());
+        } finally {
+            cafe.stopHoldExpiry();
+        }
+    }
+
+    /**
+     * Opens 50,000 orders over half a second of the wheel's clock, pays
+     * for a fifth and cancels a fifth, then lets the rest expire.
+     */
+    @Test
+    public void tensOfThousandsOfLeasesExpire() {
+        muffin = new ConcurrentFoodItem("Muffin", 2.00, 50_000);
+        Order[] orders = new Order[50_000];
+        for (int i = 0; i < orders.length; i++) {
+            if (i % 1000 == 0) {
+                advanceTo(now + 10);
+            }
+            orders[i] = new Order(reservations);
+            assertTrue(orders[i].addItem(muffin, 1));
+        }
+        assertEquals(50_000, wheel.size());
+        for (int i = 0; i < orders.length; i += 5) {
+            orders[i].finalizeOrder();
+            orders[i + 1].cancel();
+        }
+        assertEquals(30_000, wheel.size());
+
+        advanceTo(now + TTL + TICK);
+        assertEquals(0, wheel.size());
+        assertEquals(30_000, wheel.getExpired());
+        assertEquals(40_000, reservations.available(muffin));
+        assertEquals(0, reservations.held(muffin));
+        assertTrue(orders[2].isHoldExpired());
+        assertFalse(orders[0].isHoldExpired());
+    }
+}
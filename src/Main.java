@@ -1,18 +1,272 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+
 /**
  * Main.java
  * Entry point for the GeekCafe application.
  * 
  * This class launches the program by creating a GeekCafe object
- * and displaying its main menu.
+ * and displaying its main menu. The cafe's order metrics are published
+ * over JMX as GeekCafe:type=CafeMetrics.
  * 
  */
 public class Main {
+    /** Muffins per automatic batch, as many as "Bake muffins" adds. */
+    private static final int AUTO_BAKE_BATCH = 25;
+
+    /** Longest an order waits for an automatic batch. */
+    private static final long AUTO_BAKE_MAX_WAIT_MILLIS = 2000;
+
     /**
      * Main method - starts the GeekCafe application.
-     * @param args Command line arguments (not used here).
+     * @param args Command line arguments, all optional:
+     *             "--journal &lt;dir&gt;" keeps a durable sales journal in dir and
+     *             restores the cafe from it;
+     *             "--replay &lt;file&gt;" replays till transactions headlessly
+     *             instead of showing the interactive menu;
+     *             "--bundles &lt;file&gt;" applies the bundle deals defined
+     *             in file to every order;
+     *             "--autobake &lt;watermark&gt;" bakes muffins in the background
+     *             whenever fewer than watermark are left;
+     *             "--http &lt;port&gt;" serves kiosk and mobile orders over
+     *             HTTP instead of showing the interactive menu;
+     *             "--stores &lt;n&gt;" runs a chain of n independent stores
+     *             (with --http, store i on port + i - 1);
+     *             "--state &lt;file&gt;" starts the cafe from the image saved
+     *             in file, if there is one, and saves it there on exit;
+     *             "--catalog &lt;file&gt;" serves the menu defined in file
+     *             (see MenuCatalog) instead of the standard one;
+     *             "--finalize-batch &lt;n&gt;" finalizes paid orders in
+     *             batches of up to n on one writer thread (see
+     *             FinalizationPipeline);
+     *             "--hold-minutes &lt;n&gt;" gives the muffins of an order
+     *             left untouched for n minutes back to stock (see
+     *             LeaseWheel).
+     * @throws IOException if the journal, state, catalog or a replay file
+     *             cannot be read, or the HTTP port cannot be bound.
+     * @throws InterruptedException if interrupted while serving HTTP.
      */
-    public static void main(String[] args) {
-        GeekCafe cafe = new GeekCafe();
-        cafe.printMainMenu();
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String journalDir = null;
+        String replayFile = null;
+        String httpPort = null;
+        String bundleFile = null;
+        String autoBakeWatermark = null;
+        String storeCount = null;
+        String stateFile = null;
+        String catalogFile = null;
+        String finalizeBatch = null;
+        String holdMinutes = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--journal")) {
+                journalDir = args[i + 1];
+            } else if (args[i].equals("--replay")) {
+                replayFile = args[i + 1];
+            } else if (args[i].equals("--http")) {
+                httpPort = args[i + 1];
+            } else if (args[i].equals("--bundles")) {
+                bundleFile = args[i + 1];
+            } else if (args[i].equals("--autobake")) {
+                autoBakeWatermark = args[i + 1];
+            } else if (args[i].equals("--stores")) {
+                storeCount = args[i + 1];
+            } else if (args[i].equals("--state")) {
+                stateFile = args[i + 1];
+            } else if (args[i].equals("--catalog")) {
+                catalogFile = args[i + 1];
+            } else if (args[i].equals("--finalize-batch")) {
+                finalizeBatch = args[i + 1];
+            } else if (args[i].equals("--hold-minutes")) {
+                holdMinutes = args[i + 1];
+            }
+        }
+
+        MenuCatalog catalog = catalogFile == null ? MenuCatalog.STANDARD : MenuCatalog.load(Paths.get(catalogFile));
+        if (storeCount != null) {
+            runChain(Integer.parseInt(storeCount), catalog, journalDir, bundleFile, autoBakeWatermark,
+                    finalizeBatch, holdMinutes, httpPort);
+            return;
+        }
+
+        Path state = stateFile == null ? null : Paths.get(stateFile);
+        GeekCafe cafe = state != null && Files.exists(state)
+                ? CafeStateFile.load(state, new Scanner(System.in))
+                : new GeekCafe(new Scanner(System.in), catalog);
+        try {
+            cafe.getMetrics().register(null);
+        } catch (JMException e) {
+            System.err.println("Metrics not published over JMX: " + e.getMessage());
+        }
+        if (bundleFile != null) {
+            cafe.loadBundles(Paths.get(bundleFile));
+        }
+        SalesJournal journal = journalDir == null ? null : cafe.openJournal(Paths.get(journalDir));
+        if (autoBakeWatermark != null) {
+            cafe.startAutoBaker(Integer.parseInt(autoBakeWatermark), AUTO_BAKE_BATCH, 0, AUTO_BAKE_MAX_WAIT_MILLIS);
+        }
+        if (finalizeBatch != null) {
+            cafe.startFinalizationPipeline(Integer.parseInt(finalizeBatch),
+                    FinalizationPipeline.DEFAULT_MAX_LATENCY_MICROS);
+        }
+        if (holdMinutes != null) {
+            cafe.startHoldExpiry(TimeUnit.MINUTES.toMillis(Long.parseLong(holdMinutes)));
+        }
+        try {
+            if (replayFile != null) {
+                OrderReplayEngine.Report report = new OrderReplayEngine(cafe).replay(Paths.get(replayFile));
+                System.out.println(report);
+            } else if (httpPort != null) {
+                serveHttp(cafe, Integer.parseInt(httpPort));
+            } else {
+                cafe.printMainMenu();
+            }
+        } finally {
+            cafe.stopFinalizationPipeline();
+            cafe.stopAutoBaker();
+            cafe.stopHoldExpiry();
+            try {
+                if (state != null) {
+                    CafeStateFile.save(cafe, state);
+                }
+            } finally {
+                if (journal != null) {
+                    journal.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a chain of stores, each set up as a single cafe would be, on
+     * the console or over HTTP.
+     */
+    private static void runChain(int storeCount, MenuCatalog catalog, String journalDir, String bundleFile,
+                                 String autoBakeWatermark, String finalizeBatch, String holdMinutes,
+                                 String httpPort)
+            throws IOException, InterruptedException {
+        Scanner input = new Scanner(System.in);
+        try (CafeChain chain = new CafeChain(storeCount, input, catalog)) {
+            try {
+                chain.registerMetrics();
+            } catch (JMException e) {
+                System.err.println("Metrics not published over JMX: " + e.getMessage());
+            }
+            for (int i = 0; i < storeCount; i++) {
+                GeekCafe store = chain.getStore(i);
+                if (bundleFile != null) {
+                    store.loadBundles(Paths.get(bundleFile));
+                }
+                if (autoBakeWatermark != null) {
+                    store.startAutoBaker(Integer.parseInt(autoBakeWatermark), AUTO_BAKE_BATCH, 0,
+                            AUTO_BAKE_MAX_WAIT_MILLIS);
+                }
+                if (finalizeBatch != null) {
+                    store.startFinalizationPipeline(Integer.parseInt(finalizeBatch),
+                            FinalizationPipeline.DEFAULT_MAX_LATENCY_MICROS);
+                }
+                if (holdMinutes != null) {
+                    store.startHoldExpiry(TimeUnit.MINUTES.toMillis(Long.parseLong(holdMinutes)));
+                }
+            }
+            if (journalDir != null) {
+                chain.openJournals(Paths.get(journalDir));
+            }
+            if (httpPort != null) {
+                serveChainHttp(chain, Integer.parseInt(httpPort));
+            } else {
+                chainMenu(chain, input);
+            }
+        }
+    }
+
+    /**
+     * Lets the user pick a store to work at, or see the chain-wide report.
+     */
+    private static void chainMenu(CafeChain chain, Scanner input) {
+        while (true) {
+            System.out.println("===============================================================");
+            System.out.printf("The Geek Cafe chain (%d stores)%n", chain.getStoreCount());
+            System.out.println("===============================================================");
+            System.out.printf("1-%d. Go to store%n", chain.getStoreCount());
+            System.out.println("r. Show chain sales report");
+            System.out.println("e. Exit");
+            System.out.print("Please select: ");
+            if (!input.hasNextLine()) {
+                return;
+            }
+            String choice = input.nextLine().trim().toLowerCase();
+            if (choice.equals("e")) {
+                System.out.println("Bye Bye.");
+                return;
+            } else if (choice.equals("r")) {
+                System.out.print(chain.salesReport());
+                continue;
+            }
+            try {
+                int store = Integer.parseInt(choice);
+                if (store >= 1 && store <= chain.getStoreCount()) {
+                    System.out.println("Now at " + chain.getStoreName(store - 1));
+                    chain.getStore(store - 1).printMainMenu();
+                }
+            } catch (NumberFormatException e) {
+                // Not a store number; show the menu again
+            }
+        }
+    }
+
+    /**
+     * Serves every store of a chain over HTTP, store i on port + i - 1,
+     * until the process is stopped (Ctrl+C).
+     */
+    private static void serveChainHttp(CafeChain chain, int port) throws IOException, InterruptedException {
+        List<CafeHttpServer> servers = new ArrayList<>();
+        try {
+            for (int i = 0; i < chain.getStoreCount(); i++) {
+                servers.add(CafeHttpServer.start(chain.getStore(i), port == 0 ? 0 : port + i));
+            }
+        } catch (IOException e) {
+            servers.forEach(CafeHttpServer::close);
+            throw e;
+        }
+        Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            servers.forEach(CafeHttpServer::close);
+            try {
+                main.join();    // Let main close the journals before the JVM exits
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        System.out.printf("Geek Cafe chain serving %d stores over HTTP on ports %d-%d%n",
+                servers.size(), servers.get(0).getPort(), servers.get(servers.size() - 1).getPort());
+        for (CafeHttpServer server : servers) {
+            server.awaitClose();
+        }
+    }
+
+    /**
+     * Serves the cafe over HTTP until the process is stopped (Ctrl+C).
+     * Open orders are cancelled on shutdown; the caller then closes the journal.
+     */
+    private static void serveHttp(GeekCafe cafe, int port) throws IOException, InterruptedException {
+        CafeHttpServer server = CafeHttpServer.start(cafe, port);
+        Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            try {
+                main.join();    // Let main close the journal before the JVM exits
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        System.out.println("Geek Cafe serving HTTP on port " + server.getPort());
+        server.awaitClose();
     }
 }
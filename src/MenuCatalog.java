@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MenuCatalog.java
+ *
+ * The definition of a cafe's menu: its items with their prices and
+ * opening stock, and its combos. A catalog is only a definition; every
+ * GeekCafe built from it gets its own new FoodItems and Combos, so the
+ * stores of a chain can share one catalog without sharing stock.
+ *
+ * Catalogs can be written one entry per line, fields separated by commas:
+ *
+ * <pre>{@code
+ *   item, <name>, <price>[, <stock>]
+ *   combo, <name>, <beverage>, <muffin>, <discount>
+ *
+ *   item, Muffin, 2.00, 25
+ *   item, Coffee, 2.50
+ *   combo, Coffee + Muffin, Coffee, Muffin, 1.00
+ * }</pre>
+ *
+ * Blank lines and lines starting with '#' are ignored. Names are unique,
+ * ignoring case, and a combo's items must be listed before it. Every
+ * menu needs a Muffin item, which is what the cafe bakes, and every
+ * combo's second item is the Muffin: orders hold a combo's muffins
+ * against the baked stock.
+ */
+public final class MenuCatalog {
+
+    /** The standard three-item menu with its two combos. */
+    public static final MenuCatalog STANDARD = parse(Arrays.asList(
+            "item, Muffin, 2.00, 25",
+            "item, Shake, 3.00",
+            "item, Coffee, 2.50",
+            "combo, Coffee + Muffin, Coffee, Muffin, 1.00",
+            "combo, Shake + Muffin, Shake, Muffin, 1.00"));
+
+    private final List<String> itemNames = new ArrayList<>();
+    private final List<Long> itemPrices = new ArrayList<>();
+    private final List<Integer> itemStock = new ArrayList<>();
+    private final List<String> comboNames = new ArrayList<>();
+    private final List<int[]> comboItems = new ArrayList<>();   // Beverage and muffin positions
+    private final List<Long> comboDiscounts = new ArrayList<>();
+
+    private MenuCatalog() {
+    }
+
+    /**
+     * Reads a catalog file.
+     *
+     * @param file the catalog
+     * @return the catalog
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if an entry is malformed
+     */
+    public static MenuCatalog load(Path file) throws IOException {
+        return parse(Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses catalog entries.
+     *
+     * @param lines the entries, one per line
+     * @return the catalog
+     * @throws IllegalArgumentException if an entry is malformed, a name is
+     *         repeated, a combo names an unknown item or no Muffin, or
+     *         there is no Muffin
+     *         (NumberFormatException for a bad price or stock)
+     */
+    public static MenuCatalog parse(List<String> lines) {
+        MenuCatalog catalog = new MenuCatalog();
+        Map<String, Integer> items = new HashMap<>();
+        Map<String, Integer> combos = new HashMap<>();
+        int lineNo = 0;
+        for (String line : lines) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s*,\\s*");
+            String kind = fields[0].toLowerCase(Locale.ROOT);
+            if (kind.equals("item") && (fields.length == 3 || fields.length == 4)) {
+                String name = fields[1];
+                if (name.isEmpty() || items.putIfAbsent(key(name), items.size()) != null) {
+                    throw new IllegalArgumentException("Line " + lineNo + ": missing or repeated item name: " + line);
+                }
+                catalog.itemNames.add(name);
+                catalog.itemPrices.add(Money.parse(fields[2]));
+                catalog.itemStock.add(fields.length == 4 ? Integer.parseInt(fields[3]) : 0);
+            } else if (kind.equals("combo") && fields.length == 5) {
+                String name = fields[1];
+                Integer beverage = items.get(key(fields[2]));
+                Integer muffin = items.get(key(fields[3]));
+                if (beverage == null || muffin == null) {
+                    throw new IllegalArgumentException("Line " + lineNo + ": combo uses an unlisted item: " + line);
+                }
+                if (!key(fields[3]).equals("muffin")) {
+                    throw new IllegalArgumentException("Line " + lineNo + ": combo's second item is not the Muffin: " + line);
+                }
+                if (name.isEmpty() || combos.putIfAbsent(key(name), combos.size()) != null) {
+                    throw new IllegalArgumentException("Line " + lineNo + ": missing or repeated combo name: " + line);
+                }
+                catalog.comboNames.add(name);
+                catalog.comboItems.add(new int[] { beverage, muffin });
+                catalog.comboDiscounts.add(Money.parse(fields[4]));
+            } else {
+                throw new IllegalArgumentException("Line " + lineNo + ": expected an item or combo entry: " + line);
+            }
+        }
+        if (!items.containsKey("muffin")) {
+            throw new IllegalArgumentException("The catalog has no Muffin item");
+        }
+        return catalog;
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    public int getItemCount() {
+        return itemNames.size();
+    }
+
+    public int getComboCount() {
+        return comboNames.size();
+    }
+
+    /**
+     * Creates new, thread-safe items for one cafe, in catalog order and
+     * numbered from 0.
+     *
+     * @return the items
+     */
+    public List<FoodItem> createItems() {
+        List<FoodItem> items = new ArrayList<>(itemNames.size());
+        for (int i = 0; i < itemNames.size(); i++) {
+            FoodItem item = new ConcurrentFoodItem(itemNames.get(i), 0, itemStock.get(i));
+            item.setPriceCents(itemPrices.get(i));
+            items.add(item);
+        }
+        number(items, Collections.emptyList());
+        return Collections.unmodifiableList(items);
+    }
+
+    /**
+     * Creates the combos for one cafe, in catalog order and numbered
+     * from 0.
+     *
+     * @param items the cafe's items, as returned by createItems()
+     * @return the combos
+     */
+    public List<Combo> createCombos(List<FoodItem> items) {
+        List<Combo> combos = new ArrayList<>(comboNames.size());
+        for (int c = 0; c < comboNames.size(); c++) {
+            int[] parts = comboItems.get(c);
+            Combo combo = new Combo(comboNames.get(c), items.get(parts[0]), items.get(parts[1]),
+                    Money.toDollars(comboDiscounts.get(c)));
+            combo.assignId(c);
+            combos.add(combo);
+        }
+        return Collections.unmodifiableList(combos);
+    }
+
+    /**
+     * Numbers a menu's items and combos from 0, in menu order, and has
+     * the items count their price changes together. Price snapshots and
+     * the sales records index the menu by these ids, so a menu built by
+     * hand is numbered before it is used with them; GeekCafe numbers its
+     * own menu. Orders take unnumbered items too, but find their lines
+     * by scanning.
+     *
+     * @param items  the menu items
+     * @param combos the menu combos
+     * @throws IllegalStateException if an item or combo is already
+     *         numbered differently on another menu
+     */
+    public static void number(List<? extends FoodItem> items, List<Combo> combos) {
+        AtomicLong priceChanges = new AtomicLong();
+        for (int i = 0; i < items.size(); i++) {
+            items.get(i).assignId(i, priceChanges);
+        }
+        for (int c = 0; c < combos.size(); c++) {
+            combos.get(c).assignId(c);
+        }
+    }
+}
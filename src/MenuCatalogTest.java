@@ -0,0 +1,131 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Unit tests for the MenuCatalog class.
+ *
+ * These tests validate:
+ * - Catalog entries become a cafe's items and combos
+ * - Every cafe built from a catalog has its own stock
+ * - Every cafe numbers its own menu from 0, however many cafes were built before
+ * - Malformed catalogs are rejected
+ */
+public class MenuCatalogTest {
+
+    private static final List<String> CATALOG = Arrays.asList(
+            "# A bakery",
+            "item, Muffin, 2.00, 10",
+            "item, Blueberry Muffin, 2.75",
+            "item, Latte, 3.20",
+            "",
+            "combo, Latte + Muffin, latte, muffin, 0.70");
+
+    @Test
+    public void catalogBecomesTheMenu() {
+        MenuCatalog catalog = MenuCatalog.parse(CATALOG);
+        assertEquals(3, catalog.getItemCount());
+        assertEquals(1, catalog.getComboCount());
+
+        GeekCafe cafe = new GeekCafe(new Scanner(""), catalog);
+        FoodItem latte = cafe.getItem("LATTE");
+        assertEquals(320, latte.getPriceCents());
+        assertEquals(10, cafe.getItem("muffin").getStock());
+        assertNull(cafe.getItem("coffee"));
+        assertNull(cafe.getItem("Latte + Muffin"));       // A combo, not an item
+        Combo combo = cafe.getCombos().get(0);
+        assertSame(latte, combo.getBeverage());
+        assertEquals(320 + 200 - 70, combo.getPriceCents());
+
+        assertEquals(Arrays.asList(cafe.getItem("muffin"), cafe.getItem("blueberry muffin")),
+                cafe.searchItems("muf", 5));
+
+        Order order = cafe.newOrder();
+        assertTrue(order.addCombo(combo, 2));
+        assertEquals(0, cafe.completeOrder(order, 900));
+        assertEquals(8, cafe.getItem("muffin").getStock());
+    }
+
+    @Test
+    public void everyCafeGetsItsOwnItems() {
+        MenuCatalog catalog = MenuCatalog.parse(CATALOG);
+        GeekCafe first = new GeekCafe(new Scanner(""), catalog);
+        GeekCafe second = new GeekCafe(new Scanner(""), catalog);
+        first.bake(5);
+        assertEquals(15, first.getItem("muffin").getStock());
+        assertEquals(10, second.getItem("muffin").getStock());
+    }
+
+    @Test
+    public void everyCafeNumbersItsMenuFromZero() {
+        MenuCatalog catalog = MenuCatalog.parse(CATALOG);
+        for (int store = 0; store < 3; store++) {
+            GeekCafe cafe = new GeekCafe(new Scanner(""), catalog);
+            for (int i = 0; i < cafe.getMenuItems().size(); i++) {
+                assertEquals(i, cafe.getMenuItems().get(i).getId());
+            }
+            assertEquals(0, cafe.getCombos().get(0).getId());
+        }
+
+        // An item keeps its number; it cannot join a second menu elsewhere
+        GeekCafe cafe = new GeekCafe(new Scanner(""), catalog);
+        FoodItem latte = cafe.getItem("latte");
+        try {
+            MenuCatalog.number(Arrays.asList(latte), Arrays.asList());
+            fail("Renumbered an item already on a menu");
+        } catch (IllegalStateException expected) {
+            assertEquals(2, latte.getId());
+        }
+
+        // Items of two cafes sharing an id keep lines of their own
+        Order order = cafe.newOrder();
+        assertTrue(order.addItem(latte, 1));
+        FoodItem otherLatte = new GeekCafe(new Scanner(""), catalog).getItem("latte");
+        assertEquals(0, order.getItemQuantity(otherLatte));
+        assertTrue(order.addItem(otherLatte, 2));
+        assertEquals(1, order.getItemQuantity(latte));
+        assertEquals(2, order.getItemQuantity(otherLatte));
+        assertTrue(order.removeItem(latte, 1));
+        assertEquals(2, order.getItemQuantity(otherLatte));
+        assertTrue(order.addItem(latte, 3));
+        assertEquals(3, order.getItemQuantity(latte));
+        assertEquals(2, order.getItemLineCount());
+    }
+
+    @Test
+    public void standardCatalogIsTheDefaultMenu() {
+        GeekCafe cafe = new GeekCafe(new Scanner(""));
+        assertEquals(3, cafe.getMenuItems().size());
+        assertEquals("Shake + Muffin", cafe.getCombos().get(1).getName());
+        assertEquals(25, cafe.getItem("muffin").getStock());
+    }
+
+    @Test
+    public void malformedCatalogsAreRejected() {
+        assertRejected("item, Latte, 3.20");                                    // No muffin
+        assertRejected("item, Muffin, 2.00", "item, muffin, 2.10");            // Repeated
+        assertRejected("item, Muffin, 2.00", "combo, Tea + Muffin, Tea, Muffin, 1.00");
+        assertRejected("item, Muffin");
+        assertRejected("drink, Muffin, 2.00");
+        assertRejected("item, Muffin, two dollars");
+        try {
+            MenuCatalog.parse(Arrays.asList("item, Muffin, 2.00", "item, Coffee, 2.50", "item, Bagel, 1.80",
+                    "combo, Coffee + Bagel, Coffee, Bagel, 0.50"));
+            fail("Accepted a combo without the Muffin");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Line 4:"));
+        }
+    }
+
+    private static void assertRejected(String... lines) {
+        try {
+            MenuCatalog.parse(Arrays.asList(lines));
+            fail("Accepted " + Arrays.toString(lines));
+        } catch (IllegalArgumentException e) {
+            // Expected; NumberFormatException included
+        }
+    }
+}
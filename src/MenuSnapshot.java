@@ -0,0 +1,94 @@
+import java.util.List;
+
+/**
+ * MenuSnapshot.java
+ *
+ * An immutable, numbered copy of the menu's prices: every item's price
+ * and every combo's discounted component prices at one moment.
+ *
+ * GeekCafe publishes a new snapshot, with the next version number, each
+ * time a price changes, by swapping a single volatile reference; a
+ * snapshot is never modified once published. An Order created by the
+ * cafe pins the snapshot current at that moment and prices every line
+ * from it, so the total quoted to the customer and the revenue recorded
+ * by finalizeOrder() always use the same prices, however prices change
+ * in between. Reading prices takes no lock: it is an array lookup in a
+ * snapshot the reader already holds.
+ *
+ * Prices are indexed by the FoodItem and Combo ids, which are dense
+ * within one menu. Items and combos that are not on the cafe's menu,
+ * including those of another cafe's menu that share an id, are priced at
+ * their current live price.
+ */
+public final class MenuSnapshot {
+    private final long version;
+    private final FoodItem[] items;             // Menu items by id
+    private final long[] itemPrices;            // Price in cents by FoodItem id
+    private final Combo[] combos;               // Menu combos by id
+    private final Combo.Pricing[] comboPrices;  // Pricing by Combo id
+
+    /**
+     * Takes a snapshot of the current prices of a menu.
+     *
+     * @param version the snapshot's version number
+     * @param items   the menu items
+     * @param combos  the menu combos
+     */
+    public MenuSnapshot(long version, List<FoodItem> items, List<Combo> combos) {
+        this.version = version;
+        int maxItem = -1;
+        for (FoodItem item : items) {
+            maxItem = Math.max(maxItem, item.getId());
+        }
+        this.items = new FoodItem[maxItem + 1];
+        itemPrices = new long[maxItem + 1];
+        for (FoodItem item : items) {
+            this.items[item.getId()] = item;
+            itemPrices[item.getId()] = item.getPriceCents();
+        }
+
+        int maxCombo = -1;
+        for (Combo combo : combos) {
+            maxCombo = Math.max(maxCombo, combo.getId());
+        }
+        this.combos = new Combo[maxCombo + 1];
+        comboPrices = new Combo.Pricing[maxCombo + 1];
+        for (Combo combo : combos) {
+            this.combos[combo.getId()] = combo;
+            // Component prices from this snapshot, not read again live
+            comboPrices[combo.getId()] = combo.priceWith(
+                    priceOf(combo.getBeverage()), priceOf(combo.getMuffin()));
+        }
+    }
+
+    /**
+     * Returns the snapshot's version; later snapshots have higher ones.
+     *
+     * @return version number
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns an item's price in this snapshot.
+     *
+     * @param item the item
+     * @return price in cents
+     */
+    public long priceOf(FoodItem item) {
+        int id = item.getId();
+        return id >= 0 && id < items.length && items[id] == item ? itemPrices[id] : item.getPriceCents();
+    }
+
+    /**
+     * Returns a combo's discounted component prices in this snapshot.
+     *
+     * @param combo the combo
+     * @return the combo's pricing
+     */
+    public Combo.Pricing pricingOf(Combo combo) {
+        int id = combo.getId();
+        return id >= 0 && id < combos.length && combos[id] == combo ? comboPrices[id] : combo.getPricing();
+    }
+}
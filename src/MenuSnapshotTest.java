@@ -0,0 +1,130 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unit tests for the MenuSnapshot class and price pinning by orders.
+ *
+ * These tests validate:
+ * - A price change publishes a new, higher snapshot version
+ * - An open order keeps the prices it started with, for its total,
+ *   its combos, its bundles and the revenue it records
+ * - Under concurrent price changes every order is sold at its total
+ */
+public class MenuSnapshotTest {
+    private GeekCafe cafe;
+    private FoodItem coffee;
+    private FoodItem muffin;
+
+    @Before
+    public void setUp() {
+        cafe = new GeekCafe();
+        coffee = cafe.getItem("coffee");
+        muffin = cafe.getItem("muffin");
+    }
+
+    @Test
+    public void priceChangePublishesNewVersion() {
+        MenuSnapshot before = cafe.getMenuSnapshot();
+        cafe.updatePrice(coffee, 300);
+        MenuSnapshot after = cafe.getMenuSnapshot();
+
+        assertTrue(after.getVersion() > before.getVersion());
+        assertEquals(250, before.priceOf(coffee));
+        assertEquals(300, after.priceOf(coffee));
+        // Coffee + Muffin combo: $3.00 + $2.00 - $1.00
+        assertEquals(350, before.pricingOf(cafe.getCombos().get(0)).getTotalCents());
+        assertEquals(400, after.pricingOf(cafe.getCombos().get(0)).getTotalCents());
+    }
+
+    /**
+     * 2 coffees + 1 Coffee+Muffin combo quoted at $8.50; coffee goes up
+     * to $3.00 before payment. The order is still $8.50 and records
+     * coffee revenue at the old prices: 2 x $2.50 + $2.00.
+     */
+    @Test
+    public void openOrderKeepsItsPrices() {
+        Order order = cafe.newOrder();
+        order.addItem(coffee, 2);
+        order.addCombo(cafe.getCombos().get(0), 1);
+        assertEquals(850, order.calculateTotalCents());
+
+        cafe.updatePrice(coffee, 300);
+        assertEquals(850, order.calculateTotalCents());
+        assertEquals(150, cafe.completeOrder(order, 1000));
+        assertEquals(700, coffee.getRevenueCents());
+
+        Order next = cafe.newOrder();
+        next.addItem(coffee, 1);
+        assertEquals(300, next.calculateTotalCents());
+    }
+
+    /**
+     * A "2 coffees + muffin" bundle for $1 off is priced from the order's
+     * snapshot: $6.00 before coffee goes up, for the order started then.
+     */
+    @Test
+    public void bundlesUsePinnedPrices() {
+        cafe.setBundles(Collections.singletonList(new Bundle("Pair",
+                Arrays.asList(coffee, muffin), Arrays.asList(2, 1), 1.0)));
+        Order order = cafe.newOrder();
+        order.addItem(coffee, 2);
+        order.addItem(muffin, 1);
+        cafe.updatePrice(coffee, 400);
+
+        assertEquals(100, cafe.applyBundles(order));
+        assertEquals(600, order.calculateTotalCents());
+        assertEquals(0, cafe.completeOrder(order, 600));
+        assertEquals(600, coffee.getRevenueCents() + muffin.getRevenueCents());
+    }
+
+    /**
+     * Tills total and sell orders while prices flip between two values;
+     * what each order records always adds up to its total.
+     */
+    @Test
+    public void concurrentPriceChangesNeverTearOrders() throws InterruptedException {
+        cafe.bake(100_000);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong torn = new AtomicLong();
+        Thread pricer = new Thread(() -> {
+            for (int i = 0; running.get(); i++) {
+                cafe.updatePrice(coffee, i % 2 == 0 ? 300 : 250);
+                cafe.updatePrice(muffin, i % 2 == 0 ? 250 : 200);
+            }
+        });
+        pricer.start();
+
+        Thread[] tills = new Thread[3];
+        for (int t = 0; t < tills.length; t++) {
+            tills[t] = new Thread(() -> {
+                long[] recorded = new long[1];
+                SaleListener tally = (item, combo, qty, unitPriceCents) ->
+                        recorded[0] += Money.times(unitPriceCents, qty);
+                for (int i = 0; i < 20_000; i++) {
+                    Order order = cafe.newOrder();
+                    order.addItem(coffee, 1);
+                    order.addCombo(cafe.getCombos().get(0), 1);
+                    long total = order.calculateTotalCents();
+                    recorded[0] = 0;
+                    order.finalizeOrder(tally);
+                    if (recorded[0] != total) {
+                        torn.incrementAndGet();
+                    }
+                }
+            });
+            tills[t].start();
+        }
+        for (Thread till : tills) {
+            till.join();
+        }
+        running.set(false);
+        pricer.join();
+        assertEquals(0, torn.get());
+    }
+}
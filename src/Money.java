@@ -0,0 +1,148 @@
+/**
+ * Money.java
+ *
+ * Fixed-point money helpers. All amounts in the cafe are held as a
+ * primitive long number of cents, so totals and revenue are exact no
+ * matter how many sales are added up, and the pricing path never boxes
+ * or allocates.
+ *
+ * The double conversions exist only for the older getters that still
+ * return dollars (e.g. FoodItem.getPrice()).
+ */
+public final class Money {
+
+    /** Number of cents in one dollar. */
+    public static final long CENTS_PER_DOLLAR = 100;
+
+    private Money() {
+        // static helpers only
+    }
+
+    /**
+     * Converts a dollar amount to cents, rounding to the nearest cent.
+     *
+     * @param dollars the amount in dollars
+     * @return the amount in cents
+     */
+    public static long ofDollars(double dollars) {
+        return Math.round(dollars * CENTS_PER_DOLLAR);
+    }
+
+    /**
+     * Converts cents to dollars for display or the older double getters.
+     *
+     * @param cents the amount in cents
+     * @return the amount in dollars
+     */
+    public static double toDollars(long cents) {
+        return cents / (double) CENTS_PER_DOLLAR;
+    }
+
+    /**
+     * Multiplies a unit price by a quantity, failing instead of overflowing.
+     *
+     * @param cents the unit price in cents
+     * @param qty   the quantity
+     * @return the line amount in cents
+     */
+    public static long times(long cents, int qty) {
+        return Math.multiplyExact(cents, (long) qty);
+    }
+
+    /**
+     * Parses a decimal dollar amount such as "12", "2.5" or "-0.75" into
+     * cents without going through double. Digits past the cents are
+     * rounded half-up.
+     *
+     * @param text the amount typed by the user
+     * @return the amount in cents
+     * @throws NumberFormatException if the text is not a decimal number,
+     *                               or too large to hold in cents
+     */
+    public static long parse(String text) {
+        int len = text.length();
+        int i = 0;
+        boolean negative = false;
+        if (i < len && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+
+        long dollars = 0;
+        int digits = 0;
+        while (i < len && Character.isDigit(text.charAt(i))) {
+            try {
+                dollars = Math.addExact(Math.multiplyExact(dollars, 10), text.charAt(i) - '0');
+            } catch (ArithmeticException e) {
+                throw tooLarge(text);
+            }
+            digits++;
+            i++;
+        }
+
+        long cents = 0;
+        if (i < len && text.charAt(i) == '.') {
+            i++;
+            int fraction = 0;
+            while (i < len && Character.isDigit(text.charAt(i))) {
+                int d = text.charAt(i) - '0';
+                if (fraction < 2) {
+                    cents = cents * 10 + d;
+                } else if (fraction == 2 && d >= 5) {
+                    cents++;
+                }
+                fraction++;
+                digits++;
+                i++;
+            }
+            for (; fraction < 2; fraction++) {
+                cents *= 10;
+            }
+        }
+
+        if (digits == 0 || i != len) {
+            throw new NumberFormatException("Not an amount: \"" + text + "\"");
+        }
+        long total;
+        try {
+            total = Math.addExact(Math.multiplyExact(dollars, CENTS_PER_DOLLAR), cents);
+        } catch (ArithmeticException e) {
+            throw tooLarge(text);
+        }
+        return negative ? -total : total;
+    }
+
+    private static NumberFormatException tooLarge(String text) {
+        return new NumberFormatException("Amount too large: \"" + text + "\"");
+    }
+
+    /**
+     * Formats cents as a plain decimal amount, e.g. 1250 as "12.50".
+     *
+     * @param cents the amount in cents
+     * @return the formatted amount, without a currency sign
+     */
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(12), cents).toString();
+    }
+
+    /**
+     * Appends cents as a plain decimal amount to a reusable builder.
+     *
+     * @param out   the builder to append to
+     * @param cents the amount in cents
+     * @return the same builder
+     */
+    public static StringBuilder appendTo(StringBuilder out, long cents) {
+        if (cents < 0) {
+            out.append('-');
+            cents = -cents;
+        }
+        long fraction = cents % CENTS_PER_DOLLAR;
+        out.append(cents / CENTS_PER_DOLLAR).append('.');
+        if (fraction < 10) {
+            out.append('0');
+        }
+        return out.append(fraction);
+    }
+}
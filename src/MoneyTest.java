@@ -0,0 +1,69 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for the Money helpers.
+ *
+ * These tests validate:
+ * - Parsing of typed amounts into exact cents
+ * - Formatting of cents for display
+ * - Totals that would drift with double arithmetic stay exact
+ */
+public class MoneyTest {
+
+    @Test
+    public void parseAmounts() {
+        assertEquals(1200, Money.parse("12"));
+        assertEquals(250, Money.parse("2.5"));
+        assertEquals(199, Money.parse("1.99"));
+        assertEquals(-75, Money.parse("-0.75"));
+        assertEquals(50, Money.parse(".5"));
+        assertEquals(101, Money.parse("1.005")); // rounded half-up
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseRejectsText() {
+        Money.parse("abc");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseRejectsEmpty() {
+        Money.parse("");
+    }
+
+    /**
+     * Amounts beyond a long of cents are refused like any other bad input,
+     * so a till catching NumberFormatException asks again.
+     */
+    @Test
+    public void parseRejectsHugeAmounts() {
+        for (String huge : new String[] { "99999999999999999999", "92233720368547759.00", "-99999999999999999999.5" }) {
+            try {
+                Money.parse(huge);
+                fail("Parsed " + huge);
+            } catch (NumberFormatException expected) {
+                assertTrue(expected.getMessage().startsWith("Amount too large"));
+            }
+        }
+        assertEquals(92233720368547758L * 100, Money.parse("92233720368547758"));
+    }
+
+    @Test
+    public void formatAmounts() {
+        assertEquals("12.50", Money.format(1250));
+        assertEquals("0.05", Money.format(5));
+        assertEquals("-3.10", Money.format(-310));
+    }
+
+    /**
+     * A million sales at $0.10 must add up to exactly $100,000.00.
+     */
+    @Test
+    public void revenueDoesNotDrift() {
+        FoodItem item = new FoodItem("Coffee", 0.10, 0);
+        for (int i = 0; i < 1_000_000; i++) {
+            item.sell(1);
+        }
+        assertEquals(10_000_000L, item.getRevenueCents());
+    }
+}
@@ -0,0 +1,240 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * NameIndex.java
+ *
+ * Case-insensitive prefix index (a trie) over menu names, for tills that
+ * search the menu as the cashier types. Names are numbered by their
+ * position in the list given to the constructor.
+ *
+ * Every word of a name is indexed, so "muf" finds "Muffin" and also
+ * "Blueberry Muffin" and "Coffee + Muffin". Exact lookups walk the trie
+ * along the whole name and never compare against other names, so both
+ * lookups and searches cost time in proportion to what is typed (and
+ * the matches returned), not to the size of the menu.
+ *
+ * The trie is built once and never changes, so it is safe to share
+ * between threads. Nodes are held in parallel int and char arrays rather
+ * than objects: a catalog of thousands of names takes a few arrays
+ * instead of hundreds of thousands of small objects.
+ */
+public final class NameIndex {
+
+    private static final int NONE = -1;
+
+    // ----- Trie nodes; node 0 is the root -----
+
+    private char[] key = new char[64];      // Lower-case character leading to the node
+    private int[] firstChild = new int[64]; // Children are kept sorted by key
+    private int[] nextSibling = new int[64];
+    private int[] exact = new int[64];      // Lowest name ending here in full, or NONE
+    private int[] firstEnd = new int[64];   // Names with a word ending here (into ends),
+    private int[] lastEnd = new int[64];    // in menu order
+    private int nodes;
+
+    // ----- Word ends: a linked list per node -----
+
+    private int[] endName = new int[64];
+    private int[] endNext = new int[64];
+    private int ends;
+
+    private final int size;
+
+    /**
+     * Builds the index.
+     *
+     * @param names the names to index; a name's number is its position
+     */
+    public NameIndex(List<String> names) {
+        size = names.size();
+        newNode('\0');
+        for (int n = 0; n < size; n++) {
+            String name = names.get(n);
+            for (int from = 0; from < name.length(); from++) {
+                if (startsWord(name, from)) {
+                    add(name, from, n);
+                }
+            }
+        }
+    }
+
+    /** True if a word of the name starts at a position. */
+    private static boolean startsWord(String name, int at) {
+        return Character.isLetterOrDigit(name.charAt(at))
+                && (at == 0 || !Character.isLetterOrDigit(name.charAt(at - 1)));
+    }
+
+    /** Indexes the name from a word start to its end. */
+    private void add(String name, int from, int number) {
+        int node = 0;
+        for (int i = from; i < name.length(); i++) {
+            node = child(node, Character.toLowerCase(name.charAt(i)), true);
+        }
+        if (from == 0 && exact[node] == NONE) {
+            exact[node] = number;
+        }
+        if (ends == endName.length) {
+            endName = Arrays.copyOf(endName, ends * 2);
+            endNext = Arrays.copyOf(endNext, ends * 2);
+        }
+        endName[ends] = number;
+        endNext[ends] = NONE;
+        if (firstEnd[node] == NONE) {
+            firstEnd[node] = ends;
+        } else {
+            endNext[lastEnd[node]] = ends;
+        }
+        lastEnd[node] = ends++;
+    }
+
+    /**
+     * Finds a node's child for a character.
+     *
+     * @param create whether to add the child if it is missing
+     * @return the child, or NONE
+     */
+    private int child(int node, char c, boolean create) {
+        int prev = NONE;
+        int at = firstChild[node];
+        while (at != NONE && key[at] < c) {
+            prev = at;
+            at = nextSibling[at];
+        }
+        if (at != NONE && key[at] == c) {
+            return at;
+        }
+        if (!create) {
+            return NONE;
+        }
+        int added = newNode(c);
+        nextSibling[added] = at;
+        if (prev == NONE) {
+            firstChild[node] = added;
+        } else {
+            nextSibling[prev] = added;
+        }
+        return added;
+    }
+
+    private int newNode(char c) {
+        if (nodes == key.length) {
+            int grown = nodes * 2;
+            key = Arrays.copyOf(key, grown);
+            firstChild = Arrays.copyOf(firstChild, grown);
+            nextSibling = Arrays.copyOf(nextSibling, grown);
+            exact = Arrays.copyOf(exact, grown);
+            firstEnd = Arrays.copyOf(firstEnd, grown);
+            lastEnd = Arrays.copyOf(lastEnd, grown);
+        }
+        key[nodes] = c;
+        firstChild[nodes] = NONE;
+        nextSibling[nodes] = NONE;
+        exact[nodes] = NONE;
+        firstEnd[nodes] = NONE;
+        return nodes++;
+    }
+
+    /** Follows text from the root, or returns NONE if no name has it. */
+    private int walk(String text) {
+        int node = 0;
+        for (int i = 0; i < text.length() && node != NONE; i++) {
+            node = child(node, Character.toLowerCase(text.charAt(i)), false);
+        }
+        return node;
+    }
+
+    // ----- Lookups -----
+
+    /**
+     * Returns the number of names indexed.
+     *
+     * @return names
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds a name, ignoring case.
+     *
+     * @param name the whole name
+     * @return the name's number (the lowest, if several are equal), or -1
+     */
+    public int find(String name) {
+        int node = name.isEmpty() ? NONE : walk(name);
+        return node == NONE ? NONE : exact[node];
+    }
+
+    /**
+     * Finds the names with a word starting with a prefix, ignoring case,
+     * in alphabetical order of the names from the matching word on (names
+     * that read the same from there in their order in the index).
+     *
+     * @param prefix what has been typed so far
+     * @param limit  the most numbers to return
+     * @return the matching names' numbers, each at most once
+     */
+    public int[] search(String prefix, int limit) {
+        return search(prefix, limit, size);
+    }
+
+    /**
+     * Finds the names numbered below a bound with a word starting with a
+     * prefix, ignoring case, e.g. only the items of a menu of items then
+     * combos.
+     *
+     * @param prefix what has been typed so far
+     * @param limit  the most numbers to return
+     * @param below  only names numbered below this are returned
+     * @return the matching names' numbers, each at most once
+     */
+    public int[] search(String prefix, int limit, int below) {
+        String typed = prefix.trim();
+        int node = typed.isEmpty() ? NONE : walk(typed);
+        if (node == NONE || limit <= 0) {
+            return new int[0];
+        }
+        // Depth first with an explicit stack, so long names cannot
+        // overflow the call stack; children are pushed last-first so the
+        // smallest key is visited next
+        int[] found = new int[Math.min(limit, 16)];
+        int count = 0;
+        int[] stack = new int[16];
+        int depth = 0;
+        stack[depth++] = node;
+        while (depth > 0 && count < limit) {
+            int at = stack[--depth];
+            for (int e = firstEnd[at]; e != NONE && count < limit; e = endNext[e]) {
+                if (endName[e] < below && !contains(found, count, endName[e])) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, (int) Math.min(limit, count * 2L));
+                    }
+                    found[count++] = endName[e];
+                }
+            }
+            int children = 0;
+            for (int c = firstChild[at]; c != NONE; c = nextSibling[c]) {
+                children++;
+            }
+            if (depth + children > stack.length) {
+                stack = Arrays.copyOf(stack, Math.max(stack.length * 2, depth + children));
+            }
+            int top = depth + children;
+            for (int c = firstChild[at]; c != NONE; c = nextSibling[c]) {
+                stack[--top] = c;
+            }
+            depth += children;
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    private static boolean contains(int[] found, int count, int number) {
+        for (int i = 0; i < count; i++) {
+            if (found[i] == number) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
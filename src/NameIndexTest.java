@@ -0,0 +1,62 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for the NameIndex class.
+ *
+ * These tests validate:
+ * - Exact lookups ignore case and never match a name's later words
+ * - Any word of a name can be searched by its first letters
+ * - Searches are limited, bounded and free of repeats
+ */
+public class NameIndexTest {
+
+    private final NameIndex index = new NameIndex(Arrays.asList(
+            "Muffin", "Shake", "Coffee", "Blueberry Muffin", "Coffee + Muffin", "Muffin muffin"));
+
+    @Test
+    public void findsWholeNamesIgnoringCase() {
+        assertEquals(0, index.find("muffin"));
+        assertEquals(3, index.find("BLUEBERRY MUFFIN"));
+        assertEquals(4, index.find("coffee + muffin"));
+        assertEquals(-1, index.find("muff"));
+        assertEquals(-1, index.find("blueberry"));
+        assertEquals(-1, index.find(""));
+        assertEquals(6, index.size());
+    }
+
+    @Test
+    public void searchesEveryWord() {
+        // "Muffin" first, then the names reading "muffin..." from the matching word
+        assertArrayEquals(new int[] {0, 3, 4, 5}, index.search("muf", 10));
+        assertArrayEquals(new int[] {3}, index.search("blue", 10));
+        assertArrayEquals(new int[] {2, 4}, index.search("Co", 10));
+        assertArrayEquals(new int[] {4}, index.search("coffee + m", 10));
+        assertArrayEquals(new int[0], index.search("tea", 10));
+        assertArrayEquals(new int[0], index.search("  ", 10));
+    }
+
+    @Test
+    public void searchesAreLimitedAndBounded() {
+        assertArrayEquals(new int[] {0, 3}, index.search("muffin", 2));
+        assertArrayEquals(new int[] {0, 3}, index.search("muffin", 10, 4));   // Not the combo-like entries
+    }
+
+    @Test
+    public void largeCatalog() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            names.add("Item " + i);
+        }
+        NameIndex large = new NameIndex(names);
+        assertEquals(4321, large.find("item 4321"));
+        assertArrayEquals(new int[] {4321}, large.search("4321", 10));
+        assertEquals(100, large.search("item", 100).length);
+        assertArrayEquals(new int[] {4, 40, 400, 4000}, Arrays.copyOf(large.search("4", 5000), 4));
+        assertEquals(1111, large.search("4", 5000).length);
+    }
+}
@@ -1,4 +1,6 @@
-import java.util.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Order.java
@@ -11,39 +13,167 @@ import java.util.*;
  *
  * Pricing Rules:
  * - Regular food items are charged at their listed price.
- * - Combo items apply a $1 discount split equally across items 
- *   ($0.50 off the beverage, $0.50 off the muffin).
+ * - Combo items apply the combo's discount split equally across items 
+ *   (a $1 combo takes $0.50 off the beverage and $0.50 off the muffin).
+ *
+ * All amounts are computed in cents (see Money), so totals are exact.
  *
  * Sales tracking ensures that combo purchases are still
  * recorded against the individual items, but at discounted rates.
+ *
+ * applyBundles() moves item quantities onto bundle lines when a set of
+ * Bundles is cheaper; bundle lines are priced and sold like combos, with
+ * the discount shared among the bundled items.
+ *
+ * When created with a StockReservations service, muffins are held
+ * across all open orders rather than only within this one, so two
+ * orders built at the same time cannot both take the last muffins.
+ * The hold is committed by finalizeOrder() and given back by cancel().
+ * It is kept on a ReservationLease, so if the order is abandoned the
+ * reservations' LeaseWheel gives the muffins back after a while;
+ * renewHolds() takes them again if the customer returns.
+ *
+ * Order lines are kept in plain arrays rather than maps: each line is an
+ * item (or combo) and a primitive int quantity, and a lookup table
+ * indexed by the item's dense menu id finds an existing line in O(1). Adding
+ * lines, totalling and finalizing are array scans that allocate nothing
+ * once the arrays have grown to the order's size. Items that are not on
+ * a menu yet (id -1), or whose id is already taken in the order by
+ * another menu's item, get lines too; they are found by scanning.
+ *
+ * An order made by GeekCafe pins the MenuSnapshot current when it was
+ * started and takes every price from it, so a price change while the
+ * order is open affects neither its total nor the revenue it records.
+ * An order without a snapshot uses the items' current prices.
+ *
+ * The order keeps its total as it goes: adding or removing a line adds
+ * or takes off that line's price, so calculateTotalCents() is O(1) and a
+ * catering order of hundreds of lines can be re-quoted after every line.
+ * The prices of an order with a pinned snapshot never change, so its
+ * total never needs adding up again. In an order without one, a price
+ * change on its items' menu (see FoodItem.menuPriceChanges()) makes the
+ * next calculateTotalCents() add the lines up again once, so the total
+ * always uses the same prices finalizeOrder() will record; price changes
+ * on other cafes' menus are not noticed.
+ *
+ * reset() empties an order but keeps those arrays, so a till can serve
+ * customer after customer with one Order (see OrderPool) and the whole
+ * order cycle allocates nothing.
  */
 public class Order {
 
-    /** Stores regular food items and their ordered quantities */
-    private Map<FoodItem, Integer> itemOrder = new HashMap<>();
+    /** Lookup table used until the first line is added */
+    private static final int[] NO_LINES = new int[0];
+
+    /** Regular food items, one per line, in the order first added */
+    private FoodItem[] items = new FoodItem[4];
+
+    /** Quantity ordered on each item line */
+    private int[] itemQty = new int[4];
+
+    /** Number of item lines in use */
+    private int itemLines = 0;
+
+    /** Item line + 1 for each FoodItem id (0 = not in this order) */
+    private int[] itemLineById = NO_LINES;
+
+    /** Item lines missing from itemLineById, found by scanning */
+    private int unindexedItemLines = 0;
+
+    /** Combos, one per line, in the order first added */
+    private Combo[] combos = new Combo[2];
+
+    /** Quantity ordered on each combo line */
+    private int[] comboQty = new int[2];
+
+    /** Number of combo lines in use */
+    private int comboLines = 0;
+
+    /** Combo line + 1 for each Combo id (0 = not in this order) */
+    private int[] comboLineById = NO_LINES;
+
+    /** Combo lines missing from comboLineById, found by scanning */
+    private int unindexedComboLines = 0;
+
+    /** Bundles applied by applyBundles(), one per line */
+    private Bundle[] bundles = new Bundle[0];
 
-    /** Stores combos and their ordered quantities */
-    private Map<Combo, Integer> comboOrder = new HashMap<>();
+    /** Number of each bundle applied */
+    private int[] bundleQty = new int[0];
+
+    /** Number of bundle lines in use */
+    private int bundleLines = 0;
+
+    /** Total of all lines, in cents; exact while menu is pinned or pricedAt is current */
+    private long totalCents = 0;
+
+    /** Price changes of the lines' menu when totalCents was last added up, or -1 */
+    private long pricedAt = -1;
+
+    /** Price-change count of the lines' menu, or null before the first line */
+    private AtomicLong priceChanges;
+
+    /** True if the lines come from menus with separate counts; the total is added up each time */
+    private boolean manyPriceCounts;
 
     /** Tracks the number of muffins ordered so far (to avoid overselling stock) */
     private int muffinsOrderedSoFar = 0;
 
+    /** Prices pinned when the order was started, or null for current prices */
+    private MenuSnapshot menu;
+
+    /** System.nanoTime() when the order was started if its latency is sampled, else 0 */
+    private long createdNanos;
+
+    /** Shared reservation service, or null to only guard stock within this order */
+    private final StockReservations reservations;
+
+    /** Stock held through the reservation service, created on first hold */
+    private ReservationLease lease;
+
+    /** The pool this order came from, or null if it was created directly */
+    OrderPool pool;
+
+    /** True while the order sits idle in its pool */
+    boolean idle;
+
+    /**
+     * Creates an order that only guards muffin stock within itself.
+     */
+    public Order() {
+        this(null);
+    }
+
+    /**
+     * Creates an order that reserves muffins through a shared service.
+     *
+     * @param reservations the reservation service shared by all open orders
+     */
+    public Order(StockReservations reservations) {
+        this.reservations = reservations;
+    }
+
     /**
      * Adds a regular food item to the order.
      *
      * @param item the food item
      * @param qty  the quantity requested
      * @return true if successfully added, false if stock is insufficient
+     * @throws IllegalArgumentException if the quantity is not positive
      */
     public boolean addItem(FoodItem item, int qty) {
-        if (item.getName().equalsIgnoreCase("muffin")) {
-            int available = item.getStock() - muffinsOrderedSoFar;
-            if (qty > available) {
+        if (qty <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        if (item.isStockLimited()) {
+            if (!reserve(item, qty)) {
                 return false;
             }
             muffinsOrderedSoFar += qty;
         }
-        itemOrder.put(item, itemOrder.getOrDefault(item, 0) + qty);
+        int line = itemLine(item);
+        itemQty[line] += qty;
+        totalCents += Money.times(priceOf(item), qty);
         return true;
     }
 
@@ -54,15 +184,78 @@ public class Order {
      * @param combo the combo being ordered
      * @param qty   the quantity requested
      * @return true if successfully added, false if not enough muffins are available
+     * @throws IllegalArgumentException if the quantity is not positive
      */
     public boolean addCombo(Combo combo, int qty) {
-        FoodItem muffin = combo.getMuffin();
-        int available = muffin.getStock() - muffinsOrderedSoFar;
-        if (qty > available) {
+        if (qty <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        if (!reserve(combo.getMuffin(), qty)) {
             return false;
         }
         muffinsOrderedSoFar += qty;
-        comboOrder.put(combo, comboOrder.getOrDefault(combo, 0) + qty);
+        int line = comboLine(combo);
+        comboQty[line] += qty;
+        totalCents += Money.times(pricingOf(combo).getTotalCents(), qty);
+        return true;
+    }
+
+    /**
+     * Removes some of an item from the order, giving back any muffins
+     * held for them. A line left with nothing is removed; the other lines
+     * keep their order. Bundles applied by applyBundles() are taken off
+     * first, so apply them again before taking payment; a removal that
+     * fails leaves the order, bundles and total included, as it was.
+     *
+     * @param item the item to remove
+     * @param qty  how many to remove
+     * @return true if removed, false if the order has fewer than qty of the item
+     */
+    public boolean removeItem(FoodItem item, int qty) {
+        if (qty < 0) {
+            throw new IllegalArgumentException("Quantity must not be negative");
+        }
+        int line = findItemLine(item);
+        if (line < 0 || itemQty[line] + bundledQuantity(item) < qty) {
+            return false;
+        }
+        clearBundles();
+        if (item.isStockLimited()) {
+            giveBack(item, qty);
+        }
+        itemQty[line] -= qty;
+        totalCents -= Money.times(priceOf(item), qty);
+        if (itemQty[line] == 0) {
+            removeItemLine(line);
+        }
+        return true;
+    }
+
+    /**
+     * Removes some of a combo from the order, giving back the muffins
+     * held for them. A line left with nothing is removed.
+     *
+     * @param combo the combo to remove
+     * @param qty   how many to remove
+     * @return true if removed, false if the order has fewer than qty of the combo
+     */
+    public boolean removeCombo(Combo combo, int qty) {
+        if (qty < 0) {
+            throw new IllegalArgumentException("Quantity must not be negative");
+        }
+        int line = findComboLine(combo);
+        if (line < 0) {
+            return false;
+        }
+        if (comboQty[line] < qty) {
+            return false;
+        }
+        giveBack(combo.getMuffin(), qty);
+        comboQty[line] -= qty;
+        totalCents -= Money.times(pricingOf(combo).getTotalCents(), qty);
+        if (comboQty[line] == 0) {
+            removeComboLine(line);
+        }
         return true;
     }
 
@@ -73,20 +266,47 @@ public class Order {
      * @return total order price
      */
     public double calculateTotal() {
-        double total = 0.0;
+        return Money.toDollars(calculateTotalCents());
+    }
+
+    /**
+     * Returns the exact total cost of the order in cents. The total is
+     * kept up to date as lines are added and removed, so this is O(1)
+     * unless the order has no pinned snapshot and a price on its menu
+     * has changed since it was last asked for.
+     *
+     * @return total order price in cents
+     */
+    public long calculateTotalCents() {
+        if (menu == null && priceChanges != null) {
+            long changes = priceChanges.get();
+            if (pricedAt != changes || manyPriceCounts) {
+                totalCents = addUpLines();
+                pricedAt = changes;   // A change made while adding up is seen next time
+            }
+        }
+        return totalCents;
+    }
+
+    /**
+     * Adds up every line at the order's prices.
+     */
+    private long addUpLines() {
+        long total = 0;
 
         // Regular items at full price
-        for (Map.Entry<FoodItem, Integer> e : itemOrder.entrySet()) {
-            total += e.getKey().getPrice() * e.getValue();
+        for (int i = 0; i < itemLines; i++) {
+            total += Money.times(priceOf(items[i]), itemQty[i]);
+        }
+
+        // Combos at their cached discounted price
+        for (int i = 0; i < comboLines; i++) {
+            total += Money.times(pricingOf(combos[i]).getTotalCents(), comboQty[i]);
         }
 
-        // Combos: each item discounted by $0.50
-        for (Map.Entry<Combo, Integer> e : comboOrder.entrySet()) {
-            Combo c = e.getKey();
-            int qty = e.getValue();
-            double beveragePrice = c.getBeverage().getPrice() - 0.50;
-            double muffinPrice = c.getMuffin().getPrice() - 0.50;
-            total += (beveragePrice + muffinPrice) * qty;
+        // Bundles at their discounted price
+        for (int i = 0; i < bundleLines; i++) {
+            total += Money.times(bundles[i].getPriceCents(menu), bundleQty[i]);
         }
 
         return total;
@@ -98,22 +318,563 @@ public class Order {
      * - Applies discounted pricing for items inside combos.
      */
     public void finalizeOrder() {
+        finalizeOrder(null);
+    }
+
+    /**
+     * Finalizes the order and reports every sale to a listener
+     * (e.g. the sales journal) as it is recorded.
+     *
+     * @param listener receives each sale, or null
+     */
+    public void finalizeOrder(SaleListener listener) {
+        if (listener == null) {
+            recordSales(null, true);
+            commitHeld();
+            return;
+        }
+        try {
+            recordSales(listener, true);
+            commitHeld();
+        } catch (RuntimeException | Error e) {
+            listener.onOrderAborted();
+            throw e;
+        }
+        listener.onOrderFinalized();
+    }
+
+    /**
+     * Reports every sale the order makes to a listener, without recording
+     * any on the items or committing held stock. A FinalizationPipeline
+     * uses this to add up a batch of orders' sales, records them on the
+     * items itself and then calls commitHeld().
+     *
+     * @param listener receives each sale
+     */
+    void reportSales(SaleListener listener) {
+        recordSales(listener, false);
+    }
+
+    /**
+     * Reports, and if asked records, every sale of the order.
+     */
+    private void recordSales(SaleListener listener, boolean sell) {
         // Regular items at full price
-        for (Map.Entry<FoodItem, Integer> e : itemOrder.entrySet()) {
-            e.getKey().sell(e.getValue());
+        for (int i = 0; i < itemLines; i++) {
+            FoodItem item = items[i];
+            if (itemQty[i] == 0) {
+                continue;   // Every unit moved onto a bundle line
+            }
+            long price = priceOf(item);
+            if (sell) {
+                item.sellAtCents(itemQty[i], price);
+            }
+            if (listener != null) {
+                listener.onSale(item, null, itemQty[i], price);
+            }
         }
 
         // Combo items sold individually with adjusted prices
-        for (Map.Entry<Combo, Integer> e : comboOrder.entrySet()) {
-            Combo c = e.getKey();
-            int qty = e.getValue();
+        for (int i = 0; i < comboLines; i++) {
+            Combo c = combos[i];
+            int qty = comboQty[i];
+            Combo.Pricing pricing = pricingOf(c);
+            long beveragePrice = pricing.getBeverageCents();
+            long muffinPrice = pricing.getMuffinCents();
+
+            if (sell) {
+                c.getBeverage().sellAtCents(qty, beveragePrice);
+                c.getMuffin().sellAtCents(qty, muffinPrice);
+            }
+            if (listener != null) {
+                listener.onSale(c.getBeverage(), c, qty, beveragePrice);
+                listener.onSale(c.getMuffin(), c, qty, muffinPrice);
+            }
+        }
+
+        // Bundle items sold at their share of the bundle price
+        for (int i = 0; i < bundleLines; i++) {
+            Bundle b = bundles[i];
+            long[] revenue = b.allocateRevenue(bundleQty[i], menu);
+            for (int k = 0; k < b.getItemCount(); k++) {
+                sellForTotal(b.getItemAt(k), b.getQuantityAt(k) * bundleQty[i], revenue[k], listener, sell);
+            }
+        }
+    }
+
+    /**
+     * Marks the stock this order holds as sold, once its sales have been
+     * recorded on the items.
+     */
+    void commitHeld() {
+        if (lease != null) {
+            lease.commit();
+        }
+    }
+
+    /**
+     * Sells a quantity of an item for an exact total. When the total does
+     * not divide evenly, some units are sold one cent dearer than the rest.
+     */
+    private static void sellForTotal(FoodItem item, int qty, long totalCents, SaleListener listener, boolean sell) {
+        long unit = totalCents / qty;
+        int dearer = (int) (totalCents % qty);
+        if (qty > dearer) {
+            if (sell) {
+                item.sellAtCents(qty - dearer, unit);
+            }
+            if (listener != null) {
+                listener.onSale(item, null, qty - dearer, unit);
+            }
+        }
+        if (dearer > 0) {
+            if (sell) {
+                item.sellAtCents(dearer, unit + 1);
+            }
+            if (listener != null) {
+                listener.onSale(item, null, dearer, unit + 1);
+            }
+        }
+    }
+
+    /**
+     * Replaces the order's bundle lines with the cheapest set of bundles
+     * for its items. Items on earlier bundle lines are first put back on
+     * their item lines, so this may be called again after more items are
+     * added. Combo lines are left alone. Held stock is unaffected, since
+     * the same items are ordered either way.
+     *
+     * @param matcher the bundles on offer
+     * @return the amount the bundles save, in cents
+     */
+    public long applyBundles(BundleMatcher matcher) {
+        clearBundles();
+
+        int[] counts = matcher.match(this);
+        List<Bundle> offered = matcher.getBundles();
+        long savings = 0;
+        for (int b = 0; b < counts.length; b++) {
+            if (counts[b] == 0) {
+                continue;
+            }
+            Bundle bundle = offered.get(b);
+            moveBundleItems(bundle, counts[b]);
+            if (bundleLines == bundles.length) {
+                bundles = Arrays.copyOf(bundles, Math.max(2, bundleLines * 2));
+                bundleQty = Arrays.copyOf(bundleQty, bundles.length);
+            }
+            bundles[bundleLines] = bundle;
+            bundleQty[bundleLines++] = counts[b];
+            totalCents += Money.times(bundle.getPriceCents(menu), counts[b]);
+            savings += Money.times(bundle.getSavingsCents(menu), counts[b]);
+        }
+        return savings;
+    }
+
+    /**
+     * Returns how many of an item the applied bundles have taken off its
+     * line, which clearBundles() would put back.
+     */
+    private int bundledQuantity(FoodItem item) {
+        int bundled = 0;
+        for (int i = 0; i < bundleLines; i++) {
+            Bundle bundle = bundles[i];
+            for (int k = 0; k < bundle.getItemCount(); k++) {
+                if (bundle.getItemAt(k) == item) {
+                    bundled += bundle.getQuantityAt(k) * bundleQty[i];
+                }
+            }
+        }
+        return bundled;
+    }
+
+    /**
+     * Moves every bundle's items back onto their item lines.
+     */
+    private void clearBundles() {
+        for (int i = 0; i < bundleLines; i++) {
+            moveBundleItems(bundles[i], -bundleQty[i]);
+            totalCents -= Money.times(bundles[i].getPriceCents(menu), bundleQty[i]);
+            bundles[i] = null;
+        }
+        bundleLines = 0;
+    }
+
+    /**
+     * Moves a number of bundles' items off their item lines (or back,
+     * if count is negative).
+     */
+    private void moveBundleItems(Bundle bundle, int count) {
+        for (int k = 0; k < bundle.getItemCount(); k++) {
+            FoodItem item = bundle.getItemAt(k);
+            int moved = bundle.getQuantityAt(k) * count;
+            itemQty[itemLine(item)] -= moved;
+            totalCents -= Money.times(priceOf(item), moved);
+        }
+    }
+
+    /**
+     * Cancels the order, giving any held muffins back so other
+     * orders can reserve them. Safe to call more than once.
+     */
+    public void cancel() {
+        if (lease != null) {
+            lease.release();
+        }
+    }
+
+    /**
+     * Renews the lease on the muffins this order holds, as a till does
+     * before taking payment. If the order was left long enough for its
+     * hold to expire, the muffins are reserved again if they are still
+     * available.
+     *
+     * @return true if the order holds all its muffins; false if its hold
+     *         expired and they have since gone to other orders
+     */
+    public boolean renewHolds() {
+        return lease == null || lease.renew();
+    }
+
+    /**
+     * Returns whether the order's hold on its muffins has expired.
+     *
+     * @return true if the muffins were given back for being left too long
+     */
+    public boolean isHoldExpired() {
+        return lease != null && lease.isExpired();
+    }
+
+    /**
+     * Empties the order so it can be used for the next customer. Any
+     * held muffins are given back first, as by cancel(). The order's
+     * internal arrays are kept, so building an order of a similar size
+     * again allocates nothing.
+     */
+    public void reset() {
+        cancel();
+        for (int i = 0; i < itemLines; i++) {
+            if (indexedItemLine(i)) {
+                itemLineById[items[i].getId()] = 0;
+            }
+            items[i] = null;
+            itemQty[i] = 0;
+        }
+        itemLines = 0;
+        unindexedItemLines = 0;
+        for (int i = 0; i < comboLines; i++) {
+            if (indexedComboLine(i)) {
+                comboLineById[combos[i].getId()] = 0;
+            }
+            combos[i] = null;
+            comboQty[i] = 0;
+        }
+        comboLines = 0;
+        unindexedComboLines = 0;
+        for (int i = 0; i < bundleLines; i++) {
+            bundles[i] = null;
+        }
+        bundleLines = 0;
+        totalCents = 0;
+        pricedAt = -1;
+        priceChanges = null;
+        manyPriceCounts = false;
+        muffinsOrderedSoFar = 0;
+        createdNanos = 0;
+        menu = null;
+    }
+
+    private long priceOf(FoodItem item) {
+        return menu == null ? item.getPriceCents() : menu.priceOf(item);
+    }
+
+    private Combo.Pricing pricingOf(Combo combo) {
+        return menu == null ? combo.getPricing() : menu.pricingOf(combo);
+    }
+
+    // ----- Order lines -----
+    // Lines are numbered from 0 in the order they were first added.
+
+    /**
+     * Returns how many of an item are on its regular line (combos excluded).
+     *
+     * @param item the food item
+     * @return quantity ordered, or 0 if the item is not in the order
+     */
+    public int getItemQuantity(FoodItem item) {
+        int line = findItemLine(item);
+        return line >= 0 ? itemQty[line] : 0;
+    }
+
+    /**
+     * Returns how many of a combo are in the order.
+     *
+     * @param combo the combo
+     * @return quantity ordered, or 0 if the combo is not in the order
+     */
+    public int getComboQuantity(Combo combo) {
+        int line = findComboLine(combo);
+        return line >= 0 ? comboQty[line] : 0;
+    }
+
+    public int getItemLineCount() {
+        return itemLines;
+    }
+
+    public FoodItem getItemAt(int line) {
+        return items[line];
+    }
+
+    public int getItemQuantityAt(int line) {
+        return itemQty[line];
+    }
+
+    public int getComboLineCount() {
+        return comboLines;
+    }
+
+    public Combo getComboAt(int line) {
+        return combos[line];
+    }
+
+    public int getComboQuantityAt(int line) {
+        return comboQty[line];
+    }
+
+    /**
+     * Returns when the order was started, if its latency is being sampled.
+     *
+     * @return System.nanoTime() at creation, or 0 if not sampled
+     */
+    public long getCreatedNanos() {
+        return createdNanos;
+    }
+
+    void setCreatedNanos(long createdNanos) {
+        this.createdNanos = createdNanos;
+    }
+
+    /**
+     * Returns the prices the order was started with.
+     *
+     * @return the pinned menu snapshot, or null if current prices are used
+     */
+    public MenuSnapshot getMenu() {
+        return menu;
+    }
+
+    /**
+     * Pins the prices the order is totalled and sold at. Called when the
+     * order is started, before any line is added.
+     */
+    void pinMenu(MenuSnapshot menu) {
+        this.menu = menu;
+        totalCents = addUpLines();   // Lines already added were priced without it
+    }
+
+    public int getBundleLineCount() {
+        return bundleLines;
+    }
 
-            double beveragePrice = c.getBeverage().getPrice() - 0.50;
-            double muffinPrice = c.getMuffin().getPrice() - 0.50;
+    public Bundle getBundleAt(int line) {
+        return bundles[line];
+    }
+
+    public int getBundleQuantityAt(int line) {
+        return bundleQty[line];
+    }
+
+    /**
+     * Finds the line for an item, or returns -1 if it has none.
+     */
+    private int findItemLine(FoodItem item) {
+        int id = item.getId();
+        if (id >= 0 && id < itemLineById.length) {
+            int line = itemLineById[id] - 1;
+            if (line >= 0 && items[line] == item) {
+                return line;
+            }
+        }
+        if (unindexedItemLines > 0) {
+            for (int i = 0; i < itemLines; i++) {
+                if (items[i] == item) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the line for a combo, or returns -1 if it has none.
+     */
+    private int findComboLine(Combo combo) {
+        int id = combo.getId();
+        if (id >= 0 && id < comboLineById.length) {
+            int line = comboLineById[id] - 1;
+            if (line >= 0 && combos[line] == combo) {
+                return line;
+            }
+        }
+        if (unindexedComboLines > 0) {
+            for (int i = 0; i < comboLines; i++) {
+                if (combos[i] == combo) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the line for an item, appending an empty one if needed.
+     */
+    private int itemLine(FoodItem item) {
+        int line = findItemLine(item);
+        if (line < 0) {
+            if (itemLines == items.length) {
+                items = Arrays.copyOf(items, itemLines * 2);
+                itemQty = Arrays.copyOf(itemQty, itemLines * 2);
+            }
+            line = itemLines++;
+            items[line] = item;
+            int id = item.getId();
+            if (id >= itemLineById.length) {
+                itemLineById = Arrays.copyOf(itemLineById, Math.max(id + 1, itemLineById.length * 2));
+            }
+            if (id >= 0 && itemLineById[id] == 0) {
+                itemLineById[id] = line + 1;
+            } else {
+                unindexedItemLines++;
+            }
+            watchPrices(item);
+        }
+        return line;
+    }
 
-            c.getBeverage().sell(qty, beveragePrice);
-            c.getMuffin().sell(qty, muffinPrice);
+    /**
+     * Finds the line for a combo, appending an empty one if needed.
+     */
+    private int comboLine(Combo combo) {
+        int line = findComboLine(combo);
+        if (line < 0) {
+            if (comboLines == combos.length) {
+                combos = Arrays.copyOf(combos, comboLines * 2);
+                comboQty = Arrays.copyOf(comboQty, comboLines * 2);
+            }
+            line = comboLines++;
+            combos[line] = combo;
+            int id = combo.getId();
+            if (id >= comboLineById.length) {
+                comboLineById = Arrays.copyOf(comboLineById, Math.max(id + 1, comboLineById.length * 2));
+            }
+            if (id >= 0 && comboLineById[id] == 0) {
+                comboLineById[id] = line + 1;
+            } else {
+                unindexedComboLines++;
+            }
+            watchPrices(combo.getBeverage());
+            watchPrices(combo.getMuffin());
+        }
+        return line;
+    }
+
+    /**
+     * Tells whether an item line is the one itemLineById has for its id.
+     */
+    private boolean indexedItemLine(int line) {
+        int id = items[line].getId();
+        return id >= 0 && id < itemLineById.length && itemLineById[id] == line + 1;
+    }
+
+    /**
+     * Tells whether a combo line is the one comboLineById has for its id.
+     */
+    private boolean indexedComboLine(int line) {
+        int id = combos[line].getId();
+        return id >= 0 && id < comboLineById.length && comboLineById[id] == line + 1;
+    }
+
+    /**
+     * Follows the price changes of a new line's menu.
+     */
+    private void watchPrices(FoodItem item) {
+        AtomicLong changes = item.menuPriceChanges();
+        if (priceChanges == null) {
+            priceChanges = changes;
+        } else if (priceChanges != changes) {
+            manyPriceCounts = true;
+        }
+    }
+
+    /**
+     * Removes an item line, moving the later lines up one.
+     */
+    private void removeItemLine(int line) {
+        if (indexedItemLine(line)) {
+            itemLineById[items[line].getId()] = 0;
+        } else {
+            unindexedItemLines--;
+        }
+        for (int i = line + 1; i < itemLines; i++) {
+            boolean indexed = indexedItemLine(i);
+            items[i - 1] = items[i];
+            itemQty[i - 1] = itemQty[i];
+            if (indexed) {
+                itemLineById[items[i].getId()] = i;
+            }
+        }
+        itemLines--;
+        items[itemLines] = null;
+        itemQty[itemLines] = 0;
+    }
+
+    /**
+     * Removes a combo line, moving the later lines up one.
+     */
+    private void removeComboLine(int line) {
+        if (indexedComboLine(line)) {
+            comboLineById[combos[line].getId()] = 0;
+        } else {
+            unindexedComboLines--;
+        }
+        for (int i = line + 1; i < comboLines; i++) {
+            boolean indexed = indexedComboLine(i);
+            combos[i - 1] = combos[i];
+            comboQty[i - 1] = comboQty[i];
+            if (indexed) {
+                comboLineById[combos[i].getId()] = i;
+            }
+        }
+        comboLines--;
+        combos[comboLines] = null;
+        comboQty[comboLines] = 0;
+    }
+
+    /**
+     * Gives back stock held for removed lines.
+     */
+    private void giveBack(FoodItem item, int qty) {
+        muffinsOrderedSoFar -= qty;
+        if (lease != null) {
+            lease.release(item, qty);
+        }
+    }
+
+    /**
+     * Holds stock for this order, either through the shared reservation
+     * service or against the stock left after this order's own muffins.
+     *
+     * @return true if the stock could be held
+     */
+    private boolean reserve(FoodItem item, int qty) {
+        if (reservations == null) {
+            return qty <= item.getStock() - muffinsOrderedSoFar;
+        }
+        if (lease == null) {
+            lease = new ReservationLease(reservations);
         }
+        return lease.hold(item, qty);
     }
 
     /**
@@ -0,0 +1,111 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OrderPool.java
+ *
+ * Reusable Order objects for tills that take order after order.
+ *
+ * Each thread keeps its own small stack of idle orders, so acquiring and
+ * releasing take no lock and never hand an order to another thread. A
+ * released order is reset(), keeping its line arrays; once a till's
+ * order has grown to the size of its customers' orders, a whole order
+ * cycle - acquire, add lines, total, finalize, release - allocates
+ * nothing.
+ *
+ * Orders must be released by the thread that will acquire them next
+ * (normally the one that acquired them). An order kept open across
+ * threads, such as an HTTP order paid in a later request, should be
+ * created with new Order() instead. A thread keeps at most
+ * MAX_IDLE_PER_THREAD idle orders; any more are left to the garbage
+ * collector.
+ */
+public class OrderPool {
+
+    /** Idle orders kept by each thread. */
+    public static final int MAX_IDLE_PER_THREAD = 4;
+
+    /** Idle orders of one thread. */
+    private static final class Idle {
+        final Order[] orders = new Order[MAX_IDLE_PER_THREAD];
+        int count;
+    }
+
+    private final StockReservations reservations;
+    private final ThreadLocal<Idle> idle = ThreadLocal.withInitial(Idle::new);
+
+    // Metrics
+    private final LongAdder created = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+
+    /**
+     * Creates a pool of orders that reserve through a shared service.
+     *
+     * @param reservations the reservation service, or null for orders
+     *                     that only guard stock within themselves
+     */
+    public OrderPool(StockReservations reservations) {
+        this.reservations = reservations;
+    }
+
+    /**
+     * Takes an empty order, reusing one this thread released if any.
+     *
+     * @return an empty order; give it back with release()
+     */
+    public Order acquire() {
+        Idle mine = idle.get();
+        if (mine.count == 0) {
+            Order order = new Order(reservations);
+            order.pool = this;
+            created.increment();
+            return order;
+        }
+        Order order = mine.orders[--mine.count];
+        mine.orders[mine.count] = null;
+        order.idle = false;
+        reused.increment();
+        return order;
+    }
+
+    /**
+     * Resets an order and keeps it for this thread's next acquire(). Any
+     * muffins the order still holds are given back. The order must not be
+     * used after it is released.
+     *
+     * @param order an order from this pool's acquire()
+     * @throws IllegalArgumentException if the order is not from this pool
+     * @throws IllegalStateException    if the order was already released
+     */
+    public void release(Order order) {
+        if (order.pool != this) {
+            throw new IllegalArgumentException("Order does not belong to this pool");
+        }
+        if (order.idle) {
+            throw new IllegalStateException("Order released twice");
+        }
+        order.reset();
+        Idle mine = idle.get();
+        if (mine.count < MAX_IDLE_PER_THREAD) {
+            order.idle = true;
+            mine.orders[mine.count++] = order;
+        }
+    }
+
+    /**
+     * Returns how many orders the pool has had to create.
+     *
+     * @return orders created
+     */
+    public long getCreated() {
+        return created.sum();
+    }
+
+    /**
+     * Returns how many acquires were served by a released order.
+     *
+     * @return orders reused
+     */
+    public long getReused() {
+        return reused.sum();
+    }
+}
@@ -0,0 +1,110 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+/**
+ * Unit tests for Order.reset() and the OrderPool class.
+ *
+ * These tests validate:
+ * - A reset order is empty and can be filled again
+ * - Resetting gives held muffins back
+ * - A thread gets its released order back
+ * - Orders from elsewhere, or released twice, are refused
+ */
+public class OrderPoolTest {
+    private FoodItem muffin;
+    private FoodItem coffee;
+    private Combo combo;
+    private StockReservations reservations;
+    private OrderPool pool;
+
+    @Before
+    public void setUp() {
+        muffin = new ConcurrentFoodItem("Muffin", 2.00, 10);
+        coffee = new ConcurrentFoodItem("Coffee", 2.50, 0);
+        combo = new Combo("Coffee + Muffin", coffee, muffin, 1.0);
+        reservations = new StockReservations();
+        pool = new OrderPool(reservations);
+    }
+
+    @Test
+    public void resetEmptiesOrder() {
+        Order order = new Order(reservations);
+        order.addItem(coffee, 2);
+        order.addCombo(combo, 1);
+        order.reset();
+
+        assertEquals(0, order.getItemLineCount());
+        assertEquals(0, order.getComboLineCount());
+        assertEquals(0, order.getItemQuantity(coffee));
+        assertEquals(0, order.getComboQuantity(combo));
+        assertEquals(0, order.getMuffinsOrderedSoFar());
+        assertEquals(0, order.calculateTotalCents());
+
+        // Filled again in a different order, the lines are fresh
+        order.addItem(muffin, 3);
+        order.addItem(coffee, 1);
+        assertEquals(muffin, order.getItemAt(0));
+        assertEquals(1, order.getItemQuantity(coffee));
+        assertEquals(850, order.calculateTotalCents());
+    }
+
+    /**
+     * Held muffins go back to other orders; sold ones stay sold.
+     */
+    @Test
+    public void resetReleasesHeldStock() {
+        Order order = pool.acquire();
+        order.addItem(muffin, 4);
+        assertEquals(6, reservations.available(muffin));
+        pool.release(order);
+        assertEquals(10, reservations.available(muffin));
+
+        order = pool.acquire();
+        order.addItem(muffin, 4);
+        order.finalizeOrder();
+        pool.release(order);
+        assertEquals(6, reservations.available(muffin));
+        assertEquals(6, muffin.getStock());
+    }
+
+    @Test
+    public void threadReusesReleasedOrder() {
+        Order first = pool.acquire();
+        first.addItem(coffee, 1);
+        first.finalizeOrder();
+        pool.release(first);
+
+        Order second = pool.acquire();
+        assertSame(first, second);
+        assertEquals(0, second.getItemLineCount());
+        assertNotSame(second, pool.acquire());   // First one is in use
+        assertEquals(2, pool.getCreated());
+        assertEquals(1, pool.getReused());
+    }
+
+    @Test
+    public void otherThreadGetsItsOwnOrder() throws InterruptedException {
+        Order mine = pool.acquire();
+        pool.release(mine);
+
+        Order[] theirs = new Order[1];
+        Thread till = new Thread(() -> theirs[0] = pool.acquire());
+        till.start();
+        till.join();
+        assertNotSame(mine, theirs[0]);
+        assertSame(mine, pool.acquire());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doubleReleaseRefused() {
+        Order order = pool.acquire();
+        pool.release(order);
+        pool.release(order);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void foreignOrderRefused() {
+        pool.release(new Order(reservations));
+    }
+}
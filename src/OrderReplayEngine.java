@@ -0,0 +1,298 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * OrderReplayEngine.java
+ *
+ * Replays a day's worth of till transactions against a GeekCafe without
+ * any prompts or console output, for audits and capacity tests.
+ *
+ * The input is read one line at a time, so files of any size are
+ * replayed in constant memory. One record per line, fields separated by
+ * spaces; blank lines and lines starting with '#' are ignored:
+ *
+ * <pre>{@code
+ *   ORDER <payment> [item <name> <qty>]... [combo <number> <qty>]...
+ *   BAKE <qty>
+ *   PRICE <name> <price>
+ * }</pre>
+ *
+ * Items are named as on the menu ("muffin"), combos are numbered from 1
+ * in menu order, and amounts are dollars ("10.00"). An order whose lines
+ * cannot all be added (not enough muffins) or whose payment does not
+ * cover the total is cancelled, just as at the till.
+ */
+public class OrderReplayEngine {
+
+    /** Read buffer size; large enough to stream multi-GB files efficiently. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final GeekCafe cafe;
+
+    /**
+     * Creates an engine that replays transactions into the given cafe.
+     *
+     * @param cafe the cafe whose items and combos receive the transactions
+     */
+    public OrderReplayEngine(GeekCafe cafe) {
+        this.cafe = cafe;
+    }
+
+    /**
+     * Replays every record in a file.
+     *
+     * @param file the transaction file
+     * @return counts and throughput for the run
+     * @throws IOException if the file cannot be read
+     */
+    public Report replay(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return replay(reader);
+        }
+    }
+
+    /**
+     * Replays every record from a reader.
+     *
+     * @param source the transaction records
+     * @return counts and throughput for the run
+     * @throws IOException if the records cannot be read
+     */
+    public Report replay(Reader source) throws IOException {
+        BufferedReader reader = source instanceof BufferedReader
+                ? (BufferedReader) source
+                : new BufferedReader(source, BUFFER_SIZE);
+        Report report = new Report();
+        Tokens tokens = new Tokens();
+        long start = System.nanoTime();
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            tokens.reset(line);
+            String type = tokens.next();
+            if (type == null || type.startsWith("#")) {
+                continue;
+            }
+            try {
+                switch (type) {
+                    case "ORDER":
+                        replayOrder(tokens, report);
+                        break;
+                    case "BAKE":
+                        replayBake(tokens);
+                        report.bakes++;
+                        break;
+                    case "PRICE":
+                        replayPrice(tokens);
+                        report.priceChanges++;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown record " + type);
+                }
+            } catch (IllegalArgumentException e) {
+                // NumberFormatException is an IllegalArgumentException too
+                report.malformed++;
+            }
+        }
+
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * Builds, prices and pays for one ORDER record.
+     */
+    private void replayOrder(Tokens tokens, Report report) {
+        long payment = Money.parse(tokens.required());
+        List<Combo> combos = cafe.getCombos();
+        Order order = cafe.acquireOrder();
+        report.orders++;
+
+        try {
+            String kind;
+            while ((kind = tokens.next()) != null) {
+                String key = tokens.required();
+                int qty = Integer.parseInt(tokens.required());
+                if (qty <= 0) {
+                    throw new IllegalArgumentException("Quantity must be positive");
+                }
+
+                boolean added;
+                if (kind.equals("item")) {
+                    FoodItem item = cafe.getItem(key);
+                    if (item == null) {
+                        throw new IllegalArgumentException("Unknown item " + key);
+                    }
+                    added = order.addItem(item, qty);
+                } else if (kind.equals("combo")) {
+                    int number = Integer.parseInt(key);
+                    if (number < 1 || number > combos.size()) {
+                        throw new IllegalArgumentException("Unknown combo " + key);
+                    }
+                    added = order.addCombo(combos.get(number - 1), qty);
+                } else {
+                    throw new IllegalArgumentException("Unknown order line " + kind);
+                }
+
+                if (!added) {
+                    order.cancel();
+                    report.rejectedForStock++;
+                    return;
+                }
+            }
+            if (order.calculateTotalCents() <= 0 || cafe.completeOrder(order, payment) < 0) {
+                order.cancel();
+                report.unpaid++;
+                return;
+            }
+            report.completed++;
+        } catch (IllegalArgumentException e) {
+            order.cancel();
+            report.orders--;
+            throw e;
+        } finally {
+            cafe.releaseOrder(order);
+        }
+    }
+
+    /**
+     * Applies one BAKE record.
+     */
+    private void replayBake(Tokens tokens) {
+        int qty = Integer.parseInt(tokens.required());
+        tokens.end();
+        if (qty <= 0) {
+            throw new IllegalArgumentException("Bake quantity must be positive");
+        }
+        cafe.bake(qty);
+    }
+
+    /**
+     * Applies one PRICE record.
+     */
+    private void replayPrice(Tokens tokens) {
+        FoodItem item = cafe.getItem(tokens.required());
+        long price = Money.parse(tokens.required());
+        tokens.end();
+        if (item == null || price <= 0) {
+            throw new IllegalArgumentException("Invalid price change");
+        }
+        cafe.updatePrice(item, price);
+    }
+
+    /**
+     * Splits a line on spaces without regular expressions.
+     * One instance is reused for every line of a replay.
+     */
+    private static final class Tokens {
+        private String line;
+        private int pos;
+
+        void reset(String line) {
+            this.line = line;
+            this.pos = 0;
+        }
+
+        /** Returns the next token, or null at the end of the line. */
+        String next() {
+            int len = line.length();
+            while (pos < len && Character.isWhitespace(line.charAt(pos))) {
+                pos++;
+            }
+            if (pos == len) {
+                return null;
+            }
+            int start = pos;
+            while (pos < len && !Character.isWhitespace(line.charAt(pos))) {
+                pos++;
+            }
+            return line.substring(start, pos);
+        }
+
+        /** Returns the next token, failing if the line has ended. */
+        String required() {
+            String token = next();
+            if (token == null) {
+                throw new IllegalArgumentException("Record is incomplete");
+            }
+            return token;
+        }
+
+        /** Fails if the line has any tokens left. */
+        void end() {
+            if (next() != null) {
+                throw new IllegalArgumentException("Unexpected trailing fields");
+            }
+        }
+    }
+
+    /**
+     * Counts and timing for one replay run.
+     */
+    public static final class Report {
+        private long orders;            // ORDER records replayed
+        private long completed;         // Orders paid and finalized
+        private long rejectedForStock;  // Orders cancelled for lack of muffins
+        private long unpaid;            // Orders cancelled for insufficient payment
+        private long bakes;             // BAKE records applied
+        private long priceChanges;      // PRICE records applied
+        private long malformed;         // Lines that could not be parsed
+        private long elapsedNanos;      // Wall-clock time of the replay
+
+        public long getOrders() {
+            return orders;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getRejectedForStock() {
+            return rejectedForStock;
+        }
+
+        public long getUnpaid() {
+            return unpaid;
+        }
+
+        public long getBakes() {
+            return bakes;
+        }
+
+        public long getPriceChanges() {
+            return priceChanges;
+        }
+
+        public long getMalformed() {
+            return malformed;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Orders replayed per second of wall-clock time.
+         *
+         * @return replay throughput
+         */
+        public double getOrdersPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : orders * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Orders: %d (completed %d, out of stock %d, unpaid %d)%n"
+                    + "Bakes: %d, price changes: %d, malformed lines: %d%n"
+                    + "Elapsed: %.3f s, %.0f orders/sec",
+                    orders, completed, rejectedForStock, unpaid,
+                    bakes, priceChanges, malformed,
+                    elapsedNanos / 1e9, getOrdersPerSecond());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Unit tests for the OrderReplayEngine class.
+ *
+ * These tests validate:
+ * - Orders, bakes and price changes are applied to the cafe
+ * - Stock-outs, short payments and malformed lines are counted, not fatal
+ */
+public class OrderReplayEngineTest {
+    private GeekCafe cafe;               // Cafe receiving the transactions
+    private OrderReplayEngine engine;    // Engine under test
+
+    @Before
+    public void setUp() {
+        cafe = new GeekCafe();           // 25 muffins, $2 / $3 / $2.50
+        engine = new OrderReplayEngine(cafe);
+    }
+
+    /**
+     * 2 muffins + 1 Coffee+Muffin combo = 4.00 + 3.50 = 7.50, paid with 10.00.
+     * Muffins sold: 3, stock 25 - 3 = 22.
+     */
+    @Test
+    public void replaysPaidOrder() throws IOException {
+        OrderReplayEngine.Report report = engine.replay(new StringReader(
+                "# one order\n"
+                + "ORDER 10.00 item muffin 2 combo 1 1\n"));
+
+        assertEquals(1, report.getCompleted());
+        assertEquals(22, cafe.getItem("muffin").getStock());
+        assertEquals(3, cafe.getItem("muffin").getSoldCount());
+        assertEquals(750, cafe.getItem("muffin").getRevenueCents()
+                + cafe.getItem("coffee").getRevenueCents());
+    }
+
+    /**
+     * Bakes and price changes apply before later orders.
+     */
+    @Test
+    public void replaysBakeAndPriceChange() throws IOException {
+        OrderReplayEngine.Report report = engine.replay(new StringReader(
+                "BAKE 25\n"
+                + "PRICE coffee 3.00\n"
+                + "ORDER 3.00 item coffee 1\n"
+                + "ORDER 200.00 item muffin 50\n"));
+
+        assertEquals(1, report.getBakes());
+        assertEquals(1, report.getPriceChanges());
+        assertEquals(2, report.getCompleted());
+        assertEquals(0, cafe.getItem("muffin").getStock());
+        assertEquals(300, cafe.getItem("coffee").getRevenueCents());
+    }
+
+    /**
+     * Out-of-stock and underpaid orders are cancelled; bad lines are skipped.
+     */
+    @Test
+    public void countsRejectedAndMalformedRecords() throws IOException {
+        OrderReplayEngine.Report report = engine.replay(new StringReader(
+                "ORDER 100.00 item muffin 26\n"
+                + "ORDER 1.00 item shake 1\n"
+                + "ORDER 5.00 item tea 1\n"
+                + "REFUND 5.00\n"
+                + "ORDER 2.00 item muffin 1\n"));
+
+        assertEquals(3, report.getOrders());
+        assertEquals(1, report.getRejectedForStock());
+        assertEquals(1, report.getUnpaid());
+        assertEquals(2, report.getMalformed());
+        assertEquals(1, report.getCompleted());
+        assertEquals(24, cafe.getItem("muffin").getStock());
+    }
+}
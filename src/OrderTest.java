@@ -3,6 +3,9 @@ import org.junit.Test;
 import org.junit.Before;
 import org.junit.After;
 
+import java.util.Arrays;
+import java.util.Scanner;
+
 /**
  * Unit tests for the Order class. 
  *
@@ -11,6 +14,8 @@ import org.junit.After;
  * - Combo discounts being applied properly
  * - Muffin stock management across items and combos
  * - Sold counts and revenue tracking for each FoodItem
+ * - Running totals as lines are added and removed, and after price changes
+ * - A removal that fails leaves the order and its total unchanged
  */
 public class OrderTest {
     // Shared test fixtures
@@ -154,4 +159,182 @@ public class OrderTest {
         double revenueSum = coffee.getRevenue() + muffin.getRevenue() + shake.getRevenue();
         assertEquals(expected, revenueSum, 0.001);
     }
+
+    /**
+     * Adding the same item or combo twice merges into one order line.
+     *  - 2 + 3 coffees = 1 line of 5
+     *  - 1 + 1 Coffee+Muffin combos = 1 line of 2
+     */
+    @Test
+    public void repeatedAddsMergeIntoOneLine() {
+        assertTrue(order.addItem(coffee, 2));
+        assertTrue(order.addItem(muffin, 1));
+        assertTrue(order.addItem(coffee, 3));
+        assertTrue(order.addCombo(coffeeMuffinCombo, 1));
+        assertTrue(order.addCombo(coffeeMuffinCombo, 1));
+
+        assertEquals(2, order.getItemLineCount());
+        assertEquals(5, order.getItemQuantity(coffee));
+        assertEquals(1, order.getItemQuantity(muffin));
+        assertEquals(0, order.getItemQuantity(shake));
+        assertEquals(1, order.getComboLineCount());
+        assertEquals(2, order.getComboQuantity(coffeeMuffinCombo));
+        assertEquals(0, order.getComboQuantity(shakeMuffinCombo));
+    }
+
+    /**
+     * Removing lines keeps the running total and the line order.
+     *  - 3 coffees, 2 muffins, 1 shake, 2 Coffee+Muffin = $7.50 + $4.00 + $3.00 + $7.00
+     *  - remove 1 coffee, all muffins, 1 combo = $5.00 + $3.00 + $3.50
+     */
+    @Test
+    public void removingLinesUpdatesTheTotal() {
+        order.addItem(coffee, 3);
+        order.addItem(muffin, 2);
+        order.addItem(shake, 1);
+        order.addCombo(coffeeMuffinCombo, 2);
+        assertEquals(2150, order.calculateTotalCents());
+
+        assertTrue(order.removeItem(coffee, 1));
+        assertTrue(order.removeItem(muffin, 2));
+        assertTrue(order.removeCombo(coffeeMuffinCombo, 1));
+        assertFalse(order.removeItem(shake, 2));
+        assertFalse(order.removeCombo(shakeMuffinCombo, 1));
+        assertEquals(1150, order.calculateTotalCents());
+
+        assertEquals(2, order.getItemLineCount());
+        assertSame(coffee, order.getItemAt(0));
+        assertSame(shake, order.getItemAt(1));
+        assertEquals(0, order.getItemQuantity(muffin));
+        assertEquals(1, order.getMuffinsOrderedSoFar());   // The combo's
+
+        assertTrue(order.addItem(muffin, 1));   // A removed line can come back
+        assertSame(muffin, order.getItemAt(2));
+        assertEquals(1350, order.calculateTotalCents());
+        order.finalizeOrder();
+        assertEquals(1350, coffee.getRevenueCents() + shake.getRevenueCents() + muffin.getRevenueCents());
+    }
+
+    /**
+     * Muffins taken off an order are available to other orders at once.
+     */
+    @Test
+    public void removingMuffinsGivesThemBack() {
+        StockReservations reservations = new StockReservations();
+        Order first = new Order(reservations);
+        assertTrue(first.addItem(muffin, 10));
+        assertTrue(first.addCombo(coffeeMuffinCombo, 10));
+        assertFalse(new Order(reservations).addItem(muffin, 10));
+
+        assertTrue(first.removeItem(muffin, 4));
+        assertTrue(first.removeCombo(coffeeMuffinCombo, 10));
+        assertEquals(19, reservations.available(muffin));
+        assertEquals(6, reservations.held(muffin));
+        assertTrue(new Order(reservations).addItem(muffin, 10));
+
+        assertTrue(first.removeItem(muffin, 6));
+        assertEquals(10, reservations.held(muffin));   // The second order's
+        first.finalizeOrder();
+        assertEquals(25, muffin.getStock());
+    }
+
+    /**
+     * An order without a pinned menu follows the live price: coffee goes
+     * from $2.50 to $3.00 between lines, and the total and revenue both
+     * use $3.00 for all 3 coffees.
+     */
+    @Test
+    public void totalFollowsLivePriceChanges() {
+        order.addItem(coffee, 2);
+        order.addCombo(coffeeMuffinCombo, 1);
+        assertEquals(500 + 350, order.calculateTotalCents());
+
+        coffee.setPriceCents(300);
+        order.addItem(coffee, 1);
+        assertEquals(900 + 400, order.calculateTotalCents());
+        order.finalizeOrder();
+        assertEquals(900 + 250, coffee.getRevenueCents());
+    }
+
+    /**
+     * Only a price change on the order's own menu makes it add its lines
+     * up again: coffee going up on another menu leaves a tea order's
+     * total alone without reading the tea price again.
+     */
+    @Test
+    public void totalIgnoresOtherMenusPriceChanges() {
+        int[] priceReads = { 0 };
+        FoodItem tea = new FoodItem("Tea", 1.00, 0) {
+            @Override
+            public long getPriceCents() {
+                priceReads[0]++;
+                return super.getPriceCents();
+            }
+        };
+        Order teaOrder = new Order();
+        teaOrder.addItem(tea, 2);
+        assertEquals(200, teaOrder.calculateTotalCents());
+        int reads = priceReads[0];
+
+        coffee.setPriceCents(300);
+        assertEquals(200, teaOrder.calculateTotalCents());
+        assertEquals(reads, priceReads[0]);
+
+        tea.setPriceCents(150);
+        assertEquals(300, teaOrder.calculateTotalCents());
+    }
+
+    /**
+     * A cafe order keeps the prices it was started with, whatever the
+     * cafe changes meanwhile, and bundles come off when a line is removed.
+     */
+    @Test
+    public void pinnedOrderKeepsItsPricesAndBundles() {
+        GeekCafe cafe = new GeekCafe(new Scanner(""));
+        FoodItem cafeCoffee = cafe.getItem("coffee");
+        FoodItem cafeMuffin = cafe.getItem("muffin");
+        cafe.setBundles(Arrays.asList(new Bundle("Coffee + 2 Muffins",
+                Arrays.asList(cafeCoffee, cafeMuffin), Arrays.asList(1, 2), 1.50)));
+        Order pinned = cafe.newOrder();
+        pinned.addItem(cafeCoffee, 1);
+        pinned.addItem(cafeMuffin, 2);
+        assertEquals(150, cafe.applyBundles(pinned));
+        assertEquals(500, pinned.calculateTotalCents());   // $6.50 less $1.50
+
+        cafe.updatePrice(cafeCoffee, 400);
+        assertEquals(500, pinned.calculateTotalCents());
+        assertTrue(pinned.removeItem(cafeMuffin, 1));
+        assertEquals(0, pinned.getBundleLineCount());
+        assertEquals(450, pinned.calculateTotalCents());
+        assertEquals(0, cafe.completeOrder(pinned, 450));
+        assertEquals(250, cafeCoffee.getRevenueCents());
+    }
+
+    /**
+     * Removing more than the order has fails without touching it: the
+     * bundle stays applied and the total stays $5.00. Muffins that are in
+     * the bundle can still be removed.
+     */
+    @Test
+    public void failedRemovalLeavesTheTotalAlone() {
+        GeekCafe cafe = new GeekCafe(new Scanner(""));
+        FoodItem cafeCoffee = cafe.getItem("coffee");
+        FoodItem cafeMuffin = cafe.getItem("muffin");
+        cafe.setBundles(Arrays.asList(new Bundle("Coffee + 2 Muffins",
+                Arrays.asList(cafeCoffee, cafeMuffin), Arrays.asList(1, 2), 1.50)));
+        Order pinned = cafe.newOrder();
+        pinned.addItem(cafeCoffee, 1);
+        pinned.addItem(cafeMuffin, 2);
+        assertEquals(150, cafe.applyBundles(pinned));
+
+        assertFalse(pinned.removeItem(cafeMuffin, 3));
+        assertEquals(1, pinned.getBundleLineCount());
+        assertEquals(500, pinned.calculateTotalCents());
+        assertEquals(2, pinned.getMuffinsOrderedSoFar());
+
+        assertTrue(pinned.removeItem(cafeMuffin, 2));
+        assertEquals(0, pinned.getBundleLineCount());
+        assertEquals(250, pinned.calculateTotalCents());
+        pinned.cancel();
+    }
 }
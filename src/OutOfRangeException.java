@@ -6,10 +6,13 @@
  */
 public class OutOfRangeException extends Exception {
 
+    private static final long serialVersionUID = 1L;
+
     /**
-     * Default constructor that prints a user-friendly error message.
+     * Default constructor with a user-friendly error message, which the
+     * console menus print when they catch the exception.
      */
     public OutOfRangeException() {
-        System.out.println("Error: Please select valid options.\n");
+        super("Error: Please select valid options.\n");
     }
 }
@@ -0,0 +1,298 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ReservationLease.java
+ *
+ * The stock an open order holds through StockReservations, on a lease
+ * that runs out if the order is left alone for too long.
+ *
+ * Every hold() renews the lease, and while the reservations have a
+ * LeaseWheel the lease sits on it until its deadline. If the order is
+ * abandoned - the customer walks away from the till, or an HTTP client
+ * never pays - the wheel expires the lease: its stock is released for
+ * other orders, but the lease remembers what it held. The next hold() or
+ * renew() tries to take all of it again, so an order that comes back in
+ * time carries on as if nothing happened, and one that comes back too
+ * late is refused rather than sold muffins that went to someone else.
+ *
+ * commit() and release() close the lease and take it off the wheel. A
+ * closed lease can be opened again by the next hold(), so an Order keeps
+ * one lease for life and reusing it allocates nothing.
+ *
+ * A lease is guarded by its own j.u.c. lock, taken before the lock of
+ * the wheel bucket it sits in, never after.
+ */
+public final class ReservationLease {
+
+    private static final int CLOSED = 0;    // Holds nothing
+    private static final int ACTIVE = 1;    // Holds its lines' stock
+    private static final int EXPIRED = 2;   // Stock released; lines kept to take again
+
+    private final StockReservations reservations;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Guarded by lock
+    private FoodItem[] items = new FoodItem[1];
+    private int[] qty = new int[1];
+    private int lines;
+    private int state = CLOSED;
+
+    /** When the lease runs out, in the wheel's milliseconds; renewed under lock. */
+    volatile long deadlineMillis;
+
+    // ----- Wheel links -----
+
+    /** The wheel this lease was last scheduled on; guarded by lock. */
+    LeaseWheel wheel;
+
+    /** Bucket the lease is linked into, or -1; changed under the bucket's lock. */
+    volatile int slot = -1;
+
+    /** Neighbours in the bucket; guarded by the bucket's lock. */
+    ReservationLease prev, next;
+
+    /** Next lease taken off a bucket by the wheel; used only by its ticker. */
+    ReservationLease nextDue;
+
+    /**
+     * Creates a closed lease.
+     *
+     * @param reservations the service the stock is held through
+     */
+    public ReservationLease(StockReservations reservations) {
+        this.reservations = reservations;
+    }
+
+    /**
+     * Holds more stock on the lease, opening or renewing it. If the lease
+     * has expired, everything it held before is taken again first.
+     *
+     * @param item the stock-limited item
+     * @param n    the quantity to hold
+     * @return true if the stock was held; false if not enough is
+     *         available, in which case the lease is left as it was
+     */
+    public boolean hold(FoodItem item, int n) {
+        if (!reservations.tryReserve(item, n)) {
+            return false;
+        }
+        lock.lock();
+        try {
+            if (state == EXPIRED && !reacquire()) {
+                reservations.release(item, n);
+                return false;
+            }
+            addLine(item, n);
+            state = ACTIVE;
+            touch();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Renews the lease, taking its stock again if it has expired.
+     *
+     * @return true if the lease holds everything it should; false if it
+     *         expired and its stock has since been sold to other orders
+     */
+    public boolean renew() {
+        lock.lock();
+        try {
+            if (state == EXPIRED && !reacquire()) {
+                return false;
+            }
+            if (state == ACTIVE) {
+                touch();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks everything on the lease as sold and closes it. If the lease
+     * expired meanwhile the stock is sold anyway, without a hold.
+     */
+    public void commit() {
+        lock.lock();
+        try {
+            unschedule();
+            for (int i = 0; i < lines; i++) {
+                if (state == ACTIVE) {
+                    reservations.commit(items[i], qty[i]);
+                } else {
+                    reservations.sellUnheld(items[i], qty[i]);
+                }
+            }
+            clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives everything still held back and closes the lease. Safe to call
+     * more than once.
+     */
+    public void release() {
+        lock.lock();
+        try {
+            unschedule();
+            if (state == ACTIVE) {
+                for (int i = 0; i < lines; i++) {
+                    reservations.release(items[i], qty[i]);
+                }
+            }
+            clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back part of what the lease holds of one item, e.g. when a
+     * line is taken off the order. A lease left holding nothing is
+     * closed.
+     *
+     * @param item the item held
+     * @param n    the quantity to give back; at most the quantity held
+     */
+    public void release(FoodItem item, int n) {
+        lock.lock();
+        try {
+            for (int i = 0; i < lines; i++) {
+                if (items[i] != item) {
+                    continue;
+                }
+                if (n > qty[i]) {
+                    throw new IllegalArgumentException("Only " + qty[i] + " held, cannot give back " + n);
+                }
+                if (state == ACTIVE) {
+                    reservations.release(item, n);
+                }
+                qty[i] -= n;
+                if (qty[i] == 0) {
+                    lines--;
+                    items[i] = items[lines];
+                    qty[i] = qty[lines];
+                    items[lines] = null;
+                }
+                if (lines == 0) {
+                    unschedule();
+                    clear();
+                }
+                return;
+            }
+            throw new IllegalArgumentException("Nothing held for " + item.getName());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Expires the lease if its deadline has passed, or puts it back on
+     * the wheel if it was renewed meanwhile. Called by the wheel after
+     * taking the lease off a bucket.
+     *
+     * @param from the wheel calling
+     * @param now  the wheel's current time
+     * @return the quantity released, or -1 if the lease did not expire
+     */
+    int expireIfDue(LeaseWheel from, long now) {
+        lock.lock();
+        try {
+            if (state != ACTIVE || wheel != from || slot >= 0) {
+                return -1;   // Closed, moved to another wheel, or already renewed
+            }
+            if (deadlineMillis - now > 0) {
+                from.schedule(this);
+                return -1;
+            }
+            int released = 0;
+            for (int i = 0; i < lines; i++) {
+                reservations.release(items[i], qty[i]);
+                released += qty[i];
+            }
+            state = EXPIRED;
+            return released;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether the lease has expired and not been renewed since.
+     *
+     * @return true if the lease's stock was released by the wheel
+     */
+    public boolean isExpired() {
+        lock.lock();
+        try {
+            return state == EXPIRED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ----- Internals; caller holds lock -----
+
+    /** Takes all the lines' stock again, or none of it. */
+    private boolean reacquire() {
+        for (int i = 0; i < lines; i++) {
+            if (!reservations.tryReserve(items[i], qty[i])) {
+                while (--i >= 0) {
+                    reservations.release(items[i], qty[i]);
+                }
+                return false;
+            }
+        }
+        state = ACTIVE;
+        return true;
+    }
+
+    /** Pushes the deadline back and makes sure the lease is on the current wheel. */
+    private void touch() {
+        LeaseWheel current = reservations.getLeaseWheel();
+        if (current != wheel) {
+            unschedule();
+            wheel = current;
+        }
+        if (current != null) {
+            deadlineMillis = current.deadline();
+            current.schedule(this);
+        }
+    }
+
+    private void unschedule() {
+        if (wheel != null) {
+            wheel.cancel(this);
+        }
+    }
+
+    private void addLine(FoodItem item, int n) {
+        for (int i = 0; i < lines; i++) {
+            if (items[i] == item) {
+                qty[i] += n;
+                return;
+            }
+        }
+        if (lines == items.length) {
+            items = Arrays.copyOf(items, lines * 2);
+            qty = Arrays.copyOf(qty, lines * 2);
+        }
+        items[lines] = item;
+        qty[lines++] = n;
+    }
+
+    private void clear() {
+        for (int i = 0; i < lines; i++) {
+            items[i] = null;
+        }
+        lines = 0;
+        state = CLOSED;
+    }
+}
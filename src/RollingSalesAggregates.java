@@ -0,0 +1,318 @@
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * RollingSalesAggregates.java
+ *
+ * Keeps per-minute and per-hour sales totals for every item and combo,
+ * fed by finalized orders, so the sales report can show figures such as
+ * "last 15 minutes" or "last 6 hours" without rescanning sales history.
+ *
+ * Each item and combo owns two ring buffers: one bucket per minute for
+ * the last hour and one bucket per hour for the last day (both sizes
+ * are configurable). A bucket remembers which minute or hour it holds;
+ * when the ring wraps around, a stale bucket is simply reset before
+ * reuse. Memory therefore stays fixed however long the cafe runs, and a
+ * windowed query adds up at most one ring of buckets.
+ *
+ * Windows are aligned to bucket boundaries: "last 15 minutes" covers the
+ * current minute and the 14 before it. Combo rows count combos sold (once
+ * per combo, not per component) and the combo's total revenue.
+ *
+ * A till's sales are buffered per thread and added to the rows by
+ * onOrderFinalized(), so an order whose finalization fails (see
+ * onOrderAborted()) leaves the totals as they were.
+ *
+ * Each row is guarded by its own j.u.c. lock rather than a monitor, so
+ * orders finalized on virtual threads (the HTTP front end) never pin
+ * their carrier thread while another till updates the same row.
+ */
+public class RollingSalesAggregates implements SaleListener {
+
+    private static final long MILLIS_PER_MINUTE = 60_000L;
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+
+    /** Default number of minute buckets (one hour). */
+    public static final int DEFAULT_MINUTES = 60;
+
+    /** Default number of hour buckets (one day). */
+    public static final int DEFAULT_HOURS = 24;
+
+    private final int minutes;
+    private final int hours;
+    private final LongSupplier clock;
+
+    /** Rows indexed by FoodItem id and Combo id; grown on demand. */
+    private volatile Row[] itemRows = new Row[0];
+    private volatile Row[] comboRows = new Row[0];
+    private final ReentrantLock rowsLock = new ReentrantLock();   // Guards growing the row arrays
+
+    private final ThreadLocal<Pending> pending = ThreadLocal.withInitial(Pending::new);
+
+    /**
+     * Creates aggregates covering the last hour by minute and the last
+     * day by hour, using the system clock.
+     */
+    public RollingSalesAggregates() {
+        this(DEFAULT_MINUTES, DEFAULT_HOURS, System::currentTimeMillis);
+    }
+
+    /**
+     * Creates aggregates with explicit ring sizes and clock.
+     *
+     * @param minutes number of one-minute buckets kept
+     * @param hours   number of one-hour buckets kept
+     * @param clock   current time in milliseconds
+     */
+    public RollingSalesAggregates(int minutes, int hours, LongSupplier clock) {
+        this.minutes = minutes;
+        this.hours = hours;
+        this.clock = clock;
+    }
+
+    // ----- Recording -----
+
+    @Override
+    public void onSale(FoodItem item, Combo combo, int qty, long unitPriceCents) {
+        pending.get().add(item, combo, qty, Money.times(unitPriceCents, qty));
+    }
+
+    @Override
+    public void onOrderFinalized() {
+        Pending sales = pending.get();
+        try {
+            long now = clock.getAsLong();
+            for (int i = 0; i < sales.count; i++) {
+                itemRow(sales.item[i]).add(now, sales.qty[i], sales.amount[i]);
+                if (sales.combo[i] >= 0) {
+                    comboRow(sales.combo[i]).add(now, sales.combos[i], sales.amount[i]);
+                }
+            }
+        } finally {
+            sales.count = 0;
+        }
+    }
+
+    /**
+     * Drops the sales collected for an order whose finalization failed.
+     */
+    @Override
+    public void onOrderAborted() {
+        pending.get().count = 0;
+    }
+
+    /** A finalizing thread's sales for the order in progress. */
+    private static final class Pending {
+        int[] item = new int[8];
+        int[] combo = new int[8];     // -1 for a regular item
+        int[] qty = new int[8];
+        int[] combos = new int[8];    // Combos counted by the sale
+        long[] amount = new long[8];
+        int count;
+
+        void add(FoodItem sold, Combo in, int quantity, long cents) {
+            if (count == item.length) {
+                item = Arrays.copyOf(item, count * 2);
+                combo = Arrays.copyOf(combo, count * 2);
+                qty = Arrays.copyOf(qty, count * 2);
+                combos = Arrays.copyOf(combos, count * 2);
+                amount = Arrays.copyOf(amount, count * 2);
+            }
+            item[count] = sold.getId();
+            combo[count] = in == null ? -1 : in.getId();
+            qty[count] = quantity;
+            // Each combo reports two sales; count the combo once, on its beverage
+            combos[count] = in != null && sold == in.getBeverage() ? quantity : 0;
+            amount[count++] = cents;
+        }
+    }
+
+    // ----- Queries -----
+
+    /**
+     * Returns an item's sales over the most recent window.
+     *
+     * @param item   the item
+     * @param window how far back to look; up to the minute or hour ring length
+     * @return units sold and revenue in the window
+     */
+    public WindowTotals itemTotals(FoodItem item, Duration window) {
+        Row[] rows = itemRows;
+        int id = item.getId();
+        return totals(id >= 0 && id < rows.length ? rows[id] : null, window);
+    }
+
+    /**
+     * Returns a combo's sales over the most recent window.
+     *
+     * @param combo  the combo
+     * @param window how far back to look; up to the minute or hour ring length
+     * @return combos sold and revenue in the window
+     */
+    public WindowTotals comboTotals(Combo combo, Duration window) {
+        Row[] rows = comboRows;
+        int id = combo.getId();
+        return totals(id >= 0 && id < rows.length ? rows[id] : null, window);
+    }
+
+    private WindowTotals totals(Row row, Duration window) {
+        long windowMillis = window.toMillis();
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        boolean byMinute = windowMillis <= minutes * MILLIS_PER_MINUTE;
+        if (!byMinute && windowMillis > hours * MILLIS_PER_HOUR) {
+            throw new IllegalArgumentException("Window " + window + " is longer than the " + hours + " hours kept");
+        }
+        if (row == null) {
+            return new WindowTotals(0, 0);
+        }
+        long now = clock.getAsLong();
+        return byMinute
+                ? row.sum(row.minuteRing, now / MILLIS_PER_MINUTE, ceilDiv(windowMillis, MILLIS_PER_MINUTE))
+                : row.sum(row.hourRing, now / MILLIS_PER_HOUR, ceilDiv(windowMillis, MILLIS_PER_HOUR));
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return (a + b - 1) / b;
+    }
+
+    // ----- Rows -----
+
+    private Row itemRow(int id) {
+        Row[] rows = itemRows;
+        if (id < rows.length && rows[id] != null) {
+            return rows[id];
+        }
+        rowsLock.lock();
+        try {
+            itemRows = withRow(itemRows, id);
+            return itemRows[id];
+        } finally {
+            rowsLock.unlock();
+        }
+    }
+
+    private Row comboRow(int id) {
+        Row[] rows = comboRows;
+        if (id < rows.length && rows[id] != null) {
+            return rows[id];
+        }
+        rowsLock.lock();
+        try {
+            comboRows = withRow(comboRows, id);
+            return comboRows[id];
+        } finally {
+            rowsLock.unlock();
+        }
+    }
+
+    /**
+     * Returns rows (or a grown copy) with a row at the given id.
+     * Caller holds rowsLock.
+     */
+    private Row[] withRow(Row[] rows, int id) {
+        if (id < rows.length && rows[id] != null) {
+            return rows;
+        }
+        Row[] grown = Arrays.copyOf(rows, Math.max(rows.length, id + 1));
+        grown[id] = new Row(minutes, hours);
+        return grown;
+    }
+
+    /**
+     * Minute and hour rings for one item or combo.
+     */
+    private static final class Row {
+        final ReentrantLock lock = new ReentrantLock();
+        final Ring minuteRing;
+        final Ring hourRing;
+
+        Row(int minutes, int hours) {
+            minuteRing = new Ring(minutes);
+            hourRing = new Ring(hours);
+        }
+
+        void add(long nowMillis, long units, long revenueCents) {
+            lock.lock();
+            try {
+                minuteRing.add(nowMillis / MILLIS_PER_MINUTE, units, revenueCents);
+                hourRing.add(nowMillis / MILLIS_PER_HOUR, units, revenueCents);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        WindowTotals sum(Ring ring, long now, long count) {
+            lock.lock();
+            try {
+                return ring.sum(now, count);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A fixed ring of time buckets. Guarded by the owning Row's lock.
+     */
+    private static final class Ring {
+        final long[] period;   // Minute or hour number each bucket holds
+        final long[] units;
+        final long[] revenue;
+
+        Ring(int size) {
+            period = new long[size];
+            units = new long[size];
+            revenue = new long[size];
+            Arrays.fill(period, -1);
+        }
+
+        void add(long now, long qty, long cents) {
+            int b = (int) (now % period.length);
+            if (period[b] != now) {
+                period[b] = now;
+                units[b] = 0;
+                revenue[b] = 0;
+            }
+            units[b] += qty;
+            revenue[b] += cents;
+        }
+
+        WindowTotals sum(long now, long count) {
+            long totalUnits = 0;
+            long totalRevenue = 0;
+            for (int b = 0; b < period.length; b++) {
+                long p = period[b];
+                if (p <= now && p > now - count) {
+                    totalUnits += units[b];
+                    totalRevenue += revenue[b];
+                }
+            }
+            return new WindowTotals(totalUnits, totalRevenue);
+        }
+    }
+
+    /**
+     * Units and revenue over a time window.
+     */
+    public static final class WindowTotals {
+        private final long units;
+        private final long revenueCents;
+
+        WindowTotals(long units, long revenueCents) {
+            this.units = units;
+            this.revenueCents = revenueCents;
+        }
+
+        public long getUnits() {
+            return units;
+        }
+
+        public long getRevenueCents() {
+            return revenueCents;
+        }
+    }
+}
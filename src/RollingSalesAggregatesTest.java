@@ -0,0 +1,132 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Unit tests for the RollingSalesAggregates class.
+ *
+ * These tests validate:
+ * - Windowed totals only include sales inside the window
+ * - Combos are counted once but carry both components' revenue
+ * - Old buckets are reused once the ring wraps around
+ * - An order whose finalization fails adds nothing
+ */
+public class RollingSalesAggregatesTest {
+    private static final long MINUTE = 60_000L;
+
+    private long now;                         // Fake clock, in milliseconds
+    private RollingSalesAggregates recent;    // Aggregates under test
+    private FoodItem muffin;
+    private FoodItem coffee;
+    private Combo coffeeMuffinCombo;
+
+    @Before
+    public void setUp() {
+        now = 1_000 * MINUTE;
+        recent = new RollingSalesAggregates(60, 24, () -> now);
+        muffin = new FoodItem("Muffin", 2.00, 100);
+        coffee = new FoodItem("Coffee", 2.50, 0);
+        coffeeMuffinCombo = new Combo("Coffee + Muffin", coffee, muffin, 1.0);
+        MenuCatalog.number(Arrays.asList(muffin, coffee), Collections.singletonList(coffeeMuffinCombo));
+    }
+
+    /**
+     * 3 muffins sold 20 minutes ago, 2 muffins sold now.
+     * Last 15 minutes: 2 ($4.00). Last hour: 5 ($10.00).
+     */
+    @Test
+    public void windowsOnlyCountRecentSales() {
+        sell(muffin, 3);
+        now += 20 * MINUTE;
+        sell(muffin, 2);
+
+        assertEquals(2, recent.itemTotals(muffin, Duration.ofMinutes(15)).getUnits());
+        assertEquals(400, recent.itemTotals(muffin, Duration.ofMinutes(15)).getRevenueCents());
+        assertEquals(5, recent.itemTotals(muffin, Duration.ofHours(1)).getUnits());
+        assertEquals(1000, recent.itemTotals(muffin, Duration.ofHours(1)).getRevenueCents());
+        assertEquals(5, recent.itemTotals(muffin, Duration.ofHours(6)).getUnits());
+        assertEquals(0, recent.itemTotals(coffee, Duration.ofHours(1)).getUnits());
+    }
+
+    /**
+     * 2 Coffee+Muffin combos = 2 combos, 2 * $3.50 = $7.00.
+     */
+    @Test
+    public void combosCountedOnce() {
+        Order order = new Order();
+        assertTrue(order.addCombo(coffeeMuffinCombo, 2));
+        order.finalizeOrder(recent);
+
+        assertEquals(2, recent.comboTotals(coffeeMuffinCombo, Duration.ofMinutes(15)).getUnits());
+        assertEquals(700, recent.comboTotals(coffeeMuffinCombo, Duration.ofMinutes(15)).getRevenueCents());
+        assertEquals(2, recent.itemTotals(coffee, Duration.ofMinutes(15)).getUnits());
+    }
+
+    /**
+     * A sale two hours ago must not reappear when its minute bucket is reused.
+     */
+    @Test
+    public void wrappedBucketsAreReset() {
+        sell(muffin, 7);
+        now += 120 * MINUTE;
+        sell(muffin, 1);
+
+        assertEquals(1, recent.itemTotals(muffin, Duration.ofHours(1)).getUnits());
+        assertEquals(8, recent.itemTotals(muffin, Duration.ofHours(3)).getUnits());
+    }
+
+    /**
+     * Finalizing 2 coffees and 3 muffins fails at the muffins; the next
+     * order on the thread, 1 coffee, is the only sale counted.
+     */
+    @Test
+    public void abortedOrderIsNotCounted() {
+        Order failing = new Order();
+        assertTrue(failing.addItem(coffee, 2));
+        assertTrue(failing.addItem(muffin, 3));
+        try {
+            failing.finalizeOrder(new SaleListener() {
+                @Override
+                public void onSale(FoodItem item, Combo combo, int qty, long unitPriceCents) {
+                    if (item == muffin) {
+                        throw new IllegalStateException("Till lost power");
+                    }
+                    recent.onSale(item, combo, qty, unitPriceCents);
+                }
+
+                @Override
+                public void onOrderFinalized() {
+                    recent.onOrderFinalized();
+                }
+
+                @Override
+                public void onOrderAborted() {
+                    recent.onOrderAborted();
+                }
+            });
+            fail("Finalized an order whose listener failed");
+        } catch (IllegalStateException expected) {
+            // The order's sales must not reach the totals
+        }
+        sell(coffee, 1);
+
+        assertEquals(1, recent.itemTotals(coffee, Duration.ofMinutes(15)).getUnits());
+        assertEquals(250, recent.itemTotals(coffee, Duration.ofMinutes(15)).getRevenueCents());
+        assertEquals(0, recent.itemTotals(muffin, Duration.ofMinutes(15)).getUnits());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void windowLongerThanHistoryIsRejected() {
+        recent.itemTotals(muffin, Duration.ofDays(2));
+    }
+
+    private void sell(FoodItem item, int qty) {
+        Order order = new Order();
+        assertTrue(order.addItem(item, qty));
+        order.finalizeOrder(recent);
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * SaleListener.java
+ *
+ * Receives every sale recorded when an order is finalized.
+ *
+ * Order.finalizeOrder(SaleListener) calls onSale() once per item sold
+ * (combos report their beverage and muffin separately, at the discounted
+ * prices) and then onOrderFinalized() once the whole order is done. If
+ * finalizing fails part way, onOrderAborted() is called instead, so a
+ * listener that collects an order's sales can drop them. Listeners are
+ * called on the thread finalizing the order.
+ *
+ * A FinalizationPipeline finalizes orders in batches on its writer
+ * thread: it reports each order's sales followed by
+ * onBatchedOrderFinalized(), then calls onBatchFinalized() once after
+ * the batch's last order, so a listener that waits per order (the
+ * journal waits for its record to reach the disk) can wait once per
+ * batch instead.
+ */
+public interface SaleListener {
+
+    /**
+     * Called for each item sold by an order.
+     *
+     * @param item           the item sold
+     * @param combo          the combo the item was sold in, or null for a regular item
+     * @param qty            the quantity sold
+     * @param unitPriceCents the price charged per item, in cents
+     */
+    void onSale(FoodItem item, Combo combo, int qty, long unitPriceCents);
+
+    /**
+     * Called after the last sale of an order.
+     */
+    default void onOrderFinalized() {
+    }
+
+    /**
+     * Called in place of onOrderFinalized() when finalizing an order
+     * fails after some of its sales may have been reported.
+     */
+    default void onOrderAborted() {
+    }
+
+    /**
+     * Called after the last sale of an order finalized in a batch, in
+     * place of onOrderFinalized(), which it calls by default.
+     */
+    default void onBatchedOrderFinalized() {
+        onOrderFinalized();
+    }
+
+    /**
+     * Called after the last order of a batch.
+     */
+    default void onBatchFinalized() {
+    }
+}
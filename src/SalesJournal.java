@@ -0,0 +1,776 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * SalesJournal.java
+ *
+ * Durable, append-only journal of everything that changes the cafe's
+ * stock, sales and prices: finalized orders, bakes and price updates.
+ *
+ * Records are written as compact binary entries to a memory-mapped file.
+ * A background thread forces the file to disk every few milliseconds or
+ * once enough records are waiting, so a single fsync covers a whole
+ * group of orders (group commit); each writer waits only until the group
+ * holding its record is on disk.
+ *
+ * On startup the journal is replayed to rebuild every item's stock,
+ * sold count, revenue and price. To keep that replay short, the journal
+ * periodically writes a snapshot of the full state and starts a new,
+ * empty generation of the journal.
+ *
+ * Journal layout:  header [magic int][version int][generation long]
+ *                  then records [length int][type byte][payload][crc int]
+ * A zero length marks the end; a bad checksum marks a torn write. Each
+ * record's checksum also covers the generation of the journal it was
+ * written to, so a record left over from an earlier generation - by a
+ * crash while a new one was being started - ends the replay rather than
+ * being applied on top of the snapshot that already covers it. Journals
+ * written before the generation was checksummed (version 1) are still
+ * replayed, and a snapshot is taken at once to move on from them.
+ *
+ * If a snapshot cannot be written, the failure is counted and kept (see
+ * getFailedSnapshots() and getLastSnapshotFailure()), every commit tries
+ * again, and until one succeeds bakes and price changes are refused,
+ * GeekCafe refuses new orders (see checkSnapshots()) and close() throws
+ * the failure, rather than the journal growing without bound while the
+ * error goes unnoticed. An order is sold before it reaches the journal,
+ * so one already being finalized is still journaled.
+ *
+ * Items are identified by their position in the list given to open(), so
+ * the same menu must be passed on every start.
+ */
+public class SalesJournal implements SaleListener, Closeable {
+
+    private static final int JOURNAL_MAGIC = 0x47434A4E;  // "GCJN"
+    private static final int SNAPSHOT_MAGIC = 0x47435353; // "GCSS"
+    private static final int FORMAT_VERSION = 1;   // Of snapshots
+    private static final int JOURNAL_VERSION = 2;  // Records' checksum covers the generation
+    private static final int HEADER_SIZE = 16;
+
+    private static final byte ORDER = 1;  // [lines int] then [slot int][qty int][cents long] per line
+    private static final byte BAKE = 2;   // [slot int][qty int]
+    private static final byte PRICE = 3;  // [slot int][cents long]
+
+    private static final int ORDER_LINE_SIZE = 16;
+    private static final int RECORD_OVERHEAD = 9; // length + type + crc
+    private static final int INITIAL_CAPACITY = 16 << 20;
+
+    /** Default time between group commits. */
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 2;
+
+    /** Default number of waiting records that triggers an early commit. */
+    public static final int DEFAULT_GROUP_SIZE = 256;
+
+    /** Default number of records between snapshots. */
+    public static final int DEFAULT_SNAPSHOT_EVERY = 100_000;
+
+    private final Path journalFile;
+    private final Path snapshotFile;
+    private final FileChannel channel;
+    private final FoodItem[] items;
+    private final int[] slotById;       // Slot + 1 for each FoodItem id
+    private final long commitIntervalMillis;
+    private final int groupSize;
+    private final int snapshotEvery;
+
+    // ----- State guarded by appendLock -----
+
+    // Locks here are j.u.c. locks rather than monitors: on this JDK a
+    // virtual thread blocked on a monitor pins its carrier thread, and with
+    // thousands of request threads that starves or deadlocks the carriers.
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    private MappedByteBuffer buffer;
+    private long generation;            // Generation of the current journal file
+    private int position;               // Next write offset in the journal
+    private long appendedRecords;       // Records appended since opening
+    private int recordsSinceSnapshot;
+    private long failedSnapshots;
+    private IOException snapshotFailure; // Last snapshot failure, or null once one succeeds
+
+    // Shadow copy of the journaled state, used to write snapshots
+    private final int[] stock;
+    private final long[] sold;
+    private final long[] revenue;
+    private final long[] price;
+
+    private final CRC32C crc = new CRC32C();
+
+    // ----- Durability, guarded by durableLock -----
+
+    private final ReentrantLock durableLock = new ReentrantLock();
+    private final Condition commitDue = durableLock.newCondition();
+    private final Condition committed = durableLock.newCondition();
+    private long durableRecords;        // Records known to be on disk
+    private boolean closed;
+
+    private final Thread committer;
+
+    /** Per-thread buffer that collects an order's sales until it is finalized. */
+    private final ThreadLocal<ByteBuffer> orderScratch = ThreadLocal.withInitial(
+            () -> ByteBuffer.allocate(4 + 8 * ORDER_LINE_SIZE).order(ByteOrder.LITTLE_ENDIAN).putInt(0));
+
+    private SalesJournal(Path dir, List<FoodItem> items, long commitIntervalMillis,
+                         int groupSize, int snapshotEvery) throws IOException {
+        Files.createDirectories(dir);
+        this.journalFile = dir.resolve("journal.dat");
+        this.snapshotFile = dir.resolve("snapshot.dat");
+        this.items = items.toArray(new FoodItem[0]);
+        this.commitIntervalMillis = commitIntervalMillis;
+        this.groupSize = groupSize;
+        this.snapshotEvery = snapshotEvery;
+
+        int maxId = 0;
+        for (FoodItem item : this.items) {
+            maxId = Math.max(maxId, item.getId());
+        }
+        slotById = new int[maxId + 1];
+        for (int slot = 0; slot < this.items.length; slot++) {
+            slotById[this.items[slot].getId()] = slot + 1;
+        }
+
+        int n = this.items.length;
+        stock = new int[n];
+        sold = new long[n];
+        revenue = new long[n];
+        price = new long[n];
+        for (int slot = 0; slot < n; slot++) {
+            SalesSnapshot s = this.items[slot].snapshot();
+            stock[slot] = s.getStock();
+            sold[slot] = s.getSoldCount();
+            revenue[slot] = s.getRevenueCents();
+            price[slot] = this.items[slot].getPriceCents();
+        }
+
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+
+        committer = new Thread(this::commitLoop, "sales-journal-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Opens (or creates) the journal in a directory and rebuilds the given
+     * items' stock, sales and prices from it.
+     *
+     * @param dir   the directory holding the journal and snapshot files
+     * @param items the menu items, in the same order on every start
+     * @return the open journal
+     * @throws IOException if the files cannot be read or written
+     */
+    public static SalesJournal open(Path dir, List<FoodItem> items) throws IOException {
+        return open(dir, items, DEFAULT_COMMIT_INTERVAL_MILLIS, DEFAULT_GROUP_SIZE, DEFAULT_SNAPSHOT_EVERY);
+    }
+
+    /**
+     * Opens the journal with explicit group-commit and snapshot settings.
+     *
+     * @param dir                  the directory holding the journal files
+     * @param items                the menu items, in the same order on every start
+     * @param commitIntervalMillis longest time a record waits to be forced to disk
+     * @param groupSize            waiting records that trigger an early commit
+     * @param snapshotEvery        records between snapshots
+     * @return the open journal
+     * @throws IOException if the files cannot be read or written
+     */
+    public static SalesJournal open(Path dir, List<FoodItem> items, long commitIntervalMillis,
+                                    int groupSize, int snapshotEvery) throws IOException {
+        return new SalesJournal(dir, items, commitIntervalMillis, groupSize, snapshotEvery);
+    }
+
+    // ----- Recording -----
+
+    @Override
+    public void onSale(FoodItem item, Combo combo, int qty, long unitPriceCents) {
+        int slot = slotOf(item);
+        ByteBuffer scratch = orderScratch.get();
+        if (scratch.remaining() < ORDER_LINE_SIZE) {
+            ByteBuffer bigger = ByteBuffer.allocate(scratch.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+            scratch.flip();
+            bigger.put(scratch);
+            orderScratch.set(bigger);
+            scratch = bigger;
+        }
+        scratch.putInt(slot).putInt(qty).putLong(unitPriceCents);
+    }
+
+    @Override
+    public void onOrderFinalized() {
+        awaitDurable(appendOrder());
+    }
+
+    /**
+     * Drops the sales collected for an order whose finalization failed,
+     * so they are not journaled with this thread's next order.
+     */
+    @Override
+    public void onOrderAborted() {
+        orderScratch.get().position(4);
+    }
+
+    /**
+     * Appends the order without waiting for it; onBatchFinalized() waits
+     * once for the whole batch.
+     */
+    @Override
+    public void onBatchedOrderFinalized() {
+        appendOrder();
+    }
+
+    @Override
+    public void onBatchFinalized() {
+        long record;
+        appendLock.lock();
+        try {
+            record = appendedRecords;
+        } finally {
+            appendLock.unlock();
+        }
+        awaitDurable(record);
+    }
+
+    /**
+     * Appends the order collected in this thread's scratch buffer, and
+     * empties the buffer for the next order even if appending fails.
+     *
+     * @return the record's sequence number, for awaitDurable()
+     */
+    private long appendOrder() {
+        ByteBuffer scratch = orderScratch.get();
+        int lines = (scratch.position() - 4) / ORDER_LINE_SIZE;
+        scratch.putInt(0, lines);
+        appendLock.lock();
+        try {
+            for (int i = 0; i < lines; i++) {
+                int at = 4 + i * ORDER_LINE_SIZE;
+                int slot = scratch.getInt(at);
+                int qty = scratch.getInt(at + 4);
+                stock[slot] -= qty;
+                sold[slot] += qty;
+                revenue[slot] += Money.times(scratch.getLong(at + 8), qty);
+            }
+            return append(ORDER, scratch, scratch.position());
+        } finally {
+            appendLock.unlock();
+            scratch.position(4);
+        }
+    }
+
+    /**
+     * Records muffins (or any item) being baked and waits until it is durable.
+     *
+     * @param item the item restocked
+     * @param qty  the quantity added
+     */
+    public void recordBake(FoodItem item, int qty) {
+        int slot = slotOf(item);
+        ByteBuffer payload = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        payload.putInt(slot).putInt(qty);
+        long record;
+        appendLock.lock();
+        try {
+            checkSnapshots();
+            stock[slot] += qty;
+            record = append(BAKE, payload, payload.position());
+        } finally {
+            appendLock.unlock();
+        }
+        awaitDurable(record);
+    }
+
+    /**
+     * Records a price change and waits until it is durable.
+     *
+     * @param item       the item repriced
+     * @param priceCents the new price, in cents
+     */
+    public void recordPrice(FoodItem item, long priceCents) {
+        int slot = slotOf(item);
+        ByteBuffer payload = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        payload.putInt(slot).putLong(priceCents);
+        long record;
+        appendLock.lock();
+        try {
+            checkSnapshots();
+            price[slot] = priceCents;
+            record = append(PRICE, payload, payload.position());
+        } finally {
+            appendLock.unlock();
+        }
+        awaitDurable(record);
+    }
+
+    /**
+     * Forces everything recorded so far to disk, stops the commit thread
+     * and closes the file.
+     *
+     * @throws IOException if the file cannot be closed, or the last
+     *         snapshot failed and none has succeeded since
+     */
+    @Override
+    public void close() throws IOException {
+        durableLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            commitDue.signal();
+            committed.signalAll();
+        } finally {
+            durableLock.unlock();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IOException failure;
+        appendLock.lock();
+        try {
+            buffer.force();
+            failure = snapshotFailure;
+        } finally {
+            appendLock.unlock();
+        }
+        channel.close();
+        if (failure != null) {
+            throw new IOException("Sales journal snapshot failed: " + failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * Returns the number of records written to the current journal
+     * generation since the last snapshot.
+     *
+     * @return records a restart would replay
+     */
+    public int getRecordsSinceSnapshot() {
+        appendLock.lock();
+        try {
+            return recordsSinceSnapshot;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many snapshots have failed since the journal was opened.
+     *
+     * @return failed snapshots
+     */
+    public long getFailedSnapshots() {
+        appendLock.lock();
+        try {
+            return failedSnapshots;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Returns why the last snapshot failed, if none has succeeded since.
+     *
+     * @return the failure, or null if snapshots are working
+     */
+    public IOException getLastSnapshotFailure() {
+        appendLock.lock();
+        try {
+            return snapshotFailure;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // ----- Appending -----
+
+    /**
+     * Refuses new records while the last snapshot failed. Called before a
+     * bake or price change is applied, and by GeekCafe before it sells an
+     * order, so nothing is refused after it changed the cafe's stock.
+     *
+     * @throws IllegalStateException if the last snapshot failed and none
+     *         has succeeded since
+     */
+    void checkSnapshots() {
+        appendLock.lock();
+        try {
+            if (snapshotFailure != null) {
+                throw new IllegalStateException("Sales journal cannot take a snapshot: "
+                        + snapshotFailure.getMessage(), snapshotFailure);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Appends one record. Caller holds appendLock.
+     *
+     * @return the record's sequence number, for awaitDurable()
+     */
+    private long append(byte type, ByteBuffer payload, int payloadLength) {
+        int length = 1 + payloadLength;
+        ensureCapacity(position + RECORD_OVERHEAD + payloadLength + 4);
+
+        startRecordCrc(generation);
+        crc.update(type);
+        crc.update(payload.array(), payload.arrayOffset(), payloadLength);
+
+        buffer.put(position + 4, type);
+        buffer.put(position + 5, payload, 0, payloadLength);
+        buffer.putInt(position + 4 + length, (int) crc.getValue());
+        buffer.putInt(position, length);
+        position += 4 + length + 4;
+
+        recordsSinceSnapshot++;
+        long record = ++appendedRecords;
+        if (record - durableRecords() >= groupSize) {
+            durableLock.lock();
+            try {
+                commitDue.signal();
+            } finally {
+                durableLock.unlock();
+            }
+        }
+        return record;
+    }
+
+    /** Starts a record's checksum with the generation it belongs to. */
+    private void startRecordCrc(long recordGeneration) {
+        crc.reset();
+        for (int shift = 0; shift < 64; shift += 8) {
+            crc.update((int) (recordGeneration >>> shift));
+        }
+    }
+
+    private long durableRecords() {
+        durableLock.lock();
+        try {
+            return durableRecords;
+        } finally {
+            durableLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the given record has been forced to disk.
+     */
+    private void awaitDurable(long record) {
+        durableLock.lock();
+        try {
+            while (durableRecords < record && !closed) {
+                committed.awaitUninterruptibly();
+            }
+        } finally {
+            durableLock.unlock();
+        }
+    }
+
+    /**
+     * Group commit: force whatever has been appended, wake its writers,
+     * and take a snapshot when the journal has grown long enough. A
+     * failed snapshot is kept for checkSnapshots() and tried again on the
+     * next commit.
+     */
+    private void commitLoop() {
+        while (true) {
+            durableLock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                commitDue.await(commitIntervalMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                durableLock.unlock();
+            }
+
+            long target;
+            MappedByteBuffer toForce;
+            appendLock.lock();
+            try {
+                target = appendedRecords;
+                toForce = buffer;
+            } finally {
+                appendLock.unlock();
+            }
+            if (target != durableRecords()) {
+                toForce.force();
+                durableLock.lock();
+                try {
+                    durableRecords = target;
+                    committed.signalAll();
+                } finally {
+                    durableLock.unlock();
+                }
+            }
+
+            appendLock.lock();
+            try {
+                if (recordsSinceSnapshot >= snapshotEvery) {
+                    try {
+                        snapshot();
+                        snapshotFailure = null;
+                    } catch (IOException e) {
+                        failedSnapshots++;
+                        snapshotFailure = e;
+                    }
+                }
+            } finally {
+                appendLock.unlock();
+            }
+        }
+    }
+
+    private void ensureCapacity(long needed) {
+        if (needed <= buffer.capacity()) {
+            return;
+        }
+        long capacity = buffer.capacity();
+        while (capacity < needed) {
+            capacity *= 2;
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Sales journal is full; snapshot more often");
+        }
+        try {
+            buffer.force();
+            buffer = map(capacity);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot grow sales journal", e);
+        }
+    }
+
+    private MappedByteBuffer map(long capacity) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        return mapped;
+    }
+
+    // ----- Snapshots and recovery -----
+
+    /**
+     * Writes the journaled state to the snapshot file as generation + 1,
+     * then starts that generation of the journal empty. Caller holds
+     * appendLock. A crash between the two steps is safe: on restart the
+     * older journal generation is ignored because the snapshot covers it.
+     */
+    private void snapshot() throws IOException {
+        int n = items.length;
+        ByteBuffer out = ByteBuffer.allocate(20 + n * 28 + 4).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(SNAPSHOT_MAGIC).putInt(FORMAT_VERSION).putLong(generation + 1).putInt(n);
+        for (int slot = 0; slot < n; slot++) {
+            out.putInt(stock[slot]).putLong(sold[slot]).putLong(revenue[slot]).putLong(price[slot]);
+        }
+        crc.reset();
+        crc.update(out.array(), 0, out.position());
+        out.putInt((int) crc.getValue());
+        out.flip();
+
+        Path tmp = snapshotFile.resolveSibling("snapshot.tmp");
+        try (FileChannel file = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                file.write(out);
+            }
+            file.force(true);
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        startGeneration(generation + 1);
+    }
+
+    /**
+     * Clears the journal and writes a header for a new generation.
+     */
+    private void startGeneration(long newGeneration) {
+        clear(HEADER_SIZE, position);
+        generation = newGeneration;
+        position = HEADER_SIZE;
+        recordsSinceSnapshot = 0;
+        buffer.putInt(0, JOURNAL_MAGIC);
+        buffer.putInt(4, JOURNAL_VERSION);
+        buffer.putLong(8, generation);
+        buffer.force();
+    }
+
+    private void clear(int from, int to) {
+        byte[] zeros = new byte[8192];
+        for (int at = from; at < to; at += zeros.length) {
+            buffer.put(at, zeros, 0, Math.min(zeros.length, to - at));
+        }
+    }
+
+    /**
+     * Loads the snapshot (if any), replays the journal generation that
+     * follows it, and pushes the rebuilt state into the items.
+     */
+    private void recover() throws IOException {
+        long snapshotGeneration = loadSnapshot();
+
+        long size = channel.size();
+        buffer = map(Math.max(INITIAL_CAPACITY, Long.highestOneBit(Math.max(size, 1)) * 2));
+
+        boolean fresh = size < HEADER_SIZE || buffer.getInt(0) != JOURNAL_MAGIC;
+        if (fresh || buffer.getLong(8) != snapshotGeneration) {
+            // No journal yet, or one already covered by the snapshot
+            position = fresh ? 0 : scanEnd();
+            startGeneration(snapshotGeneration);
+        } else {
+            int version = buffer.getInt(4);
+            if (version < 1 || version > JOURNAL_VERSION) {
+                throw new IOException("Unsupported sales journal version " + version);
+            }
+            generation = snapshotGeneration;
+            position = replay(version);
+            // Wipe a torn record left by a crash so it cannot be misread later
+            clear(position, (int) Math.min(buffer.capacity(), position + 1024 + 16L * items.length));
+            if (version < JOURNAL_VERSION) {
+                snapshot();   // Later records are checksummed with the generation
+            }
+        }
+
+        for (int slot = 0; slot < items.length; slot++) {
+            items[slot].restore(stock[slot], (int) sold[slot], revenue[slot]);
+            items[slot].setPriceCents(price[slot]);
+        }
+    }
+
+    /**
+     * Reads the snapshot file into the shadow state.
+     *
+     * @return the snapshot's generation, or 0 if there is none
+     */
+    private long loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return 0;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(snapshotFile)).order(ByteOrder.LITTLE_ENDIAN);
+        if (in.remaining() < 24 || in.getInt(0) != SNAPSHOT_MAGIC || in.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unrecognised snapshot file " + snapshotFile);
+        }
+        int end = in.limit() - 4;
+        crc.reset();
+        crc.update(in.array(), 0, end);
+        if ((int) crc.getValue() != in.getInt(end)) {
+            throw new IOException("Corrupt snapshot file " + snapshotFile);
+        }
+        long snapshotGeneration = in.getLong(8);
+        int n = in.getInt(16);
+        if (n != items.length) {
+            throw new IOException("Snapshot has " + n + " items, menu has " + items.length);
+        }
+        in.position(20);
+        for (int slot = 0; slot < n; slot++) {
+            stock[slot] = in.getInt();
+            sold[slot] = in.getLong();
+            revenue[slot] = in.getLong();
+            price[slot] = in.getLong();
+        }
+        return snapshotGeneration;
+    }
+
+    /**
+     * Applies every intact record of the current generation to the
+     * shadow state, stopping at the first whose checksum does not match.
+     *
+     * @param version the journal's format version
+     * @return the offset just past the last intact record
+     */
+    private int replay(int version) throws IOException {
+        int at = HEADER_SIZE;
+        while (true) {
+            if (at + RECORD_OVERHEAD > buffer.capacity()) {
+                return at;
+            }
+            int length = buffer.getInt(at);
+            if (length <= 0 || at + 4L + length + 4 > buffer.capacity()) {
+                return at;
+            }
+            byte type = buffer.get(at + 4);
+            if (version >= 2) {
+                startRecordCrc(generation);
+            } else {
+                crc.reset();
+            }
+            ByteBuffer record = buffer.slice(at + 4, length);
+            crc.update(record);
+            if ((int) crc.getValue() != buffer.getInt(at + 4 + length)) {
+                return at; // Torn write or an earlier generation: everything after it is lost
+            }
+
+            int p = at + 5;
+            switch (type) {
+                case ORDER: {
+                    int lines = buffer.getInt(p);
+                    for (int i = 0; i < lines; i++) {
+                        int line = p + 4 + i * ORDER_LINE_SIZE;
+                        int slot = checkSlot(buffer.getInt(line));
+                        int qty = buffer.getInt(line + 4);
+                        stock[slot] -= qty;
+                        sold[slot] += qty;
+                        revenue[slot] += Money.times(buffer.getLong(line + 8), qty);
+                    }
+                    break;
+                }
+                case BAKE:
+                    stock[checkSlot(buffer.getInt(p))] += buffer.getInt(p + 4);
+                    break;
+                case PRICE:
+                    price[checkSlot(buffer.getInt(p))] = buffer.getLong(p + 4);
+                    break;
+                default:
+                    throw new IOException("Unknown journal record type " + type);
+            }
+            recordsSinceSnapshot++;
+            at += 4 + length + 4;
+        }
+    }
+
+    /**
+     * Finds the end of a stale journal generation so it can be cleared.
+     */
+    private int scanEnd() {
+        int at = HEADER_SIZE;
+        while (at + RECORD_OVERHEAD <= buffer.capacity()) {
+            int length = buffer.getInt(at);
+            if (length <= 0 || at + 4L + length + 4 > buffer.capacity()) {
+                break;
+            }
+            at += 4 + length + 4;
+        }
+        return at;
+    }
+
+    private int checkSlot(int slot) throws IOException {
+        if (slot < 0 || slot >= items.length) {
+            throw new IOException("Journal refers to unknown item " + slot);
+        }
+        return slot;
+    }
+
+    private int slotOf(FoodItem item) {
+        int id = item.getId();
+        if (id < 0 || id >= slotById.length || slotById[id] == 0 || items[slotById[id] - 1] != item) {
+            throw new IllegalArgumentException(item.getName() + " is not on the journaled menu");
+        }
+        return slotById[id] - 1;
+    }
+}
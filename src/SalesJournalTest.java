@@ -0,0 +1,245 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Unit tests for the SalesJournal class.
+ *
+ * These tests validate:
+ * - Orders, bakes and price changes survive a restart
+ * - Snapshots keep the journal short without losing state
+ * - Records left over from an earlier generation are not replayed
+ * - A failed snapshot is reported and refuses records until one succeeds
+ * - The sales of an order whose finalization failed are not journaled
+ */
+public class SalesJournalTest {
+    private Path dir;                   // Journal directory for this test
+    private FoodItem muffin;
+    private FoodItem coffee;
+    private Combo coffeeMuffinCombo;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal-test");
+        newMenu();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Record one order, a bake and a price change, then "restart" with a
+     * fresh menu at default values and check that everything comes back.
+     * Order: 2 muffins @ $2.00 + 1 Coffee+Muffin combo ($2.00 + $1.50).
+     */
+    @Test
+    public void stateIsRestoredAfterRestart() throws IOException {
+        try (SalesJournal journal = SalesJournal.open(dir, menu())) {
+            Order order = new Order();
+            assertTrue(order.addItem(muffin, 2));
+            assertTrue(order.addCombo(coffeeMuffinCombo, 1));
+            order.finalizeOrder(journal);
+
+            journal.recordBake(muffin, 25);
+            muffin.addStock(25);
+            journal.recordPrice(coffee, 275);
+            coffee.setPriceCents(275);
+        }
+
+        newMenu();
+        try (SalesJournal journal = SalesJournal.open(dir, menu())) {
+            assertEquals(3, journal.getRecordsSinceSnapshot());
+            assertEquals(25 - 3 + 25, muffin.getStock());
+            assertEquals(3, muffin.getSoldCount());
+            assertEquals(2 * 200 + 150, muffin.getRevenueCents());
+            assertEquals(1, coffee.getSoldCount());
+            assertEquals(200, coffee.getRevenueCents());
+            assertEquals(275, coffee.getPriceCents());
+        }
+    }
+
+    /**
+     * With a snapshot every 5 records, 20 one-muffin orders leave only a
+     * short journal behind, and a restart still sees all 20 sales.
+     */
+    @Test
+    public void snapshotsBoundTheJournal() throws Exception {
+        try (SalesJournal journal = SalesJournal.open(dir, menu(), 1, 1, 5)) {
+            for (int i = 0; i < 20; i++) {
+                Order order = new Order();
+                assertTrue(order.addItem(muffin, 1));
+                order.finalizeOrder(journal);
+            }
+            assertTrue(journal.getRecordsSinceSnapshot() < 20);
+        }
+
+        newMenu();
+        try (SalesJournal journal = SalesJournal.open(dir, menu())) {
+            assertTrue(journal.getRecordsSinceSnapshot() < 20);
+            assertEquals(20, muffin.getSoldCount());
+            assertEquals(25 - 20, muffin.getStock());
+            assertEquals(20 * 200, muffin.getRevenueCents());
+        }
+    }
+
+    /**
+     * A crash while starting generation 1 leaves its header in front of
+     * generation 0's bake of 5 muffins, which the generation 1 snapshot
+     * already counts. The stale record is not applied a second time.
+     */
+    @Test
+    public void staleRecordsAreNotReplayed() throws Exception {
+        Path journalFile = dir.resolve("journal.dat");
+        try (SalesJournal journal = SalesJournal.open(dir, menu())) {
+            journal.recordBake(muffin, 5);
+        }
+        byte[] generationZero = Files.readAllBytes(journalFile);
+
+        newMenu();
+        try (SalesJournal journal = SalesJournal.open(dir, menu(), 1, 1, 1)) {
+            journal.recordPrice(coffee, 275);
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (journal.getRecordsSinceSnapshot() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, journal.getRecordsSinceSnapshot());
+        }
+        ByteBuffer.wrap(generationZero).order(ByteOrder.LITTLE_ENDIAN).putLong(8, 1);
+        Files.write(journalFile, generationZero);
+
+        newMenu();
+        try (SalesJournal journal = SalesJournal.open(dir, menu())) {
+            assertEquals(0, journal.getRecordsSinceSnapshot());
+            assertEquals(25 + 5, muffin.getStock());
+            assertEquals(275, coffee.getPriceCents());
+        }
+    }
+
+    /**
+     * A snapshot that cannot be written is counted and refuses the next
+     * bake or new order, though an order already sold is journaled; once
+     * the snapshot succeeds, recording carries on.
+     */
+    @Test
+    public void failedSnapshotRefusesRecords() throws Exception {
+        Path blocker = Files.createDirectories(dir.resolve("snapshot.tmp").resolve("blocker"));
+        try (SalesJournal journal = SalesJournal.open(dir, menu(), 1, 1, 1)) {
+            journal.recordBake(muffin, 5);
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (journal.getFailedSnapshots() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue(journal.getFailedSnapshots() > 0);
+            assertNotNull(journal.getLastSnapshotFailure());
+            try {
+                journal.recordBake(muffin, 5);
+                fail("Recorded while snapshots were failing");
+            } catch (IllegalStateException expected) {
+                assertSame(journal.getLastSnapshotFailure(), expected.getCause());
+            }
+            try {
+                journal.checkSnapshots();
+                fail("Took an order while snapshots were failing");
+            } catch (IllegalStateException expected) {
+                assertSame(journal.getLastSnapshotFailure(), expected.getCause());
+            }
+            Order sold = new Order();
+            assertTrue(sold.addItem(muffin, 1));
+            sold.finalizeOrder(journal);
+
+            Files.delete(blocker);
+            Files.delete(blocker.getParent());
+            while (journal.getLastSnapshotFailure() != null && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertNull(journal.getLastSnapshotFailure());
+            journal.recordBake(muffin, 5);
+        }
+
+        newMenu();
+        try (SalesJournal journal = SalesJournal.open(dir, menu())) {
+            assertNull(journal.getLastSnapshotFailure());
+            assertEquals(25 + 10 - 1, muffin.getStock());
+            assertEquals(1, muffin.getSoldCount());
+        }
+    }
+
+    /**
+     * Finalizing an order fails after its muffins were passed to the
+     * journal; the next order on the thread journals only its own sale.
+     */
+    @Test
+    public void abortedOrderIsNotJournaled() throws IOException {
+        try (SalesJournal journal = SalesJournal.open(dir, menu())) {
+            SaleListener failing = new SaleListener() {
+                @Override
+                public void onSale(FoodItem item, Combo combo, int qty, long unitPriceCents) {
+                    journal.onSale(item, combo, qty, unitPriceCents);
+                    if (item == coffee) {
+                        throw new IllegalStateException("Till lost power");
+                    }
+                }
+
+                @Override
+                public void onOrderFinalized() {
+                    journal.onOrderFinalized();
+                }
+
+                @Override
+                public void onOrderAborted() {
+                    journal.onOrderAborted();
+                }
+            };
+            Order failed = new Order();
+            assertTrue(failed.addItem(muffin, 4));
+            assertTrue(failed.addItem(coffee, 1));
+            try {
+                failed.finalizeOrder(failing);
+                fail("The listener should have failed");
+            } catch (IllegalStateException expected) {
+                // The journal must drop the 4 muffins
+            }
+
+            Order next = new Order();
+            assertTrue(next.addItem(muffin, 1));
+            next.finalizeOrder(journal);
+        }
+
+        newMenu();
+        try (SalesJournal journal = SalesJournal.open(dir, menu())) {
+            assertEquals(1, journal.getRecordsSinceSnapshot());
+            assertEquals(1, muffin.getSoldCount());
+            assertEquals(25 - 1, muffin.getStock());
+        }
+    }
+
+    /**
+     * Creates the default menu items, as a restarted cafe would.
+     */
+    private void newMenu() {
+        muffin = new ConcurrentFoodItem("Muffin", 2.00, 25);
+        coffee = new ConcurrentFoodItem("Coffee", 2.50, 0);
+        coffeeMuffinCombo = new Combo("Coffee + Muffin", coffee, muffin, 1.0);
+        MenuCatalog.number(menu(), Collections.singletonList(coffeeMuffinCombo));
+    }
+
+    private List<FoodItem> menu() {
+        return Arrays.asList(muffin, coffee);
+    }
+}
@@ -0,0 +1,507 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.stream.IntStream;
+
+/**
+ * SalesLedger.java
+ *
+ * Every sale line of every finalized order, kept column by column in
+ * primitive arrays for analytics such as "revenue from combos vs singles
+ * between 2pm and 4pm" or "average order size" - questions FoodItem's
+ * running totals cannot answer.
+ *
+ * Each sale (one onSale() call) becomes a row of six columns: finalize
+ * time in milliseconds, order number, item id, combo id (-1 for a
+ * regular item), quantity and unit price in cents. Rows are stored in
+ * fixed-size chunks of parallel arrays, about 36 bytes a row and no
+ * object per sale.
+ *
+ * A till's sales are buffered per thread until onOrderFinalized(), then
+ * appended under a lock in one go, so an order's rows are contiguous,
+ * order numbers increase with row number and times never decrease.
+ * Appending fills the rows before publishing the new row count, so
+ * queries never lock: they see every row up to the count they read.
+ *
+ * Queries scan the chunks in parallel (a parallel stream over chunk
+ * numbers, on the common fork/join pool) and combine per-chunk totals.
+ * Because times are sorted, chunks entirely outside a time filter are
+ * skipped without reading their rows.
+ *
+ * A ledger keeps every row unless it is given a maxRows limit, so its
+ * queries answer over the cafe's whole history. A bounded ledger keeps
+ * at least the maxRows most recent rows: when a new chunk is needed and
+ * the limit is reached, the oldest chunk is dropped and queries answer
+ * over the rows that remain.
+ */
+public class SalesLedger implements SaleListener {
+
+    /** Rows per chunk, as a power of two; a chunk is about 144 KB. */
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    /** Most chunks a ledger can hold; the limit of an unbounded ledger. */
+    private static final int MAX_CHUNKS = Integer.MAX_VALUE - 8;
+
+    /** Combo id column value for a regular item. */
+    public static final int NO_COMBO = -1;
+
+    /** One chunk of rows, column by column. */
+    private static final class Chunk {
+        final long[] time = new long[CHUNK_SIZE];
+        final long[] order = new long[CHUNK_SIZE];
+        final int[] item = new int[CHUNK_SIZE];
+        final int[] combo = new int[CHUNK_SIZE];
+        final int[] qty = new int[CHUNK_SIZE];
+        final long[] price = new long[CHUNK_SIZE];
+    }
+
+    /** A finalizing thread's sales for the order in progress. */
+    private static final class Pending {
+        int[] item = new int[8];
+        int[] combo = new int[8];
+        int[] qty = new int[8];
+        long[] price = new long[8];
+        int count;
+
+        void add(int itemId, int comboId, int quantity, long unitPrice) {
+            if (count == item.length) {
+                item = Arrays.copyOf(item, count * 2);
+                combo = Arrays.copyOf(combo, count * 2);
+                qty = Arrays.copyOf(qty, count * 2);
+                price = Arrays.copyOf(price, count * 2);
+            }
+            item[count] = itemId;
+            combo[count] = comboId;
+            qty[count] = quantity;
+            price[count++] = unitPrice;
+        }
+    }
+
+    /** The chunks kept, oldest first; replaced, never modified, once published. */
+    private static final class Window {
+        final Chunk[] chunks;
+        final long firstRow;    // Row number of chunks[0]'s first row
+
+        Window(Chunk[] chunks, long firstRow) {
+            this.chunks = chunks;
+            this.firstRow = firstRow;
+        }
+    }
+
+    private final LongSupplier clock;
+    private final int maxChunks;
+    private final ThreadLocal<Pending> pending = ThreadLocal.withInitial(Pending::new);
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private volatile Window window = new Window(new Chunk[0], 0);
+    private volatile long rows;          // Published row count, including dropped rows
+    private volatile long orders;        // Orders appended; written under appendLock
+    private long lastTime;               // Latest row time; guarded by appendLock
+
+    /**
+     * Creates an empty ledger timed by the system clock that keeps every row.
+     */
+    public SalesLedger() {
+        this(System::currentTimeMillis);
+    }
+
+    /**
+     * Creates an empty ledger that keeps every row.
+     *
+     * @param clock current time in milliseconds
+     */
+    public SalesLedger(LongSupplier clock) {
+        this.clock = clock;
+        this.maxChunks = MAX_CHUNKS;
+    }
+
+    /**
+     * Creates an empty ledger that keeps a limited number of rows.
+     *
+     * @param clock   current time in milliseconds
+     * @param maxRows rows to keep at least; rounded up to whole chunks
+     */
+    public SalesLedger(LongSupplier clock, long maxRows) {
+        if (maxRows <= 0) {
+            throw new IllegalArgumentException("A ledger must keep at least one row");
+        }
+        this.clock = clock;
+        this.maxChunks = (int) Math.min(MAX_CHUNKS, (maxRows - 1 >>> CHUNK_BITS) + 1);
+    }
+
+    // ----- Recording -----
+
+    @Override
+    public void onSale(FoodItem item, Combo combo, int qty, long unitPriceCents) {
+        pending.get().add(item.getId(), combo == null ? NO_COMBO : combo.getId(), qty, unitPriceCents);
+    }
+
+    @Override
+    public void onOrderFinalized() {
+        Pending sales = pending.get();
+        if (sales.count == 0) {
+            return;
+        }
+        appendLock.lock();
+        try {
+            long time = Math.max(lastTime, clock.getAsLong());
+            long orderNo = orders++;
+            long row = rows;
+            for (int i = 0; i < sales.count; i++, row++) {
+                Chunk chunk = chunkFor(row);
+                int at = (int) (row & (CHUNK_SIZE - 1));
+                chunk.time[at] = time;
+                chunk.order[at] = orderNo;
+                chunk.item[at] = sales.item[i];
+                chunk.combo[at] = sales.combo[i];
+                chunk.qty[at] = sales.qty[i];
+                chunk.price[at] = sales.price[i];
+            }
+            lastTime = time;
+            rows = row;
+        } finally {
+            appendLock.unlock();
+            sales.count = 0;
+        }
+    }
+
+    @Override
+    public void onOrderAborted() {
+        pending.get().count = 0;
+    }
+
+    /**
+     * Caller holds appendLock. A new chunk is published, dropping the
+     * oldest if the ledger is full, before any row in it is published.
+     */
+    private Chunk chunkFor(long row) {
+        Window current = window;
+        int index = (int) ((row - current.firstRow) >>> CHUNK_BITS);
+        if (index < current.chunks.length) {
+            return current.chunks[index];
+        }
+        Chunk[] kept = current.chunks;
+        long firstRow = current.firstRow;
+        if (kept.length == maxChunks) {
+            kept = Arrays.copyOfRange(kept, 1, kept.length);
+            firstRow += CHUNK_SIZE;
+        }
+        Chunk chunk = new Chunk();
+        kept = Arrays.copyOf(kept, kept.length + 1);
+        kept[kept.length - 1] = chunk;
+        window = new Window(kept, firstRow);
+        return chunk;
+    }
+
+    /**
+     * Returns the number of sale rows recorded, including rows dropped
+     * to stay within the ledger's limit.
+     *
+     * @return rows
+     */
+    public long size() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of sale rows kept, which queries answer over.
+     *
+     * @return rows
+     */
+    public long getRetainedRows() {
+        long count = rows;
+        return Math.max(0, count - window.firstRow);
+    }
+
+    /**
+     * Returns the number of orders recorded, without scanning.
+     *
+     * @return orders
+     */
+    public long getOrderCount() {
+        return orders;
+    }
+
+    // ----- Queries -----
+
+    /**
+     * Starts a query over every row kept so far.
+     *
+     * @return a query with no filters
+     */
+    public Query query() {
+        return new Query();
+    }
+
+    /**
+     * Totals of the rows a query matched.
+     */
+    public static final class Totals {
+        private long lines;
+        private long units;
+        private long revenueCents;
+        private long orders;
+        private long firstOrder = -1;   // Order of the first and last matched row,
+        private long lastOrder = -1;    // to count orders split across chunks once
+
+        void add(long order, int qty, long unitPrice) {
+            lines++;
+            units += qty;
+            revenueCents += Money.times(unitPrice, qty);
+            if (order != lastOrder) {
+                orders++;
+                if (firstOrder < 0) {
+                    firstOrder = order;
+                }
+                lastOrder = order;
+            }
+        }
+
+        /** Combines the totals of an earlier range (this) and a later one. */
+        Totals combine(Totals later) {
+            if (later.lines == 0) {
+                return this;
+            }
+            if (lines == 0) {
+                return later;
+            }
+            Totals sum = new Totals();
+            sum.lines = lines + later.lines;
+            sum.units = units + later.units;
+            sum.revenueCents = revenueCents + later.revenueCents;
+            sum.orders = orders + later.orders - (lastOrder == later.firstOrder ? 1 : 0);
+            sum.firstOrder = firstOrder;
+            sum.lastOrder = later.lastOrder;
+            return sum;
+        }
+
+        public long getLines() {
+            return lines;
+        }
+
+        public long getUnits() {
+            return units;
+        }
+
+        public long getRevenueCents() {
+            return revenueCents;
+        }
+
+        /**
+         * Returns the number of distinct orders with a matching row.
+         *
+         * @return orders
+         */
+        public long getOrders() {
+            return orders;
+        }
+
+        /**
+         * Returns the average revenue of the matched rows per order.
+         *
+         * @return average order value in cents, 0 if nothing matched
+         */
+        public long getAverageOrderCents() {
+            return orders == 0 ? 0 : Math.round((double) revenueCents / orders);
+        }
+
+        /**
+         * Returns the average units of the matched rows per order.
+         *
+         * @return average order size, 0 if nothing matched
+         */
+        public double getAverageOrderUnits() {
+            return orders == 0 ? 0 : (double) units / orders;
+        }
+    }
+
+    /** What a group-by query groups rows by. */
+    public enum GroupBy {
+        /** FoodItem id. */
+        ITEM,
+        /** Combo id; regular items are left out. */
+        COMBO,
+        /** Hour of the day, 0 to 23, in UTC. */
+        HOUR
+    }
+
+    /**
+     * Filters over the ledger's rows, combined with "and". A query only
+     * sees rows recorded before it runs; it can be run more than once.
+     */
+    public final class Query {
+        private long fromMillis = Long.MIN_VALUE;
+        private long toMillis = Long.MAX_VALUE;
+        private int itemId = -1;
+        private int comboId = -1;
+        private boolean combosOnly;
+        private boolean singlesOnly;
+
+        private Query() {
+        }
+
+        /**
+         * Keeps rows finalized at or after from and before to.
+         *
+         * @param fromMillis start of the window, inclusive
+         * @param toMillis   end of the window, exclusive
+         * @return this query
+         */
+        public Query between(long fromMillis, long toMillis) {
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+            return this;
+        }
+
+        public Query item(FoodItem item) {
+            if (item.getId() < 0) {
+                throw new IllegalArgumentException(item.getName() + " is not on a menu");
+            }
+            itemId = item.getId();
+            return this;
+        }
+
+        public Query combo(Combo combo) {
+            if (combo.getId() < 0) {
+                throw new IllegalArgumentException(combo.getName() + " is not on a menu");
+            }
+            comboId = combo.getId();
+            return this;
+        }
+
+        /**
+         * Keeps only items sold in combos.
+         *
+         * @return this query
+         */
+        public Query combosOnly() {
+            combosOnly = true;
+            return this;
+        }
+
+        /**
+         * Keeps only items sold on their own (not in combos).
+         *
+         * @return this query
+         */
+        public Query singlesOnly() {
+            singlesOnly = true;
+            return this;
+        }
+
+        /**
+         * Adds up the matching rows.
+         *
+         * @return lines, units, revenue and orders matched
+         */
+        public Totals totals() {
+            long count = rows;
+            Window scanned = window;
+            return IntStream.range(0, chunkCount(scanned, count)).parallel()
+                    .mapToObj(c -> scan(scanned.chunks[c], rowsIn(scanned, c, count)))
+                    .reduce(new Totals(), Totals::combine);
+        }
+
+        /**
+         * Adds up the matching rows per group.
+         *
+         * @param groupBy what to group by
+         * @return totals indexed by item id, combo id or hour; null where
+         *         nothing matched
+         */
+        public Totals[] groupBy(GroupBy groupBy) {
+            long count = rows;
+            Window scanned = window;
+            return IntStream.range(0, chunkCount(scanned, count)).parallel()
+                    .mapToObj(c -> scanGroups(scanned.chunks[c], rowsIn(scanned, c, count), groupBy))
+                    .reduce(new Totals[0], Query::combineGroups);
+        }
+
+        private Totals scan(Chunk chunk, int n) {
+            Totals totals = new Totals();
+            if (skips(chunk, n)) {
+                return totals;
+            }
+            for (int i = 0; i < n; i++) {
+                if (matches(chunk, i)) {
+                    totals.add(chunk.order[i], chunk.qty[i], chunk.price[i]);
+                }
+            }
+            return totals;
+        }
+
+        private Totals[] scanGroups(Chunk chunk, int n, GroupBy groupBy) {
+            Totals[] groups = new Totals[0];
+            if (skips(chunk, n)) {
+                return groups;
+            }
+            for (int i = 0; i < n; i++) {
+                if (!matches(chunk, i)) {
+                    continue;
+                }
+                int key;
+                switch (groupBy) {
+                    case ITEM:
+                        key = chunk.item[i];
+                        break;
+                    case COMBO:
+                        key = chunk.combo[i];
+                        break;
+                    default:
+                        key = (int) Math.floorMod(chunk.time[i] / 3_600_000L, 24L);
+                        break;
+                }
+                if (key < 0) {
+                    continue;
+                }
+                if (key >= groups.length) {
+                    groups = Arrays.copyOf(groups, key + 1);
+                }
+                if (groups[key] == null) {
+                    groups[key] = new Totals();
+                }
+                groups[key].add(chunk.order[i], chunk.qty[i], chunk.price[i]);
+            }
+            return groups;
+        }
+
+        private static Totals[] combineGroups(Totals[] earlier, Totals[] later) {
+            Totals[] sum = Arrays.copyOf(earlier, Math.max(earlier.length, later.length));
+            for (int k = 0; k < later.length; k++) {
+                if (later[k] != null) {
+                    sum[k] = sum[k] == null ? later[k] : sum[k].combine(later[k]);
+                }
+            }
+            return sum;
+        }
+
+        /** True if the time filter excludes the whole chunk. */
+        private boolean skips(Chunk chunk, int n) {
+            return n == 0 || chunk.time[n - 1] < fromMillis || chunk.time[0] >= toMillis;
+        }
+
+        private boolean matches(Chunk chunk, int i) {
+            long time = chunk.time[i];
+            int combo = chunk.combo[i];
+            return time >= fromMillis && time < toMillis
+                    && (itemId < 0 || chunk.item[i] == itemId)
+                    && (comboId < 0 || combo == comboId)
+                    && (!combosOnly || combo != NO_COMBO)
+                    && (!singlesOnly || combo == NO_COMBO);
+        }
+    }
+
+    /**
+     * Chunks of a window holding published rows. The window may be newer
+     * than the row count read before it, never older.
+     */
+    private static int chunkCount(Window window, long rows) {
+        long kept = Math.max(0, rows - window.firstRow);
+        return (int) Math.min(window.chunks.length, (kept + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+    }
+
+    private static int rowsIn(Window window, int chunk, long rows) {
+        return (int) Math.min(CHUNK_SIZE, rows - window.firstRow - ((long) chunk << CHUNK_BITS));
+    }
+}
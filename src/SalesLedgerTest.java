@@ -0,0 +1,168 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Unit tests for the SalesLedger class.
+ *
+ * These tests validate:
+ * - Every sale line is recorded with its order, time and price
+ * - Time, item and combo/single filters select the right rows
+ * - Group-bys and order counts are right across chunk boundaries
+ * - Concurrent tills keep each order's rows together
+ * - A bounded ledger drops its oldest rows a chunk at a time; by default
+ *   every row is kept
+ */
+public class SalesLedgerTest {
+    private static final long HOUR = 3_600_000L;
+
+    private long now;                 // Fake clock, in milliseconds
+    private SalesLedger ledger;       // Ledger under test
+    private FoodItem muffin;
+    private FoodItem coffee;
+    private Combo coffeeMuffinCombo;
+
+    @Before
+    public void setUp() {
+        now = 14 * HOUR;              // 2pm on day 0 (UTC)
+        ledger = new SalesLedger(() -> now);
+        muffin = new FoodItem("Muffin", 2.00, 1_000_000);
+        coffee = new FoodItem("Coffee", 2.50, 0);
+        coffeeMuffinCombo = new Combo("Coffee + Muffin", coffee, muffin, 1.0);
+        MenuCatalog.number(Arrays.asList(muffin, coffee), Collections.singletonList(coffeeMuffinCombo));
+    }
+
+    /**
+     * 2pm: 2 coffees ($5.00) + 1 combo ($3.50). 3pm: 3 muffins ($6.00).
+     * 5pm: 1 combo. Between 2pm and 4pm: combos $3.50, singles $11.00.
+     */
+    @Test
+    public void combosVersusSinglesInWindow() {
+        Order first = new Order();
+        first.addItem(coffee, 2);
+        first.addCombo(coffeeMuffinCombo, 1);
+        first.finalizeOrder(ledger);
+        now += HOUR;
+        sell(muffin, 3);
+        now += 2 * HOUR;
+        Order late = new Order();
+        late.addCombo(coffeeMuffinCombo, 1);
+        late.finalizeOrder(ledger);
+
+        assertEquals(6, ledger.size());   // Each combo is a beverage row and a muffin row
+        SalesLedger.Totals combos = ledger.query().between(14 * HOUR, 16 * HOUR).combosOnly().totals();
+        assertEquals(350, combos.getRevenueCents());
+        assertEquals(2, combos.getUnits());
+        assertEquals(1, combos.getOrders());
+        SalesLedger.Totals singles = ledger.query().between(14 * HOUR, 16 * HOUR).singlesOnly().totals();
+        assertEquals(1100, singles.getRevenueCents());
+        assertEquals(2, singles.getOrders());
+
+        SalesLedger.Totals all = ledger.query().totals();
+        assertEquals(3, all.getOrders());
+        assertEquals(350 + 500 + 600 + 350, all.getRevenueCents());
+        assertEquals(600, all.getAverageOrderCents());
+        assertEquals(3, ledger.query().item(muffin).totals().getLines());
+        assertEquals(2, ledger.query().combo(coffeeMuffinCombo).totals().getOrders());
+    }
+
+    @Test
+    public void groupByHourAndItem() {
+        sell(coffee, 1);
+        now += HOUR;
+        sell(coffee, 2);
+        sell(muffin, 1);
+
+        SalesLedger.Totals[] byHour = ledger.query().groupBy(SalesLedger.GroupBy.HOUR);
+        assertEquals(1, byHour[14].getUnits());
+        assertEquals(3, byHour[15].getUnits());
+        assertEquals(2, byHour[15].getOrders());
+        assertNull(byHour[13]);
+
+        SalesLedger.Totals[] byItem = ledger.query().groupBy(SalesLedger.GroupBy.ITEM);
+        assertEquals(750, byItem[coffee.getId()].getRevenueCents());
+        assertEquals(200, byItem[muffin.getId()].getRevenueCents());
+        assertEquals(0, ledger.query().groupBy(SalesLedger.GroupBy.COMBO).length);
+    }
+
+    /**
+     * 100,000 two-line orders span several chunks; an order split by a
+     * chunk boundary is still counted once.
+     */
+    @Test
+    public void ordersCountedOnceAcrossChunks() {
+        for (int i = 0; i < 100_000; i++) {
+            Order order = new Order();
+            order.addItem(coffee, 1);
+            order.addItem(muffin, 1);
+            order.finalizeOrder(ledger);
+            now += i % 1000 == 0 ? 1 : 0;
+        }
+        SalesLedger.Totals all = ledger.query().totals();
+        assertEquals(200_000, all.getLines());
+        assertEquals(100_000, all.getOrders());
+        assertEquals(2.0, all.getAverageOrderUnits(), 0.0);
+        assertEquals(100_000, ledger.query().item(muffin).totals().getOrders());
+        assertEquals(1000, ledger.query().between(14 * HOUR + 50, 14 * HOUR + 51).totals().getOrders());
+    }
+
+    /**
+     * A ledger limited to 10,000 rows keeps three 4096-row chunks: after
+     * 30,000 single-line orders it answers over rows 20,480 to 29,999.
+     * A ledger without a limit keeps them all.
+     */
+    @Test
+    public void boundedLedgerDropsOldestChunks() {
+        ledger = new SalesLedger(() -> now, 10_000);
+        for (int i = 0; i < 30_000; i++) {
+            sell(coffee, 1);
+            now++;
+        }
+        assertEquals(30_000, ledger.size());
+        long kept = ledger.getRetainedRows();
+        assertEquals(30_000 - 5 * 4096, kept);
+        SalesLedger.Totals all = ledger.query().totals();
+        assertEquals(kept, all.getOrders());
+        assertEquals(kept * 250, all.getRevenueCents());
+        // The newest rows are the ones kept
+        assertEquals(100, ledger.query().between(14 * HOUR + 29_900, Long.MAX_VALUE).totals().getLines());
+
+        ledger = new SalesLedger(() -> now);
+        for (int i = 0; i < 30_000; i++) {
+            sell(coffee, 1);
+        }
+        assertEquals(30_000, ledger.getRetainedRows());
+        assertEquals(30_000, ledger.query().totals().getOrders());
+    }
+
+    @Test
+    public void concurrentTillsKeepOrdersTogether() throws InterruptedException {
+        Thread[] tills = new Thread[4];
+        for (int t = 0; t < tills.length; t++) {
+            tills[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    Order order = new Order();
+                    order.addItem(coffee, 1);
+                    order.addCombo(coffeeMuffinCombo, 1);
+                    order.finalizeOrder(ledger);
+                }
+            });
+            tills[t].start();
+        }
+        for (Thread till : tills) {
+            till.join();
+        }
+        // Interleaved rows would count more orders than were placed
+        assertEquals(40_000, ledger.query().totals().getOrders());
+        assertEquals(40_000, ledger.query().combosOnly().totals().getOrders());
+    }
+
+    private void sell(FoodItem item, int qty) {
+        Order order = new Order();
+        order.addItem(item, qty);
+        order.finalizeOrder(ledger);
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * SalesSnapshot.java
+ *
+ * Immutable view of a FoodItem's sales statistics taken at a single
+ * point in time. The sales report reads snapshots instead of calling
+ * the individual getters, so stock, sold count and revenue always
+ * describe the same set of sales even while tills keep selling.
+ */
+public final class SalesSnapshot {
+    private final String name;        // Name of the food item
+    private final int stock;          // Stock at the time of the snapshot
+    private final long soldCount;     // Units sold at the time of the snapshot
+    private final long revenueCents;  // Revenue (cents) at the time of the snapshot
+
+    /**
+     * Creates a new snapshot.
+     *
+     * @param name         The name of the food item.
+     * @param stock        The stock available.
+     * @param soldCount    The number of units sold.
+     * @param revenueCents The revenue generated, in cents.
+     */
+    public SalesSnapshot(String name, int stock, long soldCount, long revenueCents) {
+        this.name = name;
+        this.stock = stock;
+        this.soldCount = soldCount;
+        this.revenueCents = revenueCents;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getStock() {
+        return stock;
+    }
+
+    public long getSoldCount() {
+        return soldCount;
+    }
+
+    public double getRevenue() {
+        return Money.toDollars(revenueCents);
+    }
+
+    public long getRevenueCents() {
+        return revenueCents;
+    }
+}
@@ -0,0 +1,309 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * StockReservations.java
+ *
+ * Reserves stock-limited items (muffins) across all open orders.
+ *
+ * For every item the service keeps a single "available" counter, equal to
+ * the item's stock minus everything currently held by open orders.
+ * Reserving is a compare-and-set on that counter, so two orders can never
+ * both take the last muffins, and no global lock is involved.
+ *
+ * Lifecycle of a reservation:
+ * - tryReserve: held by an open order (no longer available to others)
+ * - commit:     the order was finalized and the item sold
+ * - release:    the order was cancelled and the stock becomes available again
+ *
+ * All stock added to a reserved item must go through restock(), so the
+ * available counter stays in step with the item's stock.
+ *
+ * When something restocks items in the background (see AutoBaker), a
+ * maximum wait can be set: an order that finds too little stock then
+ * waits up to that long for a restock or release instead of failing at
+ * once. Waiting uses a j.u.c. lock, so it is cheap for virtual threads.
+ * Waits, their total time and the waits that timed out are counted.
+ *
+ * Orders hold their stock on a ReservationLease. When a LeaseWheel is
+ * set, a lease left untouched for the wheel's time to live expires and
+ * its stock becomes available again, so an abandoned order cannot keep
+ * muffins from other customers for good.
+ */
+public class StockReservations {
+
+    /** Reservation counters for a single item. */
+    private static final class Counters {
+        final AtomicInteger available;                 // Stock not held by any order
+        final AtomicInteger held = new AtomicInteger(); // Stock held by open orders
+        final AtomicInteger waiting = new AtomicInteger(); // Orders waiting for stock
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition stockAdded = lock.newCondition();
+
+        Counters(int stock) {
+            available = new AtomicInteger(stock);
+        }
+    }
+
+    /** Counters per item, created the first time an item is reserved. */
+    private final ConcurrentMap<FoodItem, Counters> counters = new ConcurrentHashMap<>();
+
+    /** Longest an order waits for stock, in nanoseconds; 0 = fail at once. */
+    private volatile long maxWaitNanos;
+
+    /** Called with the item whenever an order starts waiting for it, or null. */
+    private volatile ShortageListener shortageListener;
+
+    /** Expires leases left untouched too long, or null if holds never expire. */
+    private volatile LeaseWheel leaseWheel;
+
+    // Backpressure metrics
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitTimeouts = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * Told when an order has to wait for an item, so a producer can
+     * restock it sooner than it otherwise would.
+     */
+    public interface ShortageListener {
+        void onShortage(FoodItem item, int wanted);
+    }
+
+    /**
+     * Attempts to hold a quantity of an item for an open order.
+     *
+     * @param item the stock-limited item
+     * @param qty  the quantity to hold
+     * @return true if the stock was held, false if not enough is available
+     */
+    public boolean tryReserve(FoodItem item, int qty) {
+        Counters c = countersFor(item);
+        if (reserveNow(c, qty)) {
+            return true;
+        }
+        long wait = maxWaitNanos;
+        if (wait > 0 && awaitStock(item, c, qty, wait)) {
+            return true;
+        }
+        rejections.increment();
+        return false;
+    }
+
+    private static boolean reserveNow(Counters c, int qty) {
+        assert qty > 0 : "Reserving " + qty;   // A negative hold would add stock
+        while (true) {
+            int available = c.available.get();
+            if (qty > available) {
+                return false;
+            }
+            if (c.available.compareAndSet(available, available - qty)) {
+                c.held.addAndGet(qty);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Waits up to a time limit for enough stock to be added or released.
+     */
+    private boolean awaitStock(FoodItem item, Counters c, int qty, long nanos) {
+        waits.increment();
+        long start = System.nanoTime();
+        c.waiting.incrementAndGet();
+        ShortageListener listener = shortageListener;
+        if (listener != null) {
+            listener.onShortage(item, qty);
+        }
+        c.lock.lock();
+        try {
+            while (!reserveNow(c, qty)) {
+                if (nanos <= 0) {
+                    waitTimeouts.increment();
+                    return false;
+                }
+                nanos = c.stockAdded.awaitNanos(nanos);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            c.lock.unlock();
+            c.waiting.decrementAndGet();
+            waitNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Wakes orders waiting for an item after stock was added or released.
+     */
+    private static void signalStock(Counters c) {
+        if (c.waiting.get() > 0) {
+            c.lock.lock();
+            try {
+                c.stockAdded.signalAll();
+            } finally {
+                c.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Marks held stock as sold. The item's own stock is reduced by the sale
+     * itself, so only the held count changes here.
+     *
+     * @param item the item that was sold
+     * @param qty  the quantity that had been held
+     */
+    public void commit(FoodItem item, int qty) {
+        countersFor(item).held.addAndGet(-qty);
+    }
+
+    /**
+     * Marks stock as sold that was not held, such as the muffins of an
+     * order whose lease expired just before it was finalized. Available
+     * stock may go below zero until the next restock, so it keeps
+     * matching the item's stock minus everything held.
+     *
+     * @param item the item that was sold
+     * @param qty  the quantity sold
+     */
+    public void sellUnheld(FoodItem item, int qty) {
+        countersFor(item).available.addAndGet(-qty);
+    }
+
+    /**
+     * Returns held stock to the pool after an order is cancelled.
+     *
+     * @param item the item that was held
+     * @param qty  the quantity to give back
+     */
+    public void release(FoodItem item, int qty) {
+        Counters c = countersFor(item);
+        c.held.addAndGet(-qty);
+        c.available.addAndGet(qty);
+        signalStock(c);
+    }
+
+    /**
+     * Adds freshly made stock to an item and makes it available for reservation.
+     *
+     * @param item the item being restocked
+     * @param qty  the quantity added
+     */
+    public void restock(FoodItem item, int qty) {
+        Counters c = countersFor(item);
+        item.addStock(qty);
+        c.available.addAndGet(qty);
+        signalStock(c);
+    }
+
+    /**
+     * Returns how much of an item can still be reserved.
+     *
+     * @param item the stock-limited item
+     * @return stock not held by any open order
+     */
+    public int available(FoodItem item) {
+        return countersFor(item).available.get();
+    }
+
+    /**
+     * Returns how much of an item is currently held by open orders.
+     *
+     * @param item the stock-limited item
+     * @return held quantity
+     */
+    public int held(FoodItem item) {
+        return countersFor(item).held.get();
+    }
+
+    // ----- Backpressure -----
+
+    /**
+     * Sets how long an order waits for stock before it is refused.
+     *
+     * @param timeout the longest wait; zero refuses at once
+     * @param unit    the unit of timeout
+     */
+    public void setMaxWait(long timeout, TimeUnit unit) {
+        maxWaitNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sets the listener told when an order starts waiting for stock.
+     *
+     * @param listener the listener, or null for none
+     */
+    public void setShortageListener(ShortageListener listener) {
+        shortageListener = listener;
+    }
+
+    /**
+     * Returns how many orders currently wait for an item.
+     *
+     * @param item the stock-limited item
+     * @return waiting orders
+     */
+    public int waiting(FoodItem item) {
+        return countersFor(item).waiting.get();
+    }
+
+    /**
+     * Returns how many reservations were refused for lack of stock,
+     * after any wait.
+     *
+     * @return refused reservations
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    public long getWaits() {
+        return waits.sum();
+    }
+
+    public long getWaitTimeouts() {
+        return waitTimeouts.sum();
+    }
+
+    /**
+     * Returns the time all orders have spent waiting for stock.
+     *
+     * @return total wait in nanoseconds
+     */
+    public long getTotalWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    // ----- Lease expiry -----
+
+    /**
+     * Sets the wheel that expires abandoned holds. Leases already on an
+     * earlier wheel stay there until they are next renewed.
+     *
+     * @param wheel the running wheel, or null for holds that never expire
+     */
+    public void setLeaseWheel(LeaseWheel wheel) {
+        leaseWheel = wheel;
+    }
+
+    public LeaseWheel getLeaseWheel() {
+        return leaseWheel;
+    }
+
+    private Counters countersFor(FoodItem item) {
+        Counters c = counters.get(item);
+        if (c == null) {
+            c = counters.computeIfAbsent(item, i -> new Counters(i.getStock()));
+        }
+        return c;
+    }
+}
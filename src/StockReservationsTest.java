@@ -0,0 +1,131 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for the StockReservations class.
+ *
+ * These tests validate:
+ * - Muffins held by one open order cannot be taken by another
+ * - Cancelled orders give their muffins back
+ * - Concurrent orders never drive stock negative
+ * - Zero or negative quantities are refused without touching stock
+ */
+public class StockReservationsTest {
+    private FoodItem muffin;                  // Stock-limited item
+    private FoodItem coffee;                  // Unlimited item
+    private Combo coffeeMuffinCombo;          // Coffee + Muffin combo
+    private StockReservations reservations;   // Service under test
+
+    @Before
+    public void setUp() {
+        muffin = new ConcurrentFoodItem("Muffin", 2.00, 5);
+        coffee = new ConcurrentFoodItem("Coffee", 2.50, 0);
+        coffeeMuffinCombo = new Combo("Coffee + Muffin", coffee, muffin, 1.0);
+        reservations = new StockReservations();
+    }
+
+    /**
+     * Two orders open at the same time share 5 muffins.
+     * First holds 3 muffins, second can only get the remaining 2.
+     */
+    @Test
+    public void heldMuffinsAreNotAvailableToOtherOrders() {
+        Order first = new Order(reservations);
+        Order second = new Order(reservations);
+
+        assertTrue(first.addItem(muffin, 3));
+        assertFalse(second.addCombo(coffeeMuffinCombo, 3));
+        assertTrue(second.addCombo(coffeeMuffinCombo, 2));
+        assertEquals(0, reservations.available(muffin));
+    }
+
+    /**
+     * A cancelled order releases its muffins; a finalized order sells them.
+     */
+    @Test
+    public void cancelReleasesAndFinalizeCommits() {
+        Order cancelled = new Order(reservations);
+        assertTrue(cancelled.addItem(muffin, 4));
+        cancelled.cancel();
+        assertEquals(5, reservations.available(muffin));
+
+        Order paid = new Order(reservations);
+        assertTrue(paid.addItem(muffin, 4));
+        paid.finalizeOrder();
+        assertEquals(1, muffin.getStock());
+        assertEquals(1, reservations.available(muffin));
+        assertEquals(0, reservations.held(muffin));
+    }
+
+    /**
+     * Adding -3 muffins or 0 combos is refused; it must not hand 3 extra
+     * muffins to the other orders.
+     */
+    @Test
+    public void nonPositiveQuantitiesAreRefused() {
+        Order order = new Order(reservations);
+        try {
+            order.addItem(muffin, -3);
+            fail("Added a negative quantity");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(5, reservations.available(muffin));
+        }
+        try {
+            order.addCombo(coffeeMuffinCombo, 0);
+            fail("Added a zero quantity");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(5, reservations.available(muffin));
+        }
+        assertEquals(0, order.getItemLineCount());
+        assertEquals(0, order.calculateTotalCents());
+    }
+
+    /**
+     * Restocking makes the new muffins available for reservation.
+     */
+    @Test
+    public void restockAddsAvailableStock() {
+        reservations.restock(muffin, 25);
+        assertEquals(30, muffin.getStock());
+        assertEquals(30, reservations.available(muffin));
+    }
+
+    /**
+     * 200 orders race for 50 muffins, one muffin each.
+     * Exactly 50 succeed and stock ends at zero, never below.
+     */
+    @Test
+    public void concurrentOrdersNeverOversell() throws InterruptedException {
+        FoodItem limited = new ConcurrentFoodItem("Muffin", 2.00, 50);
+        AtomicInteger succeeded = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] tills = new Thread[200];
+
+        for (int i = 0; i < tills.length; i++) {
+            tills[i] = new Thread(() -> {
+                Order order = new Order(reservations);
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (order.addItem(limited, 1)) {
+                    order.finalizeOrder();
+                    succeeded.incrementAndGet();
+                }
+            });
+            tills[i].start();
+        }
+        start.countDown();
+        for (Thread till : tills) {
+            till.join();
+        }
+
+        assertEquals(50, succeeded.get());
+        assertEquals(0, limited.getStock());
+    }
+}